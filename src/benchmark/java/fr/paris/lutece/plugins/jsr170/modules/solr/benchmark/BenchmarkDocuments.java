@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.benchmark;
+
+import fr.paris.lutece.plugins.jcr.service.jcrsearch.JcrSearchItem;
+import fr.paris.lutece.portal.service.search.SearchItem;
+
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+
+import java.io.StringReader;
+
+import java.util.Date;
+
+
+/**
+ * Builds lucene documents similar to those of the JCR indexer
+ */
+public final class BenchmarkDocuments
+{
+    /** Names of the fields handled by the converter, the contents field first */
+    public static final String[] FIELD_NAMES = 
+        {
+            SearchItem.FIELD_CONTENTS, SearchItem.FIELD_UID, SearchItem.FIELD_TITLE, SearchItem.FIELD_URL,
+            SearchItem.FIELD_DATE, SearchItem.FIELD_TYPE, SearchItem.FIELD_ROLE, SearchItem.FIELD_SUMMARY,
+            SearchItem.FIELD_METADATA, SearchItem.FIELD_DOCUMENT_PORTLET_ID, JcrSearchItem.FIELD_MIME_TYPE
+        };
+    private static final String DATE = DateTools.dateToString( new Date(  ), DateTools.Resolution.DAY );
+    private static final String WORD = "lorem ";
+
+    /**
+     * Private constructor
+     */
+    private BenchmarkDocuments(  )
+    {
+    }
+
+    /**
+     * Builds a text
+     * @param nSize the number of characters
+     * @return the text
+     */
+    public static String buildContent( int nSize )
+    {
+        StringBuilder sbContent = new StringBuilder( nSize + WORD.length(  ) );
+
+        while ( sbContent.length(  ) < nSize )
+        {
+            sbContent.append( WORD );
+        }
+
+        sbContent.setLength( nSize );
+
+        return sbContent.toString(  );
+    }
+
+    /**
+     * Builds a document. The contents field is given as a reader, so a document can only be converted once.
+     * @param strId the id of the node
+     * @param nFieldCount the number of fields, taken in {@link #FIELD_NAMES} order
+     * @param strContent the content
+     * @return the document
+     */
+    public static Document buildDocument( String strId, int nFieldCount, String strContent )
+    {
+        Document document = new Document(  );
+
+        for ( int i = 0; ( i < nFieldCount ) && ( i < FIELD_NAMES.length ); i++ )
+        {
+            String strName = FIELD_NAMES[i];
+
+            if ( SearchItem.FIELD_CONTENTS.equals( strName ) )
+            {
+                document.add( new Field( strName, new StringReader( strContent ) ) );
+            }
+            else if ( SearchItem.FIELD_DATE.equals( strName ) )
+            {
+                document.add( new Field( strName, DATE, Field.Store.YES, Field.Index.NOT_ANALYZED ) );
+            }
+            else if ( SearchItem.FIELD_UID.equals( strName ) )
+            {
+                document.add( new Field( strName, strId + "_jsr", Field.Store.YES, Field.Index.NOT_ANALYZED ) );
+            }
+            else
+            {
+                document.add( new Field( strName, strName + " " + strId, Field.Store.YES, Field.Index.ANALYZED ) );
+            }
+        }
+
+        return document;
+    }
+}
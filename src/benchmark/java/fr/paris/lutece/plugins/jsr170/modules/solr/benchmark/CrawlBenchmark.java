@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.benchmark;
+
+import fr.paris.lutece.plugins.jcr.business.IRepositoryFile;
+import fr.paris.lutece.plugins.jcr.business.IRepositoryFileDAO;
+import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
+import fr.paris.lutece.plugins.jsr170.modules.solr.business.SolrRepositoryFileHome;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.CrawlExecutor;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.IndexerMetrics;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.IndexingContext;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.IndexingPipeline;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.PipelineStage;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrIndexerNodeAction;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrItemBatchWriter;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrItemConverter;
+
+import org.apache.lucene.document.Document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Crawl of an in-memory JCR tree through {@link SolrRepositoryFileHome}, from the
+ * walk to the batch writer, with a sink which only counts the received items.
+ * The JCR DAO and files are replaced by proxies, the node action builds small documents.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class CrawlBenchmark
+{
+    private static final String SHAPE_DEEP = "deep";
+    private static final String ROOT_PATH = "/";
+    private static final String PATH_SEPARATOR = "/";
+    private static final String CONTENT = BenchmarkDocuments.buildContent( 1024 );
+    @Param( { SHAPE_DEEP, "wide" } )
+    public String shape;
+    private final Map<String, List<IRepositoryFile>> _mapChildren = new HashMap<String, List<IRepositoryFile>>(  );
+    private IRepositoryFile _root;
+    private BenchmarkRepositoryFileHome _home;
+    private AdminWorkspace _workspace;
+
+    /**
+     * Builds the tree
+     */
+    @Setup
+    public void setUp(  )
+    {
+        _mapChildren.clear(  );
+
+        if ( SHAPE_DEEP.equals( shape ) )
+        {
+            buildTree( ROOT_PATH, 0, 8, 3 );
+        }
+        else
+        {
+            buildTree( ROOT_PATH, 0, 2, 100 );
+        }
+
+        _root = newFile( ROOT_PATH, true );
+        _home = new BenchmarkRepositoryFileHome( newDAO(  ) );
+        _workspace = new AdminWorkspace(  )
+                {
+                    @Override
+                    public String getName(  )
+                    {
+                        return "benchmark";
+                    }
+
+                    @Override
+                    public String getJcrType(  )
+                    {
+                        return "benchmark";
+                    }
+                };
+    }
+
+    /**
+     * Crawls the tree with one crawl thread and inline conversion and submission
+     * @return the number of items received by the sink
+     * @throws InterruptedException if interrupted while waiting for the stages
+     */
+    @Benchmark
+    public long crawl(  ) throws InterruptedException
+    {
+        IndexerMetrics metrics = new IndexerMetrics(  );
+        RecordingSolrItemWriter writer = new RecordingSolrItemWriter(  );
+        SolrItemBatchWriter batchWriter = new SolrItemBatchWriter( writer,
+                new PipelineStage( "submission", 0, 0, metrics ), 500, 10485760L, 0L, metrics );
+        IndexingPipeline pipeline = new IndexingPipeline( new SolrItemConverter( "benchmark", 0 ),
+                new PipelineStage( "conversion", 0, 0, metrics ) );
+        CrawlExecutor crawlExecutor = new CrawlExecutor( 1, metrics );
+        IndexingContext context = new IndexingContext( batchWriter, crawlExecutor, pipeline, metrics );
+
+        _home.crawl( _workspace, _root, new BenchmarkNodeAction( _workspace, context ) );
+        crawlExecutor.awaitCompletion(  );
+        pipeline.awaitTermination(  );
+        batchWriter.close(  );
+
+        return writer.getItemCount(  );
+    }
+
+    /**
+     * Builds the children of a directory
+     * @param strPath the path of the directory
+     * @param nDepth the depth of the directory
+     * @param nMaxDepth the depth of the leaves
+     * @param nWidth the number of children of each directory
+     */
+    private void buildTree( String strPath, int nDepth, int nMaxDepth, int nWidth )
+    {
+        List<IRepositoryFile> listChildren = new ArrayList<IRepositoryFile>( nWidth );
+        boolean bDirectory = ( nDepth + 1 ) < nMaxDepth;
+
+        for ( int i = 0; i < nWidth; i++ )
+        {
+            String strChildPath = ( ROOT_PATH.equals( strPath ) ? "" : strPath ) + PATH_SEPARATOR + i;
+            listChildren.add( newFile( strChildPath, bDirectory ) );
+
+            if ( bDirectory )
+            {
+                buildTree( strChildPath, nDepth + 1, nMaxDepth, nWidth );
+            }
+        }
+
+        _mapChildren.put( strPath, listChildren );
+    }
+
+    /**
+     * Creates a file of the in-memory tree
+     * @param strPath the path
+     * @param bDirectory true for a directory
+     * @return the file
+     */
+    private static IRepositoryFile newFile( final String strPath, final boolean bDirectory )
+    {
+        return (IRepositoryFile) Proxy.newProxyInstance( IRepositoryFile.class.getClassLoader(  ),
+            new Class<?>[] { IRepositoryFile.class },
+            new InvocationHandler(  )
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    if ( "isDirectory".equals( method.getName(  ) ) )
+                    {
+                        return bDirectory;
+                    }
+
+                    if ( "getAbsolutePath".equals( method.getName(  ) ) || "toString".equals( method.getName(  ) ) )
+                    {
+                        return strPath;
+                    }
+
+                    if ( "hashCode".equals( method.getName(  ) ) )
+                    {
+                        return strPath.hashCode(  );
+                    }
+
+                    if ( "equals".equals( method.getName(  ) ) )
+                    {
+                        return proxy == args[0];
+                    }
+
+                    return null;
+                }
+            } );
+    }
+
+    /**
+     * Creates a DAO listing the in-memory tree
+     * @return the DAO
+     */
+    private IRepositoryFileDAO newDAO(  )
+    {
+        return (IRepositoryFileDAO) Proxy.newProxyInstance( IRepositoryFileDAO.class.getClassLoader(  ),
+            new Class<?>[] { IRepositoryFileDAO.class },
+            new InvocationHandler(  )
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    if ( "listFiles".equals( method.getName(  ) ) )
+                    {
+                        List<IRepositoryFile> listChildren = _mapChildren.get( args[1] );
+
+                        return ( listChildren != null ) ? listChildren : Collections.<IRepositoryFile>emptyList(  );
+                    }
+
+                    return null;
+                }
+            } );
+    }
+
+    /**
+     * {@link SolrRepositoryFileHome} reading the in-memory tree
+     */
+    private static class BenchmarkRepositoryFileHome extends SolrRepositoryFileHome
+    {
+        private final IRepositoryFileDAO _dao;
+
+        /**
+         * Constructor
+         * @param dao the DAO of the in-memory tree
+         */
+        BenchmarkRepositoryFileHome( IRepositoryFileDAO dao )
+        {
+            _dao = dao;
+        }
+
+        /**
+         * Crawls a tree
+         * @param adminWorkspace the workspace
+         * @param root the root of the tree
+         * @param action the action
+         */
+        void crawl( AdminWorkspace adminWorkspace, IRepositoryFile root, SolrIndexerNodeAction action )
+        {
+            doRecursive( adminWorkspace, root, action );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected IRepositoryFileDAO getRepositoryFileDAO( AdminWorkspace adminWorkspace )
+        {
+            return _dao;
+        }
+    }
+
+    /**
+     * Node action building a small document for each node instead of reading the JCR
+     */
+    private static class BenchmarkNodeAction extends SolrIndexerNodeAction
+    {
+        private final AdminWorkspace _adminWorkspace;
+        private final IndexingContext _context;
+
+        /**
+         * Constructor
+         * @param adminWorkspace the workspace
+         * @param context the context of the indexation
+         */
+        BenchmarkNodeAction( AdminWorkspace adminWorkspace, IndexingContext context )
+        {
+            super( null, "benchmark", adminWorkspace, null, context, null, null );
+            _adminWorkspace = adminWorkspace;
+            _context = context;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Document doAction( IRepositoryFile file )
+        {
+            return BenchmarkDocuments.buildDocument( file.getAbsolutePath(  ),
+                BenchmarkDocuments.FIELD_NAMES.length, CONTENT );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public SolrIndexerNodeAction fork(  )
+        {
+            return new BenchmarkNodeAction( _adminWorkspace, _context );
+        }
+    }
+}
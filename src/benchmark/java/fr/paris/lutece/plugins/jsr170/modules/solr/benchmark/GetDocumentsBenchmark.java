@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.benchmark;
+
+import fr.paris.lutece.plugins.jcr.service.search.JcrIndexer;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.DocumentCache;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrItemConverter;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrJcrIndexer;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import org.apache.lucene.document.Document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * {@link SolrJcrIndexer#getDocuments(String)} with a JCR indexer returning in-memory documents
+ * and without document cache, so that only the conversion work of the Solr indexer is measured
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class GetDocumentsBenchmark
+{
+    @Param( { "1", "10" } )
+    public int documentCount;
+    @Param( { "1024", "65536" } )
+    public int contentSize;
+    private SolrJcrIndexer _indexer;
+
+    /**
+     * Builds the indexer
+     */
+    @Setup
+    public void setUp(  )
+    {
+        _indexer = new SolrJcrIndexer( new InMemoryJcrIndexer( documentCount,
+                    BenchmarkDocuments.buildContent( contentSize ) ), new SolrItemConverter( "benchmark", 0 ),
+                new DocumentCache( 0, 0L ) );
+    }
+
+    /**
+     * Gets the documents of a node
+     * @return the items
+     */
+    @Benchmark
+    public List<SolrItem> getDocuments(  )
+    {
+        return _indexer.getDocuments( "node" );
+    }
+
+    /**
+     * {@link JcrIndexer} building new documents on each call, as their content can only be read once
+     */
+    private static class InMemoryJcrIndexer extends JcrIndexer
+    {
+        private final int _nDocumentCount;
+        private final String _strContent;
+
+        /**
+         * Constructor
+         * @param nDocumentCount the number of documents returned by each call
+         * @param strContent the content of the documents
+         */
+        InMemoryJcrIndexer( int nDocumentCount, String strContent )
+        {
+            _nDocumentCount = nDocumentCount;
+            _strContent = strContent;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<Document> getDocuments( String strIdDocument )
+        {
+            List<Document> listDocuments = new ArrayList<Document>( _nDocumentCount );
+
+            for ( int i = 0; i < _nDocumentCount; i++ )
+            {
+                listDocuments.add( BenchmarkDocuments.buildDocument( strIdDocument + i,
+                        BenchmarkDocuments.FIELD_NAMES.length, _strContent ) );
+            }
+
+            return listDocuments;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.benchmark;
+
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.ISolrItemWriter;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * {@link ISolrItemWriter} which only counts what it receives
+ */
+public class RecordingSolrItemWriter implements ISolrItemWriter
+{
+    private final AtomicLong _lItems = new AtomicLong(  );
+    private final AtomicLong _lContentSize = new AtomicLong(  );
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write( Collection<SolrItem> items )
+    {
+        for ( SolrItem item : items )
+        {
+            _lItems.incrementAndGet(  );
+            _lContentSize.addAndGet( ( item.getContent(  ) != null ) ? item.getContent(  ).length(  ) : 0 );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void delete( List<String> listUids )
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long count( String strQuery )
+    {
+        return _lItems.get(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<String> listUids( String strQuery, String strAfterUid, int nRows )
+    {
+        return new ArrayList<String>(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void commit(  )
+    {
+    }
+
+    /**
+     * Returns the number of received items
+     * @return the number of items
+     */
+    public long getItemCount(  )
+    {
+        return _lItems.get(  );
+    }
+
+    /**
+     * Returns the size of the received contents
+     * @return the number of characters
+     */
+    public long getContentSize(  )
+    {
+        return _lContentSize.get(  );
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.benchmark;
+
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrItemConverter;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Conversion of a lucene document into a {@link SolrItem}, as done by
+ * SolrJcrIndexer.luceneDocument2SolrItem, for several field counts and content sizes.
+ * The document is built in the benchmark method because its content reader can only be read once.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class SolrItemConverterBenchmark
+{
+    @Param( { "3", "6", "11" } )
+    public int fieldCount;
+    @Param( { "1024", "65536", "1048576" } )
+    public int contentSize;
+    private SolrItemConverter _converter;
+    private String _strContent;
+
+    /**
+     * Builds the converter and the content
+     */
+    @Setup
+    public void setUp(  )
+    {
+        _converter = new SolrItemConverter( "benchmark", 0 );
+        _strContent = BenchmarkDocuments.buildContent( contentSize );
+    }
+
+    /**
+     * Converts a document
+     * @return the converted item
+     */
+    @Benchmark
+    public SolrItem convert(  )
+    {
+        return _converter.convert( BenchmarkDocuments.buildDocument( "node", fieldCount, _strContent ) );
+    }
+
+    /**
+     * Builds a document without converting it, to subtract from {@link #convert()}
+     * @return the document
+     */
+    @Benchmark
+    public Object buildOnly(  )
+    {
+        return BenchmarkDocuments.buildDocument( "node", fieldCount, _strContent );
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+import java.sql.Timestamp;
+
+
+/**
+ * IShardLeaseDAO Interface
+ */
+public interface IShardLeaseDAO
+{
+    /**
+     * Insert a new record in the table.
+     * @param shardLease instance of the ShardLease object to insert
+     * @param plugin the plugin whose pool is used, or null for the pool of the portal
+     */
+    void insert( ShardLease shardLease, Plugin plugin );
+
+    /**
+     * Load the data from the table
+     * @param nIdShard The identifier of the shard
+     * @param plugin the plugin whose pool is used, or null for the pool of the portal
+     * @return The instance of the shardLease
+     */
+    ShardLease load( int nIdShard, Plugin plugin );
+
+    /**
+     * Gives the lease of a shard to a node if the shard is free, or if its lease has expired,
+     * and if the shard was not indexed since a date. The lease is given by a single update,
+     * so only one node can get it.
+     * @param nIdShard The identifier of the shard
+     * @param strNodeName the name of the node
+     * @param leaseExpiration the expiration of the lease
+     * @param now the current date
+     * @param dateLastEnd the date since which an indexed shard is not indexed again
+     * @param plugin the plugin whose pool is used, or null for the pool of the portal
+     */
+    void acquire( int nIdShard, String strNodeName, Timestamp leaseExpiration, Timestamp now, Timestamp dateLastEnd,
+        Plugin plugin );
+
+    /**
+     * Extends the lease of a shard held by a node
+     * @param nIdShard The identifier of the shard
+     * @param strNodeName the name of the node
+     * @param leaseExpiration the new expiration of the lease
+     * @param plugin the plugin whose pool is used, or null for the pool of the portal
+     */
+    void renew( int nIdShard, String strNodeName, Timestamp leaseExpiration, Plugin plugin );
+
+    /**
+     * Frees a shard held by a node
+     * @param nIdShard The identifier of the shard
+     * @param strNodeName the name of the node
+     * @param dateEnd the end of the indexation of the shard, or null if it failed
+     * @param plugin the plugin whose pool is used, or null for the pool of the portal
+     */
+    void release( int nIdShard, String strNodeName, Timestamp dateEnd, Plugin plugin );
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.business;
+
+import java.sql.Timestamp;
+
+
+/**
+ * Lease of a shard of the repository, shared by the Lutece nodes indexing it
+ */
+public class ShardLease
+{
+    private int _nIdShard;
+    private String _strNodeName;
+    private Timestamp _leaseExpiration;
+    private Timestamp _dateEnd;
+
+    /**
+     * Returns the shard id
+     * @return the shard id
+     */
+    public int getIdShard(  )
+    {
+        return _nIdShard;
+    }
+
+    /**
+     * Sets the shard id
+     * @param nIdShard the shard id
+     */
+    public void setIdShard( int nIdShard )
+    {
+        _nIdShard = nIdShard;
+    }
+
+    /**
+     * Returns the name of the node holding the lease
+     * @return the node name, or null if the shard is free
+     */
+    public String getNodeName(  )
+    {
+        return _strNodeName;
+    }
+
+    /**
+     * Sets the name of the node holding the lease
+     * @param strNodeName the node name
+     */
+    public void setNodeName( String strNodeName )
+    {
+        _strNodeName = strNodeName;
+    }
+
+    /**
+     * Returns the expiration of the lease
+     * @return the expiration, or null if the shard is free
+     */
+    public Timestamp getLeaseExpiration(  )
+    {
+        return _leaseExpiration;
+    }
+
+    /**
+     * Sets the expiration of the lease
+     * @param leaseExpiration the expiration
+     */
+    public void setLeaseExpiration( Timestamp leaseExpiration )
+    {
+        _leaseExpiration = leaseExpiration;
+    }
+
+    /**
+     * Returns the end of the last successful indexation of the shard
+     * @return the end date, or null if the shard was never indexed
+     */
+    public Timestamp getDateEnd(  )
+    {
+        return _dateEnd;
+    }
+
+    /**
+     * Sets the end of the last successful indexation of the shard
+     * @param dateEnd the end date
+     */
+    public void setDateEnd( Timestamp dateEnd )
+    {
+        _dateEnd = dateEnd;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+import java.sql.Timestamp;
+
+
+/**
+ * This class provides Data Access methods for ShardLease objects
+ */
+public final class ShardLeaseDAO implements IShardLeaseDAO
+{
+    // Constants
+    private static final String SQL_QUERY_SELECT = "SELECT id_shard, node_name, lease_expiration, date_end FROM jsr170_solr_shard_lease WHERE id_shard = ?";
+    private static final String SQL_QUERY_INSERT = "INSERT INTO jsr170_solr_shard_lease ( id_shard, node_name, lease_expiration, date_end ) VALUES ( ?, ?, ?, ? ) ";
+    private static final String SQL_QUERY_ACQUIRE = "UPDATE jsr170_solr_shard_lease SET node_name = ?, lease_expiration = ? WHERE id_shard = ? AND ( lease_expiration IS NULL OR lease_expiration < ? ) AND ( date_end IS NULL OR date_end < ? )";
+    private static final String SQL_QUERY_RENEW = "UPDATE jsr170_solr_shard_lease SET lease_expiration = ? WHERE id_shard = ? AND node_name = ?";
+    private static final String SQL_QUERY_RELEASE = "UPDATE jsr170_solr_shard_lease SET node_name = NULL, lease_expiration = NULL WHERE id_shard = ? AND node_name = ?";
+    private static final String SQL_QUERY_RELEASE_INDEXED = "UPDATE jsr170_solr_shard_lease SET node_name = NULL, lease_expiration = NULL, date_end = ? WHERE id_shard = ? AND node_name = ?";
+
+    /**
+     * {@inheritDoc}
+     */
+    public void insert( ShardLease shardLease, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT, plugin );
+
+        daoUtil.setInt( 1, shardLease.getIdShard(  ) );
+        daoUtil.setString( 2, shardLease.getNodeName(  ) );
+        daoUtil.setTimestamp( 3, shardLease.getLeaseExpiration(  ) );
+        daoUtil.setTimestamp( 4, shardLease.getDateEnd(  ) );
+
+        daoUtil.executeUpdate(  );
+        daoUtil.free(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ShardLease load( int nIdShard, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT, plugin );
+        daoUtil.setInt( 1, nIdShard );
+        daoUtil.executeQuery(  );
+
+        ShardLease shardLease = null;
+
+        if ( daoUtil.next(  ) )
+        {
+            shardLease = new ShardLease(  );
+            shardLease.setIdShard( daoUtil.getInt( 1 ) );
+            shardLease.setNodeName( daoUtil.getString( 2 ) );
+            shardLease.setLeaseExpiration( daoUtil.getTimestamp( 3 ) );
+            shardLease.setDateEnd( daoUtil.getTimestamp( 4 ) );
+        }
+
+        daoUtil.free(  );
+
+        return shardLease;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void acquire( int nIdShard, String strNodeName, Timestamp leaseExpiration, Timestamp now,
+        Timestamp dateLastEnd, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_ACQUIRE, plugin );
+
+        daoUtil.setString( 1, strNodeName );
+        daoUtil.setTimestamp( 2, leaseExpiration );
+        daoUtil.setInt( 3, nIdShard );
+        daoUtil.setTimestamp( 4, now );
+        daoUtil.setTimestamp( 5, dateLastEnd );
+
+        daoUtil.executeUpdate(  );
+        daoUtil.free(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void renew( int nIdShard, String strNodeName, Timestamp leaseExpiration, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_RENEW, plugin );
+
+        daoUtil.setTimestamp( 1, leaseExpiration );
+        daoUtil.setInt( 2, nIdShard );
+        daoUtil.setString( 3, strNodeName );
+
+        daoUtil.executeUpdate(  );
+        daoUtil.free(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void release( int nIdShard, String strNodeName, Timestamp dateEnd, Plugin plugin )
+    {
+        DAOUtil daoUtil;
+        int nIndex = 1;
+
+        if ( dateEnd != null )
+        {
+            daoUtil = new DAOUtil( SQL_QUERY_RELEASE_INDEXED, plugin );
+            daoUtil.setTimestamp( nIndex++, dateEnd );
+        }
+        else
+        {
+            daoUtil = new DAOUtil( SQL_QUERY_RELEASE, plugin );
+        }
+
+        daoUtil.setInt( nIndex++, nIdShard );
+        daoUtil.setString( nIndex, strNodeName );
+
+        daoUtil.executeUpdate(  );
+        daoUtil.free(  );
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.business;
+
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+import java.sql.Timestamp;
+
+
+/**
+ * This class provides instances management methods for ShardLease objects.
+ * The dates of the leases are set by the nodes, whose clocks must be synchronized.
+ * The module has no pool of its own : the DAO is called without plugin, so the leases are
+ * stored in the database of the portal. The DAO is only looked up when a sharded indexation uses it.
+ */
+public final class ShardLeaseHome
+{
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private ShardLeaseHome(  )
+    {
+    }
+
+    /**
+     * Create an instance of the shardLease class
+     * @param shardLease The instance of the ShardLease which contains the informations to store
+     * @return The instance of shardLease which has been created
+     */
+    public static ShardLease create( ShardLease shardLease )
+    {
+        getDAO(  ).insert( shardLease, null );
+
+        return shardLease;
+    }
+
+    /**
+     * Returns an instance of a shardLease whose identifier is specified in parameter
+     * @param nIdShard The shard primary key
+     * @return an instance of ShardLease
+     */
+    public static ShardLease findByPrimaryKey( int nIdShard )
+    {
+        return getDAO(  ).load( nIdShard, null );
+    }
+
+    /**
+     * Gives the lease of a shard to a node if the shard is free, or if its lease has expired,
+     * and if the shard was not indexed recently
+     * @param nIdShard The shard primary key
+     * @param strNodeName the name of the node
+     * @param lLeaseDuration the duration of the lease in milliseconds
+     * @param lMinInterval the minimum delay between two indexations of the shard in milliseconds
+     * @return true if the node got the lease
+     */
+    public static boolean acquire( int nIdShard, String strNodeName, long lLeaseDuration, long lMinInterval )
+    {
+        long lNow = System.currentTimeMillis(  );
+        Timestamp leaseExpiration = getLeaseExpiration( lNow + lLeaseDuration );
+
+        getDAO(  ).acquire( nIdShard, strNodeName, leaseExpiration, new Timestamp( lNow ),
+            new Timestamp( lNow - lMinInterval ), null );
+
+        return isHeldBy( nIdShard, strNodeName, leaseExpiration );
+    }
+
+    /**
+     * Extends the lease of a shard held by a node
+     * @param nIdShard The shard primary key
+     * @param strNodeName the name of the node
+     * @param lLeaseDuration the duration of the lease in milliseconds
+     * @return true if the node still holds the lease
+     */
+    public static boolean renew( int nIdShard, String strNodeName, long lLeaseDuration )
+    {
+        Timestamp leaseExpiration = getLeaseExpiration( System.currentTimeMillis(  ) + lLeaseDuration );
+
+        getDAO(  ).renew( nIdShard, strNodeName, leaseExpiration, null );
+
+        return isHeldBy( nIdShard, strNodeName, leaseExpiration );
+    }
+
+    /**
+     * Frees a shard held by a node
+     * @param nIdShard The shard primary key
+     * @param strNodeName the name of the node
+     * @param bIndexed true if the shard was indexed successfully, false to let another node index it
+     */
+    public static void release( int nIdShard, String strNodeName, boolean bIndexed )
+    {
+        getDAO(  ).release( nIdShard, strNodeName, bIndexed ? new Timestamp( System.currentTimeMillis(  ) ) : null, null );
+    }
+
+    /**
+     * Tells whether a node holds the lease it has just written. The leases are updated
+     * conditionally, so a node whose update was rejected reads the lease of another node.
+     * @param nIdShard The shard primary key
+     * @param strNodeName the name of the node
+     * @param leaseExpiration the expiration written by the node
+     * @return true if the node holds the lease
+     */
+    private static boolean isHeldBy( int nIdShard, String strNodeName, Timestamp leaseExpiration )
+    {
+        ShardLease shardLease = getDAO(  ).load( nIdShard, null );
+
+        return ( shardLease != null ) && strNodeName.equals( shardLease.getNodeName(  ) ) &&
+        ( shardLease.getLeaseExpiration(  ) != null ) &&
+        ( shardLease.getLeaseExpiration(  ).getTime(  ) == leaseExpiration.getTime(  ) );
+    }
+
+    /**
+     * Returns the DAO, looked up on first use
+     * @return the DAO
+     */
+    private static IShardLeaseDAO getDAO(  )
+    {
+        return DAOHolder.DAO;
+    }
+
+    /**
+     * Returns the expiration of a lease, in whole seconds so it is stored without rounding by the databases
+     * @param lExpiration the expiration in milliseconds
+     * @return the expiration
+     */
+    private static Timestamp getLeaseExpiration( long lExpiration )
+    {
+        return new Timestamp( ( lExpiration / 1000 ) * 1000 );
+    }
+
+    /**
+     * Holder of the DAO, initialized on first access
+     */
+    private static final class DAOHolder
+    {
+        private static final IShardLeaseDAO DAO = (IShardLeaseDAO) SpringContextService.getBean( 
+                "jsr170-solr.shardLeaseDAO" );
+
+        /**
+         * Private constructor
+         */
+        private DAOHolder(  )
+        {
+        }
+    }
+}
\ No newline at end of file
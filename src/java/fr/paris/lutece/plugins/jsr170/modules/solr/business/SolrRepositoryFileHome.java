@@ -1,149 +1,448 @@
-/*
- * Copyright (c) 2002-2014, Mairie de Paris
- * All rights reserved.
- *
- * Redistribution and use in source and binary forms, with or without
- * modification, are permitted provided that the following conditions
- * are met:
- *
- *  1. Redistributions of source code must retain the above copyright notice
- *     and the following disclaimer.
- *
- *  2. Redistributions in binary form must reproduce the above copyright notice
- *     and the following disclaimer in the documentation and/or other materials
- *     provided with the distribution.
- *
- *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
- *     contributors may be used to endorse or promote products derived from
- *     this software without specific prior written permission.
- *
- * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
- * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
- * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
- * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
- * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
- * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
- * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
- * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
- * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
- * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
- * POSSIBILITY OF SUCH DAMAGE.
- *
- * License 1.0
- */
-package fr.paris.lutece.plugins.jsr170.modules.solr.business;
-
-import fr.paris.lutece.plugins.jcr.business.INodeAction;
-import fr.paris.lutece.plugins.jcr.business.IRepositoryFile;
-import fr.paris.lutece.plugins.jcr.business.IRepositoryFileDAO;
-import fr.paris.lutece.plugins.jcr.business.RepositoryFileHome;
-import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
-import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrJcrIndexer;
-import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
-import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
-import fr.paris.lutece.portal.service.spring.SpringContextService;
-
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.CorruptIndexException;
-
-import java.io.IOException;
-
-import java.util.Collection;
-
-
-/**
- * Home class for JCR repository operations with Solr
- *
- */
-public class SolrRepositoryFileHome extends RepositoryFileHome
-{
-    private static SolrRepositoryFileHome _singletonSolr;
-    private SolrJcrIndexer _solrJcrIndexer = (SolrJcrIndexer) SpringContextService.getBean( 
-            "jsr170-solr.solrDocIndexer" );
-
-    /**
-     * Returns the instance of the singleton
-     * @return The instance of the singleton
-     */
-    public static SolrRepositoryFileHome getSolrInstance(  )
-    {
-        SolrRepositoryFileHome singleton = _singletonSolr;
-
-        if ( singleton == null )
-        {
-            singleton = new SolrRepositoryFileHome(  );
-            _singletonSolr = singleton;
-        }
-
-        return singleton;
-    }
-
-    /**
-    * @param <T> the type of result elements
-    * @param <L> the collection type
-    * @param adminWorkspace the workspace
-    * @param parentFile the file to star from
-    * @param action the action to perform on each node
-    * @return a new list of type <L>
-    */
-    @Override
-    protected void doRecursive( AdminWorkspace adminWorkspace, IRepositoryFile parentFile,
-        INodeAction<Document, Collection<Document>> action )
-    {
-        Document result = action.doAction( parentFile );
-
-        if ( result != null )
-        {
-            try
-            {
-                SolrItem solrItem = _solrJcrIndexer.luceneDocument2SolrItem( result );
-
-                if ( ( solrItem != null ) && ( solrItem.getContent(  ) != null ) )
-                {
-                    SolrIndexerService.write( solrItem );
-                }
-            }
-            catch ( CorruptIndexException e )
-            {
-                e.printStackTrace(  );
-            }
-            catch ( IOException e )
-            {
-                e.printStackTrace(  );
-            }
-        }
-
-        IRepositoryFileDAO dao = getIRepositoryFileDAO( adminWorkspace.getJcrType(  ) );
-
-        for ( IRepositoryFile file : dao.listFiles( adminWorkspace.getName(  ), parentFile.getAbsolutePath(  ) ) )
-        {
-            result = action.doAction( file );
-
-            if ( result != null )
-            {
-                try
-                {
-                    SolrItem solrItem = _solrJcrIndexer.luceneDocument2SolrItem( result );
-
-                    if ( ( solrItem != null ) && ( solrItem.getContent(  ) != null ) )
-                    {
-                        SolrIndexerService.write( solrItem );
-                    }
-                }
-                catch ( CorruptIndexException e )
-                {
-                    e.printStackTrace(  );
-                }
-                catch ( IOException e )
-                {
-                    e.printStackTrace(  );
-                }
-            }
-
-            if ( file.isDirectory(  ) )
-            {
-                doRecursive( adminWorkspace, file, action );
-            }
-        }
-    }
-}
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.business;
+
+import fr.paris.lutece.plugins.jcr.business.INodeAction;
+import fr.paris.lutece.plugins.jcr.business.IRepositoryFile;
+import fr.paris.lutece.plugins.jcr.business.IRepositoryFileDAO;
+import fr.paris.lutece.plugins.jcr.business.RepositoryFileHome;
+import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.CrawlProgress;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.CrawlUnit;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.IndexationHandle;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.IndexingContext;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrIndexerNodeAction;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrJcrIndexer;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.CorruptIndexException;
+
+import java.io.IOException;
+
+import java.util.Collection;
+import java.util.LinkedList;
+
+
+/**
+ * Home class for JCR repository operations with Solr
+ *
+ */
+public class SolrRepositoryFileHome extends RepositoryFileHome
+{
+    private static final String JCR_CRAWL_ERROR = "[SolrJcrIndexer] An error occured during the indexation of the directory ";
+    private static final String JCR_NODE_ERROR = "[SolrJcrIndexer] An error occured during the indexation of the node ";
+    private static final String BEAN_SOLR_JCR_INDEXER = "jsr170-solr.solrDocIndexer";
+
+    /**
+     * Returns the instance of the singleton
+     * @return The instance of the singleton
+     */
+    public static SolrRepositoryFileHome getSolrInstance(  )
+    {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Indexes a file, then the subtree under it if it is a directory
+     * @param adminWorkspace the workspace
+     * @param parentFile the file to start from
+     * @param action the action to perform on each node
+     */
+    @Override
+    protected void doRecursive( AdminWorkspace adminWorkspace, IRepositoryFile parentFile,
+        INodeAction<Document, Collection<Document>> action )
+    {
+        index( read( parentFile, action ), action, null );
+
+        if ( parentFile.isDirectory(  ) )
+        {
+            walk( adminWorkspace, parentFile.getAbsolutePath(  ), 0, action );
+        }
+    }
+
+    /**
+     * Crawls a subtree iteratively. The directories still to list are kept in a
+     * stack of paths, so the memory used depends on the width of the tree, not on
+     * the number of nodes, and deep trees can't overflow the call stack.
+     * @param adminWorkspace the workspace
+     * @param strRootPath the path of the subtree root
+     * @param nRootDepth the depth of the subtree root in the crawl
+     * @param action the action to perform on each node
+     */
+    private void walk( AdminWorkspace adminWorkspace, String strRootPath, int nRootDepth,
+        INodeAction<Document, Collection<Document>> action )
+    {
+        IndexingContext context = getContext( action );
+        long lStart = System.nanoTime(  );
+        IRepositoryFileDAO dao = getRepositoryFileDAO( adminWorkspace );
+        LinkedList<PendingDirectory> stackDirectories = new LinkedList<PendingDirectory>(  );
+        stackDirectories.addFirst( new PendingDirectory( strRootPath, nRootDepth ) );
+
+        CrawlProgress progress = ( context != null ) ? context.getCrawlProgress(  ) : null;
+        String strRole = ( progress != null ) ? ( (SolrIndexerNodeAction) action ).getRole(  ) : null;
+
+        while ( !stackDirectories.isEmpty(  ) )
+        {
+            PendingDirectory directory = stackDirectories.removeFirst(  );
+            int nChildDepth = directory.getDepth(  ) + 1;
+
+            if ( ( context != null ) && !context.isDepthAllowed( nChildDepth ) )
+            {
+                // the documents under the limit are not crawled, they must not be taken for removed ones
+                if ( !context.isTruncated(  ) && hasContent( dao, adminWorkspace, directory.getPath(  ), action ) )
+                {
+                    context.depthLimitReached( directory.getPath(  ) );
+                }
+
+                continue;
+            }
+
+            // the documents of a directory completed by an interrupted indexation are not read again
+            boolean bCompleted = ( progress != null ) &&
+                progress.isCompleted( adminWorkspace.getName(  ), strRole, directory.getPath(  ) );
+            CrawlProgress.Directory tracker = ( ( progress != null ) && !bCompleted )
+                ? progress.begin( adminWorkspace.getName(  ), strRole, directory.getPath(  ) ) : null;
+            boolean bDirectoryDone = true;
+
+            for ( IRepositoryFile file : dao.listFiles( adminWorkspace.getName(  ), directory.getPath(  ) ) )
+            {
+                if ( isExcluded( file, action ) )
+                {
+                    continue;
+                }
+
+                if ( ( context != null ) && !context.acquireNode(  ) )
+                {
+                    stackDirectories.clear(  );
+                    bDirectoryDone = false;
+
+                    break;
+                }
+
+                if ( !bCompleted && !indexNode( file, action, tracker ) )
+                {
+                    // the directory is read again if the indexation is resumed
+                    bDirectoryDone = false;
+                }
+
+                if ( file.isDirectory(  ) && !fork( adminWorkspace, file.getAbsolutePath(  ), nChildDepth, action ) )
+                {
+                    stackDirectories.addFirst( new PendingDirectory( file.getAbsolutePath(  ), nChildDepth ) );
+                }
+            }
+
+            if ( ( tracker != null ) && bDirectoryDone )
+            {
+                tracker.release(  );
+            }
+        }
+
+        if ( context != null )
+        {
+            context.getMetrics(  ).workspaceCrawled( adminWorkspace.getName(  ), System.nanoTime(  ) - lStart );
+        }
+    }
+
+    /**
+     * Tells whether a directory contains nodes to crawl
+     * @param dao the DAO of the workspace
+     * @param adminWorkspace the workspace
+     * @param strPath the path of the directory
+     * @param action the action performed on each node
+     * @return true if the directory contains a node which is not excluded
+     */
+    private static boolean hasContent( IRepositoryFileDAO dao, AdminWorkspace adminWorkspace, String strPath,
+        INodeAction<Document, Collection<Document>> action )
+    {
+        for ( IRepositoryFile file : dao.listFiles( adminWorkspace.getName(  ), strPath ) )
+        {
+            if ( !isExcluded( file, action ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Counts the nodes of a subtree, listing its directories without reading the documents
+     * @param unit the subtree, whose nested subtrees crawled by other units are not counted
+     * @param handle the handle of the indexation, whose cancellation stops the count
+     * @return the number of nodes, the root included
+     */
+    public long countNodes( CrawlUnit unit, IndexationHandle handle )
+    {
+        AdminWorkspace adminWorkspace = unit.getAdminWorkspace(  );
+        IRepositoryFileDAO dao = getRepositoryFileDAO( adminWorkspace );
+        LinkedList<String> stackDirectories = new LinkedList<String>(  );
+        stackDirectories.addFirst( unit.getPath(  ) );
+
+        long lCount = 1L;
+
+        while ( !stackDirectories.isEmpty(  ) && !handle.isCancelled(  ) )
+        {
+            for ( IRepositoryFile file : dao.listFiles( adminWorkspace.getName(  ), stackDirectories.removeFirst(  ) ) )
+            {
+                if ( unit.isExcluded( file.getAbsolutePath(  ) ) )
+                {
+                    continue;
+                }
+
+                lCount++;
+
+                if ( file.isDirectory(  ) )
+                {
+                    stackDirectories.addFirst( file.getAbsolutePath(  ) );
+                }
+            }
+        }
+
+        return lCount;
+    }
+
+    /**
+     * Reads and indexes a node. A failure is recorded and doesn't stop the crawl of the other nodes.
+     * @param file the node
+     * @param action the action to perform on the node
+     * @param tracker the tracker of the directory of the node, or null
+     * @return true if the node was indexed, false if it failed
+     */
+    private boolean indexNode( IRepositoryFile file, INodeAction<Document, Collection<Document>> action,
+        CrawlProgress.Directory tracker )
+    {
+        IndexingContext context = getContext( action );
+
+        if ( context == null )
+        {
+            index( read( file, action ), action, tracker );
+
+            return true;
+        }
+
+        try
+        {
+            index( read( file, action ), action, tracker );
+
+            return true;
+        }
+        catch ( RuntimeException e )
+        {
+            context.getCrawlExecutor(  ).addError( e, JCR_NODE_ERROR + file.getAbsolutePath(  ) );
+
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether a node belongs to a nested subtree crawled by another unit
+     * @param file the node
+     * @param action the action of the current crawl
+     * @return true if the node must be skipped
+     */
+    private static boolean isExcluded( IRepositoryFile file, INodeAction<Document, Collection<Document>> action )
+    {
+        return ( action instanceof SolrIndexerNodeAction ) &&
+        ( (SolrIndexerNodeAction) action ).isExcluded( file.getAbsolutePath(  ) );
+    }
+
+    /**
+     * Returns the DAO giving access to the files of a workspace
+     * @param adminWorkspace the workspace
+     * @return the DAO
+     */
+    protected IRepositoryFileDAO getRepositoryFileDAO( AdminWorkspace adminWorkspace )
+    {
+        return getIRepositoryFileDAO( adminWorkspace.getJcrType(  ) );
+    }
+
+    /**
+     * Runs the action on a node, timing the JCR read
+     * @param file the node
+     * @param action the action
+     * @return the document built by the action
+     */
+    private static Document read( IRepositoryFile file, INodeAction<Document, Collection<Document>> action )
+    {
+        IndexingContext context = getContext( action );
+
+        if ( context == null )
+        {
+            return action.doAction( file );
+        }
+
+        long lStart = System.nanoTime(  );
+        Document document = action.doAction( file );
+        context.getMetrics(  ).nodeRead( System.nanoTime(  ) - lStart );
+
+        return document;
+    }
+
+    /**
+     * Submits the crawl of a subdirectory to the crawl executor of the indexation,
+     * if the action carries one and if it has idle threads
+     * @param adminWorkspace the workspace
+     * @param strPath the path of the subdirectory
+     * @param nDepth the depth of the subdirectory in the crawl
+     * @param action the action of the current crawl
+     * @return true if the subdirectory will be crawled by another task
+     */
+    private boolean fork( final AdminWorkspace adminWorkspace, final String strPath, final int nDepth,
+        INodeAction<Document, Collection<Document>> action )
+    {
+        IndexingContext context = getContext( action );
+
+        if ( ( context == null ) || !context.getCrawlExecutor(  ).canFork(  ) )
+        {
+            return false;
+        }
+
+        final SolrIndexerNodeAction forkedAction = ( (SolrIndexerNodeAction) action ).fork(  );
+        context.getCrawlExecutor(  ).submit( new Runnable(  )
+            {
+                public void run(  )
+                {
+                    walk( adminWorkspace, strPath, nDepth, forkedAction );
+                }
+            }, JCR_CRAWL_ERROR + strPath );
+
+        return true;
+    }
+
+    /**
+     * Returns the context of the indexation carried by an action
+     * @param action the action
+     * @return the context, or null if the action doesn't carry one
+     */
+    private static IndexingContext getContext( INodeAction<Document, Collection<Document>> action )
+    {
+        return ( action instanceof SolrIndexerNodeAction ) ? ( (SolrIndexerNodeAction) action ).getContext(  ) : null;
+    }
+
+    /**
+     * Converts a document and sends it to Solr. The document is handed over to
+     * the pipeline of the indexation when the action carries one.
+     * @param result the document built by the action
+     * @param action the action
+     * @param tracker the tracker of the directory of the document, or null
+     */
+    private void index( Document result, INodeAction<Document, Collection<Document>> action,
+        CrawlProgress.Directory tracker )
+    {
+        if ( result == null )
+        {
+            return;
+        }
+
+        IndexingContext context = getContext( action );
+
+        if ( context != null )
+        {
+            context.getPipeline(  ).submit( result, (SolrIndexerNodeAction) action, tracker );
+
+            return;
+        }
+
+        SolrJcrIndexer solrJcrIndexer = (SolrJcrIndexer) SpringContextService.getBean( BEAN_SOLR_JCR_INDEXER );
+        SolrItem solrItem = solrJcrIndexer.luceneDocument2SolrItem( result );
+
+        if ( ( solrItem == null ) || ( solrItem.getContent(  ) == null ) )
+        {
+            return;
+        }
+
+        try
+        {
+            SolrIndexerService.write( solrItem );
+        }
+        catch ( CorruptIndexException e )
+        {
+            AppLogService.error( e.getMessage(  ), e );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * A directory waiting to be listed
+     */
+    private static final class PendingDirectory
+    {
+        private final String _strPath;
+        private final int _nDepth;
+
+        /**
+         * Constructor
+         * @param strPath the path of the directory
+         * @param nDepth the depth of the directory in the crawl
+         */
+        PendingDirectory( String strPath, int nDepth )
+        {
+            _strPath = strPath;
+            _nDepth = nDepth;
+        }
+
+        /**
+         * Returns the path of the directory
+         * @return the path
+         */
+        String getPath(  )
+        {
+            return _strPath;
+        }
+
+        /**
+         * Returns the depth of the directory in the crawl
+         * @return the depth
+         */
+        int getDepth(  )
+        {
+            return _nDepth;
+        }
+    }
+
+    /**
+     * Holder of the singleton, created on first use by the class loader, which publishes it safely to all threads
+     */
+    private static final class SingletonHolder
+    {
+        private static final SolrRepositoryFileHome INSTANCE = new SolrRepositoryFileHome(  );
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Records which document carries each duplicated content. The first document found with
+ * a content carries it, the other documents with the same content and role are references
+ * to it. The carrier of a content is kept from one indexation to the next, so the documents
+ * skipped because they are unchanged keep their role, and a document changing role is
+ * sent again even if it is unchanged.
+ * <br>
+ * The UIDs and the contents are stored as 64 bits hashes. A carrier found with another
+ * content or removed stops carrying its content at once : the next reference crawled
+ * carries it, in the same indexation or in the next one crawling a reference.
+ */
+public class ContentDigestStore
+{
+    private static final int FILE_VERSION = 2;
+    private static final String EXTENSION_TEMP = ".tmp";
+    private final File _file;
+    private final Map<Long, Long> _mapPreviousCarriers;
+    private final Map<Long, Long> _mapPreviousContents = new HashMap<Long, Long>(  );
+    private final Map<Long, Long> _mapCarriers = new HashMap<Long, Long>(  );
+    private final Set<Long> _setConfirmedContents = new HashSet<Long>(  );
+    private final Set<Long> _setReferences;
+    private final Set<Long> _setSeenReferences = new HashSet<Long>(  );
+
+    /**
+     * Constructor
+     * @param file the store file
+     * @param mapPreviousCarriers the carrier of each content by content key
+     * @param setReferences the keys of the documents which are references
+     */
+    private ContentDigestStore( File file, Map<Long, Long> mapPreviousCarriers, Set<Long> setReferences )
+    {
+        _file = file;
+        _mapPreviousCarriers = mapPreviousCarriers;
+        _setReferences = setReferences;
+
+        for ( Map.Entry<Long, Long> entry : mapPreviousCarriers.entrySet(  ) )
+        {
+            _mapPreviousContents.put( entry.getValue(  ), entry.getKey(  ) );
+        }
+    }
+
+    /**
+     * Creates an empty store, ignoring the content of the file
+     * @param file the store file
+     * @return the store
+     */
+    public static ContentDigestStore empty( File file )
+    {
+        return new ContentDigestStore( file, new HashMap<Long, Long>(  ), new HashSet<Long>(  ) );
+    }
+
+    /**
+     * Loads the store saved in a file. An empty store is returned if the file doesn't exist
+     * or was written by another version.
+     * @param file the store file
+     * @return the store
+     * @throws IOException if the file can't be read
+     */
+    public static ContentDigestStore load( File file ) throws IOException
+    {
+        Map<Long, Long> mapCarriers = new HashMap<Long, Long>(  );
+        Set<Long> setReferences = new HashSet<Long>(  );
+
+        if ( file.exists(  ) )
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+            try
+            {
+                if ( in.readInt(  ) == FILE_VERSION )
+                {
+                    int nCount = in.readInt(  );
+
+                    for ( int i = 0; i < nCount; i++ )
+                    {
+                        long lContentKey = in.readLong(  );
+                        mapCarriers.put( lContentKey, in.readLong(  ) );
+                    }
+
+                    nCount = in.readInt(  );
+
+                    for ( int i = 0; i < nCount; i++ )
+                    {
+                        setReferences.add( in.readLong(  ) );
+                    }
+                }
+            }
+            finally
+            {
+                IOUtils.closeQuietly( in );
+            }
+        }
+
+        return new ContentDigestStore( file, mapCarriers, setReferences );
+    }
+
+    /**
+     * Records the content of a document and tells whether the document carries it
+     * @param strUid the UID of the document
+     * @param lContentKey the key of the content, see {@link #getContentKey(String, String)}
+     * @return true if the document carries the content, false if it is a reference
+     */
+    public synchronized boolean isCarrier( String strUid, long lContentKey )
+    {
+        long lUidKey = FingerprintStore.key( strUid );
+        Long lPreviousContent = _mapPreviousContents.get( lUidKey );
+
+        // a carrier whose content changed lets the next reference carry its previous content
+        if ( ( lPreviousContent != null ) && ( lPreviousContent.longValue(  ) != lContentKey ) )
+        {
+            release( lUidKey );
+        }
+
+        Long lCarrier = _mapCarriers.get( lContentKey );
+
+        if ( lCarrier == null )
+        {
+            lCarrier = _mapPreviousCarriers.get( lContentKey );
+
+            if ( lCarrier == null )
+            {
+                lCarrier = lUidKey;
+            }
+
+            _mapCarriers.put( lContentKey, lCarrier );
+        }
+
+        if ( lCarrier.longValue(  ) == lUidKey )
+        {
+            _setConfirmedContents.add( lContentKey );
+            _setReferences.remove( lUidKey );
+
+            return true;
+        }
+
+        _setReferences.add( lUidKey );
+        _setSeenReferences.add( lUidKey );
+
+        return false;
+    }
+
+    /**
+     * Tells whether a document is recorded as a reference
+     * @param strUid the UID of the document
+     * @return true if the document is a reference
+     */
+    public synchronized boolean isReference( String strUid )
+    {
+        return _setReferences.contains( FingerprintStore.key( strUid ) );
+    }
+
+    /**
+     * Records the documents deleted from the index. The contents they carried are carried
+     * by the next reference crawled.
+     * @param listUids the UIDs of the deleted documents
+     */
+    public synchronized void removed( Collection<String> listUids )
+    {
+        for ( String strUid : listUids )
+        {
+            long lUidKey = FingerprintStore.key( strUid );
+            release( lUidKey );
+            _setReferences.remove( lUidKey );
+            _setSeenReferences.remove( lUidKey );
+        }
+    }
+
+    /**
+     * Stops a document from carrying the content it carried in the previous indexation,
+     * unless this indexation already confirmed it
+     * @param lUidKey the key of the document
+     */
+    private void release( long lUidKey )
+    {
+        Long lContentKey = _mapPreviousContents.remove( lUidKey );
+
+        if ( lContentKey == null )
+        {
+            return;
+        }
+
+        _mapPreviousCarriers.remove( lContentKey );
+
+        Long lCarrier = _mapCarriers.get( lContentKey );
+
+        if ( ( lCarrier != null ) && ( lCarrier.longValue(  ) == lUidKey ) &&
+                !_setConfirmedContents.contains( lContentKey ) )
+        {
+            _mapCarriers.remove( lContentKey );
+        }
+    }
+
+    /**
+     * Returns the key of a content, sent with the documents so that a reference can be resolved.
+     * The role is part of the key, so a document is only a reference to a document
+     * visible by the same users.
+     * @param strRole the role of the document, may be null
+     * @param strContent the content
+     * @return the key
+     */
+    public static long getContentKey( String strRole, String strContent )
+    {
+        return FingerprintStore.key( strRole, strContent );
+    }
+
+    /**
+     * Stores the carriers and the references. The file is written in a temporary file first
+     * so a failure keeps the previous store.
+     * @param bEvict true to drop the contents and references not found by this indexation,
+     * which must then have crawled the whole repository
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void save( boolean bEvict ) throws IOException
+    {
+        Map<Long, Long> mapCarriers = new HashMap<Long, Long>(  );
+
+        if ( !bEvict )
+        {
+            mapCarriers.putAll( _mapPreviousCarriers );
+        }
+
+        for ( Long lContentKey : _setConfirmedContents )
+        {
+            mapCarriers.put( lContentKey, _mapCarriers.get( lContentKey ) );
+        }
+
+        Set<Long> setReferences = bEvict ? _setSeenReferences : _setReferences;
+        File fileTemp = new File( _file.getPath(  ) + EXTENSION_TEMP );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fileTemp ) ) );
+
+        try
+        {
+            out.writeInt( FILE_VERSION );
+            out.writeInt( mapCarriers.size(  ) );
+
+            for ( Map.Entry<Long, Long> entry : mapCarriers.entrySet(  ) )
+            {
+                out.writeLong( entry.getKey(  ) );
+                out.writeLong( entry.getValue(  ) );
+            }
+
+            out.writeInt( setReferences.size(  ) );
+
+            for ( Long lUidKey : setReferences )
+            {
+                out.writeLong( lUidKey );
+            }
+        }
+        finally
+        {
+            out.close(  );
+        }
+
+        if ( _file.exists(  ) && !_file.delete(  ) )
+        {
+            throw new IOException( "Unable to replace the content digest file " + _file.getPath(  ) );
+        }
+
+        if ( !fileTemp.renameTo( _file ) )
+        {
+            throw new IOException( "Unable to rename the content digest file " + fileTemp.getPath(  ) );
+        }
+    }
+}
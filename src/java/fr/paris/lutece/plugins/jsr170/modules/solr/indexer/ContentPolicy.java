@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.jsr170.modules.solr.util.SolrJcrIndexerUtils;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Decides how much of the text of a document is indexed :
+ * <ul>
+ * <li>the documents of some mime types (media, archives...) are indexed with their metadata only,</li>
+ * <li>the texts longer than the skip length are not indexed, only the metadata is,</li>
+ * <li>the other texts are read chunk by chunk and truncated to the maximum length.</li>
+ * </ul>
+ * The texts of the large documents can be kept in an {@link ExtractionCache}, so their
+ * binaries are not parsed again as long as they are not modified.
+ */
+public class ContentPolicy
+{
+    private static final String EMPTY_CONTENT = "";
+    private static final String WILDCARD = "*";
+    private final int _nMaxLength;
+    private final int _nSkipLength;
+    private final List<String> _listMetadataOnlyMimeTypes = new ArrayList<String>(  );
+    private final ExtractionCache _extractionCache;
+    private final int _nMinCachedLength;
+
+    /**
+     * Constructor of a policy which only truncates the texts
+     * @param nMaxLength the maximum number of characters of a text, 0 or less for no limit
+     */
+    public ContentPolicy( int nMaxLength )
+    {
+        this( nMaxLength, 0, new ArrayList<String>(  ), null, 0 );
+    }
+
+    /**
+     * Constructor
+     * @param nMaxLength the maximum number of characters of a text, 0 or less for no limit
+     * @param nSkipLength the length above which a text is not indexed, 0 or less for no limit
+     * @param listMetadataOnlyMimeTypes the mime types whose text is not indexed. A type ending
+     * with a wildcard, like video/*, matches all its subtypes.
+     * @param extractionCache the cache of the extracted texts, or null
+     * @param nMinCachedLength the minimum length of the cached texts
+     */
+    public ContentPolicy( int nMaxLength, int nSkipLength, Collection<String> listMetadataOnlyMimeTypes,
+        ExtractionCache extractionCache, int nMinCachedLength )
+    {
+        _nMaxLength = nMaxLength;
+        _nSkipLength = nSkipLength;
+        _extractionCache = extractionCache;
+        _nMinCachedLength = nMinCachedLength;
+
+        for ( String strMimeType : listMetadataOnlyMimeTypes )
+        {
+            String strNormalized = strMimeType.trim(  ).toLowerCase( Locale.ENGLISH );
+
+            if ( strNormalized.length(  ) > 0 )
+            {
+                _listMetadataOnlyMimeTypes.add( strNormalized.endsWith( WILDCARD )
+                    ? strNormalized.substring( 0, strNormalized.length(  ) - 1 ) : strNormalized );
+            }
+        }
+    }
+
+    /**
+     * Returns the text of a document to index. The reader is closed.
+     * @param reader the reader of the text
+     * @param strUid the document UID
+     * @param strDate the modification date of the document
+     * @param strMimeType the mime type of the document, or null
+     * @return the text, empty if only the metadata of the document must be indexed
+     * @throws IOException if the reader can't be read
+     */
+    public String getContent( Reader reader, String strUid, String strDate, String strMimeType )
+        throws IOException
+    {
+        if ( isMetadataOnly( strMimeType ) )
+        {
+            IOUtils.closeQuietly( reader );
+
+            return EMPTY_CONTENT;
+        }
+
+        boolean bCacheable = ( _extractionCache != null ) && ( strUid != null ) && ( strDate != null );
+
+        if ( bCacheable )
+        {
+            ExtractionCache.CachedContent cachedContent = _extractionCache.get( strUid, strDate );
+
+            if ( cachedContent != null )
+            {
+                IOUtils.closeQuietly( reader );
+
+                return toIndexedContent( cachedContent.getContent(  ) );
+            }
+        }
+
+        String strContent = SolrJcrIndexerUtils.readContent( reader, _nMaxLength, _nSkipLength );
+
+        if ( bCacheable && ( ( strContent == null ) || ( strContent.length(  ) >= _nMinCachedLength ) ) )
+        {
+            try
+            {
+                _extractionCache.put( strUid, strDate, strContent );
+            }
+            catch ( IOException e )
+            {
+                // the text is still indexed, it will be extracted again next time
+                AppLogService.error( e.getMessage(  ), e );
+            }
+        }
+
+        return toIndexedContent( strContent );
+    }
+
+    /**
+     * Returns the cache of the extracted texts
+     * @return the cache, or null if the texts are not cached
+     */
+    public ExtractionCache getExtractionCache(  )
+    {
+        return _extractionCache;
+    }
+
+    /**
+     * Tells whether the text of a mime type is not indexed
+     * @param strMimeType the mime type, or null
+     * @return true if only the metadata is indexed
+     */
+    public boolean isMetadataOnly( String strMimeType )
+    {
+        if ( strMimeType == null )
+        {
+            return false;
+        }
+
+        String strNormalized = strMimeType.toLowerCase( Locale.ENGLISH );
+
+        for ( String strMetadataOnlyType : _listMetadataOnlyMimeTypes )
+        {
+            if ( strNormalized.startsWith( strMetadataOnlyType ) &&
+                    ( strMetadataOnlyType.endsWith( "/" ) || ( strNormalized.length(  ) == strMetadataOnlyType.length(  ) ) ||
+                    ( strNormalized.charAt( strMetadataOnlyType.length(  ) ) == ';' ) ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the text to index
+     * @param strContent the extracted text, or null if it was too long
+     * @return the text, empty if it was too long
+     */
+    private static String toIndexedContent( String strContent )
+    {
+        return ( strContent != null ) ? strContent : EMPTY_CONTENT;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs the crawl tasks of an indexation on a bounded pool of threads.
+ * Tasks never wait for the tasks they submit, so the pool can't deadlock :
+ * the indexation waits for all the submitted tasks with {@link #awaitCompletion()}.
+ * With a single thread, the tasks are run in the calling thread.
+ */
+public class CrawlExecutor
+{
+    private static final String THREAD_NAME = "jsr170-solr-crawler-";
+    private static final int QUEUE_FACTOR = 4;
+    private final ThreadPoolExecutor _executor;
+    private final int _nThreads;
+    private final Object _lock = new Object(  );
+    private final List<String> _listErrors = new ArrayList<String>(  );
+    private final IndexerMetrics _metrics;
+    private int _nPendingTasks;
+
+    /**
+     * Constructor
+     * @param nThreads the number of crawler threads
+     * @param metrics the metrics of the indexation
+     */
+    public CrawlExecutor( int nThreads, IndexerMetrics metrics )
+    {
+        _nThreads = Math.max( 1, nThreads );
+        _metrics = metrics;
+
+        if ( _nThreads > 1 )
+        {
+            final AtomicInteger nThreadNumber = new AtomicInteger(  );
+            _executor = new ThreadPoolExecutor( _nThreads, _nThreads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(  ),
+                    new ThreadFactory(  )
+                    {
+                        public Thread newThread( Runnable runnable )
+                        {
+                            Thread thread = new Thread( runnable, THREAD_NAME + nThreadNumber.incrementAndGet(  ) );
+                            thread.setDaemon( true );
+
+                            return thread;
+                        }
+                    } );
+        }
+        else
+        {
+            _executor = null;
+        }
+    }
+
+    /**
+     * Runs a crawl task. An exception thrown by the task is logged and added to the errors.
+     * @param task the task
+     * @param strErrorMessage the message logged if the task fails
+     */
+    public void submit( final Runnable task, final String strErrorMessage )
+    {
+        Runnable wrapper = new Runnable(  )
+            {
+                public void run(  )
+                {
+                    try
+                    {
+                        task.run(  );
+                    }
+                    catch ( Exception e )
+                    {
+                        addError( e, strErrorMessage );
+                    }
+                    finally
+                    {
+                        taskDone(  );
+                    }
+                }
+            };
+
+        synchronized ( _lock )
+        {
+            _nPendingTasks++;
+        }
+
+        if ( _executor == null )
+        {
+            wrapper.run(  );
+        }
+        else
+        {
+            _executor.execute( wrapper );
+        }
+    }
+
+    /**
+     * Tells whether a subtree should be crawled by a new task instead of the current thread.
+     * Subtrees are forked only while the pool has few queued tasks, so wide trees don't fill the queue.
+     * @return true if a new task should be submitted
+     */
+    public boolean canFork(  )
+    {
+        return ( _executor != null ) && ( _executor.getQueue(  ).size(  ) < ( _nThreads * QUEUE_FACTOR ) );
+    }
+
+    /**
+     * Waits until all the submitted tasks (and the tasks they submitted) are done, then stops the threads
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void awaitCompletion(  ) throws InterruptedException
+    {
+        try
+        {
+            synchronized ( _lock )
+            {
+                while ( _nPendingTasks > 0 )
+                {
+                    _lock.wait(  );
+                }
+            }
+        }
+        finally
+        {
+            if ( _executor != null )
+            {
+                _executor.shutdownNow(  );
+            }
+        }
+    }
+
+    /**
+     * Returns the errors of the failed tasks
+     * @return the list of errors
+     */
+    public List<String> getErrors(  )
+    {
+        synchronized ( _listErrors )
+        {
+            return new ArrayList<String>( _listErrors );
+        }
+    }
+
+    /**
+     * Records the failure of a part of a task, the task going on with its other parts
+     * @param e the exception
+     * @param strErrorMessage the message to log
+     */
+    public void addError( Exception e, String strErrorMessage )
+    {
+        synchronized ( _listErrors )
+        {
+            _listErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+        }
+
+        _metrics.failure( e );
+        AppLogService.error( strErrorMessage, e );
+    }
+
+    /**
+     * Decrements the number of pending tasks
+     */
+    private void taskDone(  )
+    {
+        synchronized ( _lock )
+        {
+            _nPendingTasks--;
+
+            if ( _nPendingTasks == 0 )
+            {
+                _lock.notifyAll(  );
+            }
+        }
+    }
+}
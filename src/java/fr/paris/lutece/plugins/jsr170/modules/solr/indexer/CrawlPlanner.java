@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.jcr.business.admin.AdminJcrHome;
+import fr.paris.lutece.plugins.jcr.business.admin.AdminView;
+import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
+import fr.paris.lutece.plugins.jcr.business.portlet.Jsr170Portlet;
+import fr.paris.lutece.plugins.jcr.business.portlet.Jsr170PortletHome;
+import fr.paris.lutece.portal.business.page.Page;
+import fr.paris.lutece.portal.business.page.PageHome;
+import fr.paris.lutece.portal.business.portlet.Portlet;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Builds the list of subtrees to crawl from the Jsr170 portlets. Portlets
+ * publishing the same subtree are grouped, and each node is crawled by a single
+ * unit : a subtree contained in another subtree is dropped if it would get the
+ * same roles, otherwise it is crawled by its own unit and skipped by the containing one.
+ * The views, workspaces and pages are looked up once per planning.
+ * The weight of a portlet in the crawl schedule is configured for the portlet, or else for its page.
+ */
+public class CrawlPlanner
+{
+    private static final String PROPERTY_WEIGHT_PORTLET_PREFIX = "jsr170-solr.indexer.schedule.weight.portlet.";
+    private static final String PROPERTY_WEIGHT_PAGE_PREFIX = "jsr170-solr.indexer.schedule.weight.page.";
+    private static final int DEFAULT_WEIGHT = 1;
+    private final Plugin _plugin;
+    private final Map<Integer, AdminView> _mapViews = new HashMap<Integer, AdminView>(  );
+    private final Map<Integer, AdminWorkspace> _mapWorkspaces = new HashMap<Integer, AdminWorkspace>(  );
+    private final Map<Integer, Page> _mapPages = new HashMap<Integer, Page>(  );
+
+    /**
+     * Constructor
+     * @param plugin the jsr170 plugin
+     */
+    public CrawlPlanner( Plugin plugin )
+    {
+        _plugin = plugin;
+    }
+
+    /**
+     * Builds the subtrees to crawl
+     * @param listPortlets the Jsr170 portlets
+     * @return the list of units, each subtree appearing once
+     */
+    public List<CrawlUnit> plan( Collection<Portlet> listPortlets )
+    {
+        Map<String, CrawlUnit> mapUnits = new LinkedHashMap<String, CrawlUnit>(  );
+
+        for ( Portlet portlet : listPortlets )
+        {
+            Jsr170Portlet jsr170Portlet = Jsr170PortletHome.getInstance(  ).findByPortletId( portlet.getId(  ) );
+            int nDefaultView = jsr170Portlet.getDefaultView(  );
+
+            if ( nDefaultView <= 0 )
+            {
+                continue;
+            }
+
+            AdminView view = findView( nDefaultView );
+            CrawlUnit unit = new CrawlUnit( findWorkspace( view.getWorkspaceId(  ) ), view, view.getPath(  ) );
+            String strKey = unit.getWorkspaceId(  ) + unit.getPath(  );
+            CrawlUnit existingUnit = mapUnits.get( strKey );
+
+            if ( existingUnit == null )
+            {
+                mapUnits.put( strKey, unit );
+                existingUnit = unit;
+            }
+
+            existingUnit.getRoles(  ).add( findPage( portlet.getPageId(  ) ).getRole(  ) );
+            existingUnit.getPortletIds(  ).add( portlet.getId(  ) );
+            existingUnit.raiseWeight( AppPropertiesService.getPropertyInt( PROPERTY_WEIGHT_PORTLET_PREFIX +
+                    portlet.getId(  ),
+                    AppPropertiesService.getPropertyInt( PROPERTY_WEIGHT_PAGE_PREFIX + portlet.getPageId(  ),
+                        DEFAULT_WEIGHT ) ) );
+        }
+
+        return merge( new ArrayList<CrawlUnit>( mapUnits.values(  ) ) );
+    }
+
+    /**
+     * Limits the units to some subtrees
+     * @param listUnits the units built by {@link #plan(Collection)}
+     * @param mapSubtrees the paths of the subtree roots by workspace name
+     * @return the parts of the units under the subtrees, each subtree appearing once
+     */
+    public static List<CrawlUnit> restrict( List<CrawlUnit> listUnits, Map<String, ? extends Collection<String>> mapSubtrees )
+    {
+        List<CrawlUnit> listRestricted = new ArrayList<CrawlUnit>(  );
+
+        for ( CrawlUnit unit : listUnits )
+        {
+            Collection<String> listPaths = mapSubtrees.get( unit.getAdminWorkspace(  ).getName(  ) );
+
+            if ( listPaths == null )
+            {
+                continue;
+            }
+
+            for ( String strPath : listPaths )
+            {
+                CrawlUnit restrictedUnit = unit.restrict( strPath );
+
+                if ( ( restrictedUnit != null ) && !listRestricted.contains( restrictedUnit ) )
+                {
+                    listRestricted.add( restrictedUnit );
+                }
+            }
+        }
+
+        return merge( listRestricted );
+    }
+
+    /**
+     * Returns the unit crawling a node
+     * @param listUnits the units built by {@link #plan(Collection)}
+     * @param strWorkspaceName the name of the workspace of the node
+     * @param strPath the path of the node
+     * @return the unit, or null if the node isn't published
+     */
+    public static CrawlUnit findUnit( List<CrawlUnit> listUnits, String strWorkspaceName, String strPath )
+    {
+        for ( CrawlUnit unit : listUnits )
+        {
+            if ( unit.covers( strWorkspaceName, strPath ) )
+            {
+                return unit;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the units of a shard
+     * @param listUnits the units built by {@link #plan(Collection)}
+     * @param nShard the shard, from 0 to the number of shards - 1
+     * @param nShardCount the number of shards
+     * @return the units whose shard key falls in the shard
+     */
+    public static List<CrawlUnit> partition( List<CrawlUnit> listUnits, int nShard, int nShardCount )
+    {
+        List<CrawlUnit> listShard = new ArrayList<CrawlUnit>(  );
+
+        for ( CrawlUnit unit : listUnits )
+        {
+            if ( ( ( unit.getShardKey(  ).hashCode(  ) & Integer.MAX_VALUE ) % nShardCount ) == nShard )
+            {
+                listShard.add( unit );
+            }
+        }
+
+        return listShard;
+    }
+
+    /**
+     * Gives each node of the subtrees published several times to a single unit. A nested
+     * subtree is visible with the roles of the containing subtree and with its own roles,
+     * so its roles are computed from both : it is dropped if they are the roles of the
+     * containing subtree, otherwise the containing subtree skips it.
+     * @param listUnits the units
+     * @return the units to crawl, no node belonging to two of them
+     */
+    static List<CrawlUnit> merge( List<CrawlUnit> listUnits )
+    {
+        // the containing subtrees have shorter paths
+        Collections.sort( listUnits,
+            new Comparator<CrawlUnit>(  )
+            {
+                public int compare( CrawlUnit unit1, CrawlUnit unit2 )
+                {
+                    return unit1.getPath(  ).length(  ) - unit2.getPath(  ).length(  );
+                }
+            } );
+
+        List<CrawlUnit> listMerged = new ArrayList<CrawlUnit>(  );
+
+        for ( CrawlUnit unit : listUnits )
+        {
+            CrawlUnit container = null;
+
+            for ( CrawlUnit mergedUnit : listMerged )
+            {
+                // the units are kept from the outermost to the innermost, so the last one is the closest
+                if ( mergedUnit.contains( unit ) )
+                {
+                    container = mergedUnit;
+                }
+            }
+
+            if ( container == null )
+            {
+                listMerged.add( unit );
+            }
+            else if ( container.getPath(  ).equals( unit.getPath(  ) ) )
+            {
+                container.getRoles(  ).addAll( unit.getRoles(  ) );
+                absorb( container, unit );
+            }
+            else
+            {
+                unit.getRoles(  ).addAll( container.getRoles(  ) );
+
+                if ( unit.getIndexedRoles(  ).equals( container.getIndexedRoles(  ) ) )
+                {
+                    absorb( container, unit );
+                }
+                else
+                {
+                    container.exclude( unit.getPath(  ) );
+                    listMerged.add( unit );
+                }
+            }
+        }
+
+        return listMerged;
+    }
+
+    /**
+     * Gives the portlets of a dropped unit to the unit crawling its subtree
+     * @param unit the unit crawling the subtree
+     * @param droppedUnit the dropped unit
+     */
+    private static void absorb( CrawlUnit unit, CrawlUnit droppedUnit )
+    {
+        for ( Integer nIdPortlet : droppedUnit.getPortletIds(  ) )
+        {
+            if ( !unit.getPortletIds(  ).contains( nIdPortlet ) )
+            {
+                unit.getPortletIds(  ).add( nIdPortlet );
+            }
+        }
+
+        unit.raiseWeight( droppedUnit.getWeight(  ) );
+    }
+
+    /**
+     * Returns a view
+     * @param nIdView the view id
+     * @return the view
+     */
+    private AdminView findView( int nIdView )
+    {
+        AdminView view = _mapViews.get( nIdView );
+
+        if ( view == null )
+        {
+            view = AdminJcrHome.getInstance(  ).findViewById( nIdView, _plugin );
+            _mapViews.put( nIdView, view );
+        }
+
+        return view;
+    }
+
+    /**
+     * Returns a workspace
+     * @param nIdWorkspace the workspace id
+     * @return the workspace
+     */
+    private AdminWorkspace findWorkspace( int nIdWorkspace )
+    {
+        AdminWorkspace adminWorkspace = _mapWorkspaces.get( nIdWorkspace );
+
+        if ( adminWorkspace == null )
+        {
+            adminWorkspace = AdminJcrHome.getInstance(  ).findWorkspaceById( nIdWorkspace, _plugin );
+            _mapWorkspaces.put( nIdWorkspace, adminWorkspace );
+        }
+
+        return adminWorkspace;
+    }
+
+    /**
+     * Returns a page
+     * @param nIdPage the page id
+     * @return the page
+     */
+    private Page findPage( int nIdPage )
+    {
+        Page page = _mapPages.get( nIdPage );
+
+        if ( page == null )
+        {
+            page = PageHome.findByPrimaryKey( nIdPage );
+            _mapPages.put( nIdPage, page );
+        }
+
+        return page;
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Progress of a full indexation, stored so that an interrupted indexation can be
+ * resumed. The progress is the set of the directories whose documents were all
+ * sent to Solr : a directory is completed once it has been listed and the batches
+ * of all its documents have been written. A resumed crawl still lists the completed
+ * directories to find their subdirectories, but doesn't read their documents again.
+ * The documents read but not confirmed before the interruption are sent again.
+ */
+public class CrawlProgress
+{
+    private static final int FILE_VERSION = 1;
+    private static final String EXTENSION_TEMP = ".tmp";
+    private static final char KEY_SEPARATOR = '\u0000';
+    private final File _file;
+    private final int _nPlanSignature;
+    private final Set<String> _setPreviousDirectories;
+    private final Set<String> _setCompletedDirectories = new HashSet<String>(  );
+    private final long _lSaveInterval;
+    private long _lLastSave = System.currentTimeMillis(  );
+
+    /**
+     * Constructor
+     * @param file the progress file
+     * @param nPlanSignature the signature of the crawled subtrees
+     * @param setPreviousDirectories the directories completed by the interrupted indexation
+     * @param lSaveInterval the minimum time between two saves, in milliseconds
+     */
+    private CrawlProgress( File file, int nPlanSignature, Set<String> setPreviousDirectories, long lSaveInterval )
+    {
+        _file = file;
+        _nPlanSignature = nPlanSignature;
+        _setPreviousDirectories = setPreviousDirectories;
+        _setCompletedDirectories.addAll( setPreviousDirectories );
+        _lSaveInterval = lSaveInterval;
+    }
+
+    /**
+     * Creates an empty progress, ignoring the content of the file
+     * @param file the progress file
+     * @param listUnits the units to crawl
+     * @param lSaveInterval the minimum time between two saves, in milliseconds
+     * @return the progress
+     */
+    public static CrawlProgress empty( File file, List<CrawlUnit> listUnits, long lSaveInterval )
+    {
+        return new CrawlProgress( file, getPlanSignature( listUnits ), new HashSet<String>(  ), lSaveInterval );
+    }
+
+    /**
+     * Loads the progress of an interrupted indexation. The progress is ignored if
+     * the file doesn't exist or if the subtrees to crawl have changed since.
+     * @param file the progress file
+     * @param listUnits the units to crawl
+     * @param lSaveInterval the minimum time between two saves, in milliseconds
+     * @return the progress
+     * @throws IOException if the file can't be read
+     */
+    public static CrawlProgress load( File file, List<CrawlUnit> listUnits, long lSaveInterval )
+        throws IOException
+    {
+        int nPlanSignature = getPlanSignature( listUnits );
+        Set<String> setDirectories = new HashSet<String>(  );
+
+        if ( file.exists(  ) )
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+            try
+            {
+                if ( ( in.readInt(  ) == FILE_VERSION ) && ( in.readInt(  ) == nPlanSignature ) )
+                {
+                    int nCount = in.readInt(  );
+
+                    for ( int i = 0; i < nCount; i++ )
+                    {
+                        setDirectories.add( in.readUTF(  ) );
+                    }
+                }
+            }
+            finally
+            {
+                IOUtils.closeQuietly( in );
+            }
+        }
+
+        return new CrawlProgress( file, nPlanSignature, setDirectories, lSaveInterval );
+    }
+
+    /**
+     * Tells whether the indexation resumes an interrupted one
+     * @return true if directories were completed by the interrupted indexation
+     */
+    public boolean isResumed(  )
+    {
+        return !_setPreviousDirectories.isEmpty(  );
+    }
+
+    /**
+     * Returns the number of directories completed by the interrupted indexation
+     * @return the number of directories
+     */
+    public int getResumedCount(  )
+    {
+        return _setPreviousDirectories.size(  );
+    }
+
+    /**
+     * Tells whether the documents of a directory were all sent
+     * @param strWorkspaceName the name of the workspace
+     * @param strRole the role of the crawl
+     * @param strPath the path of the directory
+     * @return true if the directory is completed
+     */
+    public boolean isCompleted( String strWorkspaceName, String strRole, String strPath )
+    {
+        // the previous directories are never modified, no lock is needed
+        return _setPreviousDirectories.contains( getKey( strWorkspaceName, strRole, strPath ) );
+    }
+
+    /**
+     * Starts tracking the documents of a directory
+     * @param strWorkspaceName the name of the workspace
+     * @param strRole the role of the crawl
+     * @param strPath the path of the directory
+     * @return the tracker of the directory, to release once the directory is listed
+     */
+    public Directory begin( String strWorkspaceName, String strRole, String strPath )
+    {
+        return new Directory( getKey( strWorkspaceName, strRole, strPath ) );
+    }
+
+    /**
+     * Stores the completed directories. The file is written in a temporary file first
+     * so a failure keeps the previous progress.
+     * @throws IOException if the file can't be written
+     */
+    public void save(  ) throws IOException
+    {
+        List<String> listDirectories;
+
+        synchronized ( this )
+        {
+            listDirectories = new ArrayList<String>( _setCompletedDirectories );
+            _lLastSave = System.currentTimeMillis(  );
+        }
+
+        synchronized ( _file )
+        {
+            File fileTemp = new File( _file.getPath(  ) + EXTENSION_TEMP );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( 
+                        new FileOutputStream( fileTemp ) ) );
+
+            try
+            {
+                out.writeInt( FILE_VERSION );
+                out.writeInt( _nPlanSignature );
+                out.writeInt( listDirectories.size(  ) );
+
+                for ( String strKey : listDirectories )
+                {
+                    out.writeUTF( strKey );
+                }
+            }
+            finally
+            {
+                out.close(  );
+            }
+
+            if ( _file.exists(  ) && !_file.delete(  ) )
+            {
+                throw new IOException( "Unable to replace the progress file " + _file.getPath(  ) );
+            }
+
+            if ( !fileTemp.renameTo( _file ) )
+            {
+                throw new IOException( "Unable to rename the progress file " + fileTemp.getPath(  ) );
+            }
+        }
+    }
+
+    /**
+     * Removes the progress file, once the indexation is complete
+     * @throws IOException if the file can't be deleted
+     */
+    public void delete(  ) throws IOException
+    {
+        synchronized ( _file )
+        {
+            if ( _file.exists(  ) && !_file.delete(  ) )
+            {
+                throw new IOException( "Unable to delete the progress file " + _file.getPath(  ) );
+            }
+        }
+    }
+
+    /**
+     * Records a completed directory and saves the progress if the save interval has elapsed
+     * @param strKey the key of the directory
+     */
+    private void complete( String strKey )
+    {
+        boolean bSave;
+
+        synchronized ( this )
+        {
+            _setCompletedDirectories.add( strKey );
+            bSave = ( System.currentTimeMillis(  ) - _lLastSave ) >= _lSaveInterval;
+
+            if ( bSave )
+            {
+                _lLastSave = System.currentTimeMillis(  );
+            }
+        }
+
+        if ( bSave )
+        {
+            try
+            {
+                save(  );
+            }
+            catch ( IOException e )
+            {
+                // the progress will be saved at the next interval
+                AppLogService.error( e.getMessage(  ), e );
+            }
+        }
+    }
+
+    /**
+     * Returns the key of a directory
+     * @param strWorkspaceName the name of the workspace
+     * @param strRole the role of the crawl
+     * @param strPath the path of the directory
+     * @return the key
+     */
+    private static String getKey( String strWorkspaceName, String strRole, String strPath )
+    {
+        return strWorkspaceName + KEY_SEPARATOR + strRole + KEY_SEPARATOR + strPath;
+    }
+
+    /**
+     * Returns the signature of the subtrees to crawl
+     * @param listUnits the units to crawl
+     * @return the signature
+     */
+    private static int getPlanSignature( List<CrawlUnit> listUnits )
+    {
+        List<String> listKeys = new ArrayList<String>(  );
+
+        for ( CrawlUnit unit : listUnits )
+        {
+            listKeys.add( unit.getAdminWorkspace(  ).getName(  ) + KEY_SEPARATOR + unit.getPath(  ) + KEY_SEPARATOR +
+                unit.getRoles(  ) );
+        }
+
+        // the crawl schedule changes the order of the units from one indexation to the next
+        Collections.sort( listKeys );
+
+        StringBuilder sbPlan = new StringBuilder(  );
+
+        for ( String strKey : listKeys )
+        {
+            sbPlan.append( strKey ).append( KEY_SEPARATOR );
+        }
+
+        return sbPlan.toString(  ).hashCode(  );
+    }
+
+    /**
+     * Tracks the documents of a directory which are not sent yet. The directory is
+     * completed when it has been listed and all its documents have been sent.
+     */
+    public final class Directory implements Runnable
+    {
+        private final String _strKey;
+
+        // the listing itself holds the directory until it is released
+        private final AtomicInteger _nPending = new AtomicInteger( 1 );
+
+        /**
+         * Constructor
+         * @param strKey the key of the directory
+         */
+        private Directory( String strKey )
+        {
+            _strKey = strKey;
+        }
+
+        /**
+         * Counts a document handed over to the pipeline
+         */
+        public void acquire(  )
+        {
+            _nPending.incrementAndGet(  );
+        }
+
+        /**
+         * Counts a document sent or skipped, or the end of the listing
+         */
+        public void release(  )
+        {
+            if ( _nPending.decrementAndGet(  ) == 0 )
+            {
+                complete( _strKey );
+            }
+        }
+
+        /**
+         * Releases a document once its batch has been sent
+         */
+        public void run(  )
+        {
+            release(  );
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Orders the subtrees to crawl so that the most valuable ones are indexed first.
+ * The priority of a subtree is its weight multiplied by 1 + recency + change density :
+ * <ul>
+ * <li>the weight is configured for its portlets or pages, see {@link CrawlUnit#getWeight()} ;</li>
+ * <li>the recency halves every half-life elapsed since the most recent modification
+ * found by the previous indexation, from 1 for a document modified now ;</li>
+ * <li>the change density is the part of the documents found by the previous indexation
+ * which were sent to Solr, the others being unchanged.</li>
+ * </ul>
+ * A subtree never indexed has a recency and a density of 1. The statistics of each
+ * subtree are recorded during the indexation and stored for the next one.
+ */
+public class CrawlSchedule
+{
+    private static final int FILE_VERSION = 1;
+    private static final String EXTENSION_TEMP = ".tmp";
+    private static final char KEY_SEPARATOR = '\u0000';
+    private final File _file;
+    private final long _lHalfLife;
+    private final Map<String, Statistics> _mapPrevious;
+    private final ConcurrentMap<String, Activity> _mapActivities = new ConcurrentHashMap<String, Activity>(  );
+
+    /**
+     * Constructor
+     * @param file the statistics file
+     * @param lHalfLife the time after which the recency of a subtree is halved, in milliseconds
+     * @param mapPrevious the statistics of the previous indexation by subtree key
+     */
+    private CrawlSchedule( File file, long lHalfLife, Map<String, Statistics> mapPrevious )
+    {
+        _file = file;
+        _lHalfLife = lHalfLife;
+        _mapPrevious = mapPrevious;
+    }
+
+    /**
+     * Creates a schedule without statistics, ignoring the content of the file
+     * @param file the statistics file
+     * @param lHalfLife the time after which the recency of a subtree is halved, in milliseconds
+     * @return the schedule
+     */
+    public static CrawlSchedule empty( File file, long lHalfLife )
+    {
+        return new CrawlSchedule( file, lHalfLife, new HashMap<String, Statistics>(  ) );
+    }
+
+    /**
+     * Loads the statistics of the previous indexations
+     * @param file the statistics file
+     * @param lHalfLife the time after which the recency of a subtree is halved, in milliseconds
+     * @return the schedule
+     * @throws IOException if the file can't be read
+     */
+    public static CrawlSchedule load( File file, long lHalfLife )
+        throws IOException
+    {
+        Map<String, Statistics> mapStatistics = new HashMap<String, Statistics>(  );
+
+        if ( file.exists(  ) )
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+            try
+            {
+                if ( in.readInt(  ) == FILE_VERSION )
+                {
+                    int nCount = in.readInt(  );
+
+                    for ( int i = 0; i < nCount; i++ )
+                    {
+                        String strKey = in.readUTF(  );
+                        mapStatistics.put( strKey, new Statistics( in.readLong(  ), in.readLong(  ), in.readLong(  ) ) );
+                    }
+                }
+            }
+            finally
+            {
+                IOUtils.closeQuietly( in );
+            }
+        }
+
+        return new CrawlSchedule( file, lHalfLife, mapStatistics );
+    }
+
+    /**
+     * Sorts the units by decreasing priority
+     * @param listUnits the units to crawl
+     * @return a new list of the units, the most valuable first
+     */
+    public List<CrawlUnit> order( List<CrawlUnit> listUnits )
+    {
+        final Map<CrawlUnit, Double> mapPriorities = new HashMap<CrawlUnit, Double>(  );
+        long lNow = System.currentTimeMillis(  );
+
+        for ( CrawlUnit unit : listUnits )
+        {
+            mapPriorities.put( unit, getPriority( unit, lNow ) );
+        }
+
+        List<CrawlUnit> listOrdered = new ArrayList<CrawlUnit>( listUnits );
+
+        // the sort is stable, the units of same priority keep the order of the plan
+        Collections.sort( listOrdered,
+            new Comparator<CrawlUnit>(  )
+            {
+                public int compare( CrawlUnit unit1, CrawlUnit unit2 )
+                {
+                    return mapPriorities.get( unit2 ).compareTo( mapPriorities.get( unit1 ) );
+                }
+            } );
+
+        return listOrdered;
+    }
+
+    /**
+     * Returns the priority of a unit
+     * @param unit the unit
+     * @param lNow the current time in milliseconds
+     * @return the priority, the greater the sooner
+     */
+    private double getPriority( CrawlUnit unit, long lNow )
+    {
+        Statistics statistics = _mapPrevious.get( getKey( unit ) );
+        double dRecency = 1d;
+        double dDensity = 1d;
+
+        if ( statistics != null )
+        {
+            if ( statistics.getLastModified(  ) > 0 )
+            {
+                long lAge = Math.max( 0L, lNow - statistics.getLastModified(  ) );
+                dRecency = Math.pow( 0.5d, (double) lAge / _lHalfLife );
+            }
+            else
+            {
+                dRecency = 0d;
+            }
+
+            dDensity = ( statistics.getDocumentsFound(  ) > 0 )
+                ? ( (double) statistics.getDocumentsChanged(  ) / statistics.getDocumentsFound(  ) ) : 0d;
+        }
+
+        return unit.getWeight(  ) * ( 1d + dRecency + dDensity );
+    }
+
+    /**
+     * Returns the recorder of the documents of a unit during this indexation
+     * @param unit the unit
+     * @return the activity of the unit
+     */
+    public Activity getActivity( CrawlUnit unit )
+    {
+        String strKey = getKey( unit );
+        Activity activity = _mapActivities.get( strKey );
+
+        if ( activity == null )
+        {
+            Activity newActivity = new Activity(  );
+            activity = _mapActivities.putIfAbsent( strKey, newActivity );
+
+            if ( activity == null )
+            {
+                activity = newActivity;
+            }
+        }
+
+        return activity;
+    }
+
+    /**
+     * Stores the statistics of the units crawled by this indexation, and the previous ones
+     * of the other units. The file is written in a temporary file first so a failure keeps
+     * the previous statistics.
+     * @throws IOException if the file can't be written
+     */
+    public void save(  ) throws IOException
+    {
+        Map<String, Statistics> mapStatistics = new HashMap<String, Statistics>( _mapPrevious );
+
+        for ( Map.Entry<String, Activity> entry : _mapActivities.entrySet(  ) )
+        {
+            Activity activity = entry.getValue(  );
+
+            // a unit stopped before its first document keeps its previous statistics
+            if ( activity._lDocumentsFound.get(  ) > 0 )
+            {
+                Statistics previous = mapStatistics.get( entry.getKey(  ) );
+                long lLastModified = activity._lLastModified.get(  );
+
+                if ( previous != null )
+                {
+                    lLastModified = Math.max( lLastModified, previous.getLastModified(  ) );
+                }
+
+                mapStatistics.put( entry.getKey(  ),
+                    new Statistics( activity._lDocumentsFound.get(  ), activity._lDocumentsChanged.get(  ), lLastModified ) );
+            }
+        }
+
+        synchronized ( _file )
+        {
+            File fileTemp = new File( _file.getPath(  ) + EXTENSION_TEMP );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( 
+                        new FileOutputStream( fileTemp ) ) );
+
+            try
+            {
+                out.writeInt( FILE_VERSION );
+                out.writeInt( mapStatistics.size(  ) );
+
+                for ( Map.Entry<String, Statistics> entry : mapStatistics.entrySet(  ) )
+                {
+                    out.writeUTF( entry.getKey(  ) );
+                    out.writeLong( entry.getValue(  ).getDocumentsFound(  ) );
+                    out.writeLong( entry.getValue(  ).getDocumentsChanged(  ) );
+                    out.writeLong( entry.getValue(  ).getLastModified(  ) );
+                }
+            }
+            finally
+            {
+                out.close(  );
+            }
+
+            if ( _file.exists(  ) && !_file.delete(  ) )
+            {
+                throw new IOException( "Unable to replace the schedule file " + _file.getPath(  ) );
+            }
+
+            if ( !fileTemp.renameTo( _file ) )
+            {
+                throw new IOException( "Unable to rename the schedule file " + fileTemp.getPath(  ) );
+            }
+        }
+    }
+
+    /**
+     * Returns the key of a unit
+     * @param unit the unit
+     * @return the key
+     */
+    private static String getKey( CrawlUnit unit )
+    {
+        return unit.getAdminWorkspace(  ).getName(  ) + KEY_SEPARATOR + unit.getPath(  );
+    }
+
+    /**
+     * Records the documents of a unit found by the crawl. Shared by the crawl threads of the unit.
+     */
+    public static final class Activity
+    {
+        private final AtomicLong _lDocumentsFound = new AtomicLong(  );
+        private final AtomicLong _lDocumentsChanged = new AtomicLong(  );
+        private final AtomicLong _lLastModified = new AtomicLong(  );
+
+        /**
+         * Constructor
+         */
+        private Activity(  )
+        {
+        }
+
+        /**
+         * Counts a document found by the crawl
+         * @param lModified the modification date of the document in milliseconds, 0 if unknown
+         */
+        public void documentFound( long lModified )
+        {
+            _lDocumentsFound.incrementAndGet(  );
+
+            long lLastModified = _lLastModified.get(  );
+
+            while ( ( lModified > lLastModified ) && !_lLastModified.compareAndSet( lLastModified, lModified ) )
+            {
+                lLastModified = _lLastModified.get(  );
+            }
+        }
+
+        /**
+         * Counts a document sent to Solr, because it is new or modified
+         */
+        public void documentChanged(  )
+        {
+            _lDocumentsChanged.incrementAndGet(  );
+        }
+    }
+
+    /**
+     * The statistics of a unit stored by an indexation
+     */
+    private static final class Statistics
+    {
+        private final long _lDocumentsFound;
+        private final long _lDocumentsChanged;
+        private final long _lLastModified;
+
+        /**
+         * Constructor
+         * @param lDocumentsFound the number of documents found by the crawl
+         * @param lDocumentsChanged the number of documents sent to Solr
+         * @param lLastModified the most recent modification date, 0 if unknown
+         */
+        Statistics( long lDocumentsFound, long lDocumentsChanged, long lLastModified )
+        {
+            _lDocumentsFound = lDocumentsFound;
+            _lDocumentsChanged = lDocumentsChanged;
+            _lLastModified = lLastModified;
+        }
+
+        /**
+         * Returns the number of documents found by the crawl
+         * @return the number of documents
+         */
+        long getDocumentsFound(  )
+        {
+            return _lDocumentsFound;
+        }
+
+        /**
+         * Returns the number of documents sent to Solr
+         * @return the number of documents
+         */
+        long getDocumentsChanged(  )
+        {
+            return _lDocumentsChanged;
+        }
+
+        /**
+         * Returns the most recent modification date
+         * @return the date in milliseconds, 0 if unknown
+         */
+        long getLastModified(  )
+        {
+            return _lLastModified;
+        }
+    }
+}
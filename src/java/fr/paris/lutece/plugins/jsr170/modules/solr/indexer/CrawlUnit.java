@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.jcr.business.admin.AdminView;
+import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
+import fr.paris.lutece.plugins.jcr.service.search.JcrIndexer;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.plugins.search.solr.util.SolrConstants;
+import fr.paris.lutece.portal.business.page.Page;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A subtree of a workspace to crawl once, with the roles of the pages publishing it.
+ * The nested subtrees indexed with other roles by their own unit are skipped.
+ */
+public class CrawlUnit
+{
+    private static final String PATH_SEPARATOR = "/";
+    private static final String ROLE_SEPARATOR = "@";
+    private static final String UID_SUFFIX = SolrConstants.CONSTANT_UNDERSCORE + JcrIndexer.SHORT_NAME;
+    private final AdminWorkspace _adminWorkspace;
+    private final AdminView _view;
+    private final String _strPath;
+    private final Set<String> _setRoles = new LinkedHashSet<String>(  );
+    private final List<Integer> _listPortletIds = new ArrayList<Integer>(  );
+    private final Set<String> _setExcludedPaths = new LinkedHashSet<String>(  );
+    private int _nWeight;
+
+    /**
+     * Constructor
+     * @param adminWorkspace the workspace
+     * @param view the view giving access to the subtree
+     * @param strPath the path of the subtree root
+     */
+    public CrawlUnit( AdminWorkspace adminWorkspace, AdminView view, String strPath )
+    {
+        _adminWorkspace = adminWorkspace;
+        _view = view;
+        _strPath = normalizePath( strPath );
+    }
+
+    /**
+     * Returns the workspace
+     * @return the workspace
+     */
+    public AdminWorkspace getAdminWorkspace(  )
+    {
+        return _adminWorkspace;
+    }
+
+    /**
+     * Returns the id of the workspace
+     * @return the id of the workspace
+     */
+    public int getWorkspaceId(  )
+    {
+        return _view.getWorkspaceId(  );
+    }
+
+    /**
+     * Returns the view
+     * @return the view
+     */
+    public AdminView getView(  )
+    {
+        return _view;
+    }
+
+    /**
+     * Returns the path of the subtree root
+     * @return the path
+     */
+    public String getPath(  )
+    {
+        return _strPath;
+    }
+
+    /**
+     * Returns the roles the subtree must be indexed with
+     * @return the roles
+     */
+    public Set<String> getRoles(  )
+    {
+        return _setRoles;
+    }
+
+    /**
+     * Returns the roles the documents of the subtree are indexed with. The subtree is read
+     * once whatever the number of roles, and the role of a Solr document is single-valued,
+     * so each document is sent once per role, see {@link #copyForRole(SolrItem, String)}.
+     * A subtree published on a page without role is only indexed publicly. The roles are
+     * in alphabetical order so the result doesn't depend on the order of the portlets.
+     * @return the roles, the documents of the first one keeping their UID
+     */
+    public List<String> getIndexedRoles(  )
+    {
+        List<String> listRoles = new ArrayList<String>(  );
+
+        for ( String strRole : _setRoles )
+        {
+            if ( ( strRole == null ) || Page.ROLE_NONE.equals( strRole ) )
+            {
+                return Collections.singletonList( Page.ROLE_NONE );
+            }
+
+            listRoles.add( strRole );
+        }
+
+        if ( listRoles.isEmpty(  ) )
+        {
+            return Collections.singletonList( Page.ROLE_NONE );
+        }
+
+        Collections.sort( listRoles );
+
+        return listRoles;
+    }
+
+    /**
+     * Returns the role the documents of the subtree are indexed with under their own UID
+     * @return the first of the indexed roles
+     */
+    public String getIndexedRole(  )
+    {
+        return getIndexedRoles(  ).get( 0 );
+    }
+
+    /**
+     * Tells whether the subtree is public
+     * @return true if the documents are indexed without role
+     */
+    public boolean isPublic(  )
+    {
+        return Page.ROLE_NONE.equals( getIndexedRole(  ) );
+    }
+
+    /**
+     * Returns the ids of the portlets publishing the subtree
+     * @return the portlet ids
+     */
+    public List<Integer> getPortletIds(  )
+    {
+        return _listPortletIds;
+    }
+
+    /**
+     * Returns the weight of the subtree in the crawl schedule : the greatest weight
+     * of the portlets publishing it
+     * @return the weight
+     */
+    public int getWeight(  )
+    {
+        return _nWeight;
+    }
+
+    /**
+     * Raises the weight of the subtree to the weight of a portlet publishing it
+     * @param nWeight the weight of the portlet
+     */
+    public void raiseWeight( int nWeight )
+    {
+        _nWeight = Math.max( _nWeight, nWeight );
+    }
+
+    /**
+     * Returns the roots of the nested subtrees crawled by other units
+     * @return the paths of the excluded subtrees
+     */
+    public Set<String> getExcludedPaths(  )
+    {
+        return _setExcludedPaths;
+    }
+
+    /**
+     * Excludes a nested subtree from the crawl of this unit
+     * @param strPath the path of the nested subtree root
+     */
+    public void exclude( String strPath )
+    {
+        _setExcludedPaths.add( normalizePath( strPath ) );
+    }
+
+    /**
+     * Tells whether a node is in a nested subtree crawled by another unit
+     * @param strPath the path of the node
+     * @return true if the node must not be read by the crawl of this unit
+     */
+    public boolean isExcluded( String strPath )
+    {
+        for ( String strExcludedPath : _setExcludedPaths )
+        {
+            if ( strPath.equals( strExcludedPath ) || strPath.startsWith( strExcludedPath + PATH_SEPARATOR ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Tells whether a node is crawled by this unit
+     * @param strWorkspaceName the name of the workspace of the node
+     * @param strPath the path of the node
+     * @return true if the node is in the subtree and not in an excluded nested subtree
+     */
+    public boolean covers( String strWorkspaceName, String strPath )
+    {
+        if ( !_adminWorkspace.getName(  ).equals( strWorkspaceName ) || isExcluded( strPath ) )
+        {
+            return false;
+        }
+
+        return PATH_SEPARATOR.equals( _strPath ) || strPath.equals( _strPath ) ||
+        strPath.startsWith( _strPath + PATH_SEPARATOR );
+    }
+
+    /**
+     * Returns the UIDs of the documents of a node for all the indexed roles
+     * @param strUid the UID of the document of the node
+     * @return the UID, then the UIDs qualified by the other roles
+     */
+    public List<String> getRoleUids( String strUid )
+    {
+        List<String> listRoles = getIndexedRoles(  );
+        List<String> listUids = new ArrayList<String>( listRoles.size(  ) );
+        listUids.add( strUid );
+
+        for ( String strRole : listRoles.subList( 1, listRoles.size(  ) ) )
+        {
+            listUids.add( getRoleUid( strUid, strRole ) );
+        }
+
+        return listUids;
+    }
+
+    /**
+     * Returns the items of a document for all the indexed roles
+     * @param item the item of the document, with the first role
+     * @return the item, then its copies for the other roles
+     */
+    public List<SolrItem> getRoleItems( SolrItem item )
+    {
+        List<String> listRoles = getIndexedRoles(  );
+        List<SolrItem> listItems = new ArrayList<SolrItem>( listRoles.size(  ) );
+        listItems.add( item );
+
+        for ( String strRole : listRoles.subList( 1, listRoles.size(  ) ) )
+        {
+            listItems.add( copyForRole( item, strRole ) );
+        }
+
+        return listItems;
+    }
+
+    /**
+     * Copies the item of a document for another role. The UID of the copy is qualified
+     * by the role and keeps the suffix of the indexer, so the checkpoints, the fingerprints
+     * and the sweep handle the copies like the other documents.
+     * @param item the item of the document
+     * @param strRole the role of the copy
+     * @return the copy
+     */
+    public static SolrItem copyForRole( SolrItem item, String strRole )
+    {
+        SolrItem copy = new SolrItem(  );
+        copy.setUid( getRoleUid( item.getUid(  ), strRole ) );
+        copy.setRole( strRole );
+        copy.setSite( item.getSite(  ) );
+        copy.setType( item.getType(  ) );
+        copy.setTitle( item.getTitle(  ) );
+        copy.setUrl( item.getUrl(  ) );
+        copy.setSummary( item.getSummary(  ) );
+        copy.setMetadata( item.getMetadata(  ) );
+        copy.setDocPortletId( item.getDocPortletId(  ) );
+        copy.setContent( item.getContent(  ) );
+        copy.setDate( item.getDate(  ) );
+
+        Map<String, String> mapDynamicFields = item.getDynamicFields(  );
+
+        if ( mapDynamicFields != null )
+        {
+            for ( Map.Entry<String, String> entry : mapDynamicFields.entrySet(  ) )
+            {
+                String strName = entry.getKey(  );
+
+                // the item adds the suffix to the name again
+                if ( strName.endsWith( SolrItem.DYNAMIC_STRING_FIELD_SUFFIX ) )
+                {
+                    strName = strName.substring( 0,
+                            strName.length(  ) - SolrItem.DYNAMIC_STRING_FIELD_SUFFIX.length(  ) );
+                }
+
+                copy.addDynamicField( strName, entry.getValue(  ) );
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Qualifies the UID of a document by a role, before the suffix of the indexer
+     * @param strUid the UID of the document
+     * @param strRole the role
+     * @return the UID of the document for the role
+     */
+    static String getRoleUid( String strUid, String strRole )
+    {
+        int nEnd = strUid.endsWith( UID_SUFFIX ) ? ( strUid.length(  ) - UID_SUFFIX.length(  ) ) : strUid.length(  );
+
+        return strUid.substring( 0, nEnd ) + ROLE_SEPARATOR + strRole + strUid.substring( nEnd );
+    }
+
+    /**
+     * Tells whether the subtree of this unit contains the subtree of another unit
+     * @param unit the other unit
+     * @return true if both units are in the same workspace and the other path is under this path
+     */
+    public boolean contains( CrawlUnit unit )
+    {
+        if ( getWorkspaceId(  ) != unit.getWorkspaceId(  ) )
+        {
+            return false;
+        }
+
+        if ( _strPath.equals( unit.getPath(  ) ) || PATH_SEPARATOR.equals( _strPath ) )
+        {
+            return true;
+        }
+
+        return unit.getPath(  ).startsWith( _strPath + PATH_SEPARATOR );
+    }
+
+    /**
+     * Returns the part of this unit under a path
+     * @param strPath the path
+     * @return a unit with the same roles limited to the path if the path is under this path,
+     * this unit if the path contains it, null if they don't intersect
+     */
+    public CrawlUnit restrict( String strPath )
+    {
+        CrawlUnit subUnit = new CrawlUnit( _adminWorkspace, _view, strPath );
+
+        if ( subUnit.contains( this ) )
+        {
+            return this;
+        }
+
+        if ( contains( subUnit ) )
+        {
+            subUnit.getRoles(  ).addAll( _setRoles );
+            subUnit.getPortletIds(  ).addAll( _listPortletIds );
+            subUnit.raiseWeight( _nWeight );
+
+            return subUnit;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the key of the shard of this unit : the workspace name and the first level of the path,
+     * so the units of a same top-level subtree are crawled by the same node
+     * @return the shard key
+     */
+    public String getShardKey(  )
+    {
+        int nEnd = _strPath.indexOf( PATH_SEPARATOR, 1 );
+
+        return _adminWorkspace.getName(  ) + ( ( nEnd < 0 ) ? _strPath : _strPath.substring( 0, nEnd ) );
+    }
+
+    /**
+     * Removes the trailing separator of a path
+     * @param strPath the path
+     * @return the normalized path
+     */
+    private static String normalizePath( String strPath )
+    {
+        if ( ( strPath == null ) || ( strPath.length(  ) == 0 ) )
+        {
+            return PATH_SEPARATOR;
+        }
+
+        String strNormalized = strPath;
+
+        while ( ( strNormalized.length(  ) > 1 ) && strNormalized.endsWith( PATH_SEPARATOR ) )
+        {
+            strNormalized = strNormalized.substring( 0, strNormalized.length(  ) - 1 );
+        }
+
+        return strNormalized;
+    }
+}
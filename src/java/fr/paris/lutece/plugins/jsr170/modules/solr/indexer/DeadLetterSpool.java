@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Local append-only file of the items rejected by Solr, even when sent one by one.
+ * The items are sent again at the beginning of the next indexation.
+ * Each record is written with its length, so a record truncated by a crash is ignored.
+ * The items being sent again are kept in a replay file, until the indexation tells which
+ * of them are still pending.
+ */
+public class DeadLetterSpool
+{
+    private static final int RECORD_VERSION = 1;
+    private static final String EXTENSION_REPLAY = ".replay";
+    private static final String EXTENSION_TEMPORARY = ".tmp";
+    private static final String ENCODING = "UTF-8";
+    private static final long NO_DATE = -1L;
+    private final File _file;
+    private final File _fileReplay;
+
+    /**
+     * Constructor
+     * @param file the spool file
+     */
+    public DeadLetterSpool( File file )
+    {
+        _file = file;
+        _fileReplay = new File( file.getPath(  ) + EXTENSION_REPLAY );
+    }
+
+    /**
+     * Appends an item to the spool
+     * @param item the item
+     * @throws IOException if the spool can't be written
+     */
+    public synchronized void append( SolrItem item ) throws IOException
+    {
+        write( _file, item );
+    }
+
+    /**
+     * Appends the record of an item to a spool file
+     * @param file the file
+     * @param item the item
+     * @throws IOException if the file can't be written
+     */
+    private static void write( File file, SolrItem item )
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(  );
+        DataOutputStream record = new DataOutputStream( bytes );
+        record.writeInt( RECORD_VERSION );
+        writeString( record, item.getUid(  ) );
+        writeString( record, item.getSite(  ) );
+        writeString( record, item.getType(  ) );
+        writeString( record, item.getRole(  ) );
+        writeString( record, item.getTitle(  ) );
+        writeString( record, item.getUrl(  ) );
+        writeString( record, item.getSummary(  ) );
+        writeString( record, item.getMetadata(  ) );
+        writeString( record, item.getDocPortletId(  ) );
+        writeString( record, item.getContent(  ) );
+        record.writeLong( ( item.getDate(  ) != null ) ? item.getDate(  ).getTime(  ) : NO_DATE );
+
+        Map<String, String> mapDynamicFields = item.getDynamicFields(  );
+        record.writeInt( ( mapDynamicFields != null ) ? mapDynamicFields.size(  ) : 0 );
+
+        if ( mapDynamicFields != null )
+        {
+            for ( Map.Entry<String, String> entry : mapDynamicFields.entrySet(  ) )
+            {
+                writeString( record, entry.getKey(  ) );
+                writeString( record, entry.getValue(  ) );
+            }
+        }
+
+        record.flush(  );
+
+        DataOutputStream out = new DataOutputStream( new FileOutputStream( file, true ) );
+
+        try
+        {
+            out.writeInt( bytes.size(  ) );
+            bytes.writeTo( out );
+            out.flush(  );
+        }
+        finally
+        {
+            out.close(  );
+        }
+    }
+
+    /**
+     * Takes the items of the spool, to send them again. The items failing again are appended
+     * to a new spool. The items still pending after the previous replay, or
+     * of a replay interrupted by a crash, are returned first.
+     * @return the items, in the order they were appended
+     * @throws IOException if the spool can't be read
+     */
+    public synchronized List<SolrItem> takeAll(  ) throws IOException
+    {
+        List<SolrItem> listItems = new ArrayList<SolrItem>(  );
+
+        if ( _fileReplay.exists(  ) )
+        {
+            read( _fileReplay, listItems );
+        }
+
+        if ( _file.exists(  ) )
+        {
+            read( _file, listItems );
+
+            if ( !_file.delete(  ) )
+            {
+                throw new IOException( "Unable to delete the spool " + _file.getPath(  ) );
+            }
+        }
+
+        return listItems;
+    }
+
+    /**
+     * Tells which of the items returned by {@link #takeAll()} are still pending. The other ones
+     * have been sent, or appended to the new spool if they failed again, so they are removed
+     * from the replay file.
+     * @param listPending the items neither sent nor spooled again, returned by the next replay
+     * @throws IOException if the replay file can't be written
+     */
+    public synchronized void replayed( Collection<SolrItem> listPending )
+        throws IOException
+    {
+        // the pending items are written aside first, so a crash can't lose them
+        File fileTemporary = new File( _fileReplay.getPath(  ) + EXTENSION_TEMPORARY );
+        delete( fileTemporary );
+
+        for ( SolrItem item : listPending )
+        {
+            write( fileTemporary, item );
+        }
+
+        delete( _fileReplay );
+
+        if ( !listPending.isEmpty(  ) )
+        {
+            if ( !fileTemporary.renameTo( _fileReplay ) )
+            {
+                throw new IOException( "Unable to write the spool " + _fileReplay.getPath(  ) );
+            }
+
+            AppLogService.info( "[SolrJcrIndexer] " + listPending.size(  ) +
+                " spooled documents will be sent again by the next indexation" );
+        }
+    }
+
+    /**
+     * Deletes a spool file if it exists
+     * @param file the file
+     * @throws IOException if the file can't be deleted
+     */
+    private static void delete( File file ) throws IOException
+    {
+        if ( file.exists(  ) && !file.delete(  ) )
+        {
+            throw new IOException( "Unable to delete the spool " + file.getPath(  ) );
+        }
+    }
+
+    /**
+     * Reads the records of a spool file. The content of the spool is kept in the replay file until
+     * {@link #replayed(Collection)} is called.
+     * @param file the file
+     * @param listItems the list receiving the items
+     * @throws IOException if the file can't be read
+     */
+    private void read( File file, List<SolrItem> listItems )
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        ByteArrayOutputStream bytesReplay = new ByteArrayOutputStream(  );
+        DataOutputStream outReplay = new DataOutputStream( bytesReplay );
+
+        try
+        {
+            while ( true )
+            {
+                byte[] record;
+
+                try
+                {
+                    record = new byte[in.readInt(  )];
+                    in.readFully( record );
+                }
+                catch ( EOFException e )
+                {
+                    // end of the file, or record truncated by a crash
+                    break;
+                }
+
+                listItems.add( readItem( new DataInputStream( new ByteArrayInputStream( record ) ) ) );
+                outReplay.writeInt( record.length );
+                outReplay.write( record );
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+
+        if ( file != _fileReplay )
+        {
+            FileOutputStream out = new FileOutputStream( _fileReplay, true );
+
+            try
+            {
+                bytesReplay.writeTo( out );
+            }
+            finally
+            {
+                out.close(  );
+            }
+        }
+    }
+
+    /**
+     * Reads an item from a record
+     * @param in the record
+     * @return the item
+     * @throws IOException if the record is invalid
+     */
+    private static SolrItem readItem( DataInputStream in )
+        throws IOException
+    {
+        if ( in.readInt(  ) != RECORD_VERSION )
+        {
+            throw new IOException( "Unknown spool record version" );
+        }
+
+        SolrItem item = new SolrItem(  );
+        item.setUid( readString( in ) );
+        item.setSite( readString( in ) );
+        item.setType( readString( in ) );
+        item.setRole( readString( in ) );
+        item.setTitle( readString( in ) );
+        item.setUrl( readString( in ) );
+        item.setSummary( readString( in ) );
+        item.setMetadata( readString( in ) );
+        item.setDocPortletId( readString( in ) );
+        item.setContent( readString( in ) );
+
+        long lDate = in.readLong(  );
+
+        if ( lDate != NO_DATE )
+        {
+            item.setDate( new Date( lDate ) );
+        }
+
+        for ( int i = in.readInt(  ); i > 0; i-- )
+        {
+            String strName = readString( in );
+            String strValue = readString( in );
+
+            // the item adds the suffix to the name again
+            if ( strName.endsWith( SolrItem.DYNAMIC_STRING_FIELD_SUFFIX ) )
+            {
+                strName = strName.substring( 0, strName.length(  ) - SolrItem.DYNAMIC_STRING_FIELD_SUFFIX.length(  ) );
+            }
+
+            item.addDynamicField( strName, strValue );
+        }
+
+        return item;
+    }
+
+    /**
+     * Writes a string of any length, null included
+     * @param out the output
+     * @param strValue the string, may be null
+     * @throws IOException if the string can't be written
+     */
+    private static void writeString( DataOutputStream out, String strValue )
+        throws IOException
+    {
+        if ( strValue == null )
+        {
+            out.writeInt( -1 );
+
+            return;
+        }
+
+        byte[] value = strValue.getBytes( ENCODING );
+        out.writeInt( value.length );
+        out.write( value );
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}
+     * @param in the input
+     * @return the string, may be null
+     * @throws IOException if the string can't be read
+     */
+    private static String readString( DataInputStream in )
+        throws IOException
+    {
+        int nLength = in.readInt(  );
+
+        if ( nLength < 0 )
+        {
+            return null;
+        }
+
+        byte[] value = new byte[nLength];
+        in.readFully( value );
+
+        return new String( value, ENCODING );
+    }
+}
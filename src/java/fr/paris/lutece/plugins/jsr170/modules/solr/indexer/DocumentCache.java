@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Coalesces the loads of the items returned by the incremental indexation for a document id.
+ * A caller never gets items read before its call : if a load of the id is running, the
+ * caller waits for the next load, started once the running one is over and shared by all
+ * the callers arrived meanwhile. A burst of calls for an id thus costs at most two reads.
+ * The items can also be cached, which hides the modifications until the entries expire :
+ * the entries are evicted in least recently used order beyond the maximum number of
+ * entries, and expire after a time to live.
+ */
+public class DocumentCache
+{
+    private final int _nMaxEntries;
+    private final long _lTimeToLive;
+    private final Map<String, CacheEntry> _mapEntries;
+    private final Map<String, PendingLoad> _mapLoads = new HashMap<String, PendingLoad>(  );
+    private final AtomicLong _lHits = new AtomicLong(  );
+    private final AtomicLong _lMisses = new AtomicLong(  );
+    private final AtomicLong _lCoalesced = new AtomicLong(  );
+
+    /**
+     * Constructor
+     * @param nMaxEntries the maximum number of cached ids, 0 to disable the cache but still coalesce the loads
+     * @param lTimeToLive the time to live of the entries in milliseconds, 0 to disable the cache
+     */
+    public DocumentCache( final int nMaxEntries, long lTimeToLive )
+    {
+        _nMaxEntries = nMaxEntries;
+        _lTimeToLive = TimeUnit.MILLISECONDS.toNanos( lTimeToLive );
+        _mapEntries = new LinkedHashMap<String, CacheEntry>( 16, 0.75f, true )
+                {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry( Map.Entry<String, CacheEntry> eldest )
+                    {
+                        return size(  ) > nMaxEntries;
+                    }
+                };
+    }
+
+    /**
+     * Returns the items of a document id, from the cache or from a load started after the call
+     * @param strId the document id
+     * @param loader the loader of the items, called if the id is not cached and no load started after this call
+     * @return a new list of the items
+     * @throws InterruptedException if interrupted while waiting for the load of another thread
+     */
+    public List<SolrItem> get( String strId, Callable<List<SolrItem>> loader )
+        throws InterruptedException
+    {
+        PendingLoad pending;
+        FutureTask<List<SolrItem>> load;
+        FutureTask<List<SolrItem>> previousLoad = null;
+        boolean bOwner = false;
+
+        synchronized ( this )
+        {
+            CacheEntry entry = _mapEntries.get( strId );
+
+            if ( entry != null )
+            {
+                if ( entry.isValid(  ) )
+                {
+                    _lHits.incrementAndGet(  );
+
+                    return new ArrayList<SolrItem>( entry.getItems(  ) );
+                }
+
+                _mapEntries.remove( strId );
+            }
+
+            pending = _mapLoads.get( strId );
+
+            if ( pending == null )
+            {
+                pending = new PendingLoad( new FutureTask<List<SolrItem>>( loader ) );
+                _mapLoads.put( strId, pending );
+                load = pending._running;
+                bOwner = true;
+                _lMisses.incrementAndGet(  );
+            }
+            else if ( pending._next == null )
+            {
+                // the running load may have read the document before its last modification
+                pending._next = new FutureTask<List<SolrItem>>( loader );
+                load = pending._next;
+                previousLoad = pending._running;
+                bOwner = true;
+                _lMisses.incrementAndGet(  );
+            }
+            else
+            {
+                load = pending._next;
+                _lCoalesced.incrementAndGet(  );
+            }
+        }
+
+        if ( bOwner )
+        {
+            run( pending, load, previousLoad );
+        }
+
+        try
+        {
+            List<SolrItem> listItems = load.get(  );
+
+            if ( bOwner )
+            {
+                put( strId, pending, load, listItems );
+            }
+
+            return new ArrayList<SolrItem>( listItems );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( bOwner )
+            {
+                put( strId, pending, load, null );
+            }
+
+            Throwable cause = e.getCause(  );
+
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+
+            throw new RuntimeException( cause );
+        }
+    }
+
+    /**
+     * Removes a document id from the cache, so the next call loads it again. The loads
+     * in progress for this id are not shared with the next calls nor cached.
+     * @param strId the document id
+     */
+    public synchronized void invalidate( String strId )
+    {
+        _mapEntries.remove( strId );
+        _mapLoads.remove( strId );
+    }
+
+    /**
+     * Removes all the entries
+     */
+    public synchronized void clear(  )
+    {
+        _mapEntries.clear(  );
+    }
+
+    /**
+     * Returns the number of calls answered from the cache
+     * @return the number of hits
+     */
+    public long getHits(  )
+    {
+        return _lHits.get(  );
+    }
+
+    /**
+     * Returns the number of calls which loaded the items
+     * @return the number of misses
+     */
+    public long getMisses(  )
+    {
+        return _lMisses.get(  );
+    }
+
+    /**
+     * Returns the number of calls which waited for the load of another call
+     * @return the number of coalesced calls
+     */
+    public long getCoalesced(  )
+    {
+        return _lCoalesced.get(  );
+    }
+
+    /**
+     * Returns the number of cached ids
+     * @return the number of entries
+     */
+    public synchronized int size(  )
+    {
+        return _mapEntries.size(  );
+    }
+
+    /**
+     * Runs a load once the previous load of the id is over
+     * @param pending the loads of the id
+     * @param load the load to run
+     * @param previousLoad the running load the new one must follow, or null
+     */
+    private void run( PendingLoad pending, FutureTask<List<SolrItem>> load, FutureTask<List<SolrItem>> previousLoad )
+    {
+        boolean bInterrupted = false;
+
+        if ( previousLoad != null )
+        {
+            try
+            {
+                previousLoad.get(  );
+            }
+            catch ( ExecutionException e )
+            {
+                // reported to the callers of the previous load
+            }
+            catch ( InterruptedException e )
+            {
+                // the load is run anyway, the other callers wait for it
+                bInterrupted = true;
+            }
+
+            synchronized ( this )
+            {
+                pending._running = load;
+                pending._next = null;
+            }
+        }
+
+        load.run(  );
+
+        if ( bInterrupted )
+        {
+            Thread.currentThread(  ).interrupt(  );
+        }
+    }
+
+    /**
+     * Ends a load, caching its items unless it failed, the id was invalidated meanwhile
+     * or a more recent load is pending
+     * @param strId the document id
+     * @param pending the loads of the id
+     * @param load the load
+     * @param listItems the loaded items, null if the load failed
+     */
+    private synchronized void put( String strId, PendingLoad pending, FutureTask<List<SolrItem>> load,
+        List<SolrItem> listItems )
+    {
+        if ( ( _mapLoads.get( strId ) == pending ) && ( pending._running == load ) && ( pending._next == null ) )
+        {
+            _mapLoads.remove( strId );
+
+            if ( ( listItems != null ) && ( _nMaxEntries > 0 ) && ( _lTimeToLive > 0 ) )
+            {
+                _mapEntries.put( strId, new CacheEntry( listItems, System.nanoTime(  ) + _lTimeToLive ) );
+            }
+        }
+    }
+
+    /**
+     * The load running for a document id, and the load which will follow it
+     */
+    private static final class PendingLoad
+    {
+        private FutureTask<List<SolrItem>> _running;
+        private FutureTask<List<SolrItem>> _next;
+
+        /**
+         * Constructor
+         * @param running the running load
+         */
+        PendingLoad( FutureTask<List<SolrItem>> running )
+        {
+            _running = running;
+        }
+    }
+
+    /**
+     * Items cached for a document id
+     */
+    private static final class CacheEntry
+    {
+        private final List<SolrItem> _listItems;
+        private final long _lExpiration;
+
+        /**
+         * Constructor
+         * @param listItems the items
+         * @param lExpiration the expiration time, in {@link System#nanoTime()} reference
+         */
+        CacheEntry( List<SolrItem> listItems, long lExpiration )
+        {
+            _listItems = new ArrayList<SolrItem>( listItems );
+            _lExpiration = lExpiration;
+        }
+
+        /**
+         * Returns the items
+         * @return the items
+         */
+        List<SolrItem> getItems(  )
+        {
+            return _listItems;
+        }
+
+        /**
+         * Tells whether the entry hasn't expired
+         * @return true if the entry is still valid
+         */
+        boolean isValid(  )
+        {
+            return ( _lExpiration - System.nanoTime(  ) ) > 0;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.jsr170.modules.solr.util.SolrJcrIndexerUtils;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Cache on disk of the texts extracted from the JCR binaries, by document UID and
+ * modification date, so an unchanged binary is not parsed again by the next indexations.
+ * Each document has one compressed file, named after a 64 bits hash of its UID and
+ * replaced when the document is modified. A cached entry can also record that the text
+ * was too long to be indexed. The entries extracted with other limits are extracted again.
+ * The files read or written by an indexation are touched, so the files of the documents
+ * which no longer exist can be pruned after a complete crawl.
+ */
+public class ExtractionCache
+{
+    private static final int FILE_VERSION = 2;
+    private static final String EXTENSION = ".gz";
+    private static final String EXTENSION_TEMP = ".tmp";
+    private static final String ENCODING = "UTF-8";
+
+    // the modification dates of some file systems are rounded to 2 seconds
+    private static final long MODIFICATION_PRECISION = 2000L;
+    private final File _directory;
+    private final int _nMaxLength;
+    private final int _nSkipLength;
+
+    /**
+     * Constructor
+     * @param directory the directory of the cache
+     * @param nMaxLength the maximum number of characters of the texts, 0 or less for no limit
+     * @param nSkipLength the length above which a text is not indexed, 0 or less for no limit
+     */
+    public ExtractionCache( File directory, int nMaxLength, int nSkipLength )
+    {
+        _directory = directory;
+        _nMaxLength = nMaxLength;
+        _nSkipLength = nSkipLength;
+    }
+
+    /**
+     * Returns the cached text of a document
+     * @param strUid the document UID
+     * @param strDate the modification date of the document
+     * @return the result of the cached extraction, or null if the document is not cached or has been modified
+     */
+    public CachedContent get( String strUid, String strDate )
+    {
+        File file = getFile( strUid );
+
+        if ( !file.exists(  ) )
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new GZIPInputStream( new FileInputStream( file ) ) ) );
+
+            if ( ( in.readInt(  ) != FILE_VERSION ) || !strUid.equals( in.readUTF(  ) ) ||
+                    !strDate.equals( in.readUTF(  ) ) || !isExtractedWithin( in.readInt(  ), in.readInt(  ) ) )
+            {
+                return null;
+            }
+
+            touch( file );
+
+            if ( in.readBoolean(  ) )
+            {
+                return new CachedContent( null );
+            }
+
+            // a text extracted without limit is truncated to the current one
+            return new CachedContent( SolrJcrIndexerUtils.readContent( new InputStreamReader( in, ENCODING ),
+                    _nMaxLength ) );
+        }
+        catch ( IOException e )
+        {
+            // a corrupted entry is extracted again
+            return null;
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    /**
+     * Stores the text extracted from a document, replacing the text of its previous version
+     * @param strUid the document UID
+     * @param strDate the modification date of the document
+     * @param strContent the text, or null if it was too long to be indexed
+     * @throws IOException if the file can't be written
+     */
+    public void put( String strUid, String strDate, String strContent )
+        throws IOException
+    {
+        File file = getFile( strUid );
+        file.getParentFile(  ).mkdirs(  );
+
+        File fileTemp = new File( file.getPath(  ) + EXTENSION_TEMP + Thread.currentThread(  ).getId(  ) );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( 
+                    new GZIPOutputStream( new FileOutputStream( fileTemp ) ) ) );
+
+        try
+        {
+            out.writeInt( FILE_VERSION );
+            out.writeUTF( strUid );
+            out.writeUTF( strDate );
+            out.writeInt( _nMaxLength );
+            out.writeInt( _nSkipLength );
+            out.writeBoolean( strContent == null );
+
+            if ( strContent != null )
+            {
+                Writer writer = new OutputStreamWriter( out, ENCODING );
+                writer.write( strContent );
+                writer.flush(  );
+            }
+        }
+        finally
+        {
+            out.close(  );
+        }
+
+        if ( file.exists(  ) && !file.delete(  ) )
+        {
+            fileTemp.delete(  );
+            throw new IOException( "Unable to replace the cached extraction " + file.getPath(  ) );
+        }
+
+        if ( !fileTemp.renameTo( file ) )
+        {
+            fileTemp.delete(  );
+            throw new IOException( "Unable to rename the cached extraction " + fileTemp.getPath(  ) );
+        }
+    }
+
+    /**
+     * Deletes the files which were neither read nor written since the start of an indexation.
+     * Must only be called after a crawl of the whole repository, which reads the entries of all
+     * the documents still published.
+     * @param lRunStart the start of the indexation, in milliseconds
+     * @return the number of deleted files
+     */
+    public int prune( long lRunStart )
+    {
+        long lLimit = lRunStart - MODIFICATION_PRECISION;
+        int nDeleted = 0;
+        File[] subdirectories = _directory.listFiles(  );
+
+        if ( subdirectories == null )
+        {
+            return 0;
+        }
+
+        for ( File subdirectory : subdirectories )
+        {
+            File[] files = subdirectory.listFiles(  );
+
+            if ( files == null )
+            {
+                continue;
+            }
+
+            for ( File file : files )
+            {
+                if ( ( file.lastModified(  ) < lLimit ) && file.delete(  ) )
+                {
+                    nDeleted++;
+                }
+            }
+        }
+
+        if ( nDeleted > 0 )
+        {
+            AppLogService.info( "[SolrJcrIndexer] " + nDeleted + " unused extracted texts have been pruned" );
+        }
+
+        return nDeleted;
+    }
+
+    /**
+     * Tells whether a cached text was extracted with limits giving the text extracted with the current ones
+     * @param nMaxLength the maximum length the text was extracted with
+     * @param nSkipLength the skip length the text was extracted with
+     * @return true if the text can be used, after being truncated to the current maximum length
+     */
+    private boolean isExtractedWithin( int nMaxLength, int nSkipLength )
+    {
+        if ( nSkipLength != _nSkipLength )
+        {
+            return false;
+        }
+
+        return ( nMaxLength <= 0 ) || ( ( _nMaxLength > 0 ) && ( _nMaxLength <= nMaxLength ) );
+    }
+
+    /**
+     * Marks a file as used by the current indexation
+     * @param file the file
+     */
+    private static void touch( File file )
+    {
+        if ( !file.setLastModified( System.currentTimeMillis(  ) ) )
+        {
+            AppLogService.debug( "[SolrJcrIndexer] Unable to touch the cached extraction " + file.getPath(  ) );
+        }
+    }
+
+    /**
+     * Returns the file of a document. The files are spread over 256 subdirectories.
+     * @param strUid the document UID
+     * @return the file
+     */
+    private File getFile( String strUid )
+    {
+        String strHash = String.format( "%016x", FingerprintStore.key( strUid ) );
+
+        return new File( new File( _directory, strHash.substring( 0, 2 ) ), strHash + EXTENSION );
+    }
+
+    /**
+     * Result of a cached extraction
+     */
+    public static final class CachedContent
+    {
+        private final String _strContent;
+
+        /**
+         * Constructor
+         * @param strContent the text, or null if it was too long to be indexed
+         */
+        CachedContent( String strContent )
+        {
+            _strContent = strContent;
+        }
+
+        /**
+         * Returns the text
+         * @return the text, or null if it was too long to be indexed
+         */
+        public String getContent(  )
+        {
+            return _strContent;
+        }
+    }
+}
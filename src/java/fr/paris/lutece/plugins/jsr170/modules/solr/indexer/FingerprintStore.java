@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Fingerprints of the items sent to Solr, by document UID. An item whose fingerprint
+ * hasn't changed since the previous indexation doesn't need to be sent again.
+ * <br>
+ * The UIDs and the fingerprints are stored as 64 bits hashes in an open addressing
+ * table allocated outside of the heap, 24 bytes per document : the key, the fingerprint
+ * and the number of the last indexation which saw the document. The documents not seen
+ * by an indexation are evicted when the store is saved.
+ */
+public class FingerprintStore
+{
+    private static final int FILE_VERSION = 1;
+    private static final String EXTENSION_TEMP = ".tmp";
+    private static final int SLOT_SIZE = 3;
+    private static final int OFFSET_FINGERPRINT = 1;
+    private static final int OFFSET_RUN = 2;
+    private static final int MIN_CAPACITY = 1024;
+    private static final long EMPTY_KEY = 0L;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final char SEPARATOR = '\u0000';
+    private final File _file;
+    private final long _lRun;
+    private LongBuffer _table;
+    private int _nCapacity;
+    private int _nSize;
+
+    /**
+     * Constructor
+     * @param file the store file
+     * @param lRun the number of the current indexation
+     * @param nExpectedSize the expected number of documents
+     */
+    private FingerprintStore( File file, long lRun, int nExpectedSize )
+    {
+        _file = file;
+        _lRun = lRun;
+        allocate( capacityFor( nExpectedSize ) );
+    }
+
+    /**
+     * Creates an empty store, ignoring the content of the file
+     * @param file the store file
+     * @return the store
+     */
+    public static FingerprintStore empty( File file )
+    {
+        return new FingerprintStore( file, 1L, 0 );
+    }
+
+    /**
+     * Loads the store saved in a file. An empty store is returned if the file doesn't exist.
+     * @param file the store file
+     * @return the store
+     * @throws IOException if the file can't be read
+     */
+    public static FingerprintStore load( File file ) throws IOException
+    {
+        if ( !file.exists(  ) )
+        {
+            return empty( file );
+        }
+
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+        try
+        {
+            if ( in.readInt(  ) != FILE_VERSION )
+            {
+                return empty( file );
+            }
+
+            long lPreviousRun = in.readLong(  );
+            int nCount = in.readInt(  );
+            FingerprintStore store = new FingerprintStore( file, lPreviousRun + 1, nCount );
+
+            for ( int i = 0; i < nCount; i++ )
+            {
+                long lKey = in.readLong(  );
+                long lFingerprint = in.readLong(  );
+                store.put( lKey, lFingerprint, in.readLong(  ) );
+            }
+
+            return store;
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    /**
+     * Computes the fingerprint of an item. It covers all the fields sent to Solr.
+     * @param item the item
+     * @return the fingerprint
+     */
+    public static long fingerprint( SolrItem item )
+    {
+        long lHash = FNV_OFFSET_BASIS;
+        lHash = hash( lHash, item.getUid(  ) );
+        lHash = hash( lHash, item.getTitle(  ) );
+        lHash = hash( lHash, item.getUrl(  ) );
+        lHash = hash( lHash, item.getType(  ) );
+        lHash = hash( lHash, item.getRole(  ) );
+        lHash = hash( lHash, item.getSummary(  ) );
+        lHash = hash( lHash, item.getMetadata(  ) );
+        lHash = hash( lHash, item.getDocPortletId(  ) );
+        lHash = hash( lHash, item.getSite(  ) );
+        lHash = hash( lHash, ( item.getDate(  ) != null ) ? item.getDate(  ).getTime(  ) : 0L );
+        lHash = hash( lHash, item.getContent(  ) );
+
+        Map<String, ?> mapDynamicFields = item.getDynamicFields(  );
+
+        if ( ( mapDynamicFields != null ) && !mapDynamicFields.isEmpty(  ) )
+        {
+            // sorted, so the fingerprint doesn't depend on the order of the map
+            for ( Map.Entry<String, ?> entry : new TreeMap<String, Object>( mapDynamicFields ).entrySet(  ) )
+            {
+                lHash = hash( lHash, entry.getKey(  ) );
+                lHash = hash( lHash, String.valueOf( entry.getValue(  ) ) );
+            }
+        }
+
+        return mix( lHash );
+    }
+
+    /**
+     * Records the fingerprint of an item sent to Solr
+     * @param strUid the document UID
+     * @param lFingerprint the fingerprint of the item
+     * @return true if the document is new or its fingerprint changed since the previous indexation
+     */
+    public synchronized boolean update( String strUid, long lFingerprint )
+    {
+        long lKey = key( strUid );
+        int nSlot = find( lKey );
+
+        if ( nSlot >= 0 )
+        {
+            _table.put( nSlot + OFFSET_RUN, _lRun );
+
+            if ( _table.get( nSlot + OFFSET_FINGERPRINT ) == lFingerprint )
+            {
+                return false;
+            }
+
+            _table.put( nSlot + OFFSET_FINGERPRINT, lFingerprint );
+
+            return true;
+        }
+
+        put( lKey, lFingerprint, _lRun );
+
+        return true;
+    }
+
+    /**
+     * Marks a document as seen by the current indexation without changing its fingerprint,
+     * for the documents skipped before being fingerprinted
+     * @param strUid the document UID
+     */
+    public synchronized void touch( String strUid )
+    {
+        int nSlot = find( key( strUid ) );
+
+        if ( nSlot >= 0 )
+        {
+            _table.put( nSlot + OFFSET_RUN, _lRun );
+        }
+    }
+
+    /**
+     * Returns the number of documents in the store
+     * @return the number of documents
+     */
+    public synchronized int size(  )
+    {
+        return _nSize;
+    }
+
+    /**
+     * Stores the fingerprints. The file is written in a temporary file first so a
+     * failure keeps the previous store.
+     * @param bEvict true to drop the documents not seen by the current indexation,
+     * which must then have crawled the whole repository
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void save( boolean bEvict ) throws IOException
+    {
+        int nCount = 0;
+
+        for ( int nSlot = 0; nSlot < ( _nCapacity * SLOT_SIZE ); nSlot += SLOT_SIZE )
+        {
+            if ( isKept( nSlot, bEvict ) )
+            {
+                nCount++;
+            }
+        }
+
+        File fileTemp = new File( _file.getPath(  ) + EXTENSION_TEMP );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fileTemp ) ) );
+
+        try
+        {
+            out.writeInt( FILE_VERSION );
+            out.writeLong( _lRun );
+            out.writeInt( nCount );
+
+            for ( int nSlot = 0; nSlot < ( _nCapacity * SLOT_SIZE ); nSlot += SLOT_SIZE )
+            {
+                if ( isKept( nSlot, bEvict ) )
+                {
+                    out.writeLong( _table.get( nSlot ) );
+                    out.writeLong( _table.get( nSlot + OFFSET_FINGERPRINT ) );
+                    out.writeLong( _table.get( nSlot + OFFSET_RUN ) );
+                }
+            }
+        }
+        finally
+        {
+            out.close(  );
+        }
+
+        if ( _file.exists(  ) && !_file.delete(  ) )
+        {
+            throw new IOException( "Unable to replace the fingerprint file " + _file.getPath(  ) );
+        }
+
+        if ( !fileTemp.renameTo( _file ) )
+        {
+            throw new IOException( "Unable to rename the fingerprint file " + fileTemp.getPath(  ) );
+        }
+    }
+
+    /**
+     * Tells whether a slot is written when the store is saved
+     * @param nSlot the index of the slot
+     * @param bEvict true to drop the documents not seen by the current indexation
+     * @return true if the slot holds a document to keep
+     */
+    private boolean isKept( int nSlot, boolean bEvict )
+    {
+        return ( _table.get( nSlot ) != EMPTY_KEY ) && ( !bEvict || ( _table.get( nSlot + OFFSET_RUN ) == _lRun ) );
+    }
+
+    /**
+     * Finds the slot of a key
+     * @param lKey the key
+     * @return the index of the slot, or -1 if the key is absent
+     */
+    private int find( long lKey )
+    {
+        int nMask = _nCapacity - 1;
+        int nIndex = (int) lKey & nMask;
+
+        while ( true )
+        {
+            long lSlotKey = _table.get( nIndex * SLOT_SIZE );
+
+            if ( lSlotKey == lKey )
+            {
+                return nIndex * SLOT_SIZE;
+            }
+
+            if ( lSlotKey == EMPTY_KEY )
+            {
+                return -1;
+            }
+
+            nIndex = ( nIndex + 1 ) & nMask;
+        }
+    }
+
+    /**
+     * Adds a key absent from the table, growing the table if needed
+     * @param lKey the key
+     * @param lFingerprint the fingerprint
+     * @param lRun the number of the indexation which saw the document
+     */
+    private void put( long lKey, long lFingerprint, long lRun )
+    {
+        if ( ( ( _nSize + 1 ) * 4L ) > ( _nCapacity * 3L ) )
+        {
+            grow(  );
+        }
+
+        int nMask = _nCapacity - 1;
+        int nIndex = (int) lKey & nMask;
+
+        while ( _table.get( nIndex * SLOT_SIZE ) != EMPTY_KEY )
+        {
+            nIndex = ( nIndex + 1 ) & nMask;
+        }
+
+        int nSlot = nIndex * SLOT_SIZE;
+        _table.put( nSlot, lKey );
+        _table.put( nSlot + OFFSET_FINGERPRINT, lFingerprint );
+        _table.put( nSlot + OFFSET_RUN, lRun );
+        _nSize++;
+    }
+
+    /**
+     * Doubles the capacity of the table
+     */
+    private void grow(  )
+    {
+        LongBuffer oldTable = _table;
+        int nOldCapacity = _nCapacity;
+        allocate( nOldCapacity * 2 );
+
+        for ( int nSlot = 0; nSlot < ( nOldCapacity * SLOT_SIZE ); nSlot += SLOT_SIZE )
+        {
+            long lKey = oldTable.get( nSlot );
+
+            if ( lKey != EMPTY_KEY )
+            {
+                put( lKey, oldTable.get( nSlot + OFFSET_FINGERPRINT ), oldTable.get( nSlot + OFFSET_RUN ) );
+            }
+        }
+    }
+
+    /**
+     * Allocates an empty table
+     * @param nCapacity the number of slots, a power of two
+     */
+    private void allocate( int nCapacity )
+    {
+        _nCapacity = nCapacity;
+        _nSize = 0;
+        _table = ByteBuffer.allocateDirect( nCapacity * SLOT_SIZE * 8 ).asLongBuffer(  );
+    }
+
+    /**
+     * Returns the capacity of a table holding a number of documents
+     * @param nExpectedSize the number of documents
+     * @return the number of slots
+     */
+    private static int capacityFor( int nExpectedSize )
+    {
+        int nCapacity = MIN_CAPACITY;
+
+        while ( ( nExpectedSize * 4L ) > ( nCapacity * 3L ) )
+        {
+            nCapacity *= 2;
+        }
+
+        return nCapacity;
+    }
+
+    /**
+     * Returns the key of a document UID, a 64 bits hash also used by {@link UidSet}
+     * @param strUid the UID
+     * @return the key, never {@link #EMPTY_KEY}
+     */
+    static long key( String strUid )
+    {
+        long lKey = mix( hash( FNV_OFFSET_BASIS, strUid ) );
+
+        return ( lKey == EMPTY_KEY ) ? 1L : lKey;
+    }
+
+    /**
+     * Computes the 64 bits key of a pair of strings
+     * @param strFirst the first string, may be null
+     * @param strSecond the second string, may be null
+     * @return the key, never {@link #EMPTY_KEY}
+     */
+    static long key( String strFirst, String strSecond )
+    {
+        long lKey = mix( hash( hash( FNV_OFFSET_BASIS, strFirst ), strSecond ) );
+
+        return ( lKey == EMPTY_KEY ) ? 1L : lKey;
+    }
+
+    /**
+     * Adds a string to a FNV-1a hash
+     * @param lHash the hash
+     * @param strValue the string, may be null
+     * @return the new hash
+     */
+    private static long hash( long lHash, String strValue )
+    {
+        long lResult = lHash;
+
+        if ( strValue != null )
+        {
+            for ( int i = 0, nLength = strValue.length(  ); i < nLength; i++ )
+            {
+                lResult = ( lResult ^ strValue.charAt( i ) ) * FNV_PRIME;
+            }
+        }
+
+        return ( lResult ^ SEPARATOR ) * FNV_PRIME;
+    }
+
+    /**
+     * Adds a long to a FNV-1a hash
+     * @param lHash the hash
+     * @param lValue the value
+     * @return the new hash
+     */
+    private static long hash( long lHash, long lValue )
+    {
+        long lResult = lHash;
+
+        for ( int nShift = 0; nShift < 64; nShift += 16 )
+        {
+            lResult = ( lResult ^ ( ( lValue >>> nShift ) & 0xffffL ) ) * FNV_PRIME;
+        }
+
+        return lResult;
+    }
+
+    /**
+     * Spreads the bits of a hash, so its low bits can be used as a table index
+     * @param lHash the hash
+     * @return the mixed hash
+     */
+    private static long mix( long lHash )
+    {
+        long lResult = lHash;
+        lResult ^= ( lResult >>> 33 );
+        lResult *= 0xff51afd7ed558ccdL;
+        lResult ^= ( lResult >>> 33 );
+        lResult *= 0xc4ceb9fe1a85ec53L;
+        lResult ^= ( lResult >>> 33 );
+
+        return lResult;
+    }
+}
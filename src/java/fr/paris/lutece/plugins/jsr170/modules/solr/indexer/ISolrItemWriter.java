@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import java.io.IOException;
+
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * Destination of the {@link SolrItem} objects produced by the JCR crawl
+ */
+public interface ISolrItemWriter
+{
+    /**
+     * Sends several items to the index in a single update
+     * @param items the items to send
+     * @throws SolrRejectionException if the server rejected the items
+     * @throws IOException if the server couldn't be reached
+     */
+    void write( Collection<SolrItem> items ) throws IOException;
+
+    /**
+     * Deletes documents from the index
+     * @param listUids the UIDs of the documents to delete
+     * @throws IOException if the update failed
+     */
+    void delete( List<String> listUids ) throws IOException;
+
+    /**
+     * Counts the documents of the index matching a query
+     * @param strQuery the query
+     * @return the number of documents found
+     * @throws IOException if the query failed
+     */
+    long count( String strQuery ) throws IOException;
+
+    /**
+     * Lists the UIDs of the documents matching a query, in the order of the UIDs.
+     * The UIDs are listed page by page, each page starting after the last UID of the previous one.
+     * @param strQuery the query
+     * @param strAfterUid the UID the page starts after, or null for the first page
+     * @param nRows the maximum number of UIDs of the page
+     * @return the UIDs, fewer than nRows on the last page
+     * @throws IOException if the query failed
+     */
+    List<String> listUids( String strQuery, String strAfterUid, int nRows )
+        throws IOException;
+
+    /**
+     * Commits the pending updates
+     * @throws IOException if the commit failed
+     */
+    void commit(  ) throws IOException;
+}
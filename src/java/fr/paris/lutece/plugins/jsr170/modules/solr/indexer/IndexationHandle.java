@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Handle on an indexation of some subtrees run in the background : its progress,
+ * estimated from a count of the nodes of the subtrees listed before the crawl, and
+ * its cancellation. A cancelled indexation stops crawling, the documents already
+ * read are still sent to Solr.
+ */
+public class IndexationHandle
+{
+    private final String _strWorkspaceName;
+    private final String _strPath;
+    private volatile IndexerMetrics _metrics;
+    private volatile long _lEstimatedNodes = -1L;
+    private volatile boolean _bCancelled;
+    private volatile boolean _bDone;
+    private volatile List<String> _listErrors = Collections.emptyList(  );
+
+    /**
+     * Constructor
+     * @param strWorkspaceName the name of the workspace, or null if the indexation isn't limited to a subtree
+     * @param strPath the path of the subtree root, or null
+     */
+    public IndexationHandle( String strWorkspaceName, String strPath )
+    {
+        _strWorkspaceName = strWorkspaceName;
+        _strPath = strPath;
+    }
+
+    /**
+     * Returns the name of the indexed workspace
+     * @return the workspace name
+     */
+    public String getWorkspaceName(  )
+    {
+        return _strWorkspaceName;
+    }
+
+    /**
+     * Returns the path of the indexed subtree
+     * @return the path
+     */
+    public String getPath(  )
+    {
+        return _strPath;
+    }
+
+    /**
+     * Asks the indexation to stop
+     */
+    public void cancel(  )
+    {
+        _bCancelled = true;
+    }
+
+    /**
+     * Tells whether the indexation was asked to stop
+     * @return true if it was cancelled
+     */
+    public boolean isCancelled(  )
+    {
+        return _bCancelled;
+    }
+
+    /**
+     * Sets the number of nodes the crawl is expected to read
+     * @param lEstimatedNodes the number of nodes
+     */
+    void setEstimatedNodes( long lEstimatedNodes )
+    {
+        _lEstimatedNodes = lEstimatedNodes;
+    }
+
+    /**
+     * Records the start of the crawl
+     * @param metrics the metrics of the indexation
+     */
+    void start( IndexerMetrics metrics )
+    {
+        _metrics = metrics;
+    }
+
+    /**
+     * Records the end of the indexation
+     * @param listErrors the errors of the indexation
+     */
+    public void finish( List<String> listErrors )
+    {
+        _listErrors = new ArrayList<String>( listErrors );
+        _bDone = true;
+    }
+
+    /**
+     * Tells whether the crawl has started : the nodes are counted and no other indexation is running
+     * @return true if the crawl has started
+     */
+    public boolean isStarted(  )
+    {
+        return _metrics != null;
+    }
+
+    /**
+     * Tells whether the indexation is over
+     * @return true if it is over, completed, cancelled or failed
+     */
+    public boolean isDone(  )
+    {
+        return _bDone;
+    }
+
+    /**
+     * Returns the errors of the indexation
+     * @return the errors, empty until it is over
+     */
+    public List<String> getErrors(  )
+    {
+        return _listErrors;
+    }
+
+    /**
+     * Returns the number of nodes read by the crawl
+     * @return the number of nodes
+     */
+    public long getNodesDone(  )
+    {
+        IndexerMetrics metrics = _metrics;
+
+        return ( metrics != null ) ? metrics.getNodesVisited(  ) : 0L;
+    }
+
+    /**
+     * Returns the number of nodes the crawl is expected to read
+     * @return the number of nodes, -1 until they are counted
+     */
+    public long getEstimatedNodes(  )
+    {
+        return _lEstimatedNodes;
+    }
+
+    /**
+     * Returns the number of documents sent to Solr
+     * @return the number of documents
+     */
+    public long getDocumentsSent(  )
+    {
+        IndexerMetrics metrics = _metrics;
+
+        return ( metrics != null ) ? metrics.getDocumentsSent(  ) : 0L;
+    }
+
+    /**
+     * Returns the average number of documents sent per second
+     * @return the rate
+     */
+    public double getDocumentsPerSecond(  )
+    {
+        IndexerMetrics metrics = _metrics;
+
+        return ( metrics != null ) ? metrics.getWriteRate(  ) : 0d;
+    }
+
+    /**
+     * Returns the part of the estimated nodes read by the crawl
+     * @return the percentage, -1 if it is unknown
+     */
+    public int getPercentage(  )
+    {
+        long lEstimatedNodes = _lEstimatedNodes;
+
+        if ( lEstimatedNodes <= 0 )
+        {
+            return _bDone ? 100 : -1;
+        }
+
+        return (int) Math.min( 100L, ( getNodesDone(  ) * 100L ) / lEstimatedNodes );
+    }
+
+    /**
+     * Returns the estimated time before the end of the crawl, from the rate of the nodes read so far
+     * @return the time in milliseconds, -1 if it is unknown
+     */
+    public long getRemainingTime(  )
+    {
+        IndexerMetrics metrics = _metrics;
+        long lNodesDone = getNodesDone(  );
+
+        if ( _bDone )
+        {
+            return 0L;
+        }
+
+        if ( ( metrics == null ) || ( lNodesDone == 0 ) || ( _lEstimatedNodes < 0 ) )
+        {
+            return -1L;
+        }
+
+        long lRemainingNodes = Math.max( 0L, _lEstimatedNodes - lNodesDone );
+
+        return ( metrics.getDuration(  ) * lRemainingNodes ) / lNodesDone;
+    }
+}
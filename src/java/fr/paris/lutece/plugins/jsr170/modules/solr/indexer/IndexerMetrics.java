@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Counters and timers of an indexation
+ */
+public class IndexerMetrics
+{
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private final long _lStartTime = System.currentTimeMillis(  );
+    private volatile long _lEndTime;
+    private final AtomicLong _lNodesVisited = new AtomicLong(  );
+    private final AtomicLong _lDocumentsConverted = new AtomicLong(  );
+    private final AtomicLong _lDocumentsSkipped = new AtomicLong(  );
+    private final AtomicLong _lDocumentsSent = new AtomicLong(  );
+    private final AtomicLong _lDocumentsDeleted = new AtomicLong(  );
+    private final AtomicLong _lDocumentsSpooled = new AtomicLong(  );
+    private final AtomicLong _lDocumentsDeduplicated = new AtomicLong(  );
+    private final AtomicLong _lContentSize = new AtomicLong(  );
+    private final AtomicLong _lFailures = new AtomicLong(  );
+    private final LatencyHistogram _jcrReadLatency = new LatencyHistogram(  );
+    private final LatencyHistogram _conversionLatency = new LatencyHistogram(  );
+    private final LatencyHistogram _solrWriteLatency = new LatencyHistogram(  );
+    private final ConcurrentMap<String, AtomicLong> _mapFailures = new ConcurrentHashMap<String, AtomicLong>(  );
+    private final ConcurrentMap<String, AtomicLong> _mapWorkspaceDurations = new ConcurrentHashMap<String, AtomicLong>(  );
+    private volatile double _dWriteDocumentsLimit;
+    private volatile double _dWriteCharactersLimit;
+
+    /**
+     * Records the read of a JCR node
+     * @param lNanos the duration of the read
+     */
+    public void nodeRead( long lNanos )
+    {
+        _lNodesVisited.incrementAndGet(  );
+        _jcrReadLatency.record( lNanos );
+    }
+
+    /**
+     * Records the conversion of a document
+     * @param lNanos the duration of the conversion
+     * @param lContentSize the size of the content of the converted document
+     */
+    public void documentConverted( long lNanos, long lContentSize )
+    {
+        _lDocumentsConverted.incrementAndGet(  );
+        _lContentSize.addAndGet( lContentSize );
+        _conversionLatency.record( lNanos );
+    }
+
+    /**
+     * Records a document not sent because it didn't change
+     */
+    public void documentSkipped(  )
+    {
+        _lDocumentsSkipped.incrementAndGet(  );
+    }
+
+    /**
+     * Records documents deleted from Solr
+     * @param nDocuments the number of documents
+     */
+    public void documentsDeleted( int nDocuments )
+    {
+        _lDocumentsDeleted.addAndGet( nDocuments );
+    }
+
+    /**
+     * Records a document which couldn't be sent, spooled for the next indexation
+     */
+    public void documentSpooled(  )
+    {
+        _lDocumentsSpooled.incrementAndGet(  );
+    }
+
+    /**
+     * Records a document sent without its content, carried by another document
+     */
+    public void documentDeduplicated(  )
+    {
+        _lDocumentsDeduplicated.incrementAndGet(  );
+    }
+
+    /**
+     * Records a batch sent to Solr
+     * @param nItems the number of items of the batch
+     * @param lNanos the duration of the update
+     */
+    public void batchSent( int nItems, long lNanos )
+    {
+        _lDocumentsSent.addAndGet( nItems );
+        _solrWriteLatency.record( lNanos );
+    }
+
+    /**
+     * Records a failure
+     * @param throwable the cause of the failure
+     */
+    public void failure( Throwable throwable )
+    {
+        _lFailures.incrementAndGet(  );
+        increment( _mapFailures, throwable.getClass(  ).getName(  ), 1 );
+    }
+
+    /**
+     * Records the time spent crawling a workspace by a crawl task
+     * @param strWorkspaceName the workspace name
+     * @param lNanos the duration of the task
+     */
+    public void workspaceCrawled( String strWorkspaceName, long lNanos )
+    {
+        increment( _mapWorkspaceDurations, strWorkspaceName, lNanos / NANOS_PER_MILLI );
+    }
+
+    /**
+     * Records the current limits of the Solr updates
+     * @param dDocumentsPerSecond the maximum number of documents per second, 0 for no limit
+     * @param dCharactersPerSecond the maximum number of content characters per second, 0 for no limit
+     */
+    public void writeRateLimitChanged( double dDocumentsPerSecond, double dCharactersPerSecond )
+    {
+        _dWriteDocumentsLimit = dDocumentsPerSecond;
+        _dWriteCharactersLimit = dCharactersPerSecond;
+    }
+
+    /**
+     * Marks the end of the indexation
+     */
+    public void finish(  )
+    {
+        _lEndTime = System.currentTimeMillis(  );
+    }
+
+    /**
+     * Tells whether the indexation is running
+     * @return true if the indexation is not finished
+     */
+    public boolean isRunning(  )
+    {
+        return _lEndTime == 0;
+    }
+
+    /**
+     * Returns the duration of the indexation, up to now if it is running
+     * @return the duration in milliseconds
+     */
+    public long getDuration(  )
+    {
+        return ( isRunning(  ) ? System.currentTimeMillis(  ) : _lEndTime ) - _lStartTime;
+    }
+
+    /**
+     * Returns the number of crawled nodes
+     * @return the number of nodes
+     */
+    public long getNodesVisited(  )
+    {
+        return _lNodesVisited.get(  );
+    }
+
+    /**
+     * Returns the number of converted documents
+     * @return the number of documents
+     */
+    public long getDocumentsConverted(  )
+    {
+        return _lDocumentsConverted.get(  );
+    }
+
+    /**
+     * Returns the number of unchanged documents which were not sent
+     * @return the number of documents
+     */
+    public long getDocumentsSkipped(  )
+    {
+        return _lDocumentsSkipped.get(  );
+    }
+
+    /**
+     * Returns the number of documents sent to Solr
+     * @return the number of documents
+     */
+    public long getDocumentsSent(  )
+    {
+        return _lDocumentsSent.get(  );
+    }
+
+    /**
+     * Returns the number of removed documents deleted from Solr
+     * @return the number of documents
+     */
+    public long getDocumentsDeleted(  )
+    {
+        return _lDocumentsDeleted.get(  );
+    }
+
+    /**
+     * Returns the number of documents spooled for the next indexation
+     * @return the number of documents
+     */
+    public long getDocumentsSpooled(  )
+    {
+        return _lDocumentsSpooled.get(  );
+    }
+
+    /**
+     * Returns the number of documents sent without their content, carried by another document
+     * @return the number of documents
+     */
+    public long getDocumentsDeduplicated(  )
+    {
+        return _lDocumentsDeduplicated.get(  );
+    }
+
+    /**
+     * Returns the size of the converted contents
+     * @return the number of characters
+     */
+    public long getContentSize(  )
+    {
+        return _lContentSize.get(  );
+    }
+
+    /**
+     * Returns the number of failures
+     * @return the number of failures
+     */
+    public long getFailureCount(  )
+    {
+        return _lFailures.get(  );
+    }
+
+    /**
+     * Returns the average number of documents sent per second
+     * @return the rate of the Solr updates
+     */
+    public double getWriteRate(  )
+    {
+        long lDuration = getDuration(  );
+
+        return ( lDuration > 0 ) ? ( ( getDocumentsSent(  ) * 1000.0 ) / lDuration ) : 0;
+    }
+
+    /**
+     * Returns the current limit of the number of documents sent per second
+     * @return the limit, 0 if there is none
+     */
+    public double getWriteDocumentsLimit(  )
+    {
+        return _dWriteDocumentsLimit;
+    }
+
+    /**
+     * Returns the current limit of the number of content characters sent per second
+     * @return the limit, 0 if there is none
+     */
+    public double getWriteCharactersLimit(  )
+    {
+        return _dWriteCharactersLimit;
+    }
+
+    /**
+     * Returns the durations of the JCR reads
+     * @return the histogram
+     */
+    public LatencyHistogram getJcrReadLatency(  )
+    {
+        return _jcrReadLatency;
+    }
+
+    /**
+     * Returns the durations of the conversions
+     * @return the histogram
+     */
+    public LatencyHistogram getConversionLatency(  )
+    {
+        return _conversionLatency;
+    }
+
+    /**
+     * Returns the durations of the Solr updates
+     * @return the histogram
+     */
+    public LatencyHistogram getSolrWriteLatency(  )
+    {
+        return _solrWriteLatency;
+    }
+
+    /**
+     * Returns the number of failures by exception class
+     * @return the failures, sorted by class name
+     */
+    public Map<String, Long> getFailuresByType(  )
+    {
+        return snapshot( _mapFailures );
+    }
+
+    /**
+     * Returns the time spent by the crawl tasks in each workspace
+     * @return the durations in milliseconds, sorted by workspace name
+     */
+    public Map<String, Long> getWorkspaceDurations(  )
+    {
+        return snapshot( _mapWorkspaceDurations );
+    }
+
+    /**
+     * Returns a summary of the metrics
+     * @return the summary
+     */
+    public String getSummary(  )
+    {
+        StringBuilder sbSummary = new StringBuilder( "[SolrJcrIndexer] Indexation " );
+        sbSummary.append( isRunning(  ) ? "running for " : "done in " ).append( getDuration(  ) ).append( "ms" );
+        sbSummary.append( " - nodes visited : " ).append( getNodesVisited(  ) );
+        sbSummary.append( ", documents converted : " ).append( getDocumentsConverted(  ) );
+        sbSummary.append( ", skipped : " ).append( getDocumentsSkipped(  ) );
+        sbSummary.append( ", sent : " ).append( getDocumentsSent(  ) );
+        sbSummary.append( ", deleted : " ).append( getDocumentsDeleted(  ) );
+        sbSummary.append( ", spooled : " ).append( getDocumentsSpooled(  ) );
+        sbSummary.append( ", deduplicated : " ).append( getDocumentsDeduplicated(  ) );
+        sbSummary.append( ", content size : " ).append( getContentSize(  ) );
+        sbSummary.append( ", failures : " ).append( getFailuresByType(  ) );
+        sbSummary.append( " - write rate (docs/s) : " ).append( Math.round( getWriteRate(  ) ) );
+        sbSummary.append( ", limit : " ).append( Math.round( _dWriteDocumentsLimit ) );
+        sbSummary.append( " - JCR read : " ).append( _jcrReadLatency );
+        sbSummary.append( " - conversion : " ).append( _conversionLatency );
+        sbSummary.append( " - Solr write : " ).append( _solrWriteLatency );
+        sbSummary.append( " - crawl time by workspace (ms) : " ).append( getWorkspaceDurations(  ) );
+
+        return sbSummary.toString(  );
+    }
+
+    /**
+     * Adds a value to a counter of a map
+     * @param map the map
+     * @param strKey the key of the counter
+     * @param lValue the value to add
+     */
+    private static void increment( ConcurrentMap<String, AtomicLong> map, String strKey, long lValue )
+    {
+        AtomicLong lCounter = map.get( strKey );
+
+        if ( lCounter == null )
+        {
+            AtomicLong lNewCounter = new AtomicLong(  );
+            lCounter = map.putIfAbsent( strKey, lNewCounter );
+
+            if ( lCounter == null )
+            {
+                lCounter = lNewCounter;
+            }
+        }
+
+        lCounter.addAndGet( lValue );
+    }
+
+    /**
+     * Copies the counters of a map
+     * @param map the map
+     * @return the values of the counters, sorted by key
+     */
+    private static Map<String, Long> snapshot( ConcurrentMap<String, AtomicLong> map )
+    {
+        Map<String, Long> mapSnapshot = new TreeMap<String, Long>(  );
+
+        for ( Map.Entry<String, AtomicLong> entry : map.entrySet(  ) )
+        {
+            mapSnapshot.put( entry.getKey(  ), entry.getValue(  ).get(  ) );
+        }
+
+        return mapSnapshot;
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
+import fr.paris.lutece.plugins.jsr170.modules.solr.util.SolrJcrIndexerUtils;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State shared by all the crawl tasks of an indexation
+ */
+public class IndexingContext
+{
+    private static final String FILE_CHECKPOINT_PREFIX = "checkpoint_";
+    private static final String FILE_CHECKPOINT_EXTENSION = ".dat";
+    private final SolrItemBatchWriter _batchWriter;
+    private final CrawlExecutor _crawlExecutor;
+    private final IndexingPipeline _pipeline;
+    private final IndexerMetrics _metrics;
+    private final Map<String, WorkspaceCheckpoint> _mapCheckpoints = new HashMap<String, WorkspaceCheckpoint>(  );
+    private final AtomicLong _lVisitedNodes = new AtomicLong(  );
+    private int _nMaxDepth;
+    private long _lMaxNodes;
+    private long _lDeadline;
+    private volatile boolean _bTruncated;
+    private volatile boolean _bDepthLimited;
+    private boolean _bPartial;
+    private boolean _bIncremental;
+    private boolean _bIgnorePreviousCheckpoints;
+    private FingerprintStore _fingerprintStore;
+    private boolean _bIgnorePreviousFingerprints;
+    private CrawlProgress _crawlProgress;
+    private UidSet _liveUids;
+    private PayloadOptimizer _payloadOptimizer;
+    private IndexationHandle _handle;
+    private Set<SolrItem> _setPendingReplays;
+
+    /**
+     * Constructor
+     * @param batchWriter the batch writer
+     * @param crawlExecutor the executor of the crawl tasks
+     * @param pipeline the pipeline converting the crawled documents
+     * @param metrics the metrics of the indexation
+     */
+    public IndexingContext( SolrItemBatchWriter batchWriter, CrawlExecutor crawlExecutor, IndexingPipeline pipeline,
+        IndexerMetrics metrics )
+    {
+        _metrics = metrics;
+        _batchWriter = batchWriter;
+        _crawlExecutor = crawlExecutor;
+        _pipeline = pipeline;
+    }
+
+    /**
+     * Returns the batch writer
+     * @return the batch writer
+     */
+    public SolrItemBatchWriter getBatchWriter(  )
+    {
+        return _batchWriter;
+    }
+
+    /**
+     * Returns the executor of the crawl tasks
+     * @return the crawl executor
+     */
+    public CrawlExecutor getCrawlExecutor(  )
+    {
+        return _crawlExecutor;
+    }
+
+    /**
+     * Returns the pipeline converting the crawled documents
+     * @return the pipeline
+     */
+    public IndexingPipeline getPipeline(  )
+    {
+        return _pipeline;
+    }
+
+    /**
+     * Returns the metrics of the indexation
+     * @return the metrics
+     */
+    public IndexerMetrics getMetrics(  )
+    {
+        return _metrics;
+    }
+
+    /**
+     * Sets the limits of the crawl. Must be called before the crawl starts.
+     * @param nMaxDepth the maximum depth crawled under the root of each subtree, 0 or less for no limit
+     * @param lMaxNodes the maximum number of nodes crawled, 0 or less for no limit
+     */
+    public void setLimits( int nMaxDepth, long lMaxNodes )
+    {
+        _nMaxDepth = nMaxDepth;
+        _lMaxNodes = lMaxNodes;
+    }
+
+    /**
+     * Sets the time after which the crawl stops, the nodes already read being still sent
+     * to Solr. Must be called before the crawl starts.
+     * @param lTimeBudget the duration of the crawl in milliseconds, 0 or less for no limit
+     */
+    public void setTimeBudget( long lTimeBudget )
+    {
+        _lDeadline = ( lTimeBudget > 0 ) ? ( System.currentTimeMillis(  ) + lTimeBudget ) : 0L;
+    }
+
+    /**
+     * Sets the handle through which the indexation can be cancelled. Must be called before the crawl starts.
+     * @param handle the handle of the indexation
+     */
+    public void setHandle( IndexationHandle handle )
+    {
+        _handle = handle;
+    }
+
+    /**
+     * Tells whether the nodes at a given depth can be crawled
+     * @param nDepth the depth under the root of the crawled subtree
+     * @return true if the depth is within the limit
+     */
+    public boolean isDepthAllowed( int nDepth )
+    {
+        return ( _nMaxDepth <= 0 ) || ( nDepth <= _nMaxDepth );
+    }
+
+    /**
+     * Counts a crawled node
+     * @return false if the maximum number of nodes has been reached, the time budget
+     * is exhausted or the indexation was cancelled, the crawl must stop
+     */
+    public boolean acquireNode(  )
+    {
+        if ( ( _handle != null ) && _handle.isCancelled(  ) )
+        {
+            stop( "[SolrJcrIndexer] The indexation was cancelled" );
+
+            return false;
+        }
+
+        if ( ( _lMaxNodes > 0 ) && ( _lVisitedNodes.incrementAndGet(  ) > _lMaxNodes ) )
+        {
+            stop( "[SolrJcrIndexer] The maximum number of crawled nodes has been reached : " + _lMaxNodes );
+
+            return false;
+        }
+
+        if ( ( _lDeadline > 0 ) && ( System.currentTimeMillis(  ) > _lDeadline ) )
+        {
+            stop( "[SolrJcrIndexer] The time budget of the crawl is exhausted" );
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Marks the crawl as truncated, logging the reason once
+     * @param strReason the reason
+     */
+    private void stop( String strReason )
+    {
+        if ( !_bTruncated )
+        {
+            _bTruncated = true;
+            AppLogService.info( strReason );
+        }
+    }
+
+    /**
+     * Records that the maximum depth prevented the crawl of a directory content, logging it once
+     * @param strPath the path of the directory
+     */
+    public void depthLimitReached( String strPath )
+    {
+        if ( !_bDepthLimited )
+        {
+            _bDepthLimited = true;
+            AppLogService.info( "[SolrJcrIndexer] The maximum depth has been reached under " + strPath +
+                ", the documents removed from the repository are not deleted" );
+        }
+    }
+
+    /**
+     * Sets whether only some subtrees of the repository are crawled. Must be called before the crawl starts.
+     * @param bPartial true if the crawled subtrees don't cover the whole repository
+     */
+    public void setPartial( boolean bPartial )
+    {
+        _bPartial = bPartial;
+    }
+
+    /**
+     * Tells whether the crawl didn't cover the whole repository, because it was
+     * stopped by the maximum number of nodes or the time budget, because only some subtrees were crawled,
+     * because the maximum depth cut some directories or because it skipped the directories completed
+     * by an interrupted indexation
+     * @return true if some nodes were not crawled
+     */
+    public boolean isTruncated(  )
+    {
+        return _bTruncated || _bDepthLimited || _bPartial ||
+        ( ( _crawlProgress != null ) && _crawlProgress.isResumed(  ) );
+    }
+
+    /**
+     * Tells whether the crawl was stopped by the maximum number of nodes or the time budget
+     * @return true if the limit was reached
+     */
+    public boolean isLimitReached(  )
+    {
+        return _bTruncated;
+    }
+
+    /**
+     * Enables the tracking of the completed directories. Must be called before the crawl starts.
+     * @param crawlProgress the progress of the interrupted indexation
+     */
+    public void enableCrawlProgress( CrawlProgress crawlProgress )
+    {
+        _crawlProgress = crawlProgress;
+    }
+
+    /**
+     * Returns the progress of the crawl
+     * @return the progress, or null if it is not tracked
+     */
+    public CrawlProgress getCrawlProgress(  )
+    {
+        return _crawlProgress;
+    }
+
+    /**
+     * Enables the incremental indexation. Must be called before the crawl starts.
+     * @param bIgnorePreviousCheckpoints true to send all the documents, for instance if the index is empty
+     */
+    public void enableIncremental( boolean bIgnorePreviousCheckpoints )
+    {
+        _bIncremental = true;
+        _bIgnorePreviousCheckpoints = bIgnorePreviousCheckpoints;
+    }
+
+    /**
+     * Enables the detection of the unchanged items by their fingerprint. Must be called before the crawl starts.
+     * @param fingerprintStore the fingerprints of the previous indexation
+     * @param bIgnorePreviousFingerprints true to send all the documents, for instance if the index is empty.
+     * Their fingerprints are still recorded, and the other ones are kept by a partial indexation.
+     */
+    public void enableFingerprints( FingerprintStore fingerprintStore, boolean bIgnorePreviousFingerprints )
+    {
+        _fingerprintStore = fingerprintStore;
+        _bIgnorePreviousFingerprints = bIgnorePreviousFingerprints;
+    }
+
+    /**
+     * Tells whether the documents are sent even if their fingerprint is unchanged
+     * @return true if the previous fingerprints are ignored
+     */
+    public boolean isIgnoringPreviousFingerprints(  )
+    {
+        return _bIgnorePreviousFingerprints;
+    }
+
+    /**
+     * Returns the fingerprints of the items
+     * @return the fingerprint store, or null if the fingerprints are disabled
+     */
+    public FingerprintStore getFingerprintStore(  )
+    {
+        return _fingerprintStore;
+    }
+
+    /**
+     * Enables the reduction of the items sent to Solr. Must be called before the crawl starts.
+     * @param payloadOptimizer the optimizer of the items
+     */
+    public void enablePayloadOptimizer( PayloadOptimizer payloadOptimizer )
+    {
+        _payloadOptimizer = payloadOptimizer;
+    }
+
+    /**
+     * Returns the optimizer of the items sent to Solr
+     * @return the optimizer, or null if the items are sent as converted
+     */
+    public PayloadOptimizer getPayloadOptimizer(  )
+    {
+        return _payloadOptimizer;
+    }
+
+    /**
+     * Enables the collection of the UIDs of the crawled documents, used to delete the
+     * documents removed from the repository. Must be called before the crawl starts.
+     */
+    public void enableSweep(  )
+    {
+        _liveUids = new UidSet(  );
+    }
+
+    /**
+     * Returns the UIDs of the documents found by the crawl, sent or skipped
+     * @return the UIDs, or null if they are not collected
+     */
+    public UidSet getLiveUids(  )
+    {
+        return _liveUids;
+    }
+
+    /**
+     * Starts the tracking of the items sent again from the dead letter spool
+     */
+    public void enableReplay(  )
+    {
+        _setPendingReplays = Collections.synchronizedSet( Collections.newSetFromMap(
+                    new IdentityHashMap<SolrItem, Boolean>(  ) ) );
+    }
+
+    /**
+     * Tells whether the items of the dead letter spool are sent again
+     * @return true if the replay has started
+     */
+    public boolean isReplaying(  )
+    {
+        return _setPendingReplays != null;
+    }
+
+    /**
+     * Records an item sent again from the dead letter spool
+     * @param item the item
+     * @return the callback telling that the item has been sent, or spooled again
+     */
+    public Runnable trackReplay( final SolrItem item )
+    {
+        _setPendingReplays.add( item );
+
+        return new Runnable(  )
+            {
+                public void run(  )
+                {
+                    _setPendingReplays.remove( item );
+                }
+            };
+    }
+
+    /**
+     * Returns the items sent again from the dead letter spool which have been neither sent nor spooled again
+     * @return the pending items
+     */
+    public List<SolrItem> getPendingReplays(  )
+    {
+        synchronized ( _setPendingReplays )
+        {
+            return new ArrayList<SolrItem>( _setPendingReplays );
+        }
+    }
+
+    /**
+     * Returns the checkpoint of a workspace, loaded on first use
+     * @param adminWorkspace the workspace
+     * @return the checkpoint, or null if the indexation is not incremental
+     */
+    public WorkspaceCheckpoint getCheckpoint( AdminWorkspace adminWorkspace )
+    {
+        if ( !_bIncremental )
+        {
+            return null;
+        }
+
+        File file = SolrJcrIndexerUtils.getWorkFile( FILE_CHECKPOINT_PREFIX + adminWorkspace.getName(  ) +
+                FILE_CHECKPOINT_EXTENSION );
+
+        synchronized ( _mapCheckpoints )
+        {
+            WorkspaceCheckpoint checkpoint = _mapCheckpoints.get( file.getName(  ) );
+
+            if ( checkpoint == null )
+            {
+                checkpoint = _bIgnorePreviousCheckpoints ? WorkspaceCheckpoint.empty( file ) : loadCheckpoint( file );
+                _mapCheckpoints.put( file.getName(  ), checkpoint );
+            }
+
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Loads the checkpoints of all the workspaces indexed previously, including those
+     * which are no longer published : the documents they recorded are removed from the
+     * index if they are not crawled again. Must be called before the crawl of the whole
+     * repository starts.
+     */
+    public void loadAllCheckpoints(  )
+    {
+        if ( !_bIncremental || _bIgnorePreviousCheckpoints )
+        {
+            return;
+        }
+
+        File[] files = SolrJcrIndexerUtils.getWorkDirectory(  ).listFiles(  );
+
+        if ( files == null )
+        {
+            return;
+        }
+
+        synchronized ( _mapCheckpoints )
+        {
+            for ( File file : files )
+            {
+                if ( file.getName(  ).startsWith( FILE_CHECKPOINT_PREFIX ) &&
+                        file.getName(  ).endsWith( FILE_CHECKPOINT_EXTENSION ) &&
+                        !_mapCheckpoints.containsKey( file.getName(  ) ) )
+                {
+                    _mapCheckpoints.put( file.getName(  ), loadCheckpoint( file ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a checkpoint file. An empty checkpoint is returned if the file can't be read.
+     * @param file the checkpoint file
+     * @return the checkpoint
+     */
+    private static WorkspaceCheckpoint loadCheckpoint( File file )
+    {
+        try
+        {
+            return WorkspaceCheckpoint.load( file );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "[SolrJcrIndexer] Unable to read the checkpoint " + file.getPath(  ), e );
+
+            return WorkspaceCheckpoint.empty( file );
+        }
+    }
+
+    /**
+     * Returns the checkpoints of the workspaces crawled so far, and of all the workspaces
+     * indexed previously if they were loaded
+     * @return the checkpoints
+     */
+    public Collection<WorkspaceCheckpoint> getCheckpoints(  )
+    {
+        synchronized ( _mapCheckpoints )
+        {
+            return new ArrayList<WorkspaceCheckpoint>( _mapCheckpoints.values(  ) );
+        }
+    }
+}
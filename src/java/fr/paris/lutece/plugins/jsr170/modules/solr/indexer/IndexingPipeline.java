@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import org.apache.lucene.document.Document;
+
+import java.util.List;
+
+
+/**
+ * Conversion stage of the indexation : the documents read by the crawl threads
+ * are converted into {@link SolrItem} objects by the conversion threads, then
+ * added to the batch writer, whose batches are sent by the submission threads.
+ */
+public class IndexingPipeline
+{
+    private static final String MESSAGE_CONVERSION_ERROR = "[SolrJcrIndexer] An error occured during the conversion of a document of the workspace ";
+    private final SolrItemConverter _converter;
+    private final PipelineStage _conversionStage;
+
+    /**
+     * Constructor
+     * @param converter the converter of the documents
+     * @param conversionStage the conversion stage
+     */
+    public IndexingPipeline( SolrItemConverter converter, PipelineStage conversionStage )
+    {
+        _converter = converter;
+        _conversionStage = conversionStage;
+    }
+
+    /**
+     * Hands a document read by the crawl over to the conversion stage. Waits if
+     * the conversion queue is full.
+     * @param document the document
+     * @param action the action which read the document
+     * @param directory the tracker of the directory of the document, or null
+     */
+    public void submit( final Document document, final SolrIndexerNodeAction action,
+        final CrawlProgress.Directory directory )
+    {
+        if ( directory != null )
+        {
+            directory.acquire(  );
+        }
+
+        _conversionStage.execute( new Runnable(  )
+            {
+                public void run(  )
+                {
+                    process( document, action, directory );
+                }
+            }, MESSAGE_CONVERSION_ERROR + action.getAdminWorkspace(  ).getName(  ) );
+    }
+
+    /**
+     * Waits until all the submitted documents are converted
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void awaitTermination(  ) throws InterruptedException
+    {
+        _conversionStage.awaitTermination(  );
+    }
+
+    /**
+     * Returns the errors of the conversion stage
+     * @return the list of errors
+     */
+    public List<String> getErrors(  )
+    {
+        return _conversionStage.getErrors(  );
+    }
+
+    /**
+     * Converts a document once and sends its items for all the roles of its subtree
+     * @param document the document
+     * @param action the action which read the document
+     * @param directory the tracker of the directory of the document, or null
+     */
+    private void process( Document document, SolrIndexerNodeAction action, CrawlProgress.Directory directory )
+    {
+        IndexingContext context = action.getContext(  );
+        long lStart = System.nanoTime(  );
+        SolrItem solrItem = _converter.convert( document );
+
+        if ( ( solrItem == null ) || ( solrItem.getContent(  ) == null ) )
+        {
+            release( directory );
+
+            return;
+        }
+
+        context.getMetrics(  ).documentConverted( System.nanoTime(  ) - lStart, solrItem.getContent(  ).length(  ) );
+
+        CrawlSchedule.Activity activity = action.getActivity(  );
+
+        if ( activity != null )
+        {
+            activity.documentFound( getTime( solrItem ) );
+        }
+
+        List<SolrItem> listItems = action.getRoleItems( solrItem );
+
+        // each item is released by the directory once sent or skipped
+        for ( int i = 1; ( directory != null ) && ( i < listItems.size(  ) ); i++ )
+        {
+            directory.acquire(  );
+        }
+
+        for ( SolrItem item : listItems )
+        {
+            send( item, action, directory );
+        }
+    }
+
+    /**
+     * Reduces an item and adds it to the batch writer, unless the incremental indexation
+     * finds it unchanged or its fingerprint is the one already sent
+     * @param solrItem the item
+     * @param action the action which read the document
+     * @param directory the tracker of the directory of the document, or null
+     */
+    private void send( SolrItem solrItem, SolrIndexerNodeAction action, CrawlProgress.Directory directory )
+    {
+        IndexingContext context = action.getContext(  );
+        CrawlSchedule.Activity activity = action.getActivity(  );
+
+        if ( context.getLiveUids(  ) != null )
+        {
+            context.getLiveUids(  ).add( solrItem.getUid(  ) );
+        }
+
+        PayloadOptimizer payloadOptimizer = context.getPayloadOptimizer(  );
+        boolean bForced = ( payloadOptimizer != null ) && payloadOptimizer.optimize( solrItem, context.getMetrics(  ) );
+        WorkspaceCheckpoint checkpoint = context.getCheckpoint( action.getAdminWorkspace(  ) );
+        FingerprintStore fingerprintStore = context.getFingerprintStore(  );
+
+        // an unchanged document is sent if it has to carry its content again, or to stop carrying it
+        if ( ( checkpoint != null ) && !checkpoint.update( solrItem.getUid(  ), getTime( solrItem ) ) && !bForced )
+        {
+            if ( fingerprintStore != null )
+            {
+                // keeps the fingerprint of the document from being evicted
+                fingerprintStore.touch( solrItem.getUid(  ) );
+            }
+
+            context.getMetrics(  ).documentSkipped(  );
+            release( directory );
+        }
+        else if ( ( fingerprintStore != null ) &&
+                !fingerprintStore.update( solrItem.getUid(  ), FingerprintStore.fingerprint( solrItem ) ) &&
+                !context.isIgnoringPreviousFingerprints(  ) )
+        {
+            context.getMetrics(  ).documentSkipped(  );
+            release( directory );
+        }
+        else
+        {
+            if ( activity != null )
+            {
+                activity.documentChanged(  );
+            }
+
+            context.getBatchWriter(  ).add( solrItem, directory );
+        }
+    }
+
+    /**
+     * Counts a document of a directory as done
+     * @param directory the tracker of the directory, or null
+     */
+    private static void release( CrawlProgress.Directory directory )
+    {
+        if ( directory != null )
+        {
+            directory.release(  );
+        }
+    }
+
+    /**
+     * Returns the modification date of an item
+     * @param solrItem the item
+     * @return the date in milliseconds, 0 if the item has no date
+     */
+    private static long getTime( SolrItem solrItem )
+    {
+        return ( solrItem.getDate(  ) != null ) ? solrItem.getDate(  ).getTime(  ) : 0L;
+    }
+}
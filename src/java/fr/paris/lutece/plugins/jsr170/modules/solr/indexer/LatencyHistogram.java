@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Histogram of durations, with buckets growing as powers of two milliseconds
+ * (under 1 ms, under 2 ms, under 4 ms...). Percentiles are approximated by the
+ * upper bound of their bucket.
+ */
+public class LatencyHistogram
+{
+    private static final int BUCKET_COUNT = 20;
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private final AtomicLongArray _buckets = new AtomicLongArray( BUCKET_COUNT );
+    private final AtomicLong _lCount = new AtomicLong(  );
+    private final AtomicLong _lTotalNanos = new AtomicLong(  );
+    private final AtomicLong _lMaxNanos = new AtomicLong(  );
+
+    /**
+     * Records a duration
+     * @param lNanos the duration in nanoseconds
+     */
+    public void record( long lNanos )
+    {
+        long lMillis = lNanos / NANOS_PER_MILLI;
+        int nBucket = 0;
+
+        while ( ( nBucket < ( BUCKET_COUNT - 1 ) ) && ( lMillis >= ( 1L << nBucket ) ) )
+        {
+            nBucket++;
+        }
+
+        _buckets.incrementAndGet( nBucket );
+        _lCount.incrementAndGet(  );
+        _lTotalNanos.addAndGet( lNanos );
+
+        long lMax = _lMaxNanos.get(  );
+
+        while ( ( lNanos > lMax ) && !_lMaxNanos.compareAndSet( lMax, lNanos ) )
+        {
+            lMax = _lMaxNanos.get(  );
+        }
+    }
+
+    /**
+     * Returns the number of recorded durations
+     * @return the count
+     */
+    public long getCount(  )
+    {
+        return _lCount.get(  );
+    }
+
+    /**
+     * Returns the sum of the recorded durations
+     * @return the total in milliseconds
+     */
+    public long getTotalMillis(  )
+    {
+        return _lTotalNanos.get(  ) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Returns an approximation of a percentile
+     * @param dPercentile the percentile, between 0 and 1
+     * @return the upper bound of the bucket of the percentile, in milliseconds
+     */
+    public long getPercentileMillis( double dPercentile )
+    {
+        long lCount = _lCount.get(  );
+
+        if ( lCount == 0 )
+        {
+            return 0;
+        }
+
+        long lRank = (long) Math.ceil( dPercentile * lCount );
+        long lSeen = 0;
+
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            lSeen += _buckets.get( i );
+
+            if ( lSeen >= lRank )
+            {
+                return 1L << i;
+            }
+        }
+
+        return getMaxMillis(  );
+    }
+
+    /**
+     * Returns the longest recorded duration
+     * @return the maximum in milliseconds
+     */
+    public long getMaxMillis(  )
+    {
+        return _lMaxNanos.get(  ) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString(  )
+    {
+        long lCount = getCount(  );
+        long lAverage = ( lCount > 0 ) ? ( getTotalMillis(  ) / lCount ) : 0;
+
+        return "count=" + lCount + " total=" + getTotalMillis(  ) + "ms avg=" + lAverage + "ms p50<" +
+        getPercentileMillis( 0.5 ) + "ms p95<" + getPercentileMillis( 0.95 ) + "ms p99<" +
+        getPercentileMillis( 0.99 ) + "ms max=" + getMaxMillis(  ) + "ms";
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Deletes from the index the documents which were not found by a full crawl. The UIDs
+ * stored in the index are read page by page in UID order and compared with the UIDs of
+ * the crawl, so only one page and one batch of deletions are held at a time.
+ */
+public class OrphanSweeper
+{
+    private final ISolrItemWriter _writer;
+    private final String _strQuery;
+    private final int _nPageSize;
+    private final int _nBatchSize;
+
+    /**
+     * Constructor
+     * @param writer the writer giving access to the index
+     * @param strQuery the query of the documents of this indexer
+     * @param nPageSize the number of UIDs read per query
+     * @param nBatchSize the maximum number of documents deleted per update
+     */
+    public OrphanSweeper( ISolrItemWriter writer, String strQuery, int nPageSize, int nBatchSize )
+    {
+        _writer = writer;
+        _strQuery = strQuery;
+        _nPageSize = nPageSize;
+        _nBatchSize = nBatchSize;
+    }
+
+    /**
+     * Deletes the documents of the index missing from the crawl. The deletions are not committed.
+     * @param liveUids the UIDs of the documents found by the crawl
+     * @param metrics the metrics of the indexation
+     * @return the number of deleted documents
+     * @throws IOException if the index can't be read or updated
+     */
+    public int sweep( UidSet liveUids, IndexerMetrics metrics )
+        throws IOException
+    {
+        List<String> listOrphans = new ArrayList<String>( _nBatchSize );
+        int nDeleted = 0;
+        String strAfterUid = null;
+        List<String> listPage;
+
+        do
+        {
+            listPage = _writer.listUids( _strQuery, strAfterUid, _nPageSize );
+
+            for ( String strUid : listPage )
+            {
+                if ( !liveUids.contains( strUid ) )
+                {
+                    listOrphans.add( strUid );
+
+                    if ( listOrphans.size(  ) >= _nBatchSize )
+                    {
+                        nDeleted += delete( listOrphans, metrics );
+                    }
+                }
+            }
+
+            if ( !listPage.isEmpty(  ) )
+            {
+                strAfterUid = listPage.get( listPage.size(  ) - 1 );
+            }
+        }
+        while ( listPage.size(  ) >= _nPageSize );
+
+        return nDeleted + delete( listOrphans, metrics );
+    }
+
+    /**
+     * Deletes a batch of documents
+     * @param listOrphans the UIDs of the documents, emptied
+     * @param metrics the metrics of the indexation
+     * @return the number of deleted documents
+     * @throws IOException if the index can't be updated
+     */
+    private int delete( List<String> listOrphans, IndexerMetrics metrics )
+        throws IOException
+    {
+        int nDeleted = listOrphans.size(  );
+
+        if ( nDeleted > 0 )
+        {
+            _writer.delete( new ArrayList<String>( listOrphans ) );
+            metrics.documentsDeleted( nDeleted );
+            listOrphans.clear(  );
+        }
+
+        return nDeleted;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.search.SearchItem;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Reduces the size of the items sent to Solr, once they are converted :
+ * <ul>
+ * <li>the configured fields are dropped, the summary, the metadata or any dynamic field ;</li>
+ * <li>the summary and the metadata repeating the title or the content are dropped ;</li>
+ * <li>a missing or long summary is replaced by a prefix of the content or of itself,
+ * cut at a word boundary ;</li>
+ * <li>the content found in several documents of the same role is only sent with one of them, see
+ * {@link ContentDigestStore}. All the documents of a duplicated content have its key in the
+ * {@link #FIELD_CONTENT_KEY} dynamic field, which finds the document carrying it.</li>
+ * </ul>
+ * The optimizer can be shared by the conversion threads.
+ */
+public class PayloadOptimizer
+{
+    /** The dynamic field of the key of a duplicated content */
+    public static final String FIELD_CONTENT_KEY = "content_key";
+    private static final String EMPTY_CONTENT = "";
+    private final Set<String> _setDroppedFields = new HashSet<String>(  );
+    private final boolean _bDropRedundant;
+    private final int _nSummaryLength;
+    private final ContentDigestStore _digestStore;
+    private final int _nMinDeduplicatedLength;
+
+    /**
+     * Constructor
+     * @param listDroppedFields the names of the fields not sent to Solr
+     * @param bDropRedundant true to drop the summary and metadata repeating the title or the content
+     * @param nSummaryLength the maximum number of characters of a summary, 0 or less to leave the summaries unchanged
+     * @param digestStore the carriers of the duplicated contents, or null to send all the contents
+     * @param nMinDeduplicatedLength the minimum length of the contents looked up in the digest store
+     */
+    public PayloadOptimizer( Collection<String> listDroppedFields, boolean bDropRedundant, int nSummaryLength,
+        ContentDigestStore digestStore, int nMinDeduplicatedLength )
+    {
+        for ( String strField : listDroppedFields )
+        {
+            if ( strField.trim(  ).length(  ) > 0 )
+            {
+                _setDroppedFields.add( strField.trim(  ) );
+            }
+        }
+
+        _bDropRedundant = bDropRedundant;
+        _nSummaryLength = nSummaryLength;
+        _digestStore = digestStore;
+        _nMinDeduplicatedLength = nMinDeduplicatedLength;
+    }
+
+    /**
+     * Returns the carriers of the duplicated contents
+     * @return the digest store, or null if the contents are not deduplicated
+     */
+    public ContentDigestStore getDigestStore(  )
+    {
+        return _digestStore;
+    }
+
+    /**
+     * Reduces an item
+     * @param item the item, whose content is not null
+     * @param metrics the metrics of the indexation, may be null if the optimizer has no digest store
+     * @return true if the item must be sent even if the document is unchanged, because it
+     * became the carrier of its content or stopped being it
+     */
+    public boolean optimize( SolrItem item, IndexerMetrics metrics )
+    {
+        dropFields( item );
+
+        if ( _bDropRedundant )
+        {
+            dropRedundantFields( item );
+        }
+
+        if ( ( _nSummaryLength > 0 ) && !_setDroppedFields.contains( SearchItem.FIELD_SUMMARY ) )
+        {
+            boundSummary( item );
+        }
+
+        return ( _digestStore != null ) && deduplicate( item, metrics );
+    }
+
+    /**
+     * Drops the configured fields
+     * @param item the item
+     */
+    private void dropFields( SolrItem item )
+    {
+        if ( _setDroppedFields.isEmpty(  ) )
+        {
+            return;
+        }
+
+        if ( _setDroppedFields.contains( SearchItem.FIELD_SUMMARY ) )
+        {
+            item.setSummary( null );
+        }
+
+        if ( _setDroppedFields.contains( SearchItem.FIELD_METADATA ) )
+        {
+            item.setMetadata( null );
+        }
+
+        Map<String, ?> mapDynamicFields = item.getDynamicFields(  );
+
+        if ( ( mapDynamicFields != null ) && !mapDynamicFields.isEmpty(  ) )
+        {
+            for ( String strField : _setDroppedFields )
+            {
+                mapDynamicFields.remove( strField + SolrItem.DYNAMIC_STRING_FIELD_SUFFIX );
+            }
+        }
+    }
+
+    /**
+     * Drops the summary and the metadata repeating the title or the content
+     * @param item the item
+     */
+    private static void dropRedundantFields( SolrItem item )
+    {
+        if ( isRedundant( item.getSummary(  ), item ) )
+        {
+            item.setSummary( null );
+        }
+
+        if ( isRedundant( item.getMetadata(  ), item ) )
+        {
+            item.setMetadata( null );
+        }
+    }
+
+    /**
+     * Tells whether a field repeats the title or the content of its item
+     * @param strValue the value of the field
+     * @param item the item
+     * @return true if the value is empty or equal to the title or the content
+     */
+    private static boolean isRedundant( String strValue, SolrItem item )
+    {
+        if ( strValue == null )
+        {
+            return false;
+        }
+
+        String strTrimmed = strValue.trim(  );
+
+        return ( strTrimmed.length(  ) == 0 ) || strTrimmed.equals( trim( item.getTitle(  ) ) ) ||
+        strTrimmed.equals( trim( item.getContent(  ) ) );
+    }
+
+    /**
+     * Replaces a missing or long summary by a prefix of the content or of itself
+     * @param item the item
+     */
+    private void boundSummary( SolrItem item )
+    {
+        String strSummary = item.getSummary(  );
+
+        if ( strSummary == null )
+        {
+            strSummary = item.getContent(  ).trim(  );
+        }
+
+        if ( strSummary.length(  ) > _nSummaryLength )
+        {
+            int nEnd = _nSummaryLength;
+
+            // the summary is cut after the last complete word, if it isn't too short
+            for ( int i = _nSummaryLength; i > ( _nSummaryLength / 2 ); i-- )
+            {
+                if ( Character.isWhitespace( strSummary.charAt( i ) ) )
+                {
+                    nEnd = i;
+
+                    break;
+                }
+            }
+
+            strSummary = strSummary.substring( 0, nEnd ).trim(  );
+        }
+
+        item.setSummary( ( strSummary.length(  ) > 0 ) ? strSummary : null );
+    }
+
+    /**
+     * Removes the content of an item if another document carries it
+     * @param item the item
+     * @param metrics the metrics of the indexation
+     * @return true if the document became the carrier of its content or stopped being it
+     */
+    private boolean deduplicate( SolrItem item, IndexerMetrics metrics )
+    {
+        String strContent = item.getContent(  );
+
+        if ( strContent.length(  ) < _nMinDeduplicatedLength )
+        {
+            return false;
+        }
+
+        long lContentKey = ContentDigestStore.getContentKey( item.getRole(  ), strContent );
+        boolean bWasReference = _digestStore.isReference( item.getUid(  ) );
+        boolean bCarrier = _digestStore.isCarrier( item.getUid(  ), lContentKey );
+        item.addDynamicField( FIELD_CONTENT_KEY, Long.toHexString( lContentKey ) );
+
+        if ( !bCarrier )
+        {
+            item.setContent( EMPTY_CONTENT );
+            metrics.documentDeduplicated(  );
+        }
+
+        // a reference unknown to the store may have been a carrier, a new document is sent anyway
+        return bCarrier == bWasReference;
+    }
+
+    /**
+     * Trims a text
+     * @param strValue the text, may be null
+     * @return the trimmed text, or null
+     */
+    private static String trim( String strValue )
+    {
+        return ( strValue != null ) ? strValue.trim(  ) : null;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A stage of the indexing pipeline : tasks are run by a fixed number of threads
+ * and wait in a bounded queue. When the queue is full, the thread submitting a
+ * task waits, so a fast stage can't run ahead of a slower one.
+ * With no threads, the tasks are run in the calling thread.
+ */
+public class PipelineStage
+{
+    private static final String THREAD_NAME_PREFIX = "jsr170-solr-";
+    private final ThreadPoolExecutor _executor;
+    private final List<String> _listErrors = new ArrayList<String>(  );
+    private final IndexerMetrics _metrics;
+
+    /**
+     * Constructor
+     * @param strName the name of the stage, used to name the threads
+     * @param nThreads the number of threads, 0 to run the tasks in the calling thread
+     * @param nQueueSize the maximum number of waiting tasks
+     * @param metrics the metrics of the indexation
+     */
+    public PipelineStage( final String strName, int nThreads, int nQueueSize, IndexerMetrics metrics )
+    {
+        _metrics = metrics;
+
+        if ( nThreads > 0 )
+        {
+            final AtomicInteger nThreadNumber = new AtomicInteger(  );
+            _executor = new ThreadPoolExecutor( nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>( Math.max( 1, nQueueSize ) ),
+                    new ThreadFactory(  )
+                    {
+                        public Thread newThread( Runnable runnable )
+                        {
+                            Thread thread = new Thread( runnable,
+                                    THREAD_NAME_PREFIX + strName + "-" + nThreadNumber.incrementAndGet(  ) );
+                            thread.setDaemon( true );
+
+                            return thread;
+                        }
+                    },
+                    new RejectedExecutionHandler(  )
+                    {
+                        public void rejectedExecution( Runnable runnable, ThreadPoolExecutor executor )
+                        {
+                            if ( executor.isShutdown(  ) )
+                            {
+                                throw new RejectedExecutionException( "The stage " + strName + " is stopped" );
+                            }
+
+                            try
+                            {
+                                executor.getQueue(  ).put( runnable );
+                            }
+                            catch ( InterruptedException e )
+                            {
+                                Thread.currentThread(  ).interrupt(  );
+                                throw new RejectedExecutionException( e );
+                            }
+                        }
+                    } );
+        }
+        else
+        {
+            _executor = null;
+        }
+    }
+
+    /**
+     * Runs a task, waiting for room in the queue if needed. An exception thrown
+     * by the task is logged and added to the errors.
+     * @param task the task
+     * @param strErrorMessage the message logged if the task fails
+     */
+    public void execute( final Runnable task, final String strErrorMessage )
+    {
+        Runnable wrapper = new Runnable(  )
+            {
+                public void run(  )
+                {
+                    try
+                    {
+                        task.run(  );
+                    }
+                    catch ( Exception e )
+                    {
+                        synchronized ( _listErrors )
+                        {
+                            _listErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+                        }
+
+                        _metrics.failure( e );
+                        AppLogService.error( strErrorMessage, e );
+                    }
+                }
+            };
+
+        if ( _executor == null )
+        {
+            wrapper.run(  );
+        }
+        else
+        {
+            _executor.execute( wrapper );
+        }
+    }
+
+    /**
+     * Waits until all the submitted tasks are done and stops the threads.
+     * No task can be submitted afterwards.
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void awaitTermination(  ) throws InterruptedException
+    {
+        if ( _executor != null )
+        {
+            _executor.shutdown(  );
+
+            while ( !_executor.awaitTermination( 1, TimeUnit.MINUTES ) )
+            {
+                AppLogService.debug( "[SolrJcrIndexer] Waiting for " + _executor.getQueue(  ).size(  ) +
+                    " queued tasks" );
+            }
+        }
+    }
+
+    /**
+     * Returns the errors of the failed tasks
+     * @return the list of errors
+     */
+    public List<String> getErrors(  )
+    {
+        synchronized ( _listErrors )
+        {
+            return new ArrayList<String>( _listErrors );
+        }
+    }
+}
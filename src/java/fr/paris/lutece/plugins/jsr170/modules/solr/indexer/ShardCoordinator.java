@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.jsr170.modules.solr.business.ShardLease;
+import fr.paris.lutece.plugins.jsr170.modules.solr.business.ShardLeaseHome;
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+
+/**
+ * Distributes the shards of a sharded indexation between the Lutece nodes, through
+ * the leases stored in the database. A node indexes the shards it gets a lease on,
+ * one after the other, starting from the shard given by its name, so several nodes
+ * indexing at the same time start on different shards. A shard indexed successfully
+ * is not indexed again by the other nodes before the minimum interval, and the lease
+ * of a node which stopped during an indexation expires, so the shard is indexed again
+ * by another node. If the lease of the shard being indexed is lost, the handle of its
+ * indexation is cancelled so the node stops crawling a shard another node may now index.
+ */
+public class ShardCoordinator
+{
+    private static final String TIMER_NAME = "jsr170-solr-shard-lease";
+    private final int _nShardCount;
+    private final long _lLeaseDuration;
+    private final long _lMinInterval;
+    private final String _strNodeName;
+    private final boolean[] _tried;
+    private int _nNext;
+    private Timer _timer;
+    private TimerTask _renewal;
+    private volatile IndexationHandle _handle;
+    private volatile boolean _bLeaseLost;
+    private volatile long _lLastRenewal;
+
+    /**
+     * Constructor
+     * @param nShardCount the number of shards
+     * @param lLeaseDuration the duration of a lease in milliseconds, renewed while the shard is indexed
+     * @param lMinInterval the minimum delay between two indexations of a shard in milliseconds
+     * @param strNodeName the name of this node, unique among the nodes
+     */
+    public ShardCoordinator( int nShardCount, long lLeaseDuration, long lMinInterval, String strNodeName )
+    {
+        _nShardCount = nShardCount;
+        _lLeaseDuration = lLeaseDuration;
+        _lMinInterval = lMinInterval;
+        _strNodeName = strNodeName;
+        _tried = new boolean[nShardCount];
+        _nNext = ( strNodeName.hashCode(  ) & Integer.MAX_VALUE ) % nShardCount;
+    }
+
+    /**
+     * Returns the number of shards
+     * @return the number of shards
+     */
+    public int getShardCount(  )
+    {
+        return _nShardCount;
+    }
+
+    /**
+     * Gets the lease of the next shard to index. Each shard is tried once by a coordinator.
+     * The lease is renewed until the shard is released, the shard must be indexed with
+     * the handle returned by {@link #getHandle()}.
+     * @return the shard, or -1 if no shard is left to this node
+     */
+    public int acquireNext(  )
+    {
+        for ( int i = 0; i < _nShardCount; i++ )
+        {
+            int nShard = _nNext;
+            _nNext = ( _nNext + 1 ) % _nShardCount;
+
+            if ( _tried[nShard] )
+            {
+                continue;
+            }
+
+            _tried[nShard] = true;
+
+            if ( acquire( nShard ) )
+            {
+                _handle = new IndexationHandle( null, null );
+                _bLeaseLost = false;
+                _lLastRenewal = System.currentTimeMillis(  );
+                startRenewal( nShard );
+
+                return nShard;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the handle of the indexation of the current shard
+     * @return the handle, cancelled if the lease of the shard is lost
+     */
+    public IndexationHandle getHandle(  )
+    {
+        return _handle;
+    }
+
+    /**
+     * Tells whether the lease of the current shard has been lost. The shard must then be
+     * released as not indexed, the documents read after the loss may be missing.
+     * @return true if the lease couldn't be renewed
+     */
+    public boolean isLeaseLost(  )
+    {
+        return _bLeaseLost;
+    }
+
+    /**
+     * Releases the lease of a shard
+     * @param nShard the shard
+     * @param bIndexed true if the shard was indexed successfully, false to let another node index it
+     */
+    public void release( int nShard, boolean bIndexed )
+    {
+        stopRenewal(  );
+        ShardLeaseHome.release( nShard, _strNodeName, bIndexed );
+    }
+
+    /**
+     * Stops the renewal of the leases
+     */
+    public void close(  )
+    {
+        stopRenewal(  );
+
+        if ( _timer != null )
+        {
+            _timer.cancel(  );
+            _timer = null;
+        }
+    }
+
+    /**
+     * Gets the lease of a shard, creating the shard if it doesn't exist yet
+     * @param nShard the shard
+     * @return true if the lease was acquired
+     */
+    private boolean acquire( int nShard )
+    {
+        if ( ShardLeaseHome.findByPrimaryKey( nShard ) == null )
+        {
+            ShardLease shardLease = new ShardLease(  );
+            shardLease.setIdShard( nShard );
+
+            try
+            {
+                ShardLeaseHome.create( shardLease );
+            }
+            catch ( AppException e )
+            {
+                // the shard has been created by another node in the meantime
+                AppLogService.debug( e.getMessage(  ) );
+            }
+        }
+
+        return ShardLeaseHome.acquire( nShard, _strNodeName, _lLeaseDuration, _lMinInterval );
+    }
+
+    /**
+     * Renews the lease of a shard at a third of its duration
+     * @param nShard the shard
+     */
+    private void startRenewal( final int nShard )
+    {
+        if ( _timer == null )
+        {
+            _timer = new Timer( TIMER_NAME, true );
+        }
+
+        long lPeriod = Math.max( _lLeaseDuration / 3, 1 );
+        _renewal = new TimerTask(  )
+                {
+                    public void run(  )
+                    {
+                        try
+                        {
+                            if ( ShardLeaseHome.renew( nShard, _strNodeName, _lLeaseDuration ) )
+                            {
+                                _lLastRenewal = System.currentTimeMillis(  );
+                            }
+                            else
+                            {
+                                leaseLost( nShard );
+                            }
+                        }
+                        catch ( AppException e )
+                        {
+                            AppLogService.error( e.getMessage(  ), e );
+
+                            // the database may be back before the lease expires
+                            if ( ( System.currentTimeMillis(  ) - _lLastRenewal ) >= _lLeaseDuration )
+                            {
+                                leaseLost( nShard );
+                            }
+                        }
+                    }
+                };
+        _timer.schedule( _renewal, lPeriod, lPeriod );
+    }
+
+    /**
+     * Stops the indexation of a shard whose lease has been lost
+     * @param nShard the shard
+     */
+    private void leaseLost( int nShard )
+    {
+        if ( !_bLeaseLost )
+        {
+            AppLogService.error( "[SolrJcrIndexer] The lease of the shard " + nShard +
+                " has been lost, its indexation is stopped" );
+        }
+
+        _bLeaseLost = true;
+        _handle.cancel(  );
+    }
+
+    /**
+     * Stops the renewal of the current lease
+     */
+    private void stopRenewal(  )
+    {
+        if ( _renewal != null )
+        {
+            _renewal.cancel(  );
+            _renewal = null;
+        }
+    }
+}
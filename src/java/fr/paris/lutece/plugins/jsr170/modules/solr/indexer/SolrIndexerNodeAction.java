@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
+import fr.paris.lutece.plugins.jcr.service.search.IndexerNodeAction;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import org.apache.lucene.document.Document;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * {@link IndexerNodeAction} carrying the context of the current indexation
+ */
+public class SolrIndexerNodeAction extends IndexerNodeAction
+{
+    private final Comparator<Document> _comparator;
+    private final String _strPluginName;
+    private final AdminWorkspace _adminWorkspace;
+    private final String _strRole;
+    private final IndexingContext _context;
+    private final CrawlSchedule.Activity _activity;
+    private final CrawlUnit _unit;
+
+    /**
+     * Constructor
+     * @param comparator the document comparator
+     * @param strPluginName the plugin name
+     * @param adminWorkspace the workspace
+     * @param strRole the role of the indexed documents
+     * @param context the context of the indexation
+     * @param activity the recorder of the documents of the crawled subtree, or null
+     * @param unit the crawled subtree, or null if no nested subtree is skipped and the documents
+     * are only indexed with the role of the action
+     */
+    public SolrIndexerNodeAction( Comparator<Document> comparator, String strPluginName,
+        AdminWorkspace adminWorkspace, String strRole, IndexingContext context, CrawlSchedule.Activity activity,
+        CrawlUnit unit )
+    {
+        super( comparator, strPluginName, adminWorkspace, strRole );
+        _comparator = comparator;
+        _strPluginName = strPluginName;
+        _adminWorkspace = adminWorkspace;
+        _strRole = strRole;
+        _context = context;
+        _activity = activity;
+        _unit = unit;
+    }
+
+    /**
+     * Returns the context of the indexation
+     * @return the context
+     */
+    public IndexingContext getContext(  )
+    {
+        return _context;
+    }
+
+    /**
+     * Returns the workspace crawled by this action
+     * @return the workspace
+     */
+    public AdminWorkspace getAdminWorkspace(  )
+    {
+        return _adminWorkspace;
+    }
+
+    /**
+     * Returns the role of the indexed documents
+     * @return the role
+     */
+    public String getRole(  )
+    {
+        return _strRole;
+    }
+
+    /**
+     * Returns the recorder of the documents of the crawled subtree
+     * @return the activity, or null if the crawl is not scheduled
+     */
+    public CrawlSchedule.Activity getActivity(  )
+    {
+        return _activity;
+    }
+
+    /**
+     * Returns the items of a document for all the roles of the crawled subtree, so the
+     * document is read and converted once whatever the number of roles
+     * @param item the item of the document, with the role of the action
+     * @return the item, then its copies for the other roles
+     */
+    public List<SolrItem> getRoleItems( SolrItem item )
+    {
+        return ( _unit != null ) ? _unit.getRoleItems( item ) : Collections.singletonList( item );
+    }
+
+    /**
+     * Tells whether a node is in a nested subtree crawled by another unit
+     * @param strPath the path of the node
+     * @return true if the node must be skipped
+     */
+    public boolean isExcluded( String strPath )
+    {
+        return ( _unit != null ) && _unit.isExcluded( strPath );
+    }
+
+    /**
+     * Creates a new action with the same parameters, to be used by another crawl thread
+     * @return the new action
+     */
+    public SolrIndexerNodeAction fork(  )
+    {
+        return new SolrIndexerNodeAction( _comparator, _strPluginName, _adminWorkspace, _strRole, _context, _activity,
+            _unit );
+    }
+}
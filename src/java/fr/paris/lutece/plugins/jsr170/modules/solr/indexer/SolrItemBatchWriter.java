@@ -0,0 +1,701 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Buffers the {@link SolrItem} objects produced by the crawl and sends them
+ * as multi-documents updates. A batch is flushed when it reaches the maximum
+ * number of items, the maximum content size or when its oldest item is older
+ * than the maximum delay. The delay is checked each time an item is added, and by
+ * a timer started with each batch, so a batch waiting for items is sent on time.
+ * The full batches are sent by the submission stage.
+ * A batch which can't reach the server is sent again after an exponential backoff,
+ * and fails the indexation if it still can't. A batch rejected by the server is
+ * split in halves until the rejected items are isolated : the other items are sent,
+ * the rejected ones are appended to the dead-letter spool if any.
+ */
+public class SolrItemBatchWriter
+{
+    private static final String MESSAGE_BATCH_ERROR = "[SolrJcrIndexer] An error occured while sending the batch number ";
+    private static final String MESSAGE_DEAD_LETTER = "[SolrJcrIndexer] Document spooled for the next indexation : ";
+    private static final String MESSAGE_DELETE_ERROR = "[SolrJcrIndexer] An error occured while deleting ";
+    private static final int MAX_INITIAL_CAPACITY = 1000;
+    private static final String TIMER_THREAD_NAME = "jsr170-solr-batch-timer";
+    private final ISolrItemWriter _writer;
+    private final PipelineStage _submissionStage;
+    private final IndexerMetrics _metrics;
+    private final int _nMaxItems;
+    private final long _lMaxContentSize;
+    private final long _lMaxDelay;
+    private final List<String> _listErrors = new ArrayList<String>(  );
+    private final AtomicInteger _nBatchCount = new AtomicInteger(  );
+    private final AtomicInteger _nItemCount = new AtomicInteger(  );
+    private List<SolrItem> _listBatch;
+    private List<Runnable> _listBatchCallbacks = new ArrayList<Runnable>(  );
+    private SolrWriteThrottle _throttle;
+    private DeadLetterSpool _deadLetterSpool;
+    private int _nMaxAttempts = 1;
+    private long _lInitialRetryDelay;
+    private long _lMaxRetryDelay;
+    private long _lBatchContentSize;
+    private long _lBatchStart;
+    private int _nBatchGeneration;
+    private ScheduledExecutorService _timer;
+
+    /**
+     * Constructor
+     * @param writer the writer used to send the batches
+     * @param submissionStage the stage sending the batches
+     * @param nMaxItems the maximum number of items of a batch
+     * @param lMaxContentSize the maximum content size (in characters) of a batch
+     * @param lMaxDelay the maximum time (in milliseconds) an item can wait in the batch
+     * @param metrics the metrics of the indexation
+     */
+    public SolrItemBatchWriter( ISolrItemWriter writer, PipelineStage submissionStage, int nMaxItems,
+        long lMaxContentSize, long lMaxDelay, IndexerMetrics metrics )
+    {
+        _writer = writer;
+        _submissionStage = submissionStage;
+        _metrics = metrics;
+        _nMaxItems = Math.max( 1, nMaxItems );
+        _lMaxContentSize = lMaxContentSize;
+        _lMaxDelay = lMaxDelay;
+        _listBatch = newBatch(  );
+    }
+
+    /**
+     * Sets the throttle of the batches. Must be called before the first item is added.
+     * @param throttle the throttle
+     */
+    public void setThrottle( SolrWriteThrottle throttle )
+    {
+        _throttle = throttle;
+    }
+
+    /**
+     * Sets the retries of the failed batches. Must be called before the first item is added.
+     * @param nMaxAttempts the maximum number of attempts of a batch, 1 for no retry
+     * @param lInitialDelay the delay (in milliseconds) before the first retry, doubled at each retry
+     * @param lMaxDelay the maximum delay (in milliseconds) between two attempts
+     */
+    public void setRetries( int nMaxAttempts, long lInitialDelay, long lMaxDelay )
+    {
+        _nMaxAttempts = Math.max( 1, nMaxAttempts );
+        _lInitialRetryDelay = lInitialDelay;
+        _lMaxRetryDelay = lMaxDelay;
+    }
+
+    /**
+     * Sets the spool of the items which can't be sent. Must be called before the first item is added.
+     * @param deadLetterSpool the spool, or null to report the failed batches as errors
+     */
+    public void setDeadLetterSpool( DeadLetterSpool deadLetterSpool )
+    {
+        _deadLetterSpool = deadLetterSpool;
+    }
+
+    /**
+     * Returns the spool of the items which can't be sent
+     * @return the spool, or null if the failed batches are reported as errors
+     */
+    public DeadLetterSpool getDeadLetterSpool(  )
+    {
+        return _deadLetterSpool;
+    }
+
+    /**
+     * Adds an item to the current batch and sends the batch if one of the limits is reached
+     * @param item the item to add
+     */
+    public void add( SolrItem item )
+    {
+        add( item, null );
+    }
+
+    /**
+     * Adds an item to the current batch and sends the batch if one of the limits is reached
+     * @param item the item to add
+     * @param onSent the callback run once the batch of the item has been written, or null.
+     * It is not run if the batch fails.
+     */
+    public void add( SolrItem item, Runnable onSent )
+    {
+        List<SolrItem> listFullBatch = null;
+        List<Runnable> listCallbacks = null;
+
+        synchronized ( this )
+        {
+            if ( _listBatch.isEmpty(  ) )
+            {
+                _lBatchStart = System.currentTimeMillis(  );
+                scheduleFlush(  );
+            }
+
+            _listBatch.add( item );
+            _lBatchContentSize += getContentSize( item );
+
+            if ( onSent != null )
+            {
+                _listBatchCallbacks.add( onSent );
+            }
+
+            if ( ( _listBatch.size(  ) >= _nMaxItems ) ||
+                    ( ( _lMaxContentSize > 0 ) && ( _lBatchContentSize >= _lMaxContentSize ) ) ||
+                    ( ( _lMaxDelay > 0 ) && ( ( System.currentTimeMillis(  ) - _lBatchStart ) >= _lMaxDelay ) ) )
+            {
+                listCallbacks = takeCallbacks(  );
+                listFullBatch = takeBatch(  );
+            }
+        }
+
+        // the batch is handed over outside of the lock : the submission stage may wait for room in its queue
+        if ( listFullBatch != null )
+        {
+            send( listFullBatch, listCallbacks );
+        }
+    }
+
+    /**
+     * Sends the current batch
+     */
+    public void flush(  )
+    {
+        List<SolrItem> listBatch;
+        List<Runnable> listCallbacks;
+
+        synchronized ( this )
+        {
+            listCallbacks = takeCallbacks(  );
+            listBatch = takeBatch(  );
+        }
+
+        if ( !listBatch.isEmpty(  ) )
+        {
+            send( listBatch, listCallbacks );
+        }
+    }
+
+    /**
+     * Sends the last batch and waits until all the batches are sent. No item can be added afterwards.
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void close(  ) throws InterruptedException
+    {
+        ScheduledExecutorService timer;
+
+        synchronized ( this )
+        {
+            timer = _timer;
+            _timer = null;
+        }
+
+        // a running timer hands its batch over before the submission stage is stopped
+        if ( timer != null )
+        {
+            timer.shutdown(  );
+            timer.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+        }
+
+        flush(  );
+        _submissionStage.awaitTermination(  );
+    }
+
+    /**
+     * Deletes documents from the index, by batches of the maximum number of items
+     * @param listUids the UIDs of the documents to delete
+     */
+    public void delete( List<String> listUids )
+    {
+        for ( int nFrom = 0; nFrom < listUids.size(  ); nFrom += _nMaxItems )
+        {
+            List<String> listBatch = listUids.subList( nFrom, Math.min( listUids.size(  ), nFrom + _nMaxItems ) );
+
+            try
+            {
+                _writer.delete( new ArrayList<String>( listBatch ) );
+            }
+            catch ( IOException e )
+            {
+                addError( e, MESSAGE_DELETE_ERROR + listBatch.size(  ) + " documents" );
+            }
+        }
+    }
+
+    /**
+     * Commits the updates
+     */
+    public void commit(  )
+    {
+        try
+        {
+            _writer.commit(  );
+        }
+        catch ( IOException e )
+        {
+            addError( e, e.getMessage(  ) );
+        }
+    }
+
+    /**
+     * Returns the writer used to send the batches
+     * @return the writer
+     */
+    public ISolrItemWriter getWriter(  )
+    {
+        return _writer;
+    }
+
+    /**
+     * Returns the errors that occured while sending the batches
+     * @return the list of errors
+     */
+    public List<String> getErrors(  )
+    {
+        List<String> listErrors;
+
+        synchronized ( _listErrors )
+        {
+            listErrors = new ArrayList<String>( _listErrors );
+        }
+
+        listErrors.addAll( _submissionStage.getErrors(  ) );
+
+        return listErrors;
+    }
+
+    /**
+     * Returns the number of items successfully sent
+     * @return the number of items sent
+     */
+    public int getItemCount(  )
+    {
+        return _nItemCount.get(  );
+    }
+
+    /**
+     * Replaces the current batch by a new one. Must be called with the lock held.
+     * @return the current batch
+     */
+    private List<SolrItem> takeBatch(  )
+    {
+        List<SolrItem> listBatch = _listBatch;
+        _listBatch = newBatch(  );
+        _lBatchContentSize = 0;
+        _nBatchGeneration++;
+
+        return listBatch;
+    }
+
+    /**
+     * Schedules the flush of the current batch once it reaches the maximum delay.
+     * Must be called with the lock held, when the first item of the batch is added.
+     */
+    private void scheduleFlush(  )
+    {
+        if ( _lMaxDelay <= 0 )
+        {
+            return;
+        }
+
+        if ( _timer == null )
+        {
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor( 1,
+                    new ThreadFactory(  )
+                    {
+                        public Thread newThread( Runnable runnable )
+                        {
+                            Thread thread = new Thread( runnable, TIMER_THREAD_NAME );
+                            thread.setDaemon( true );
+
+                            return thread;
+                        }
+                    } );
+
+            // the batches still waiting when the writer is closed are flushed by the close
+            timer.setExecuteExistingDelayedTasksAfterShutdownPolicy( false );
+
+            // an idle timer holds no thread, even if the writer is never closed
+            timer.setKeepAliveTime( _lMaxDelay, TimeUnit.MILLISECONDS );
+            timer.allowCoreThreadTimeOut( true );
+            _timer = timer;
+        }
+
+        final int nGeneration = _nBatchGeneration;
+        _timer.schedule( new Runnable(  )
+            {
+                public void run(  )
+                {
+                    flushStaleBatch( nGeneration );
+                }
+            }, _lMaxDelay, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Sends the current batch if it is still the batch the timer was started with
+     * @param nGeneration the generation of the batch when the timer was started
+     */
+    private void flushStaleBatch( int nGeneration )
+    {
+        List<SolrItem> listBatch = null;
+        List<Runnable> listCallbacks = null;
+
+        synchronized ( this )
+        {
+            if ( ( nGeneration == _nBatchGeneration ) && !_listBatch.isEmpty(  ) )
+            {
+                listCallbacks = takeCallbacks(  );
+                listBatch = takeBatch(  );
+            }
+        }
+
+        if ( listBatch != null )
+        {
+            send( listBatch, listCallbacks );
+        }
+    }
+
+    /**
+     * Replaces the callbacks of the current batch. Must be called with the lock held.
+     * @return the callbacks of the current batch
+     */
+    private List<Runnable> takeCallbacks(  )
+    {
+        List<Runnable> listCallbacks = _listBatchCallbacks;
+        _listBatchCallbacks = new ArrayList<Runnable>(  );
+
+        return listCallbacks;
+    }
+
+    /**
+     * Hands a batch over to the submission stage
+     * @param listBatch the batch
+     * @param listCallbacks the callbacks to run once the batch is written
+     */
+    private void send( final List<SolrItem> listBatch, final List<Runnable> listCallbacks )
+    {
+        final int nBatchNumber = _nBatchCount.incrementAndGet(  );
+        _submissionStage.execute( new Runnable(  )
+            {
+                public void run(  )
+                {
+                    try
+                    {
+                        throttledWrite( listBatch );
+                        runCallbacks( listCallbacks );
+                    }
+                    catch ( SolrRejectionException e )
+                    {
+                        if ( isolate( listBatch, e, nBatchNumber ) )
+                        {
+                            runCallbacks( listCallbacks );
+                        }
+                    }
+                    catch ( IOException e )
+                    {
+                        addError( e, MESSAGE_BATCH_ERROR + nBatchNumber + " (" + listBatch.size(  ) + " items)" );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread(  ).interrupt(  );
+                        addError( e, MESSAGE_BATCH_ERROR + nBatchNumber + " (" + listBatch.size(  ) + " items)" );
+                    }
+                }
+            }, MESSAGE_BATCH_ERROR + nBatchNumber );
+    }
+
+    /**
+     * Writes a batch within the limits of the throttle, and adjusts the limits to the result
+     * @param listBatch the batch
+     * @throws SolrRejectionException if the server rejected the batch
+     * @throws IOException if the server couldn't be reached
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void throttledWrite( List<SolrItem> listBatch )
+        throws IOException, InterruptedException
+    {
+        if ( _throttle == null )
+        {
+            writeWithRetries( listBatch );
+
+            return;
+        }
+
+        _throttle.acquire( listBatch.size(  ), getContentSize( listBatch ) );
+
+        try
+        {
+            _throttle.succeeded( writeWithRetries( listBatch ) );
+        }
+        catch ( SolrRejectionException e )
+        {
+            // the server answered : a rejection tells nothing about its load
+            throw e;
+        }
+        catch ( IOException e )
+        {
+            _throttle.failed(  );
+
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a batch, retrying after an exponential backoff while the server can't be reached
+     * @param listBatch the batch
+     * @return the duration of the successful attempt in nanoseconds
+     * @throws SolrRejectionException if the server rejected the batch, it is not retried
+     * @throws IOException if the last attempt failed
+     * @throws InterruptedException if the thread is interrupted during a backoff
+     */
+    private long writeWithRetries( List<SolrItem> listBatch )
+        throws IOException, InterruptedException
+    {
+        long lDelay = _lInitialRetryDelay;
+
+        for ( int nAttempt = 1;; nAttempt++ )
+        {
+            try
+            {
+                return write( listBatch );
+            }
+            catch ( SolrRejectionException e )
+            {
+                throw e;
+            }
+            catch ( IOException e )
+            {
+                if ( nAttempt >= _nMaxAttempts )
+                {
+                    throw e;
+                }
+
+                _metrics.failure( e );
+                AppLogService.info( MESSAGE_BATCH_ERROR + "(attempt " + nAttempt + "), retrying in " + lDelay + "ms : " +
+                    e.getMessage(  ) );
+                Thread.sleep( lDelay );
+                lDelay = Math.min( lDelay * 2, _lMaxRetryDelay );
+            }
+        }
+    }
+
+    /**
+     * Writes a batch once
+     * @param listBatch the batch
+     * @return the duration of the update in nanoseconds
+     * @throws IOException if the update failed
+     */
+    private long write( List<SolrItem> listBatch ) throws IOException
+    {
+        long lStart = System.nanoTime(  );
+        _writer.write( listBatch );
+
+        long lDuration = System.nanoTime(  ) - lStart;
+        _metrics.batchSent( listBatch.size(  ), lDuration );
+        _nItemCount.addAndGet( listBatch.size(  ) );
+
+        return lDuration;
+    }
+
+    /**
+     * Isolates the rejected items of a batch : the batch is split in halves which are
+     * sent again through the throttle, until the rejected items are found and spooled.
+     * The rejection is counted once in the metrics, each spooled item being counted too.
+     * @param listBatch the batch
+     * @param e the rejection of the batch
+     * @param nBatchNumber the number of the batch
+     * @return true if all the items were either sent or spooled
+     */
+    private boolean isolate( List<SolrItem> listBatch, SolrRejectionException e, int nBatchNumber )
+    {
+        if ( _deadLetterSpool == null )
+        {
+            addError( e, MESSAGE_BATCH_ERROR + nBatchNumber + " (" + listBatch.size(  ) + " items)" );
+
+            return false;
+        }
+
+        _metrics.failure( e );
+
+        return split( listBatch, e, nBatchNumber );
+    }
+
+    /**
+     * Spools a rejected item, or sends again the halves of a rejected batch
+     * @param listBatch the rejected batch
+     * @param e the rejection of the batch
+     * @param nBatchNumber the number of the batch
+     * @return true if all the items were either sent or spooled
+     */
+    private boolean split( List<SolrItem> listBatch, SolrRejectionException e, int nBatchNumber )
+    {
+        if ( listBatch.size(  ) == 1 )
+        {
+            SolrItem item = listBatch.get( 0 );
+
+            try
+            {
+                _deadLetterSpool.append( item );
+                _metrics.documentSpooled(  );
+                AppLogService.error( MESSAGE_DEAD_LETTER + item.getUid(  ), e );
+
+                return true;
+            }
+            catch ( IOException eSpool )
+            {
+                addError( eSpool, MESSAGE_BATCH_ERROR + nBatchNumber + " : unable to spool " + item.getUid(  ) );
+
+                return false;
+            }
+        }
+
+        int nMiddle = listBatch.size(  ) / 2;
+        boolean bFirstHalfHandled = isolateHalf( listBatch.subList( 0, nMiddle ), nBatchNumber );
+        boolean bSecondHalfHandled = isolateHalf( listBatch.subList( nMiddle, listBatch.size(  ) ), nBatchNumber );
+
+        return bFirstHalfHandled && bSecondHalfHandled;
+    }
+
+    /**
+     * Sends a half of a rejected batch, and isolates its rejected items if it is rejected.
+     * A half which can't reach the server fails the indexation.
+     * @param listHalf the half of the batch
+     * @param nBatchNumber the number of the batch
+     * @return true if all the items were either sent or spooled
+     */
+    private boolean isolateHalf( List<SolrItem> listHalf, int nBatchNumber )
+    {
+        List<SolrItem> listItems = new ArrayList<SolrItem>( listHalf );
+
+        try
+        {
+            throttledWrite( listItems );
+
+            return true;
+        }
+        catch ( SolrRejectionException e )
+        {
+            return split( listItems, e, nBatchNumber );
+        }
+        catch ( IOException e )
+        {
+            addError( e, MESSAGE_BATCH_ERROR + nBatchNumber + " (" + listItems.size(  ) + " items)" );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+            addError( e, MESSAGE_BATCH_ERROR + nBatchNumber + " (" + listItems.size(  ) + " items)" );
+        }
+
+        return false;
+    }
+
+    /**
+     * Runs the callbacks of a batch once its items are handled
+     * @param listCallbacks the callbacks
+     */
+    private static void runCallbacks( List<Runnable> listCallbacks )
+    {
+        for ( Runnable callback : listCallbacks )
+        {
+            callback.run(  );
+        }
+    }
+
+    /**
+     * Records an error
+     * @param e the exception
+     * @param strMessage the message to log
+     */
+    private void addError( Exception e, String strMessage )
+    {
+        synchronized ( _listErrors )
+        {
+            _listErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+        }
+
+        _metrics.failure( e );
+        AppLogService.error( strMessage, e );
+    }
+
+    /**
+     * Creates an empty batch
+     * @return the batch
+     */
+    private List<SolrItem> newBatch(  )
+    {
+        return new ArrayList<SolrItem>( Math.min( _nMaxItems, MAX_INITIAL_CAPACITY ) );
+    }
+
+    /**
+     * Returns the content size of a batch
+     * @param listBatch the batch
+     * @return the length of the contents of its items
+     */
+    private static long getContentSize( List<SolrItem> listBatch )
+    {
+        long lContentSize = 0;
+
+        for ( SolrItem item : listBatch )
+        {
+            lContentSize += getContentSize( item );
+        }
+
+        return lContentSize;
+    }
+
+    /**
+     * Returns the size used for an item in the batch content size
+     * @param item the item
+     * @return the length of its content
+     */
+    private static long getContentSize( SolrItem item )
+    {
+        return ( item.getContent(  ) != null ) ? item.getContent(  ).length(  ) : 0;
+    }
+}
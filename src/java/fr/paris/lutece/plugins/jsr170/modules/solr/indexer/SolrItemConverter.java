@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.jcr.service.jcrsearch.JcrSearchItem;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.document.Document;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import java.text.ParseException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Converts the lucene documents built by the JCR plugin into {@link SolrItem} objects.
+ * The converter is immutable and can be shared by the conversion threads.
+ * The builders of the known fields are stateless and resolved once for all the
+ * converters : lucene interns the field names,
+ * so a field is first matched by reference against the interned names before falling
+ * back to a map lookup. The contents field is converted last, once the UID, date and mime
+ * type of the document are known, according to a {@link ContentPolicy}.
+ */
+public class SolrItemConverter
+{
+    private static final Map<String, ISolrItemBuilder> MAP_BUILDERS = createBuilders(  );
+    private static final String[] FIELD_NAMES = new String[MAP_BUILDERS.size(  )];
+    private static final ISolrItemBuilder[] BUILDERS = new ISolrItemBuilder[MAP_BUILDERS.size(  )];
+
+    static
+    {
+        int nIndex = 0;
+
+        for ( Map.Entry<String, ISolrItemBuilder> entry : MAP_BUILDERS.entrySet(  ) )
+        {
+            FIELD_NAMES[nIndex] = entry.getKey(  ).intern(  );
+            BUILDERS[nIndex] = entry.getValue(  );
+            nIndex++;
+        }
+    }
+
+    private final String _strSiteName;
+    private final ContentPolicy _contentPolicy;
+    private final boolean _bDynamicUnknownFields;
+
+    /**
+     * Constructor. The fields unknown to the converter are skipped.
+     * @param strSiteName the site name set in the items
+     * @param nMaxContentLength the maximum number of characters of a content, 0 or less for no limit
+     */
+    public SolrItemConverter( String strSiteName, int nMaxContentLength )
+    {
+        this( strSiteName, nMaxContentLength, false );
+    }
+
+    /**
+     * Constructor
+     * @param strSiteName the site name set in the items
+     * @param nMaxContentLength the maximum number of characters of a content, 0 or less for no limit
+     * @param bDynamicUnknownFields true to send the text fields unknown to the converter as
+     * dynamic fields, false to skip them
+     */
+    public SolrItemConverter( String strSiteName, int nMaxContentLength, boolean bDynamicUnknownFields )
+    {
+        this( strSiteName, new ContentPolicy( nMaxContentLength ), bDynamicUnknownFields );
+    }
+
+    /**
+     * Constructor
+     * @param strSiteName the site name set in the items
+     * @param contentPolicy the policy applied to the contents of the documents
+     * @param bDynamicUnknownFields true to send the text fields unknown to the converter as
+     * dynamic fields, false to skip them
+     */
+    public SolrItemConverter( String strSiteName, ContentPolicy contentPolicy, boolean bDynamicUnknownFields )
+    {
+        _strSiteName = strSiteName;
+        _contentPolicy = contentPolicy;
+        _bDynamicUnknownFields = bDynamicUnknownFields;
+    }
+
+    /**
+     * Returns the policy applied to the contents of the documents
+     * @return the content policy
+     */
+    public ContentPolicy getContentPolicy(  )
+    {
+        return _contentPolicy;
+    }
+
+    /**
+     * Creates the builders of the known fields
+     * @return the builders by field name
+     */
+    private static Map<String, ISolrItemBuilder> createBuilders(  )
+    {
+        Map<String, ISolrItemBuilder> mapBuilders = new HashMap<String, ISolrItemBuilder>(  );
+
+        // the contents are converted by setContent once all the other fields are known
+        mapBuilders.put( SearchItem.FIELD_CONTENTS,
+            new ISolrItemBuilder(  )
+            {
+                public void action( org.apache.lucene.document.Field field, SolrItem item )
+                {
+                }
+            } );
+        mapBuilders.put( SearchItem.FIELD_DATE,
+            new ISolrItemBuilder(  )
+            {
+                public void action( org.apache.lucene.document.Field field, SolrItem item )
+                {
+                    try
+                    {
+                        item.setDate( DateTools.stringToDate( field.stringValue(  ) ) );
+                    }
+                    catch ( ParseException e )
+                    {
+                        throw new RuntimeException( e );
+                    }
+                }
+            } );
+        mapBuilders.put( SearchItem.FIELD_DOCUMENT_PORTLET_ID,
+            new ISolrItemBuilder(  )
+            {
+                public void action( org.apache.lucene.document.Field field, SolrItem item )
+                {
+                    item.setDocPortletId( field.stringValue(  ) );
+                }
+            } );
+        mapBuilders.put( SearchItem.FIELD_METADATA,
+            new ISolrItemBuilder(  )
+            {
+                public void action( org.apache.lucene.document.Field field, SolrItem item )
+                {
+                    item.setMetadata( field.stringValue(  ) );
+                }
+            } );
+        mapBuilders.put( SearchItem.FIELD_ROLE,
+            new ISolrItemBuilder(  )
+            {
+                public void action( org.apache.lucene.document.Field field, SolrItem item )
+                {
+                    item.setRole( field.stringValue(  ) );
+                }
+            } );
+        mapBuilders.put( SearchItem.FIELD_SUMMARY,
+            new ISolrItemBuilder(  )
+            {
+                public void action( org.apache.lucene.document.Field field, SolrItem item )
+                {
+                    item.setSummary( field.stringValue(  ) );
+                }
+            } );
+        mapBuilders.put( SearchItem.FIELD_TITLE,
+            new ISolrItemBuilder(  )
+            {
+                public void action( org.apache.lucene.document.Field field, SolrItem item )
+                {
+                    item.setTitle( field.stringValue(  ) );
+                }
+            } );
+        mapBuilders.put( SearchItem.FIELD_TYPE,
+            new ISolrItemBuilder(  )
+            {
+                public void action( org.apache.lucene.document.Field field, SolrItem item )
+                {
+                    item.setType( field.stringValue(  ) );
+                }
+            } );
+        mapBuilders.put( SearchItem.FIELD_UID,
+            new ISolrItemBuilder(  )
+            {
+                public void action( org.apache.lucene.document.Field field, SolrItem item )
+                {
+                    item.setUid( field.stringValue(  ) );
+                }
+            } );
+        mapBuilders.put( SearchItem.FIELD_URL,
+            new ISolrItemBuilder(  )
+            {
+                public void action( org.apache.lucene.document.Field field, SolrItem item )
+                {
+                    item.setUrl( field.stringValue(  ) );
+                }
+            } );
+        mapBuilders.put( JcrSearchItem.FIELD_MIME_TYPE,
+            new ISolrItemBuilder(  )
+            {
+                public void action( org.apache.lucene.document.Field field, SolrItem item )
+                {
+                    item.addDynamicField( JcrSearchItem.FIELD_MIME_TYPE, field.stringValue(  ) );
+                }
+            } );
+
+        return Collections.unmodifiableMap( mapBuilders );
+    }
+
+    /**
+     * Converts a lucene document into a {@link SolrItem} object. The result doesn't depend
+     * on the order of the fields.
+     * @param luceneDocument the document to convert
+     * @return the {@link SolrItem} object of the lucene document. Returns null if the lucene document is null or has no fields.
+     */
+    public SolrItem convert( Document luceneDocument )
+    {
+        if ( luceneDocument == null )
+        {
+            return null;
+        }
+
+        List<?> listFields = luceneDocument.getFields(  );
+
+        if ( ( listFields == null ) || listFields.isEmpty(  ) )
+        {
+            return null;
+        }
+
+        SolrItem item = new SolrItem(  );
+
+        // Add Solr specific attribute
+        item.setSite( _strSiteName );
+
+        for ( int i = 0, nSize = listFields.size(  ); i < nSize; i++ )
+        {
+            org.apache.lucene.document.Field field = (org.apache.lucene.document.Field) listFields.get( i );
+            ISolrItemBuilder builder = getBuilder( field.name(  ) );
+
+            if ( builder == null )
+            {
+                addUnknownField( field, item );
+
+                continue;
+            }
+
+            // Add the field into the SolrItem object
+            try
+            {
+                builder.action( field, item );
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( e.getMessage(  ), e );
+
+                return null;
+            }
+        }
+
+        try
+        {
+            setContent( luceneDocument, item );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( e.getMessage(  ), e );
+
+            return null;
+        }
+
+        return item;
+    }
+
+    /**
+     * Sets the content of an item from the contents field of its document, according to the content policy
+     * @param luceneDocument the document
+     * @param item the item
+     * @throws IOException if the content can't be read
+     */
+    private void setContent( Document luceneDocument, SolrItem item )
+        throws IOException
+    {
+        org.apache.lucene.document.Field fieldContents = luceneDocument.getField( SearchItem.FIELD_CONTENTS );
+        Reader content = ( fieldContents != null ) ? fieldContents.readerValue(  ) : null;
+
+        if ( content != null )
+        {
+            item.setContent( _contentPolicy.getContent( content, item.getUid(  ),
+                    getStringValue( luceneDocument, SearchItem.FIELD_DATE ),
+                    getStringValue( luceneDocument, JcrSearchItem.FIELD_MIME_TYPE ) ) );
+        }
+    }
+
+    /**
+     * Returns the text value of a field of a document
+     * @param luceneDocument the document
+     * @param strFieldName the name of the field
+     * @return the value, or null if the document has no such field
+     */
+    private static String getStringValue( Document luceneDocument, String strFieldName )
+    {
+        org.apache.lucene.document.Field field = luceneDocument.getField( strFieldName );
+
+        return ( field != null ) ? field.stringValue(  ) : null;
+    }
+
+    /**
+     * Returns the builder of a field
+     * @param strFieldName the name of the field
+     * @return the builder, or null if the field is unknown
+     */
+    private static ISolrItemBuilder getBuilder( String strFieldName )
+    {
+        for ( int i = 0; i < FIELD_NAMES.length; i++ )
+        {
+            if ( FIELD_NAMES[i] == strFieldName )
+            {
+                return BUILDERS[i];
+            }
+        }
+
+        return MAP_BUILDERS.get( strFieldName );
+    }
+
+    /**
+     * Sends a field unknown to the converter as a dynamic field if enabled and if it has a text value
+     * @param field the field
+     * @param item the item
+     */
+    private void addUnknownField( org.apache.lucene.document.Field field, SolrItem item )
+    {
+        if ( _bDynamicUnknownFields )
+        {
+            String strValue = field.stringValue(  );
+
+            if ( strValue != null )
+            {
+                item.addDynamicField( field.name(  ), strValue );
+            }
+        }
+    }
+
+    /**
+     *
+     * ISolrItemBuilder
+     *
+     */
+    private interface ISolrItemBuilder
+    {
+        /**
+         * Fill the {@link SolrItem} object with the {@link org.apache.lucene.document.Field} object
+         * @param field the Field object
+         * @param item the SolrItem to fill
+         * @throws IOException
+         */
+        public void action( org.apache.lucene.document.Field field, SolrItem item )
+            throws IOException;
+    }
+}
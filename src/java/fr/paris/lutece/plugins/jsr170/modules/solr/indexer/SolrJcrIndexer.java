@@ -1,434 +1,1302 @@
-/*
- * Copyright (c) 2002-2014, Mairie de Paris
- * All rights reserved.
- *
- * Redistribution and use in source and binary forms, with or without
- * modification, are permitted provided that the following conditions
- * are met:
- *
- *  1. Redistributions of source code must retain the above copyright notice
- *     and the following disclaimer.
- *
- *  2. Redistributions in binary form must reproduce the above copyright notice
- *     and the following disclaimer in the documentation and/or other materials
- *     provided with the distribution.
- *
- *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
- *     contributors may be used to endorse or promote products derived from
- *     this software without specific prior written permission.
- *
- * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
- * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
- * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
- * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
- * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
- * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
- * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
- * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
- * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
- * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
- * POSSIBILITY OF SUCH DAMAGE.
- *
- * License 1.0
- */
-package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
-
-import java.io.IOException;
-import java.io.Reader;
-import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import org.apache.commons.io.IOUtils;
-import org.apache.lucene.document.DateTools;
-import org.apache.lucene.document.Document;
-
-import fr.paris.lutece.plugins.jcr.authentication.JsrUser;
-import fr.paris.lutece.plugins.jcr.business.admin.AdminJcrHome;
-import fr.paris.lutece.plugins.jcr.business.admin.AdminView;
-import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
-import fr.paris.lutece.plugins.jcr.business.portlet.Jsr170Portlet;
-import fr.paris.lutece.plugins.jcr.business.portlet.Jsr170PortletHome;
-import fr.paris.lutece.plugins.jcr.service.JcrPlugin;
-import fr.paris.lutece.plugins.jcr.service.jcrsearch.JcrSearchItem;
-import fr.paris.lutece.plugins.jcr.service.search.IndexerNodeAction;
-import fr.paris.lutece.plugins.jcr.service.search.JcrIndexer;
-import fr.paris.lutece.plugins.jcr.util.JcrIndexerUtils;
-import fr.paris.lutece.plugins.jsr170.modules.solr.business.SolrRepositoryFileHome;
-import fr.paris.lutece.plugins.search.solr.business.field.Field;
-import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexer;
-import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
-import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
-import fr.paris.lutece.plugins.search.solr.util.SolrConstants;
-import fr.paris.lutece.portal.business.page.Page;
-import fr.paris.lutece.portal.business.page.PageHome;
-import fr.paris.lutece.portal.business.portlet.Portlet;
-import fr.paris.lutece.portal.business.portlet.PortletTypeHome;
-import fr.paris.lutece.portal.service.plugin.Plugin;
-import fr.paris.lutece.portal.service.plugin.PluginService;
-import fr.paris.lutece.portal.service.search.SearchItem;
-import fr.paris.lutece.portal.service.util.AppLogService;
-import fr.paris.lutece.portal.service.util.AppPropertiesService;
-
-
-/**
- * The indexer service for Solr.
- *
- */
-public class SolrJcrIndexer implements SolrIndexer
-{
-    private static final String PROPERTY_DESCRIPTION = "jsr170-solr.indexer.description";
-    private static final String PROPERTY_NAME = "jsr170-solr.indexer.name";
-    private static final String PROPERTY_VERSION = "jsr170-solr.indexer.version";
-    private static final String PROPERTY_INDEXER_ENABLE = "jsr170-solr.indexer.enable";
-    private static final String PROPERTY_MIME_TYPE_LABEL = "jsr170-solr.indexer.mimeType.label";
-    private static final String PROPERTY_MIME_TYPE_DESCRIPTION = "jsr170-solr.indexer.mimeType.description";
-    private static final List<String> LIST_RESSOURCES_NAME = new ArrayList<String>(  );
-    private static final String JCR_INDEXATION_ERROR = "[SolrJcrIndexer] An error occured during the indexation of the portlet number ";
-    
-    // Site name
-    private static JcrIndexer _indexer = new JcrIndexer(  );
-    private static Map<String, ISolrItemBuilder> _mapActions = new HashMap<String, ISolrItemBuilder>(  );
-
-    public SolrJcrIndexer(  )
-    {
-        super(  );
-
-        LIST_RESSOURCES_NAME.add( JcrIndexerUtils.CONSTANT_TYPE_RESOURCE );
-
-        initMapBuilder(  );
-    }
-
-    /**
-     * Init the actions map
-     */
-    private void initMapBuilder(  )
-    {
-        _mapActions.put( SearchItem.FIELD_CONTENTS,
-            new ISolrItemBuilder(  )
-            {
-                public void action( org.apache.lucene.document.Field field, SolrItem item )
-                    throws IOException
-                {
-                    Reader content = field.readerValue(  );
-
-                    if ( content != null )
-                    {
-                        String strContent = new String( IOUtils.toByteArray( content ) );
-                        item.setContent( strContent );
-                    }
-                }
-            } );
-        _mapActions.put( SearchItem.FIELD_DATE,
-            new ISolrItemBuilder(  )
-            {
-                public void action( org.apache.lucene.document.Field field, SolrItem item )
-                {
-                    try
-                    {
-                        item.setDate( DateTools.stringToDate( field.stringValue(  ) ) );
-                    }
-                    catch ( ParseException e )
-                    {
-                        throw new RuntimeException( e );
-                    }
-                }
-            } );
-        _mapActions.put( SearchItem.FIELD_DOCUMENT_PORTLET_ID,
-            new ISolrItemBuilder(  )
-            {
-                public void action( org.apache.lucene.document.Field field, SolrItem item )
-                {
-                    item.setDocPortletId( field.stringValue(  ) );
-                }
-            } );
-        _mapActions.put( SearchItem.FIELD_METADATA,
-            new ISolrItemBuilder(  )
-            {
-                public void action( org.apache.lucene.document.Field field, SolrItem item )
-                {
-                    item.setMetadata( field.stringValue(  ) );
-                }
-            } );
-        _mapActions.put( SearchItem.FIELD_ROLE,
-            new ISolrItemBuilder(  )
-            {
-                public void action( org.apache.lucene.document.Field field, SolrItem item )
-                {
-                    item.setRole( field.stringValue(  ) );
-                }
-            } );
-        _mapActions.put( SearchItem.FIELD_SUMMARY,
-            new ISolrItemBuilder(  )
-            {
-                public void action( org.apache.lucene.document.Field field, SolrItem item )
-                {
-                    item.setSummary( field.stringValue(  ) );
-                }
-            } );
-        _mapActions.put( SearchItem.FIELD_TITLE,
-            new ISolrItemBuilder(  )
-            {
-                public void action( org.apache.lucene.document.Field field, SolrItem item )
-                {
-                    item.setTitle( field.stringValue(  ) );
-                }
-            } );
-        _mapActions.put( SearchItem.FIELD_TYPE,
-            new ISolrItemBuilder(  )
-            {
-                public void action( org.apache.lucene.document.Field field, SolrItem item )
-                {
-                    item.setType( field.stringValue(  ) );
-                }
-            } );
-        _mapActions.put( SearchItem.FIELD_UID,
-            new ISolrItemBuilder(  )
-            {
-                public void action( org.apache.lucene.document.Field field, SolrItem item )
-                {
-                    item.setUid( field.stringValue(  ) );
-                }
-            } );
-        _mapActions.put( SearchItem.FIELD_URL,
-            new ISolrItemBuilder(  )
-            {
-                public void action( org.apache.lucene.document.Field field, SolrItem item )
-                {
-                    item.setUrl( field.stringValue(  ) );
-                }
-            } );
-        _mapActions.put( JcrSearchItem.FIELD_MIME_TYPE,
-            new ISolrItemBuilder(  )
-            {
-                public void action( org.apache.lucene.document.Field field, SolrItem item )
-                {
-                    item.addDynamicField( JcrSearchItem.FIELD_MIME_TYPE, field.stringValue(  ) );
-                }
-            } );
-    }
-
-    /**
-         * {@inheritDoc}
-         */
-    public String getDescription(  )
-    {
-        return AppPropertiesService.getProperty( PROPERTY_DESCRIPTION );
-    }
-
-    /**
-         * {@inheritDoc}
-         */
-    public String getName(  )
-    {
-        return AppPropertiesService.getProperty( PROPERTY_NAME );
-    }
-
-    /**
-         * {@inheritDoc}
-         */
-    public String getVersion(  )
-    {
-        return AppPropertiesService.getProperty( PROPERTY_VERSION );
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    public List<String> indexDocuments(  )
-    {
-        Plugin plugin = PluginService.getPlugin( JcrPlugin.PLUGIN_NAME );
-
-        // definition of the comparator used in the collected files
-        // thus there can't be two Documents with the same UID Field 
-        final Comparator<Document> documentComparator = new Comparator<Document>(  )
-            {
-                public int compare( Document o1, Document o2 )
-                {
-                    if ( ( o1 != null ) && ( o2 != null ) )
-                    {
-                        return o1.getField( SearchItem.FIELD_UID ).stringValue(  )
-                                 .compareTo( o2.getField( SearchItem.FIELD_UID ).stringValue(  ) );
-                    }
-                    else if ( ( o1 == null ) && ( o2 != null ) )
-                    {
-                        return -1;
-                    }
-                    else if ( ( o1 != null ) && ( o2 == null ) )
-                    {
-                        return 1;
-                    }
-
-                    return 0;
-                }
-            };
-
-        Jsr170Portlet jsr170Portlet;
-        int defaultView;
-        AdminView view;
-        String strRole;
-        List<String> lstErrors = new ArrayList<String>(  );
-
-        for ( Portlet portlet : Jsr170PortletHome.findByType( PortletTypeHome.getPortletTypeId( 
-                    Jsr170PortletHome.class.getName(  ) ) ) )
-        {
-            jsr170Portlet = Jsr170PortletHome.getInstance(  ).findByPortletId( portlet.getId(  ) );
-
-            defaultView = jsr170Portlet.getDefaultView(  );
-
-            Page page = PageHome.findByPrimaryKey( portlet.getPageId(  ) );
-            strRole = page.getRole(  );
-
-            if ( defaultView > 0 )
-            {
-                view = AdminJcrHome.getInstance(  ).findViewById( defaultView, plugin );
-
-                final AdminWorkspace adminWorkspace = AdminJcrHome.getInstance(  )
-                                                                  .findWorkspaceById( view.getWorkspaceId(  ), plugin );
-
-                try
-                {
-                    SolrRepositoryFileHome.getSolrInstance(  )
-                                          .doRecursive( adminWorkspace, view, view.getPath(  ),
-                        new IndexerNodeAction( documentComparator, JcrPlugin.PLUGIN_NAME, adminWorkspace, strRole ),
-                        new JsrUser( adminWorkspace.getUser(  ) ) );
-                }
-                catch ( Exception e )
-                {
-                	lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
-    				AppLogService.error( JCR_INDEXATION_ERROR + portlet.getId(  ), e );
-                }
-            }
-        }
-
-        return lstErrors;
-    }
-
-    /**
-         * {@inheritDoc}
-         */
-    public List<SolrItem> getDocuments( String strIdDocument )
-    {
-        List<SolrItem> lstSolrItems = new ArrayList<SolrItem>(  );
-        List<Document> lstLuceneDocuments = _indexer.getDocuments( strIdDocument );
-
-        if ( lstLuceneDocuments != null )
-        {
-            for ( Document luceneDoc : lstLuceneDocuments )
-            {
-                SolrItem item = luceneDocument2SolrItem( luceneDoc );
-
-                if ( item != null )
-                {
-                    lstSolrItems.add( item );
-                }
-            }
-        }
-
-        return lstSolrItems;
-    }
-
-    /**
-     * Converts a lucene document into a {@link SolrItem} object
-     * @param luceneDocument the document to convert
-     * @return the {@link SolrItem} object of the lucene document. Returns null if the lucene document is null or has no fields.
-     */
-    public SolrItem luceneDocument2SolrItem( Document luceneDocument )
-    {
-        if ( ( luceneDocument == null ) || ( luceneDocument.getFields(  ) == null ) ||
-                luceneDocument.getFields(  ).isEmpty(  ) )
-        {
-            return null;
-        }
-
-        SolrItem item = new SolrItem(  );
-
-        for ( Object object : luceneDocument.getFields(  ) )
-        {
-            org.apache.lucene.document.Field field = (org.apache.lucene.document.Field) object;
-
-            ISolrItemBuilder builder = _mapActions.get( field.name(  ) );
-
-            // Add the field into the SolrItem object
-            try
-            {
-                builder.action( field, item );
-            }
-            catch ( IOException e )
-            {
-                AppLogService.error( e.getMessage(  ), e );
-
-                return null;
-            }
-
-            // Add Solr specific attribute
-            item.setSite( SolrIndexerService.getWebAppName(  ) );
-        }
-
-        return item;
-    }
-
-    /**
-         * {@inheritDoc}
-         */
-    public boolean isEnable(  )
-    {
-        return "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_INDEXER_ENABLE ) );
-    }
-
-    /**
-         * {@inheritDoc}
-         */
-    public List<Field> getAdditionalFields(  )
-    {
-        Field mimeTypeField = new Field(  );
-        mimeTypeField.setIsFacet( true );
-        mimeTypeField.setLabel( PROPERTY_MIME_TYPE_LABEL );
-        mimeTypeField.setDescription( PROPERTY_MIME_TYPE_DESCRIPTION );
-        mimeTypeField.setName( JcrSearchItem.FIELD_MIME_TYPE + SolrItem.DYNAMIC_STRING_FIELD_SUFFIX );
-
-        List<Field> lstFields = new ArrayList<Field>(  );
-        lstFields.add( mimeTypeField );
-
-        return lstFields;
-    }
-
-    /**
-         * {@inheritDoc}
-         */
-    public List<String> getResourcesName(  )
-    {
-        return LIST_RESSOURCES_NAME;
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    public String getResourceUid( String strResourceId, String strResourceType )
-    {
-        StringBuffer sb = new StringBuffer( strResourceId );
-        sb.append( SolrConstants.CONSTANT_UNDERSCORE ).append( JcrIndexer.SHORT_NAME );
-
-        return sb.toString(  );
-    }
-
-    /**
-     *
-     * ISolrItemBuilder
-     *
-     */
-    private interface ISolrItemBuilder
-    {
-        /**
-         * Fill the {@link SolrItem} object with the {@link org.apache.lucene.document.Field} object
-         * @param field the Field object
-         * @param item the SolrItem to fill
-         * @throws IOException
-         */
-        public void action( org.apache.lucene.document.Field field, SolrItem item )
-            throws IOException;
-    }
-}
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.lucene.document.Document;
+import org.apache.solr.client.solrj.util.ClientUtils;
+
+import fr.paris.lutece.plugins.jcr.authentication.JsrUser;
+import fr.paris.lutece.plugins.jcr.business.portlet.Jsr170PortletHome;
+import fr.paris.lutece.plugins.jcr.service.JcrPlugin;
+import fr.paris.lutece.plugins.jcr.service.jcrsearch.JcrSearchItem;
+import fr.paris.lutece.plugins.jcr.service.search.JcrIndexer;
+import fr.paris.lutece.plugins.jcr.util.JcrIndexerUtils;
+import fr.paris.lutece.plugins.jsr170.modules.solr.business.SolrRepositoryFileHome;
+import fr.paris.lutece.plugins.jsr170.modules.solr.service.SolrJcrIndexerMonitor;
+import fr.paris.lutece.plugins.jsr170.modules.solr.util.SolrJcrIndexerUtils;
+import fr.paris.lutece.plugins.search.solr.business.field.Field;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexer;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.plugins.search.solr.util.SolrConstants;
+import fr.paris.lutece.portal.business.portlet.PortletTypeHome;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * The indexer service for Solr.
+ *
+ */
+public class SolrJcrIndexer implements SolrIndexer
+{
+    private static final String PROPERTY_DESCRIPTION = "jsr170-solr.indexer.description";
+    private static final String PROPERTY_NAME = "jsr170-solr.indexer.name";
+    private static final String PROPERTY_VERSION = "jsr170-solr.indexer.version";
+    private static final String PROPERTY_INDEXER_ENABLE = "jsr170-solr.indexer.enable";
+    private static final String PROPERTY_MIME_TYPE_LABEL = "jsr170-solr.indexer.mimeType.label";
+    private static final String PROPERTY_MIME_TYPE_DESCRIPTION = "jsr170-solr.indexer.mimeType.description";
+    private static final String PROPERTY_BATCH_MAX_ITEMS = "jsr170-solr.indexer.batch.maxItems";
+    private static final String PROPERTY_BATCH_MAX_CONTENT_SIZE = "jsr170-solr.indexer.batch.maxContentSize";
+    private static final String PROPERTY_BATCH_MAX_DELAY = "jsr170-solr.indexer.batch.maxDelay";
+    private static final int DEFAULT_BATCH_MAX_ITEMS = 500;
+    private static final int DEFAULT_BATCH_MAX_CONTENT_SIZE = 10485760;
+    private static final int DEFAULT_BATCH_MAX_DELAY = 10000;
+    private static final String PROPERTY_CRAWL_THREADS = "jsr170-solr.indexer.crawl.threads";
+    private static final int DEFAULT_CRAWL_THREADS = 1;
+    private static final String PROPERTY_CONVERSION_THREADS = "jsr170-solr.indexer.conversion.threads";
+    private static final String PROPERTY_CONVERSION_QUEUE_SIZE = "jsr170-solr.indexer.conversion.queueSize";
+    private static final String PROPERTY_SUBMISSION_THREADS = "jsr170-solr.indexer.submission.threads";
+    private static final String PROPERTY_SUBMISSION_QUEUE_SIZE = "jsr170-solr.indexer.submission.queueSize";
+    private static final int DEFAULT_CONVERSION_THREADS = 0;
+    private static final int DEFAULT_CONVERSION_QUEUE_SIZE = 100;
+    private static final int DEFAULT_SUBMISSION_THREADS = 0;
+    private static final int DEFAULT_SUBMISSION_QUEUE_SIZE = 4;
+    private static final String STAGE_CONVERSION = "conversion";
+    private static final String STAGE_SUBMISSION = "submission";
+    private static final String PROPERTY_CRAWL_MAX_DEPTH = "jsr170-solr.indexer.crawl.maxDepth";
+    private static final String PROPERTY_CRAWL_MAX_NODES = "jsr170-solr.indexer.crawl.maxNodes";
+    private static final String PROPERTY_CONTENT_MAX_LENGTH = "jsr170-solr.indexer.content.maxLength";
+    private static final String PROPERTY_CONTENT_SKIP_LENGTH = "jsr170-solr.indexer.content.skipLength";
+    private static final String PROPERTY_CONTENT_METADATA_ONLY_MIME_TYPES = "jsr170-solr.indexer.content.metadataOnlyMimeTypes";
+    private static final String PROPERTY_EXTRACTION_CACHE_ENABLE = "jsr170-solr.indexer.extractionCache.enable";
+    private static final String PROPERTY_EXTRACTION_CACHE_MIN_LENGTH = "jsr170-solr.indexer.extractionCache.minLength";
+    private static final int DEFAULT_EXTRACTION_CACHE_MIN_LENGTH = 65536;
+    private static final String DIRECTORY_EXTRACTION_CACHE = "extraction";
+    private static final String SEPARATOR_MIME_TYPES = ",";
+    private static final String PROPERTY_CONVERSION_DYNAMIC_FIELDS = "jsr170-solr.indexer.conversion.dynamicFields";
+    private static final String PROPERTY_INCREMENTAL_ENABLE = "jsr170-solr.indexer.incremental.enable";
+    private static final String PROPERTY_FINGERPRINT_ENABLE = "jsr170-solr.indexer.fingerprint.enable";
+    private static final String FILE_FINGERPRINTS = "fingerprints.dat";
+    private static final String PROPERTY_RESUME_ENABLE = "jsr170-solr.indexer.resume.enable";
+    private static final String PROPERTY_RESUME_SAVE_INTERVAL = "jsr170-solr.indexer.resume.saveInterval";
+    private static final int DEFAULT_RESUME_SAVE_INTERVAL = 60000;
+    private static final String FILE_CRAWL_PROGRESS = "crawl_progress.dat";
+    private static final String PROPERTY_RETRY_MAX_ATTEMPTS = "jsr170-solr.indexer.retry.maxAttempts";
+    private static final String PROPERTY_RETRY_INITIAL_DELAY = "jsr170-solr.indexer.retry.initialDelay";
+    private static final String PROPERTY_RETRY_MAX_DELAY = "jsr170-solr.indexer.retry.maxDelay";
+    private static final int DEFAULT_RETRY_MAX_ATTEMPTS = 3;
+    private static final int DEFAULT_RETRY_INITIAL_DELAY = 500;
+    private static final int DEFAULT_RETRY_MAX_DELAY = 30000;
+    private static final String PROPERTY_DEAD_LETTER_ENABLE = "jsr170-solr.indexer.deadLetter.enable";
+    private static final String FILE_DEAD_LETTER = "dead_letter.spool";
+    private static final String PROPERTY_SCHEDULE_ENABLE = "jsr170-solr.indexer.schedule.enable";
+    private static final String PROPERTY_SCHEDULE_HALF_LIFE = "jsr170-solr.indexer.schedule.halfLife";
+    private static final String PROPERTY_SCHEDULE_TIME_BUDGET = "jsr170-solr.indexer.schedule.timeBudget";
+    private static final int DEFAULT_SCHEDULE_HALF_LIFE = 86400000;
+    private static final String FILE_CRAWL_SCHEDULE = "crawl_schedule.dat";
+    private static final String PROPERTY_PAYLOAD_DROP_FIELDS = "jsr170-solr.indexer.payload.dropFields";
+    private static final String PROPERTY_PAYLOAD_DROP_REDUNDANT = "jsr170-solr.indexer.payload.dropRedundant";
+    private static final String PROPERTY_PAYLOAD_SUMMARY_LENGTH = "jsr170-solr.indexer.payload.summaryLength";
+    private static final String PROPERTY_PAYLOAD_DEDUPLICATION_ENABLE = "jsr170-solr.indexer.payload.deduplication.enable";
+    private static final String PROPERTY_PAYLOAD_DEDUPLICATION_MIN_LENGTH = "jsr170-solr.indexer.payload.deduplication.minLength";
+    private static final int DEFAULT_PAYLOAD_DEDUPLICATION_MIN_LENGTH = 1024;
+    private static final String SEPARATOR_FIELDS = ",";
+    private static final String FILE_CONTENT_DIGESTS = "content_digests.dat";
+    private static final String PROPERTY_THROTTLE_MAX_DOCUMENTS = "jsr170-solr.indexer.throttle.maxDocumentsPerSecond";
+    private static final String PROPERTY_THROTTLE_MAX_CHARACTERS = "jsr170-solr.indexer.throttle.maxCharactersPerSecond";
+    private static final String PROPERTY_THROTTLE_LATENCY_THRESHOLD = "jsr170-solr.indexer.throttle.latencyThreshold";
+    private static final int DEFAULT_THROTTLE_LATENCY_THRESHOLD = 2000;
+    private static final String PROPERTY_DOCUMENT_CACHE_MAX_ENTRIES = "jsr170-solr.indexer.documentCache.maxEntries";
+    private static final String PROPERTY_DOCUMENT_CACHE_TTL = "jsr170-solr.indexer.documentCache.timeToLive";
+    private static final int DEFAULT_DOCUMENT_CACHE_MAX_ENTRIES = 100;
+    private static final int DEFAULT_DOCUMENT_CACHE_TTL = 0;
+    private static final String PROPERTY_SHARD_COUNT = "jsr170-solr.indexer.shard.count";
+    private static final String PROPERTY_SHARD_LEASE_DURATION = "jsr170-solr.indexer.shard.leaseDuration";
+    private static final String PROPERTY_SHARD_MIN_INTERVAL = "jsr170-solr.indexer.shard.minInterval";
+    private static final String PROPERTY_SHARD_NODE_NAME = "jsr170-solr.indexer.shard.nodeName";
+    private static final int DEFAULT_SHARD_LEASE_DURATION = 300000;
+    private static final int DEFAULT_SHARD_MIN_INTERVAL = 600000;
+    private static final String PROPERTY_SWEEP_ENABLE = "jsr170-solr.indexer.sweep.enable";
+    private static final String PROPERTY_SWEEP_PAGE_SIZE = "jsr170-solr.indexer.sweep.pageSize";
+    private static final int DEFAULT_SWEEP_PAGE_SIZE = 10000;
+    private static final String FIELD_SITE = "site";
+    private static final String PROPERTY_DOCUMENT_TYPE = "jsr170-solr.indexer.documentType";
+    private static final String PROPERTY_REBUILD_ENABLE = "jsr170-solr.indexer.rebuild.enable";
+    private static final String PROPERTY_REBUILD_SERVER_URL = "jsr170-solr.indexer.rebuild.serverUrl";
+    private static final String PROPERTY_REBUILD_LIVE_CORE = "jsr170-solr.indexer.rebuild.liveCore";
+    private static final String PROPERTY_REBUILD_STAGING_CORE = "jsr170-solr.indexer.rebuild.stagingCore";
+    private static final String PROPERTY_REBUILD_BATCH_MAX_ITEMS = "jsr170-solr.indexer.rebuild.batch.maxItems";
+    private static final String QUERY_JCR_DOCUMENTS = SearchItem.FIELD_UID + ":*" + SolrConstants.CONSTANT_UNDERSCORE +
+        JcrIndexer.SHORT_NAME;
+    private static final List<String> LIST_RESSOURCES_NAME = Collections.singletonList( JcrIndexerUtils.CONSTANT_TYPE_RESOURCE );
+    private static final String JCR_INDEXATION_ERROR = "[SolrJcrIndexer] An error occured during the indexation of the portlets ";
+
+    // definition of the comparator used in the collected files
+    // thus there can't be two Documents with the same UID Field 
+    private static final Comparator<Document> DOCUMENT_COMPARATOR = new Comparator<Document>(  )
+        {
+            public int compare( Document o1, Document o2 )
+            {
+                if ( ( o1 != null ) && ( o2 != null ) )
+                {
+                    return o1.getField( SearchItem.FIELD_UID ).stringValue(  )
+                             .compareTo( o2.getField( SearchItem.FIELD_UID ).stringValue(  ) );
+                }
+                else if ( ( o1 == null ) && ( o2 != null ) )
+                {
+                    return -1;
+                }
+                else if ( ( o1 != null ) && ( o2 == null ) )
+                {
+                    return 1;
+                }
+
+                return 0;
+            }
+        };
+
+    private final JcrIndexer _jcrIndexer;
+    private volatile SolrItemConverter _converter;
+    private volatile DocumentCache _documentCache;
+    private final Object _runLock = new Object(  );
+    private final Object _initLock = new Object(  );
+
+    /**
+     * Constructor
+     */
+    public SolrJcrIndexer(  )
+    {
+        this( new JcrIndexer(  ), null, null );
+    }
+
+    /**
+     * Constructor
+     * @param jcrIndexer the JCR indexer reading the documents
+     * @param converter the converter of the documents, or null to create it on first use
+     * @param documentCache the cache of the incremental indexation, or null to create it on first use
+     */
+    public SolrJcrIndexer( JcrIndexer jcrIndexer, SolrItemConverter converter, DocumentCache documentCache )
+    {
+        super(  );
+
+        _jcrIndexer = jcrIndexer;
+        _converter = converter;
+        _documentCache = documentCache;
+    }
+
+    /**
+         * {@inheritDoc}
+         */
+    public String getDescription(  )
+    {
+        return AppPropertiesService.getProperty( PROPERTY_DESCRIPTION );
+    }
+
+    /**
+         * {@inheritDoc}
+         */
+    public String getName(  )
+    {
+        return AppPropertiesService.getProperty( PROPERTY_NAME );
+    }
+
+    /**
+         * {@inheritDoc}
+         */
+    public String getVersion(  )
+    {
+        return AppPropertiesService.getProperty( PROPERTY_VERSION );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<String> indexDocuments(  )
+    {
+        int nShardCount = AppPropertiesService.getPropertyInt( PROPERTY_SHARD_COUNT, 0 );
+
+        if ( nShardCount > 1 )
+        {
+            return indexShards( nShardCount );
+        }
+
+        if ( "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_REBUILD_ENABLE ) ) )
+        {
+            return rebuild(  );
+        }
+
+        return index( planCrawl(  ), false );
+    }
+
+    /**
+     * Rebuilds the documents of this indexer in the staging core, then swaps it with the live
+     * core. The live core is left unchanged if the rebuild fails.
+     * @return the list of errors
+     */
+    private List<String> rebuild(  )
+    {
+        List<String> lstErrors = new ArrayList<String>(  );
+        StagingRebuild rebuild = new StagingRebuild( AppPropertiesService.getProperty( PROPERTY_REBUILD_SERVER_URL ),
+                AppPropertiesService.getProperty( PROPERTY_REBUILD_LIVE_CORE ),
+                AppPropertiesService.getProperty( PROPERTY_REBUILD_STAGING_CORE ) );
+
+        synchronized ( _runLock )
+        {
+            try
+            {
+                rebuild.prepare( getIndexerQuery(  ) );
+                lstErrors.addAll( doIndex( planCrawl(  ), false, rebuild, null ) );
+            }
+            catch ( IOException e )
+            {
+                lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+                AppLogService.error( e.getMessage(  ), e );
+            }
+            finally
+            {
+                rebuild.close(  );
+            }
+        }
+
+        return lstErrors;
+    }
+
+    /**
+     * Indexes the shards of the repository this node gets a lease on. The other shards
+     * are indexed by the other nodes. Like {@link #indexSubtrees(Map)}, the documents
+     * removed from a shard are not detected.
+     * @param nShardCount the number of shards
+     * @return the list of errors
+     */
+    private List<String> indexShards( int nShardCount )
+    {
+        List<String> lstErrors = new ArrayList<String>(  );
+        String strNodeName = AppPropertiesService.getProperty( PROPERTY_SHARD_NODE_NAME );
+
+        if ( ( strNodeName == null ) || ( strNodeName.trim(  ).length(  ) == 0 ) )
+        {
+            strNodeName = ManagementFactory.getRuntimeMXBean(  ).getName(  );
+        }
+
+        ShardCoordinator coordinator = new ShardCoordinator( nShardCount,
+                AppPropertiesService.getPropertyInt( PROPERTY_SHARD_LEASE_DURATION, DEFAULT_SHARD_LEASE_DURATION ),
+                AppPropertiesService.getPropertyInt( PROPERTY_SHARD_MIN_INTERVAL, DEFAULT_SHARD_MIN_INTERVAL ),
+                strNodeName.trim(  ) );
+
+        synchronized ( _runLock )
+        {
+            try
+            {
+                List<CrawlUnit> listUnits = planCrawl(  );
+
+                for ( int nShard = coordinator.acquireNext(  ); nShard >= 0; nShard = coordinator.acquireNext(  ) )
+                {
+                    AppLogService.info( "[SolrJcrIndexer] Indexing the shard " + nShard + " of " + nShardCount );
+
+                    boolean bIndexed = false;
+
+                    try
+                    {
+                        List<String> lstShardErrors = doIndex( CrawlPlanner.partition( listUnits, nShard, nShardCount ),
+                                true, null, coordinator.getHandle(  ) );
+
+                        if ( coordinator.isLeaseLost(  ) )
+                        {
+                            lstShardErrors.add( "[SolrJcrIndexer] The lease of the shard " + nShard +
+                                " was lost during its indexation" );
+                        }
+
+                        bIndexed = lstShardErrors.isEmpty(  );
+                        lstErrors.addAll( lstShardErrors );
+                    }
+                    finally
+                    {
+                        // a failed shard is left to the next node
+                        coordinator.release( nShard, bIndexed );
+                    }
+                }
+            }
+            finally
+            {
+                coordinator.close(  );
+            }
+        }
+
+        return lstErrors;
+    }
+
+    /**
+     * Indexes some subtrees of the repository. The documents removed from these
+     * subtrees are not detected, the next full indexation will remove them.
+     * @param mapSubtrees the paths of the subtree roots by workspace name
+     * @return the list of errors
+     */
+    public List<String> indexSubtrees( Map<String, ? extends Collection<String>> mapSubtrees )
+    {
+        return index( CrawlPlanner.restrict( planCrawl(  ), mapSubtrees ), true );
+    }
+
+    /**
+     * Indexes some subtrees of the repository, reporting the progress through a handle.
+     * The nodes of the subtrees are counted first to estimate the progress. All their
+     * documents are sent whatever the checkpoints and fingerprints, so the Solr documents
+     * lost or damaged are repaired.
+     * @param mapSubtrees the paths of the subtree roots by workspace name
+     * @param handle the handle of the indexation
+     * @return the list of errors
+     */
+    public List<String> indexSubtrees( Map<String, ? extends Collection<String>> mapSubtrees, IndexationHandle handle )
+    {
+        List<CrawlUnit> listUnits = CrawlPlanner.restrict( planCrawl(  ), mapSubtrees );
+
+        synchronized ( _runLock )
+        {
+            long lEstimatedNodes = 0L;
+
+            for ( CrawlUnit unit : listUnits )
+            {
+                lEstimatedNodes += SolrRepositoryFileHome.getSolrInstance(  )
+                                                         .countNodes( unit, handle );
+            }
+
+            if ( handle.isCancelled(  ) )
+            {
+                return new ArrayList<String>(  );
+            }
+
+            handle.setEstimatedNodes( lEstimatedNodes );
+
+            return doIndex( listUnits, true, null, handle );
+        }
+    }
+
+    /**
+     * Returns the subtrees published by the Jsr170 portlets, each subtree appearing once
+     * @return the units crawled by a full indexation
+     */
+    public List<CrawlUnit> getPublishedUnits(  )
+    {
+        return planCrawl(  );
+    }
+
+    /**
+     * Builds the subtrees published by the Jsr170 portlets
+     * @return the units to crawl
+     */
+    private List<CrawlUnit> planCrawl(  )
+    {
+        Plugin plugin = PluginService.getPlugin( JcrPlugin.PLUGIN_NAME );
+
+        return new CrawlPlanner( plugin ).plan( Jsr170PortletHome.findByType( 
+                PortletTypeHome.getPortletTypeId( Jsr170PortletHome.class.getName(  ) ) ) );
+    }
+
+    /**
+     * Crawls subtrees and sends their documents to Solr. The indexations are run one at a time.
+     * @param listUnits the units to crawl
+     * @param bPartial true if the units don't cover the whole repository
+     * @return the list of errors
+     */
+    private List<String> index( List<CrawlUnit> listUnits, boolean bPartial )
+    {
+        synchronized ( _runLock )
+        {
+            return doIndex( listUnits, bPartial, null, null );
+        }
+    }
+
+    /**
+     * Crawls subtrees and sends their documents to Solr
+     * @param listUnits the units to crawl
+     * @param bPartial true if the units don't cover the whole repository
+     * @param rebuild the rebuild in a staging core, or null to update the live index
+     * @param handle the handle reporting the progress of the indexation, or null
+     * @return the list of errors
+     */
+    private List<String> doIndex( List<CrawlUnit> listUnits, boolean bPartial, StagingRebuild rebuild,
+        IndexationHandle handle )
+    {
+        long lRunStart = System.currentTimeMillis(  );
+        List<String> lstErrors = new ArrayList<String>(  );
+        IndexingContext context = prepare( listUnits, bPartial, rebuild, handle );
+        CrawlSchedule schedule = null;
+
+        if ( "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_SCHEDULE_ENABLE ) ) )
+        {
+            schedule = loadCrawlSchedule(  );
+        }
+
+        replay( context, lstErrors );
+        crawl( context, ( schedule != null ) ? schedule.order( listUnits ) : listUnits, schedule, lstErrors );
+        finish( context, listUnits, rebuild, schedule, lRunStart, lstErrors );
+
+        return lstErrors;
+    }
+
+    /**
+     * Creates the context of an indexation and enables the configured features
+     * @param listUnits the units to crawl
+     * @param bPartial true if the units don't cover the whole repository
+     * @param rebuild the rebuild in a staging core, or null to update the live index
+     * @param handle the handle reporting the progress of the indexation, or null
+     * @return the context
+     */
+    private IndexingContext prepare( List<CrawlUnit> listUnits, boolean bPartial, StagingRebuild rebuild,
+        IndexationHandle handle )
+    {
+        boolean bRebuild = rebuild != null;
+        IndexerMetrics metrics = new IndexerMetrics(  );
+        SolrJcrIndexerMonitor.getInstance(  ).setMetrics( metrics );
+
+        IndexingPipeline pipeline = new IndexingPipeline( getConverter(  ),
+                new PipelineStage( STAGE_CONVERSION,
+                    AppPropertiesService.getPropertyInt( PROPERTY_CONVERSION_THREADS, DEFAULT_CONVERSION_THREADS ),
+                    AppPropertiesService.getPropertyInt( PROPERTY_CONVERSION_QUEUE_SIZE, DEFAULT_CONVERSION_QUEUE_SIZE ),
+                    metrics ) );
+        CrawlExecutor crawlExecutor = new CrawlExecutor( AppPropertiesService.getPropertyInt( PROPERTY_CRAWL_THREADS,
+                    DEFAULT_CRAWL_THREADS ), metrics );
+        SolrItemBatchWriter batchWriter = createBatchWriter( rebuild, metrics );
+        IndexingContext context = new IndexingContext( batchWriter, crawlExecutor, pipeline, metrics );
+        context.setLimits( AppPropertiesService.getPropertyInt( PROPERTY_CRAWL_MAX_DEPTH, 0 ),
+            AppPropertiesService.getPropertyInt( PROPERTY_CRAWL_MAX_NODES, 0 ) );
+        context.setPartial( bPartial );
+
+        if ( handle != null )
+        {
+            context.setHandle( handle );
+            handle.start( metrics );
+        }
+
+        context.enablePayloadOptimizer( createPayloadOptimizer( 
+                "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_PAYLOAD_DEDUPLICATION_ENABLE ) )
+                ? loadContentDigests(  ) : null ) );
+
+        // a rebuild is only switched over if it is complete
+        if ( !bRebuild )
+        {
+            context.setTimeBudget( AppPropertiesService.getPropertyInt( PROPERTY_SCHEDULE_TIME_BUDGET, 0 ) );
+        }
+
+        boolean bIncremental = "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_INCREMENTAL_ENABLE ) );
+        boolean bFingerprints = "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_FINGERPRINT_ENABLE ) );
+        // all the documents are sent to the staging core, which was emptied of them, and
+        // a reindexation requested by an administrator repairs the Solr documents of its subtrees
+        boolean bIgnorePrevious = bRebuild || ( handle != null ) ||
+            ( ( bIncremental || bFingerprints ) && !isIndexPopulated( batchWriter ) );
+
+        if ( bIncremental )
+        {
+            context.enableIncremental( bIgnorePrevious );
+
+            // the documents of the workspaces no longer published are only found in their checkpoints
+            if ( !bPartial )
+            {
+                context.loadAllCheckpoints(  );
+            }
+        }
+
+        if ( bFingerprints )
+        {
+            context.enableFingerprints( loadFingerprints(  ), bIgnorePrevious );
+        }
+
+        if ( !bPartial && !bRebuild && "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_SWEEP_ENABLE ) ) )
+        {
+            context.enableSweep(  );
+        }
+
+        // only a full indexation of the live index can be resumed
+        if ( !bPartial && !bRebuild && "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_RESUME_ENABLE ) ) )
+        {
+            context.enableCrawlProgress( loadCrawlProgress( listUnits ) );
+        }
+
+        return context;
+    }
+
+    /**
+     * Creates the batch writer of an indexation, sending the items to the live core or to the staging core
+     * @param rebuild the rebuild in a staging core, or null to update the live index
+     * @param metrics the metrics of the indexation
+     * @return the batch writer
+     */
+    private SolrItemBatchWriter createBatchWriter( StagingRebuild rebuild, IndexerMetrics metrics )
+    {
+        PipelineStage submissionStage = new PipelineStage( STAGE_SUBMISSION,
+                AppPropertiesService.getPropertyInt( PROPERTY_SUBMISSION_THREADS, DEFAULT_SUBMISSION_THREADS ),
+                AppPropertiesService.getPropertyInt( PROPERTY_SUBMISSION_QUEUE_SIZE, DEFAULT_SUBMISSION_QUEUE_SIZE ),
+                metrics );
+        int nBatchMaxItems = AppPropertiesService.getPropertyInt( PROPERTY_BATCH_MAX_ITEMS, DEFAULT_BATCH_MAX_ITEMS );
+
+        if ( rebuild != null )
+        {
+            // the staging core serves no search, it is loaded with larger batches
+            nBatchMaxItems = AppPropertiesService.getPropertyInt( PROPERTY_REBUILD_BATCH_MAX_ITEMS, nBatchMaxItems );
+        }
+
+        SolrItemBatchWriter batchWriter = new SolrItemBatchWriter( ( rebuild != null ) ? rebuild.getStagingWriter(  )
+                                                                                    : new SolrServerItemWriter(  ),
+                submissionStage, nBatchMaxItems,
+                AppPropertiesService.getPropertyInt( PROPERTY_BATCH_MAX_CONTENT_SIZE, DEFAULT_BATCH_MAX_CONTENT_SIZE ),
+                AppPropertiesService.getPropertyInt( PROPERTY_BATCH_MAX_DELAY, DEFAULT_BATCH_MAX_DELAY ), metrics );
+        batchWriter.setThrottle( new SolrWriteThrottle( AppPropertiesService.getPropertyInt( 
+                    PROPERTY_THROTTLE_MAX_DOCUMENTS, 0 ),
+                AppPropertiesService.getPropertyInt( PROPERTY_THROTTLE_MAX_CHARACTERS, 0 ),
+                AppPropertiesService.getPropertyInt( PROPERTY_THROTTLE_LATENCY_THRESHOLD,
+                    DEFAULT_THROTTLE_LATENCY_THRESHOLD ), metrics ) );
+        batchWriter.setRetries( AppPropertiesService.getPropertyInt( PROPERTY_RETRY_MAX_ATTEMPTS,
+                DEFAULT_RETRY_MAX_ATTEMPTS ),
+            AppPropertiesService.getPropertyInt( PROPERTY_RETRY_INITIAL_DELAY, DEFAULT_RETRY_INITIAL_DELAY ),
+            AppPropertiesService.getPropertyInt( PROPERTY_RETRY_MAX_DELAY, DEFAULT_RETRY_MAX_DELAY ) );
+
+        if ( "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_DEAD_LETTER_ENABLE ) ) )
+        {
+            batchWriter.setDeadLetterSpool( new DeadLetterSpool( SolrJcrIndexerUtils.getWorkFile( FILE_DEAD_LETTER ) ) );
+        }
+
+        return batchWriter;
+    }
+
+    /**
+     * Crawls the units and waits until their documents are converted and sent
+     * @param context the context of the indexation
+     * @param listUnits the units to crawl, in the order of the schedule
+     * @param schedule the schedule of the units, or null
+     * @param lstErrors the errors of the indexation
+     */
+    private void crawl( IndexingContext context, List<CrawlUnit> listUnits, CrawlSchedule schedule,
+        List<String> lstErrors )
+    {
+        CrawlExecutor crawlExecutor = context.getCrawlExecutor(  );
+
+        for ( final CrawlUnit unit : listUnits )
+        {
+            // each subtree is read once, the documents are copied by the pipeline for the other roles
+            final SolrIndexerNodeAction action = new SolrIndexerNodeAction( DOCUMENT_COMPARATOR, JcrPlugin.PLUGIN_NAME,
+                    unit.getAdminWorkspace(  ), unit.getIndexedRole(  ), context,
+                    ( schedule != null ) ? schedule.getActivity( unit ) : null, unit );
+
+            crawlExecutor.submit( new Runnable(  )
+                {
+                    public void run(  )
+                    {
+                        SolrRepositoryFileHome.getSolrInstance(  )
+                                              .doRecursive( unit.getAdminWorkspace(  ), unit.getView(  ),
+                            unit.getPath(  ), action, new JsrUser( unit.getAdminWorkspace(  ).getUser(  ) ) );
+                    }
+                }, JCR_INDEXATION_ERROR + unit.getPortletIds(  ) );
+        }
+
+        try
+        {
+            // each stage is drained before the next one
+            crawlExecutor.awaitCompletion(  );
+            context.getPipeline(  ).awaitTermination(  );
+            context.getBatchWriter(  ).close(  );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+            lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+            AppLogService.error( e.getMessage(  ), e );
+        }
+
+        lstErrors.addAll( crawlExecutor.getErrors(  ) );
+        lstErrors.addAll( context.getPipeline(  ).getErrors(  ) );
+        lstErrors.addAll( context.getBatchWriter(  ).getErrors(  ) );
+    }
+
+    /**
+     * Deletes the removed documents, commits, and stores the state used by the next indexations
+     * @param context the context of the indexation
+     * @param listUnits the crawled units
+     * @param rebuild the rebuild in a staging core, or null if the live index was updated
+     * @param schedule the schedule of the units, or null
+     * @param lRunStart the start time of the indexation
+     * @param lstErrors the errors of the indexation
+     */
+    private void finish( IndexingContext context, List<CrawlUnit> listUnits, StagingRebuild rebuild,
+        CrawlSchedule schedule, long lRunStart, List<String> lstErrors )
+    {
+        SolrItemBatchWriter batchWriter = context.getBatchWriter(  );
+
+        // the replayed items failing again have been spooled again, the other errors don't concern them
+        if ( context.isReplaying(  ) )
+        {
+            try
+            {
+                batchWriter.getDeadLetterSpool(  ).replayed( context.getPendingReplays(  ) );
+            }
+            catch ( IOException e )
+            {
+                lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+                AppLogService.error( e.getMessage(  ), e );
+            }
+        }
+
+        // the removed documents can only be found if the whole repository was crawled
+        if ( lstErrors.isEmpty(  ) && !context.isTruncated(  ) )
+        {
+            deleteRemovedDocuments( context, listUnits, lstErrors );
+        }
+
+        batchWriter.commit(  );
+
+        // the checkpoints and fingerprints are only saved if the rebuilt core becomes live
+        if ( rebuild != null )
+        {
+            rebuild.complete( lstErrors, context.isTruncated(  ) );
+        }
+
+        if ( !context.isTruncated(  ) )
+        {
+            saveCheckpoints( context, lstErrors );
+        }
+
+        saveFingerprints( context, lstErrors );
+        saveContentDigests( context, lstErrors );
+        saveCrawlProgress( context, lstErrors );
+        saveCrawlSchedule( schedule );
+
+        if ( lstErrors.isEmpty(  ) && !context.isTruncated(  ) )
+        {
+            pruneExtractionCache( lRunStart );
+        }
+
+        context.getMetrics(  ).finish(  );
+        AppLogService.info( context.getMetrics(  ).getSummary(  ) );
+    }
+
+    /**
+     * Deletes the documents recorded by the checkpoints which were not crawled, then
+     * the documents of the index which were not crawled
+     * @param context the context of the indexation
+     * @param listUnits the crawled units
+     * @param lstErrors the errors of the indexation, empty
+     */
+    private void deleteRemovedDocuments( IndexingContext context, List<CrawlUnit> listUnits, List<String> lstErrors )
+    {
+        SolrItemBatchWriter batchWriter = context.getBatchWriter(  );
+        ContentDigestStore digestStore = context.getPayloadOptimizer(  ).getDigestStore(  );
+
+        for ( WorkspaceCheckpoint checkpoint : context.getCheckpoints(  ) )
+        {
+            List<String> listRemovedUids = checkpoint.getRemovedUids(  );
+            batchWriter.delete( listRemovedUids );
+
+            if ( digestStore != null )
+            {
+                digestStore.removed( listRemovedUids );
+            }
+        }
+
+        // the deletion errors are added to the previous ones, which were empty
+        lstErrors.addAll( batchWriter.getErrors(  ) );
+
+        if ( lstErrors.isEmpty(  ) && ( context.getLiveUids(  ) != null ) )
+        {
+            sweep( context, listUnits, batchWriter, lstErrors );
+        }
+    }
+
+    /**
+     * Deletes the documents of this indexer and site which were not found by a full crawl
+     * @param context the context of the indexation
+     * @param listUnits the crawled units
+     * @param batchWriter the batch writer
+     * @param lstErrors the errors of the indexation
+     */
+    private void sweep( IndexingContext context, List<CrawlUnit> listUnits, SolrItemBatchWriter batchWriter,
+        List<String> lstErrors )
+    {
+        UidSet liveUids = context.getLiveUids(  );
+
+        // a crawl finding nothing in the published subtrees is more likely a repository failure
+        if ( ( liveUids.size(  ) == 0 ) && !listUnits.isEmpty(  ) )
+        {
+            AppLogService.error( "[SolrJcrIndexer] No document found by the crawl, the removed documents are not deleted" );
+
+            return;
+        }
+
+        OrphanSweeper sweeper = new OrphanSweeper( batchWriter.getWriter(  ), getIndexerQuery(  ),
+                AppPropertiesService.getPropertyInt( PROPERTY_SWEEP_PAGE_SIZE, DEFAULT_SWEEP_PAGE_SIZE ),
+                AppPropertiesService.getPropertyInt( PROPERTY_BATCH_MAX_ITEMS, DEFAULT_BATCH_MAX_ITEMS ) );
+
+        try
+        {
+            int nDeleted = sweeper.sweep( liveUids, context.getMetrics(  ) );
+            AppLogService.info( "[SolrJcrIndexer] " + nDeleted + " removed documents deleted from the index" );
+        }
+        catch ( IOException e )
+        {
+            lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+            AppLogService.error( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Sends again the items spooled by the previous indexations, before the crawled ones
+     * @param context the context of the indexation
+     * @param lstErrors the errors of the indexation
+     */
+    private void replay( IndexingContext context, List<String> lstErrors )
+    {
+        SolrItemBatchWriter batchWriter = context.getBatchWriter(  );
+        DeadLetterSpool deadLetterSpool = batchWriter.getDeadLetterSpool(  );
+
+        if ( deadLetterSpool == null )
+        {
+            return;
+        }
+
+        try
+        {
+            List<SolrItem> listItems = deadLetterSpool.takeAll(  );
+            context.enableReplay(  );
+
+            if ( !listItems.isEmpty(  ) )
+            {
+                AppLogService.info( "[SolrJcrIndexer] Sending again " + listItems.size(  ) + " spooled documents" );
+            }
+
+            for ( SolrItem item : listItems )
+            {
+                batchWriter.add( item, context.trackReplay( item ) );
+            }
+        }
+        catch ( IOException e )
+        {
+            lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+            AppLogService.error( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Returns the query of the documents of this indexer and site
+     * @return the query
+     */
+    private static String getIndexerQuery(  )
+    {
+        return QUERY_JCR_DOCUMENTS + " AND " + FIELD_SITE + ":" +
+        ClientUtils.escapeQueryChars( SolrIndexerService.getWebAppName(  ) );
+    }
+
+    /**
+     * Tells whether the index contains documents of this indexer and site. An incremental
+     * indexation can't rely on its checkpoints if the index has been emptied. The documents
+     * are found by their type rather than by a wildcard on their UID, which would scan
+     * all the UIDs of the index.
+     * @param batchWriter the batch writer
+     * @return true if documents of this indexer were found
+     */
+    private boolean isIndexPopulated( SolrItemBatchWriter batchWriter )
+    {
+        String strQuery = SearchItem.FIELD_TYPE + ":" +
+            ClientUtils.escapeQueryChars( AppPropertiesService.getProperty( PROPERTY_DOCUMENT_TYPE,
+                    JcrPlugin.PLUGIN_NAME ) ) + " AND " + FIELD_SITE + ":" +
+            ClientUtils.escapeQueryChars( SolrIndexerService.getWebAppName(  ) );
+
+        try
+        {
+            return batchWriter.getWriter(  ).count( strQuery ) > 0;
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( e.getMessage(  ), e );
+
+            return false;
+        }
+    }
+
+    /**
+     * Stores the checkpoints of an incremental indexation. They are only stored
+     * if no error occured, so the failed documents are sent again next time.
+     * @param context the context of the indexation
+     * @param lstErrors the errors of the indexation
+     */
+    private void saveCheckpoints( IndexingContext context, List<String> lstErrors )
+    {
+        if ( !lstErrors.isEmpty(  ) )
+        {
+            return;
+        }
+
+        for ( WorkspaceCheckpoint checkpoint : context.getCheckpoints(  ) )
+        {
+            try
+            {
+                checkpoint.save(  );
+            }
+            catch ( IOException e )
+            {
+                lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+                AppLogService.error( e.getMessage(  ), e );
+            }
+        }
+    }
+
+    /**
+     * Loads the progress of an interrupted indexation
+     * @param listUnits the units to crawl
+     * @return the progress
+     */
+    private CrawlProgress loadCrawlProgress( List<CrawlUnit> listUnits )
+    {
+        File file = SolrJcrIndexerUtils.getWorkFile( FILE_CRAWL_PROGRESS );
+        long lSaveInterval = AppPropertiesService.getPropertyInt( PROPERTY_RESUME_SAVE_INTERVAL,
+                DEFAULT_RESUME_SAVE_INTERVAL );
+        CrawlProgress crawlProgress;
+
+        try
+        {
+            crawlProgress = CrawlProgress.load( file, listUnits, lSaveInterval );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "[SolrJcrIndexer] Unable to read the crawl progress " + file.getPath(  ), e );
+            crawlProgress = CrawlProgress.empty( file, listUnits, lSaveInterval );
+        }
+
+        if ( crawlProgress.isResumed(  ) )
+        {
+            AppLogService.info( "[SolrJcrIndexer] Resuming the interrupted indexation, " +
+                crawlProgress.getResumedCount(  ) + " directories are already indexed" );
+        }
+
+        return crawlProgress;
+    }
+
+    /**
+     * Removes the progress of a complete indexation, or stores the progress of an
+     * incomplete one so the next indexation resumes it
+     * @param context the context of the indexation
+     * @param lstErrors the errors of the indexation
+     */
+    private void saveCrawlProgress( IndexingContext context, List<String> lstErrors )
+    {
+        CrawlProgress crawlProgress = context.getCrawlProgress(  );
+
+        if ( crawlProgress == null )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( lstErrors.isEmpty(  ) && !context.isLimitReached(  ) )
+            {
+                crawlProgress.delete(  );
+            }
+            else
+            {
+                crawlProgress.save(  );
+            }
+        }
+        catch ( IOException e )
+        {
+            lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+            AppLogService.error( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Creates the optimizer of the items sent to Solr
+     * @param digestStore the carriers of the duplicated contents, or null to send all the contents
+     * @return the payload optimizer
+     */
+    private static PayloadOptimizer createPayloadOptimizer( ContentDigestStore digestStore )
+    {
+        String strDroppedFields = AppPropertiesService.getProperty( PROPERTY_PAYLOAD_DROP_FIELDS, "" );
+
+        return new PayloadOptimizer( Arrays.asList( strDroppedFields.split( SEPARATOR_FIELDS ) ),
+            "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_PAYLOAD_DROP_REDUNDANT ) ),
+            AppPropertiesService.getPropertyInt( PROPERTY_PAYLOAD_SUMMARY_LENGTH, 0 ), digestStore,
+            AppPropertiesService.getPropertyInt( PROPERTY_PAYLOAD_DEDUPLICATION_MIN_LENGTH,
+                DEFAULT_PAYLOAD_DEDUPLICATION_MIN_LENGTH ) );
+    }
+
+    /**
+     * Loads the carriers of the duplicated contents recorded by the previous indexations
+     * @return the digest store
+     */
+    private ContentDigestStore loadContentDigests(  )
+    {
+        File file = SolrJcrIndexerUtils.getWorkFile( FILE_CONTENT_DIGESTS );
+
+        try
+        {
+            return ContentDigestStore.load( file );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "[SolrJcrIndexer] Unable to read the content digests " + file.getPath(  ), e );
+
+            return ContentDigestStore.empty( file );
+        }
+    }
+
+    /**
+     * Stores the carriers of the duplicated contents. Like the fingerprints, they are only
+     * stored if no error occured, and the contents not found are only evicted if the whole
+     * repository was crawled.
+     * @param context the context of the indexation
+     * @param lstErrors the errors of the indexation
+     */
+    private void saveContentDigests( IndexingContext context, List<String> lstErrors )
+    {
+        ContentDigestStore digestStore = context.getPayloadOptimizer(  ).getDigestStore(  );
+
+        if ( ( digestStore == null ) || !lstErrors.isEmpty(  ) )
+        {
+            return;
+        }
+
+        try
+        {
+            digestStore.save( !context.isTruncated(  ) );
+        }
+        catch ( IOException e )
+        {
+            lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+            AppLogService.error( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Loads the statistics of the subtrees stored by the previous indexations
+     * @return the crawl schedule
+     */
+    private CrawlSchedule loadCrawlSchedule(  )
+    {
+        File file = SolrJcrIndexerUtils.getWorkFile( FILE_CRAWL_SCHEDULE );
+        long lHalfLife = AppPropertiesService.getPropertyInt( PROPERTY_SCHEDULE_HALF_LIFE, DEFAULT_SCHEDULE_HALF_LIFE );
+
+        try
+        {
+            return CrawlSchedule.load( file, lHalfLife );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "[SolrJcrIndexer] Unable to read the crawl schedule " + file.getPath(  ), e );
+
+            return CrawlSchedule.empty( file, lHalfLife );
+        }
+    }
+
+    /**
+     * Stores the statistics of the crawled subtrees for the next indexation
+     * @param schedule the crawl schedule, or null if it is disabled
+     */
+    private void saveCrawlSchedule( CrawlSchedule schedule )
+    {
+        if ( schedule == null )
+        {
+            return;
+        }
+
+        try
+        {
+            schedule.save(  );
+        }
+        catch ( IOException e )
+        {
+            // the statistics only change the order of the next crawl, the indexation itself succeeded
+            AppLogService.error( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Loads the fingerprints of the previous indexation
+     * @return the fingerprint store
+     */
+    private FingerprintStore loadFingerprints(  )
+    {
+        File file = SolrJcrIndexerUtils.getWorkFile( FILE_FINGERPRINTS );
+
+        try
+        {
+            return FingerprintStore.load( file );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "[SolrJcrIndexer] Unable to read the fingerprints " + file.getPath(  ), e );
+
+            return FingerprintStore.empty( file );
+        }
+    }
+
+    /**
+     * Stores the fingerprints of the sent items. Like the checkpoints, they are only
+     * stored if no error occured. The documents not crawled are only evicted if the
+     * whole repository was crawled.
+     * @param context the context of the indexation
+     * @param lstErrors the errors of the indexation
+     */
+    private void saveFingerprints( IndexingContext context, List<String> lstErrors )
+    {
+        FingerprintStore fingerprintStore = context.getFingerprintStore(  );
+
+        if ( ( fingerprintStore == null ) || !lstErrors.isEmpty(  ) )
+        {
+            return;
+        }
+
+        try
+        {
+            fingerprintStore.save( !context.isTruncated(  ) );
+        }
+        catch ( IOException e )
+        {
+            lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+            AppLogService.error( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Concurrent calls for the same document share the same JCR read, as bursts of
+     * modifications of a file lead to several calls for the same id. The read is
+     * always started after the call, unless a time to live of the items is configured.
+     */
+    public List<SolrItem> getDocuments( final String strIdDocument )
+    {
+        try
+        {
+            return getDocumentCache(  ).get( strIdDocument,
+                new Callable<List<SolrItem>>(  )
+                {
+                    public List<SolrItem> call(  )
+                    {
+                        return loadDocuments( strIdDocument );
+                    }
+                } );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+            AppLogService.error( e.getMessage(  ), e );
+
+            return new ArrayList<SolrItem>(  );
+        }
+    }
+
+    /**
+     * Reads the documents of an id and converts them
+     * @param strIdDocument the document id
+     * @return the items
+     */
+    private List<SolrItem> loadDocuments( String strIdDocument )
+    {
+        List<SolrItem> lstSolrItems = new ArrayList<SolrItem>(  );
+        List<Document> lstLuceneDocuments = _jcrIndexer.getDocuments( strIdDocument );
+
+        if ( lstLuceneDocuments != null )
+        {
+            // the contents are only deduplicated by the crawl, which sees all the documents
+            PayloadOptimizer payloadOptimizer = createPayloadOptimizer( null );
+
+            for ( Document luceneDoc : lstLuceneDocuments )
+            {
+                SolrItem item = luceneDocument2SolrItem( luceneDoc );
+
+                if ( item != null )
+                {
+                    if ( item.getContent(  ) != null )
+                    {
+                        payloadOptimizer.optimize( item, null );
+                    }
+
+                    lstSolrItems.add( item );
+                }
+            }
+        }
+
+        return lstSolrItems;
+    }
+
+    /**
+     * Returns the cache of the incremental indexation. It is created once, on first use,
+     * and registered in the monitor.
+     * @return the cache
+     */
+    public DocumentCache getDocumentCache(  )
+    {
+        DocumentCache documentCache = _documentCache;
+
+        if ( documentCache == null )
+        {
+            synchronized ( _initLock )
+            {
+                documentCache = _documentCache;
+
+                if ( documentCache == null )
+                {
+                    documentCache = new DocumentCache( AppPropertiesService.getPropertyInt( 
+                                PROPERTY_DOCUMENT_CACHE_MAX_ENTRIES, DEFAULT_DOCUMENT_CACHE_MAX_ENTRIES ),
+                            AppPropertiesService.getPropertyInt( PROPERTY_DOCUMENT_CACHE_TTL, DEFAULT_DOCUMENT_CACHE_TTL ) );
+                    SolrJcrIndexerMonitor.getInstance(  ).setDocumentCache( documentCache );
+                    _documentCache = documentCache;
+                }
+            }
+        }
+
+        return documentCache;
+    }
+
+    /**
+     * Converts a lucene document into a {@link SolrItem} object
+     * @param luceneDocument the document to convert
+     * @return the {@link SolrItem} object of the lucene document. Returns null if the lucene document is null or has no fields.
+     */
+    public SolrItem luceneDocument2SolrItem( Document luceneDocument )
+    {
+        return getConverter(  ).convert( luceneDocument );
+    }
+
+    /**
+     * Returns the converter of the documents. It is created once, on first use, as the
+     * site name may not be available when the indexer is instantiated.
+     * @return the converter
+     */
+    public SolrItemConverter getConverter(  )
+    {
+        SolrItemConverter converter = _converter;
+
+        if ( converter == null )
+        {
+            synchronized ( _initLock )
+            {
+                converter = _converter;
+
+                if ( converter == null )
+                {
+                    converter = new SolrItemConverter( SolrIndexerService.getWebAppName(  ), createContentPolicy(  ),
+                            "true".equalsIgnoreCase( AppPropertiesService.getProperty( 
+                                    PROPERTY_CONVERSION_DYNAMIC_FIELDS ) ) );
+                    _converter = converter;
+                }
+            }
+        }
+
+        return converter;
+    }
+
+    /**
+     * Deletes the texts of the extraction cache which were not used by a complete crawl
+     * @param lRunStart the start of the crawl
+     */
+    private void pruneExtractionCache( long lRunStart )
+    {
+        ExtractionCache extractionCache = getConverter(  ).getContentPolicy(  ).getExtractionCache(  );
+
+        if ( extractionCache != null )
+        {
+            extractionCache.prune( lRunStart );
+        }
+    }
+
+    /**
+     * Creates the policy applied to the contents of the documents
+     * @return the content policy
+     */
+    private static ContentPolicy createContentPolicy(  )
+    {
+        String strMimeTypes = AppPropertiesService.getProperty( PROPERTY_CONTENT_METADATA_ONLY_MIME_TYPES, "" );
+        int nMaxLength = AppPropertiesService.getPropertyInt( PROPERTY_CONTENT_MAX_LENGTH, 0 );
+        int nSkipLength = AppPropertiesService.getPropertyInt( PROPERTY_CONTENT_SKIP_LENGTH, 0 );
+        ExtractionCache extractionCache = null;
+
+        if ( "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_EXTRACTION_CACHE_ENABLE ) ) )
+        {
+            extractionCache = new ExtractionCache( SolrJcrIndexerUtils.getWorkFile( DIRECTORY_EXTRACTION_CACHE ),
+                    nMaxLength, nSkipLength );
+        }
+
+        return new ContentPolicy( nMaxLength, nSkipLength, Arrays.asList( strMimeTypes.split( SEPARATOR_MIME_TYPES ) ),
+            extractionCache,
+            AppPropertiesService.getPropertyInt( PROPERTY_EXTRACTION_CACHE_MIN_LENGTH,
+                DEFAULT_EXTRACTION_CACHE_MIN_LENGTH ) );
+    }
+
+    /**
+         * {@inheritDoc}
+         */
+    public boolean isEnable(  )
+    {
+        return "true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_INDEXER_ENABLE ) );
+    }
+
+    /**
+         * {@inheritDoc}
+         */
+    public List<Field> getAdditionalFields(  )
+    {
+        Field mimeTypeField = new Field(  );
+        mimeTypeField.setIsFacet( true );
+        mimeTypeField.setLabel( PROPERTY_MIME_TYPE_LABEL );
+        mimeTypeField.setDescription( PROPERTY_MIME_TYPE_DESCRIPTION );
+        mimeTypeField.setName( JcrSearchItem.FIELD_MIME_TYPE + SolrItem.DYNAMIC_STRING_FIELD_SUFFIX );
+
+        List<Field> lstFields = new ArrayList<Field>(  );
+        lstFields.add( mimeTypeField );
+
+        return lstFields;
+    }
+
+    /**
+         * {@inheritDoc}
+         */
+    public List<String> getResourcesName(  )
+    {
+        return LIST_RESSOURCES_NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getResourceUid( String strResourceId, String strResourceType )
+    {
+        StringBuffer sb = new StringBuffer( strResourceId );
+        sb.append( SolrConstants.CONSTANT_UNDERSCORE ).append( JcrIndexer.SHORT_NAME );
+
+        return sb.toString(  );
+    }
+}
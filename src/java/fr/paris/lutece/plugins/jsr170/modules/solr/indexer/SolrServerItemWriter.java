@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.business.SolrServerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.search.SearchItem;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * {@link ISolrItemWriter} sending the items to the Solr server of the Solr plugin,
+ * or to another Solr server
+ */
+public class SolrServerItemWriter implements ISolrItemWriter
+{
+    private final SolrServer _solrServer;
+
+    /**
+     * Constructor of a writer sending the items to the Solr server of the Solr plugin
+     */
+    public SolrServerItemWriter(  )
+    {
+        this( null );
+    }
+
+    /**
+     * Constructor
+     * @param solrServer the Solr server, or null for the Solr server of the Solr plugin
+     */
+    public SolrServerItemWriter( SolrServer solrServer )
+    {
+        _solrServer = solrServer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write( Collection<SolrItem> items ) throws IOException
+    {
+        if ( items.isEmpty(  ) )
+        {
+            return;
+        }
+
+        try
+        {
+            getSolrServer(  ).addBeans( items );
+        }
+        catch ( SolrServerException e )
+        {
+            throw new IOException( e.getMessage(  ), e );
+        }
+        catch ( SolrException e )
+        {
+            if ( e.code(  ) == SolrException.ErrorCode.SERVICE_UNAVAILABLE.code )
+            {
+                // the server is overloaded or starting : the documents may be accepted later
+                throw new IOException( e.getMessage(  ), e );
+            }
+
+            throw new SolrRejectionException( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void delete( List<String> listUids ) throws IOException
+    {
+        if ( listUids.isEmpty(  ) )
+        {
+            return;
+        }
+
+        try
+        {
+            getSolrServer(  ).deleteById( listUids );
+        }
+        catch ( SolrServerException e )
+        {
+            throw new IOException( e.getMessage(  ), e );
+        }
+        catch ( SolrException e )
+        {
+            throw new IOException( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long count( String strQuery ) throws IOException
+    {
+        SolrQuery query = new SolrQuery( strQuery );
+        query.setRows( 0 );
+
+        try
+        {
+            return getSolrServer(  ).query( query ).getResults(  ).getNumFound(  );
+        }
+        catch ( SolrServerException e )
+        {
+            throw new IOException( e.getMessage(  ), e );
+        }
+        catch ( SolrException e )
+        {
+            throw new IOException( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<String> listUids( String strQuery, String strAfterUid, int nRows )
+        throws IOException
+    {
+        SolrQuery query = new SolrQuery( strQuery );
+        query.setFields( SearchItem.FIELD_UID );
+        query.addSortField( SearchItem.FIELD_UID, SolrQuery.ORDER.asc );
+        query.setRows( nRows );
+
+        if ( strAfterUid != null )
+        {
+            // the pages are delimited by UID rather than by offset, so the deep pages cost the same
+            query.addFilterQuery( SearchItem.FIELD_UID + ":{" + ClientUtils.escapeQueryChars( strAfterUid ) +
+                " TO *}" );
+        }
+
+        try
+        {
+            SolrDocumentList listDocuments = getSolrServer(  ).query( query ).getResults(  );
+            List<String> listUids = new ArrayList<String>( listDocuments.size(  ) );
+
+            for ( SolrDocument document : listDocuments )
+            {
+                listUids.add( (String) document.getFieldValue( SearchItem.FIELD_UID ) );
+            }
+
+            return listUids;
+        }
+        catch ( SolrServerException e )
+        {
+            throw new IOException( e.getMessage(  ), e );
+        }
+        catch ( SolrException e )
+        {
+            throw new IOException( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void commit(  ) throws IOException
+    {
+        try
+        {
+            getSolrServer(  ).commit(  );
+        }
+        catch ( SolrServerException e )
+        {
+            throw new IOException( e.getMessage(  ), e );
+        }
+        catch ( SolrException e )
+        {
+            throw new IOException( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Returns the Solr server
+     * @return the Solr server
+     */
+    protected SolrServer getSolrServer(  )
+    {
+        if ( _solrServer != null )
+        {
+            return _solrServer;
+        }
+
+        return SolrServerService.getInstance(  ).getSolrServer(  );
+    }
+}
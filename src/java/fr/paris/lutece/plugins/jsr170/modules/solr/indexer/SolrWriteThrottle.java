@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Adaptive limit of the rate of the Solr updates, in documents and in content
+ * characters per second. The limits are scaled by a factor adjusted after each
+ * update (additive increase, multiplicative decrease) : the factor grows while
+ * the updates succeed below the latency threshold, and is halved when an update
+ * is slower or fails. As the updates are sent by the submission stage, a throttled
+ * stage fills its queue and slows the crawl down.
+ */
+public class SolrWriteThrottle
+{
+    private static final double MAX_FACTOR = 1.0;
+    private static final double MIN_FACTOR = 0.01;
+    private static final double INCREASE_STEP = 0.05;
+    private static final double DECREASE_RATIO = 0.5;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private final double _dMaxDocumentsPerSecond;
+    private final double _dMaxCharactersPerSecond;
+    private final long _lLatencyThreshold;
+    private final IndexerMetrics _metrics;
+    private double _dFactor = MAX_FACTOR;
+    private long _lNextSlot = System.nanoTime(  );
+
+    /**
+     * Constructor
+     * @param nMaxDocumentsPerSecond the maximum number of documents sent per second, 0 or less for no limit
+     * @param nMaxCharactersPerSecond the maximum number of content characters sent per second, 0 or less for no limit
+     * @param nLatencyThreshold the duration of an update (in milliseconds) above which the rate is decreased
+     * @param metrics the metrics of the indexation
+     */
+    public SolrWriteThrottle( int nMaxDocumentsPerSecond, int nMaxCharactersPerSecond, int nLatencyThreshold,
+        IndexerMetrics metrics )
+    {
+        _dMaxDocumentsPerSecond = Math.max( 0, nMaxDocumentsPerSecond );
+        _dMaxCharactersPerSecond = Math.max( 0, nMaxCharactersPerSecond );
+        _lLatencyThreshold = TimeUnit.MILLISECONDS.toNanos( nLatencyThreshold );
+        _metrics = metrics;
+        _metrics.writeRateLimitChanged( _dMaxDocumentsPerSecond, _dMaxCharactersPerSecond );
+    }
+
+    /**
+     * Tells whether a limit is set
+     * @return true if the updates are throttled
+     */
+    public boolean isEnabled(  )
+    {
+        return ( _dMaxDocumentsPerSecond > 0 ) || ( _dMaxCharactersPerSecond > 0 );
+    }
+
+    /**
+     * Waits until an update can be sent within the current limits
+     * @param nDocuments the number of documents of the update
+     * @param lCharacters the content size of the update
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void acquire( int nDocuments, long lCharacters )
+        throws InterruptedException
+    {
+        if ( !isEnabled(  ) )
+        {
+            return;
+        }
+
+        long lSlot;
+
+        synchronized ( this )
+        {
+            double dSeconds = 0;
+
+            if ( _dMaxDocumentsPerSecond > 0 )
+            {
+                dSeconds = nDocuments / ( _dMaxDocumentsPerSecond * _dFactor );
+            }
+
+            if ( _dMaxCharactersPerSecond > 0 )
+            {
+                dSeconds = Math.max( dSeconds, lCharacters / ( _dMaxCharactersPerSecond * _dFactor ) );
+            }
+
+            // the updates are spaced out : each one reserves the time it takes at the current rate
+            long lNow = System.nanoTime(  );
+            lSlot = ( ( _lNextSlot - lNow ) > 0 ) ? _lNextSlot : lNow;
+            _lNextSlot = lSlot + (long) ( dSeconds * NANOS_PER_SECOND );
+        }
+
+        long lWait = lSlot - System.nanoTime(  );
+
+        if ( lWait > 0 )
+        {
+            TimeUnit.NANOSECONDS.sleep( lWait );
+        }
+    }
+
+    /**
+     * Adjusts the rate after a successful update
+     * @param lNanos the duration of the update
+     */
+    public void succeeded( long lNanos )
+    {
+        if ( ( _lLatencyThreshold > 0 ) && ( lNanos > _lLatencyThreshold ) )
+        {
+            decrease(  );
+        }
+        else
+        {
+            increase(  );
+        }
+    }
+
+    /**
+     * Adjusts the rate after a failed update
+     */
+    public void failed(  )
+    {
+        decrease(  );
+    }
+
+    /**
+     * Increases the limits by a step
+     */
+    private void increase(  )
+    {
+        adjust( true );
+    }
+
+    /**
+     * Halves the limits
+     */
+    private void decrease(  )
+    {
+        adjust( false );
+    }
+
+    /**
+     * Adjusts the factor applied to the limits and publishes the new limits
+     * @param bIncrease true to increase the factor, false to decrease it
+     */
+    private void adjust( boolean bIncrease )
+    {
+        if ( !isEnabled(  ) )
+        {
+            return;
+        }
+
+        double dFactor;
+
+        synchronized ( this )
+        {
+            _dFactor = bIncrease ? Math.min( MAX_FACTOR, _dFactor + INCREASE_STEP )
+                                 : Math.max( MIN_FACTOR, _dFactor * DECREASE_RATIO );
+            dFactor = _dFactor;
+        }
+
+        _metrics.writeRateLimitChanged( _dMaxDocumentsPerSecond * dFactor, _dMaxCharactersPerSecond * dFactor );
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.common.params.CoreAdminParams;
+
+import java.io.IOException;
+
+import java.util.List;
+
+
+/**
+ * Full rebuild of the documents of this indexer in a staging core, switched with the
+ * live core at the end. The searches keep using the live core, unchanged, during the
+ * rebuild :
+ * <ol>
+ * <li>the staging core is emptied, then filled with the index of the live core, so it keeps
+ * the documents of the other indexers, and the documents of this indexer are deleted from it,</li>
+ * <li>the crawl sends the documents to the staging core, committed once at the end,</li>
+ * <li>the cores are swapped by Solr in a single operation, the live core name then serves
+ * the rebuilt index and the staging core name the previous one, until the next rebuild.</li>
+ * </ol>
+ * The updates sent to the live core by the other indexers during the rebuild are not in
+ * the rebuilt index, they are sent again by their next indexation.
+ */
+public class StagingRebuild
+{
+    private static final String QUERY_ALL = "*:*";
+    private static final String URL_SEPARATOR = "/";
+    private final String _strLiveCore;
+    private final String _strStagingCore;
+    private final SolrServer _adminServer;
+    private final SolrServer _stagingServer;
+    private final SolrServerItemWriter _stagingWriter;
+
+    /**
+     * Constructor
+     * @param strServerUrl the URL of the Solr server, without core name
+     * @param strLiveCore the name of the core used by the searches
+     * @param strStagingCore the name of the core receiving the rebuilt index
+     */
+    public StagingRebuild( String strServerUrl, String strLiveCore, String strStagingCore )
+    {
+        this( new HttpSolrServer( getRootUrl( strServerUrl ) ),
+            new HttpSolrServer( getRootUrl( strServerUrl ) + URL_SEPARATOR + strStagingCore ), strLiveCore,
+            strStagingCore );
+    }
+
+    /**
+     * Constructor
+     * @param adminServer the server receiving the core admin requests
+     * @param stagingServer the server of the staging core
+     * @param strLiveCore the name of the core used by the searches
+     * @param strStagingCore the name of the core receiving the rebuilt index
+     */
+    StagingRebuild( SolrServer adminServer, SolrServer stagingServer, String strLiveCore, String strStagingCore )
+    {
+        _strLiveCore = strLiveCore;
+        _strStagingCore = strStagingCore;
+        _adminServer = adminServer;
+        _stagingServer = stagingServer;
+        _stagingWriter = new SolrServerItemWriter( _stagingServer );
+    }
+
+    /**
+     * Returns the URL of a Solr server without trailing separator
+     * @param strServerUrl the URL of the Solr server
+     * @return the URL
+     */
+    private static String getRootUrl( String strServerUrl )
+    {
+        return strServerUrl.endsWith( URL_SEPARATOR ) ? strServerUrl.substring( 0, strServerUrl.length(  ) - 1 )
+                                                      : strServerUrl;
+    }
+
+    /**
+     * Returns the writer sending the documents to the staging core
+     * @return the writer
+     */
+    public ISolrItemWriter getStagingWriter(  )
+    {
+        return _stagingWriter;
+    }
+
+    /**
+     * Prepares the staging core : copies the index of the live core without the documents of this indexer
+     * @param strIndexerQuery the query of the documents of this indexer
+     * @throws IOException if the staging core can't be prepared
+     */
+    public void prepare( String strIndexerQuery ) throws IOException
+    {
+        try
+        {
+            _stagingServer.deleteByQuery( QUERY_ALL );
+            _stagingServer.commit(  );
+            CoreAdminRequest.mergeIndexes( _strStagingCore, new String[0], new String[] { _strLiveCore }, _adminServer );
+            _stagingServer.deleteByQuery( strIndexerQuery );
+        }
+        catch ( SolrServerException e )
+        {
+            throw new IOException( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Swaps the rebuilt core with the live core, if the whole repository was indexed without error
+     * @param lstErrors the errors of the indexation, the error of the switch is added to them
+     * @param bTruncated true if the crawl didn't cover the whole repository
+     */
+    public void complete( List<String> lstErrors, boolean bTruncated )
+    {
+        if ( lstErrors.isEmpty(  ) && bTruncated )
+        {
+            lstErrors.add( "[SolrJcrIndexer] The crawl was truncated, the rebuilt core is not switched" );
+        }
+
+        if ( !lstErrors.isEmpty(  ) )
+        {
+            AppLogService.error( "[SolrJcrIndexer] The rebuild failed, the live core is unchanged" );
+
+            return;
+        }
+
+        try
+        {
+            switchOver(  );
+        }
+        catch ( IOException e )
+        {
+            lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+            AppLogService.error( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Commits the staging core and swaps it with the live core
+     * @throws IOException if the switch failed, the live core is then unchanged
+     */
+    public void switchOver(  ) throws IOException
+    {
+        try
+        {
+            _stagingServer.commit(  );
+
+            CoreAdminRequest request = new CoreAdminRequest(  );
+            request.setAction( CoreAdminParams.CoreAdminAction.SWAP );
+            request.setCoreName( _strStagingCore );
+            request.setOtherCoreName( _strLiveCore );
+            request.process( _adminServer );
+        }
+        catch ( SolrServerException e )
+        {
+            throw new IOException( e.getMessage(  ), e );
+        }
+
+        AppLogService.info( "[SolrJcrIndexer] The rebuilt core " + _strStagingCore + " has been swapped with " +
+            _strLiveCore );
+    }
+
+    /**
+     * Releases the connections to the Solr server
+     */
+    public void close(  )
+    {
+        _stagingServer.shutdown(  );
+        _adminServer.shutdown(  );
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import java.util.Arrays;
+
+
+/**
+ * Compact set of document UIDs, filled during a crawl then queried. The UIDs are stored
+ * as 64 bits hashes in a sorted array of longs, 8 bytes per UID, so millions of UIDs fit
+ * in a few megabytes. Two UIDs with the same hash are not told apart : a UID missing from
+ * the set can be reported as contained, never the reverse.
+ */
+public class UidSet
+{
+    private static final int INITIAL_CAPACITY = 1024;
+    private long[] _keys = new long[INITIAL_CAPACITY];
+    private int _nSize;
+    private boolean _bSealed;
+
+    /**
+     * Adds a UID. The UIDs can be added by several threads.
+     * @param strUid the UID
+     */
+    public synchronized void add( String strUid )
+    {
+        if ( _bSealed )
+        {
+            throw new IllegalStateException( "The UID set is sealed" );
+        }
+
+        if ( _nSize == _keys.length )
+        {
+            _keys = Arrays.copyOf( _keys, _keys.length + ( _keys.length >> 1 ) );
+        }
+
+        _keys[_nSize++] = FingerprintStore.key( strUid );
+    }
+
+    /**
+     * Ends the filling of the set : the hashes are sorted and the duplicates removed
+     */
+    public synchronized void seal(  )
+    {
+        if ( _bSealed )
+        {
+            return;
+        }
+
+        Arrays.sort( _keys, 0, _nSize );
+
+        int nDistinct = 0;
+
+        for ( int i = 0; i < _nSize; i++ )
+        {
+            if ( ( nDistinct == 0 ) || ( _keys[nDistinct - 1] != _keys[i] ) )
+            {
+                _keys[nDistinct++] = _keys[i];
+            }
+        }
+
+        _nSize = nDistinct;
+        _keys = Arrays.copyOf( _keys, nDistinct );
+        _bSealed = true;
+    }
+
+    /**
+     * Tells whether the set contains a UID
+     * @param strUid the UID
+     * @return true if the UID, or a UID with the same hash, was added
+     */
+    public synchronized boolean contains( String strUid )
+    {
+        seal(  );
+
+        return Arrays.binarySearch( _keys, 0, _nSize, FingerprintStore.key( strUid ) ) >= 0;
+    }
+
+    /**
+     * Returns the number of distinct UIDs
+     * @return the size of the set
+     */
+    public synchronized int size(  )
+    {
+        seal(  );
+
+        return _nSize;
+    }
+}
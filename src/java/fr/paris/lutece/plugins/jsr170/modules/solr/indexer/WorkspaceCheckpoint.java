@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Modification dates of the documents of a workspace sent during the previous
+ * indexation. The checkpoint is used by the incremental indexation to skip the
+ * documents whose date hasn't changed and to find the documents removed since.
+ */
+public class WorkspaceCheckpoint
+{
+    private static final int FILE_VERSION = 1;
+    private static final String EXTENSION_TEMP = ".tmp";
+    private final File _file;
+    private final Map<String, Long> _mapPreviousDates;
+    private final long _lPreviousHighWaterMark;
+    private final ConcurrentHashMap<String, Long> _mapCurrentDates = new ConcurrentHashMap<String, Long>(  );
+    private volatile long _lHighWaterMark;
+
+    /**
+     * Constructor
+     * @param file the checkpoint file
+     * @param mapPreviousDates the dates of the previous indexation by document UID
+     * @param lPreviousHighWaterMark the most recent date of the previous indexation
+     */
+    private WorkspaceCheckpoint( File file, Map<String, Long> mapPreviousDates, long lPreviousHighWaterMark )
+    {
+        _file = file;
+        _mapPreviousDates = mapPreviousDates;
+        _lPreviousHighWaterMark = lPreviousHighWaterMark;
+        _lHighWaterMark = lPreviousHighWaterMark;
+    }
+
+    /**
+     * Creates an empty checkpoint, ignoring the content of the file
+     * @param file the checkpoint file
+     * @return the checkpoint
+     */
+    public static WorkspaceCheckpoint empty( File file )
+    {
+        return new WorkspaceCheckpoint( file, new HashMap<String, Long>(  ), 0L );
+    }
+
+    /**
+     * Loads the checkpoint stored in a file. An empty checkpoint is returned if the file doesn't exist.
+     * @param file the checkpoint file
+     * @return the checkpoint
+     * @throws IOException if the file can't be read
+     */
+    public static WorkspaceCheckpoint load( File file ) throws IOException
+    {
+        if ( !file.exists(  ) )
+        {
+            return empty( file );
+        }
+
+        Map<String, Long> mapDates = new HashMap<String, Long>(  );
+
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+        try
+        {
+            if ( in.readInt(  ) != FILE_VERSION )
+            {
+                return empty( file );
+            }
+
+            long lHighWaterMark = in.readLong(  );
+            int nCount = in.readInt(  );
+
+            for ( int i = 0; i < nCount; i++ )
+            {
+                String strUid = in.readUTF(  );
+                mapDates.put( strUid, in.readLong(  ) );
+            }
+
+            return new WorkspaceCheckpoint( file, mapDates, lHighWaterMark );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    /**
+     * Records the date of a crawled document
+     * @param strUid the document UID
+     * @param lDate the modification date of the document
+     * @return true if the document is new or has been modified since the previous indexation
+     */
+    public boolean update( String strUid, long lDate )
+    {
+        _mapCurrentDates.put( strUid, lDate );
+
+        synchronized ( this )
+        {
+            if ( lDate > _lHighWaterMark )
+            {
+                _lHighWaterMark = lDate;
+            }
+        }
+
+        Long lPreviousDate = _mapPreviousDates.get( strUid );
+
+        return ( lPreviousDate == null ) || ( lPreviousDate.longValue(  ) != lDate );
+    }
+
+    /**
+     * Returns the UIDs of the documents of the previous indexation which were not crawled this time
+     * @return the UIDs of the removed documents
+     */
+    public List<String> getRemovedUids(  )
+    {
+        List<String> listRemoved = new ArrayList<String>(  );
+
+        for ( String strUid : _mapPreviousDates.keySet(  ) )
+        {
+            if ( !_mapCurrentDates.containsKey( strUid ) )
+            {
+                listRemoved.add( strUid );
+            }
+        }
+
+        return listRemoved;
+    }
+
+    /**
+     * Returns the most recent date of the previous indexation
+     * @return the previous high-water mark
+     */
+    public long getPreviousHighWaterMark(  )
+    {
+        return _lPreviousHighWaterMark;
+    }
+
+    /**
+     * Returns the most recent date of the documents crawled so far
+     * @return the high-water mark
+     */
+    public long getHighWaterMark(  )
+    {
+        return _lHighWaterMark;
+    }
+
+    /**
+     * Tells whether the previous indexation recorded documents
+     * @return true if the checkpoint of the previous indexation is empty
+     */
+    public boolean isEmpty(  )
+    {
+        return _mapPreviousDates.isEmpty(  );
+    }
+
+    /**
+     * Stores the dates of the documents crawled this time. The file is written
+     * in a temporary file first so a failure keeps the previous checkpoint.
+     * The file is deleted if no document was crawled, for instance in a workspace
+     * which is no longer published.
+     * @throws IOException if the file can't be written
+     */
+    public void save(  ) throws IOException
+    {
+        if ( _mapCurrentDates.isEmpty(  ) )
+        {
+            if ( _file.exists(  ) && !_file.delete(  ) )
+            {
+                throw new IOException( "Unable to delete the checkpoint file " + _file.getPath(  ) );
+            }
+
+            return;
+        }
+
+        File fileTemp = new File( _file.getPath(  ) + EXTENSION_TEMP );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fileTemp ) ) );
+
+        try
+        {
+            out.writeInt( FILE_VERSION );
+            out.writeLong( _lHighWaterMark );
+            out.writeInt( _mapCurrentDates.size(  ) );
+
+            for ( Map.Entry<String, Long> entry : _mapCurrentDates.entrySet(  ) )
+            {
+                out.writeUTF( entry.getKey(  ) );
+                out.writeLong( entry.getValue(  ) );
+            }
+        }
+        finally
+        {
+            out.close(  );
+        }
+
+        if ( _file.exists(  ) && !_file.delete(  ) )
+        {
+            throw new IOException( "Unable to replace the checkpoint file " + _file.getPath(  ) );
+        }
+
+        if ( !fileTemp.renameTo( _file ) )
+        {
+            throw new IOException( "Unable to rename the checkpoint file " + fileTemp.getPath(  ) );
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.service;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.jcr.Item;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+
+/**
+ * Listener of the modifications of the published subtrees of a workspace, feeding
+ * the {@link JcrChangeQueue}. The listener uses its own session, logged in the workspace.
+ * <br>
+ * A changed node is queued by its UUID. The subtree of a node which is not referenceable
+ * is crawled again instead, as well as the subtree of an added node having children, which
+ * may have been moved.
+ * <br>
+ * A removed node can't be read anymore : the listener keeps the UUIDs of the referenceable
+ * nodes of the published subtrees by path, read when it is registered and updated by the
+ * events. The removed node and the nodes under it are queued by their UUID.
+ */
+public class JcrChangeListener implements EventListener
+{
+    private static final int EVENT_TYPES = Event.NODE_ADDED | Event.NODE_REMOVED | Event.PROPERTY_ADDED |
+        Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+    private static final String ROOT_PATH = "/";
+    private static final String PATH_SEPARATOR = "/";
+    private static final String PATH_SUBTREE_END = "0";
+    private static final String NODE_CONTENT = "jcr:content";
+    private static final String NODE_SYSTEM = "jcr:system";
+    private static final String MIXIN_REFERENCEABLE = "mix:referenceable";
+    private final JcrChangeQueue _queue;
+    private final Session _session;
+    private final String _strWorkspaceName;
+    private final List<String> _listPaths;
+    private final SortedMap<String, String> _mapUuids = new TreeMap<String, String>(  );
+
+    /**
+     * Constructor
+     * @param queue the queue of the changes
+     * @param session the session logged in the workspace
+     * @param strWorkspaceName the name of the admin workspace
+     * @param listPaths the paths of the published subtrees
+     */
+    public JcrChangeListener( JcrChangeQueue queue, Session session, String strWorkspaceName,
+        Collection<String> listPaths )
+    {
+        _queue = queue;
+        _session = session;
+        _strWorkspaceName = strWorkspaceName;
+        _listPaths = new ArrayList<String>( listPaths );
+    }
+
+    /**
+     * Reads the UUIDs of the published nodes, then starts listening to the modifications of the workspace
+     * @throws RepositoryException if the listener can't be registered
+     */
+    public void register(  ) throws RepositoryException
+    {
+        for ( String strPath : _listPaths )
+        {
+            if ( _session.itemExists( strPath ) && _session.getItem( strPath ).isNode(  ) )
+            {
+                record( (Node) _session.getItem( strPath ) );
+            }
+        }
+
+        _session.getWorkspace(  ).getObservationManager(  )
+                .addEventListener( this, EVENT_TYPES, ROOT_PATH, true, null, null, false );
+    }
+
+    /**
+     * Stops listening and closes the session
+     */
+    public void close(  )
+    {
+        try
+        {
+            _session.getWorkspace(  ).getObservationManager(  ).removeEventListener( this );
+        }
+        catch ( RepositoryException e )
+        {
+            AppLogService.error( "[SolrJcrIndexer] Unable to unregister the change listener of the workspace " +
+                _strWorkspaceName, e );
+        }
+        finally
+        {
+            _session.logout(  );
+
+            synchronized ( _mapUuids )
+            {
+                _mapUuids.clear(  );
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void onEvent( EventIterator events )
+    {
+        while ( events.hasNext(  ) )
+        {
+            Event event = events.nextEvent(  );
+
+            try
+            {
+                String strPath = event.getPath(  );
+
+                if ( event.getType(  ) == Event.NODE_REMOVED )
+                {
+                    if ( isPublished( strPath ) )
+                    {
+                        nodeRemoved( strPath );
+                    }
+                }
+                else
+                {
+                    // a property event is a modification of its node
+                    if ( event.getType(  ) != Event.NODE_ADDED )
+                    {
+                        strPath = getParentPath( strPath );
+                    }
+
+                    if ( isPublished( strPath ) )
+                    {
+                        nodeChanged( strPath, event.getType(  ) == Event.NODE_ADDED );
+                    }
+                }
+            }
+            catch ( RepositoryException e )
+            {
+                AppLogService.error( "[SolrJcrIndexer] Unable to queue a change of the workspace " +
+                    _strWorkspaceName, e );
+            }
+        }
+    }
+
+    /**
+     * Queues the modification of a node
+     * @param strPath the path of the node
+     * @param bAdded true if the node was added
+     * @throws RepositoryException if the node can't be read
+     */
+    private void nodeChanged( String strPath, boolean bAdded )
+        throws RepositoryException
+    {
+        // the node may have been removed since the event
+        if ( !_session.itemExists( strPath ) )
+        {
+            return;
+        }
+
+        Item item = _session.getItem( strPath );
+
+        if ( !item.isNode(  ) )
+        {
+            return;
+        }
+
+        Node node = (Node) item;
+
+        // the content of a file belongs to the document of the file
+        if ( NODE_CONTENT.equals( node.getName(  ) ) && ( node.getDepth(  ) > 0 ) )
+        {
+            node = node.getParent(  );
+        }
+
+        // an added node having children may be the root of a moved subtree, whose other nodes send no event
+        boolean bSubtree = bAdded && record( node );
+
+        if ( node.isNodeType( MIXIN_REFERENCEABLE ) && !bSubtree )
+        {
+            _queue.nodeChanged( _strWorkspaceName, node.getPath(  ), node.getUUID(  ) );
+        }
+        else
+        {
+            _queue.subtreeChanged( _strWorkspaceName, node.getPath(  ) );
+        }
+    }
+
+    /**
+     * Queues the removal of a node and of the nodes under it, identified by their recorded UUID
+     * @param strPath the path of the node
+     */
+    private void nodeRemoved( String strPath )
+    {
+        Map<String, String> mapRemoved = new LinkedHashMap<String, String>(  );
+
+        synchronized ( _mapUuids )
+        {
+            if ( _mapUuids.containsKey( strPath ) )
+            {
+                mapRemoved.put( strPath, _mapUuids.remove( strPath ) );
+            }
+
+            // the paths under the node sort between its path followed by the separator and by the next character
+            SortedMap<String, String> mapSubtree = _mapUuids.subMap( strPath + PATH_SEPARATOR,
+                    strPath + PATH_SUBTREE_END );
+            mapRemoved.putAll( mapSubtree );
+            mapSubtree.clear(  );
+        }
+
+        for ( Map.Entry<String, String> entry : mapRemoved.entrySet(  ) )
+        {
+            _queue.nodeRemoved( _strWorkspaceName, entry.getKey(  ), entry.getValue(  ) );
+        }
+    }
+
+    /**
+     * Records the UUID of a node, and of the nodes under it. The content of the files is
+     * part of their document, and the system nodes are not published.
+     * @param node the node
+     * @return true if nodes were found under the node
+     * @throws RepositoryException if the nodes can't be read
+     */
+    private boolean record( Node node ) throws RepositoryException
+    {
+        if ( node.isNodeType( MIXIN_REFERENCEABLE ) )
+        {
+            synchronized ( _mapUuids )
+            {
+                _mapUuids.put( node.getPath(  ), node.getUUID(  ) );
+            }
+        }
+
+        boolean bChildren = false;
+
+        for ( NodeIterator nodes = node.getNodes(  ); nodes.hasNext(  ); )
+        {
+            Node child = nodes.nextNode(  );
+
+            if ( !NODE_CONTENT.equals( child.getName(  ) ) && !NODE_SYSTEM.equals( child.getName(  ) ) )
+            {
+                record( child );
+                bChildren = true;
+            }
+        }
+
+        return bChildren;
+    }
+
+    /**
+     * Tells whether a node is in a published subtree
+     * @param strPath the path of the node
+     * @return true if the node is in a published subtree
+     */
+    private boolean isPublished( String strPath )
+    {
+        for ( String strRootPath : _listPaths )
+        {
+            if ( ROOT_PATH.equals( strRootPath ) || strPath.equals( strRootPath ) ||
+                    strPath.startsWith( strRootPath + PATH_SEPARATOR ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the path of the parent of an item
+     * @param strPath the path of the item
+     * @return the path of the parent
+     */
+    private static String getParentPath( String strPath )
+    {
+        int nIndex = strPath.lastIndexOf( PATH_SEPARATOR );
+
+        return ( nIndex > 0 ) ? strPath.substring( 0, nIndex ) : ROOT_PATH;
+    }
+}
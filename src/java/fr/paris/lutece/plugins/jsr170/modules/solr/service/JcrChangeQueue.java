@@ -0,0 +1,628 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.service;
+
+import fr.paris.lutece.plugins.jcr.util.JcrIndexerUtils;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.CrawlPlanner;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.CrawlUnit;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.ISolrItemWriter;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrJcrIndexer;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrServerItemWriter;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Queue of the modifications of the JCR nodes, indexed in the background.
+ * <br>
+ * The events of a document are debounced : the document is indexed once no event
+ * was received for it during the debounce delay, or at the latest after the maximum
+ * delay. The due documents are read and converted by the indexer and sent to Solr
+ * in batches, followed by a single commit.
+ * <br>
+ * The queue is bounded. When it is full, the event is dropped and the directory of
+ * the node is marked instead : the marked subtrees are crawled again once the queue
+ * is empty.
+ * <br>
+ * The events are received from the JCR observation through {@link JcrChangeListener}.
+ * The background thread is started on first use and stopped with the plugin.
+ */
+public final class JcrChangeQueue
+{
+    private static final String PROPERTY_DEBOUNCE_DELAY = "jsr170-solr.changeQueue.debounceDelay";
+    private static final String PROPERTY_MAX_DELAY = "jsr170-solr.changeQueue.maxDelay";
+    private static final String PROPERTY_MAX_SIZE = "jsr170-solr.changeQueue.maxSize";
+    private static final String PROPERTY_BATCH_SIZE = "jsr170-solr.changeQueue.batchSize";
+    private static final int DEFAULT_DEBOUNCE_DELAY = 2000;
+    private static final int DEFAULT_MAX_DELAY = 30000;
+    private static final int DEFAULT_MAX_SIZE = 10000;
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int MIN_POLL_DELAY = 100;
+    private static final int MAX_RECRAWL_PATHS = 100;
+    private static final String BEAN_SOLR_JCR_INDEXER = "jsr170-solr.solrDocIndexer";
+    private static final String THREAD_NAME = "jsr170-solr-changes";
+    private static final String PATH_SEPARATOR = "/";
+    private static final long SHUTDOWN_TIMEOUT = 10000L;
+    private static final IClock SYSTEM_CLOCK = new IClock(  )
+        {
+            public long nanoTime(  )
+            {
+                return System.nanoTime(  );
+            }
+        };
+
+    private static JcrChangeQueue _singleton;
+    private final Map<String, PendingChange> _mapChanges = new LinkedHashMap<String, PendingChange>(  );
+    private final Map<String, Set<String>> _mapRecrawlPaths = new HashMap<String, Set<String>>(  );
+    private final SolrJcrIndexer _indexer;
+    private final ISolrItemWriter _writer;
+    private final IClock _clock;
+    private final long _lDebounceDelay;
+    private final long _lMaxDelay;
+    private final int _nMaxSize;
+    private final int _nBatchSize;
+    private ScheduledExecutorService _executor;
+
+    /**
+     * Constructor
+     * @param indexer the indexer reading the documents, or null to use the indexer bean
+     * @param writer the writer of the items
+     * @param clock the clock of the delays
+     * @param lDebounceDelay the debounce delay, in milliseconds
+     * @param lMaxDelay the maximum delay, in milliseconds
+     * @param nMaxSize the maximum number of documents waiting to be indexed
+     * @param nBatchSize the number of documents sent at once
+     */
+    JcrChangeQueue( SolrJcrIndexer indexer, ISolrItemWriter writer, IClock clock, long lDebounceDelay,
+        long lMaxDelay, int nMaxSize, int nBatchSize )
+    {
+        _indexer = indexer;
+        _writer = writer;
+        _clock = clock;
+        _lDebounceDelay = TimeUnit.MILLISECONDS.toNanos( lDebounceDelay );
+        _lMaxDelay = TimeUnit.MILLISECONDS.toNanos( lMaxDelay );
+        _nMaxSize = nMaxSize;
+        _nBatchSize = Math.max( 1, nBatchSize );
+    }
+
+    /**
+     * Returns the instance of the singleton, starting the background thread on first call
+     * @return The instance of the singleton
+     */
+    public static synchronized JcrChangeQueue getInstance(  )
+    {
+        if ( _singleton == null )
+        {
+            _singleton = new JcrChangeQueue( null, new SolrServerItemWriter(  ), SYSTEM_CLOCK,
+                    AppPropertiesService.getPropertyInt( PROPERTY_DEBOUNCE_DELAY, DEFAULT_DEBOUNCE_DELAY ),
+                    AppPropertiesService.getPropertyInt( PROPERTY_MAX_DELAY, DEFAULT_MAX_DELAY ),
+                    AppPropertiesService.getPropertyInt( PROPERTY_MAX_SIZE, DEFAULT_MAX_SIZE ),
+                    AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE ) );
+            _singleton.start(  );
+        }
+
+        return _singleton;
+    }
+
+    /**
+     * Stops the background thread of the singleton, if it was started. The changes
+     * still in the queue are dropped, the next full indexation will index them.
+     */
+    public static synchronized void shutdownInstance(  )
+    {
+        if ( _singleton != null )
+        {
+            _singleton.shutdown(  );
+            _singleton = null;
+        }
+    }
+
+    /**
+     * Starts the background thread
+     */
+    synchronized void start(  )
+    {
+        _executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory(  )
+                {
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, THREAD_NAME );
+                        thread.setDaemon( true );
+
+                        return thread;
+                    }
+                } );
+
+        long lPollDelay = Math.max( MIN_POLL_DELAY, TimeUnit.NANOSECONDS.toMillis( _lDebounceDelay ) / 4 );
+        _executor.scheduleWithFixedDelay( new Runnable(  )
+            {
+                public void run(  )
+                {
+                    flush(  );
+                }
+            }, lPollDelay, lPollDelay, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Stops the background thread, waiting for the running indexation of the changes
+     */
+    void shutdown(  )
+    {
+        ScheduledExecutorService executor;
+
+        // the lock is released before waiting, as the background thread takes it
+        synchronized ( this )
+        {
+            executor = _executor;
+            _executor = null;
+        }
+
+        if ( executor != null )
+        {
+            executor.shutdownNow(  );
+
+            try
+            {
+                executor.awaitTermination( SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread(  ).interrupt(  );
+            }
+        }
+    }
+
+    /**
+     * Notifies the creation or the modification of a node
+     * @param strWorkspaceName the name of the workspace
+     * @param strPath the path of the node
+     * @param strIdDocument the id of the node, as given to {@link SolrJcrIndexer#getDocuments(String)}
+     */
+    public void nodeChanged( String strWorkspaceName, String strPath, String strIdDocument )
+    {
+        add( strWorkspaceName, strPath, strIdDocument, false );
+    }
+
+    /**
+     * Notifies the removal of a node
+     * @param strWorkspaceName the name of the workspace
+     * @param strPath the path of the node
+     * @param strIdDocument the id of the node, as given to {@link SolrJcrIndexer#getDocuments(String)}
+     */
+    public void nodeRemoved( String strWorkspaceName, String strPath, String strIdDocument )
+    {
+        add( strWorkspaceName, strPath, strIdDocument, true );
+    }
+
+    /**
+     * Notifies a modification of a subtree whose documents can't be identified.
+     * The subtree is crawled again once the queue is empty.
+     * @param strWorkspaceName the name of the workspace
+     * @param strPath the path of the subtree root
+     */
+    public void subtreeChanged( String strWorkspaceName, String strPath )
+    {
+        markForRecrawl( strWorkspaceName, strPath );
+    }
+
+    /**
+     * Returns the number of documents waiting to be indexed
+     * @return the number of documents
+     */
+    public synchronized int size(  )
+    {
+        return _mapChanges.size(  );
+    }
+
+    /**
+     * Adds an event to the queue, or marks the directory of the node if the queue is full
+     * @param strWorkspaceName the name of the workspace
+     * @param strPath the path of the node
+     * @param strIdDocument the id of the node
+     * @param bRemoved true if the node was removed
+     */
+    private synchronized void add( String strWorkspaceName, String strPath, String strIdDocument, boolean bRemoved )
+    {
+        long lNow = _clock.nanoTime(  );
+        PendingChange change = _mapChanges.get( strIdDocument );
+
+        if ( change == null )
+        {
+            if ( _mapChanges.size(  ) >= _nMaxSize )
+            {
+                AppLogService.info( "[SolrJcrIndexer] The change queue is full, the directory of the node " +
+                    strPath + " will be crawled again" );
+                markForRecrawl( strWorkspaceName, getParentPath( strPath ) );
+
+                return;
+            }
+
+            change = new PendingChange( strWorkspaceName, strIdDocument, lNow + _lMaxDelay );
+            _mapChanges.put( strIdDocument, change );
+        }
+
+        change.update( strPath, bRemoved, lNow + _lDebounceDelay );
+    }
+
+    /**
+     * Removes the due changes from the queue
+     * @param lNow the current time in {@link System#nanoTime()} reference
+     * @return at most one batch of changes
+     */
+    private synchronized List<PendingChange> takeDueChanges( long lNow )
+    {
+        List<PendingChange> listDue = new ArrayList<PendingChange>(  );
+        Iterator<PendingChange> iterator = _mapChanges.values(  ).iterator(  );
+
+        while ( iterator.hasNext(  ) && ( listDue.size(  ) < _nBatchSize ) )
+        {
+            PendingChange change = iterator.next(  );
+
+            if ( change.isDue( lNow ) )
+            {
+                listDue.add( change );
+                iterator.remove(  );
+            }
+        }
+
+        return listDue;
+    }
+
+    /**
+     * Removes the marked subtrees, once the queue is empty
+     * @return the paths of the subtrees by workspace name, empty if the queue still has changes
+     */
+    private synchronized Map<String, Set<String>> takeRecrawlPaths(  )
+    {
+        if ( !_mapChanges.isEmpty(  ) || _mapRecrawlPaths.isEmpty(  ) )
+        {
+            return new HashMap<String, Set<String>>(  );
+        }
+
+        Map<String, Set<String>> mapPaths = new HashMap<String, Set<String>>( _mapRecrawlPaths );
+        _mapRecrawlPaths.clear(  );
+
+        return mapPaths;
+    }
+
+    /**
+     * Marks a subtree to be crawled again. A subtree under a marked one is ignored,
+     * and the whole workspace is marked if too many subtrees are.
+     * @param strWorkspaceName the name of the workspace
+     * @param strPath the path of the subtree root
+     */
+    private synchronized void markForRecrawl( String strWorkspaceName, String strPath )
+    {
+        Set<String> setPaths = _mapRecrawlPaths.get( strWorkspaceName );
+
+        if ( setPaths == null )
+        {
+            setPaths = new HashSet<String>(  );
+            _mapRecrawlPaths.put( strWorkspaceName, setPaths );
+        }
+
+        Iterator<String> iterator = setPaths.iterator(  );
+
+        while ( iterator.hasNext(  ) )
+        {
+            String strMarkedPath = iterator.next(  );
+
+            if ( isUnder( strPath, strMarkedPath ) )
+            {
+                return;
+            }
+
+            if ( isUnder( strMarkedPath, strPath ) )
+            {
+                iterator.remove(  );
+            }
+        }
+
+        if ( setPaths.size(  ) >= MAX_RECRAWL_PATHS )
+        {
+            setPaths.clear(  );
+            setPaths.add( PATH_SEPARATOR );
+        }
+        else
+        {
+            setPaths.add( strPath );
+        }
+    }
+
+    /**
+     * Indexes the due changes, then the marked subtrees. Runs in the background thread.
+     */
+    void flush(  )
+    {
+        try
+        {
+            boolean bWritten = false;
+            List<PendingChange> listChanges = takeDueChanges( _clock.nanoTime(  ) );
+
+            while ( !listChanges.isEmpty(  ) )
+            {
+                bWritten |= process( listChanges );
+                listChanges = takeDueChanges( _clock.nanoTime(  ) );
+            }
+
+            if ( bWritten )
+            {
+                _writer.commit(  );
+            }
+
+            Map<String, Set<String>> mapRecrawlPaths = takeRecrawlPaths(  );
+
+            if ( !mapRecrawlPaths.isEmpty(  ) )
+            {
+                for ( String strError : getIndexer(  ).indexSubtrees( mapRecrawlPaths ) )
+                {
+                    AppLogService.error( strError );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            // an exception would cancel the next runs
+            AppLogService.error( "[SolrJcrIndexer] An error occured while indexing the queued changes", e );
+        }
+    }
+
+    /**
+     * Indexes a batch of changes. The documents of a node are sent or deleted for all
+     * the roles of the subtree publishing it. If the batch can't be sent, the directories
+     * of its nodes are marked.
+     * @param listChanges the changes
+     * @return true if the batch was sent
+     */
+    private boolean process( List<PendingChange> listChanges )
+    {
+        SolrJcrIndexer indexer = getIndexer(  );
+        List<SolrItem> listItems = new ArrayList<SolrItem>(  );
+        List<String> listRemovedUids = new ArrayList<String>(  );
+
+        try
+        {
+            List<CrawlUnit> listUnits = indexer.getPublishedUnits(  );
+
+            for ( PendingChange change : listChanges )
+            {
+                // the cached items may be older than the change
+                indexer.getDocumentCache(  ).invalidate( change.getIdDocument(  ) );
+
+                CrawlUnit unit = CrawlPlanner.findUnit( listUnits, change.getWorkspaceName(  ), change.getPath(  ) );
+
+                if ( change.isRemoved(  ) )
+                {
+                    String strUid = indexer.getResourceUid( change.getIdDocument(  ),
+                            JcrIndexerUtils.CONSTANT_TYPE_RESOURCE );
+                    listRemovedUids.addAll( ( unit != null ) ? unit.getRoleUids( strUid )
+                                                             : Collections.singletonList( strUid ) );
+                }
+                else
+                {
+                    for ( SolrItem item : indexer.getDocuments( change.getIdDocument(  ) ) )
+                    {
+                        listItems.addAll( ( unit != null ) ? unit.getRoleItems( item )
+                                                           : Collections.singletonList( item ) );
+                    }
+                }
+            }
+
+            if ( !listItems.isEmpty(  ) )
+            {
+                _writer.write( listItems );
+            }
+
+            if ( !listRemovedUids.isEmpty(  ) )
+            {
+                _writer.delete( listRemovedUids );
+            }
+
+            return true;
+        }
+        catch ( IOException e )
+        {
+            fail( listChanges, e );
+        }
+        catch ( RuntimeException e )
+        {
+            fail( listChanges, e );
+        }
+
+        return false;
+    }
+
+    /**
+     * Marks the directories of the nodes of a batch which couldn't be indexed
+     * @param listChanges the changes
+     * @param e the exception
+     */
+    private void fail( List<PendingChange> listChanges, Exception e )
+    {
+        AppLogService.error( "[SolrJcrIndexer] Unable to index the queued changes", e );
+
+        for ( PendingChange change : listChanges )
+        {
+            markForRecrawl( change.getWorkspaceName(  ), getParentPath( change.getPath(  ) ) );
+        }
+    }
+
+    /**
+     * Returns the indexer
+     * @return the indexer
+     */
+    private SolrJcrIndexer getIndexer(  )
+    {
+        return ( _indexer != null ) ? _indexer : (SolrJcrIndexer) SpringContextService.getBean( BEAN_SOLR_JCR_INDEXER );
+    }
+
+    /**
+     * Returns the path of the parent of a node
+     * @param strPath the path of the node
+     * @return the path of the parent
+     */
+    private static String getParentPath( String strPath )
+    {
+        int nIndex = ( strPath != null ) ? strPath.lastIndexOf( PATH_SEPARATOR ) : -1;
+
+        return ( nIndex > 0 ) ? strPath.substring( 0, nIndex ) : PATH_SEPARATOR;
+    }
+
+    /**
+     * Tells whether a path is under another one
+     * @param strPath the path
+     * @param strAncestorPath the other path
+     * @return true if the path is the other path or is under it
+     */
+    private static boolean isUnder( String strPath, String strAncestorPath )
+    {
+        return PATH_SEPARATOR.equals( strAncestorPath ) || strPath.equals( strAncestorPath ) ||
+        strPath.startsWith( strAncestorPath + PATH_SEPARATOR );
+    }
+
+    /**
+     * Source of the time of the delays
+     */
+    interface IClock
+    {
+        /**
+         * Returns the current time
+         * @return the current time, in nanoseconds from an arbitrary origin
+         */
+        long nanoTime(  );
+    }
+
+    /**
+     * The last event received for a document
+     */
+    private static final class PendingChange
+    {
+        private final String _strWorkspaceName;
+        private final String _strIdDocument;
+        private final long _lDeadline;
+        private String _strPath;
+        private boolean _bRemoved;
+        private long _lDueTime;
+
+        /**
+         * Constructor
+         * @param strWorkspaceName the name of the workspace
+         * @param strIdDocument the id of the node
+         * @param lDeadline the time the change must be indexed at the latest
+         */
+        PendingChange( String strWorkspaceName, String strIdDocument, long lDeadline )
+        {
+            _strWorkspaceName = strWorkspaceName;
+            _strIdDocument = strIdDocument;
+            _lDeadline = lDeadline;
+        }
+
+        /**
+         * Records a new event, postponing the indexation
+         * @param strPath the path of the node
+         * @param bRemoved true if the node was removed
+         * @param lDueTime the time the change will be indexed if no other event is received
+         */
+        void update( String strPath, boolean bRemoved, long lDueTime )
+        {
+            _strPath = strPath;
+            _bRemoved = bRemoved;
+            _lDueTime = ( ( lDueTime - _lDeadline ) > 0 ) ? _lDeadline : lDueTime;
+        }
+
+        /**
+         * Tells whether the change must be indexed
+         * @param lNow the current time
+         * @return true if the change is due
+         */
+        boolean isDue( long lNow )
+        {
+            return ( lNow - _lDueTime ) >= 0;
+        }
+
+        /**
+         * Returns the name of the workspace
+         * @return the name of the workspace
+         */
+        String getWorkspaceName(  )
+        {
+            return _strWorkspaceName;
+        }
+
+        /**
+         * Returns the id of the node
+         * @return the id of the node
+         */
+        String getIdDocument(  )
+        {
+            return _strIdDocument;
+        }
+
+        /**
+         * Returns the path of the node
+         * @return the path of the node
+         */
+        String getPath(  )
+        {
+            return _strPath;
+        }
+
+        /**
+         * Tells whether the node was removed
+         * @return true if the node was removed
+         */
+        boolean isRemoved(  )
+        {
+            return _bRemoved;
+        }
+    }
+}
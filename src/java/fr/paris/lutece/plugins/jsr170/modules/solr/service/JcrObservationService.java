@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.service;
+
+import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.CrawlUnit;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrJcrIndexer;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+
+/**
+ * Registers a {@link JcrChangeListener} in each workspace published by the Jsr170 portlets,
+ * so the modifications of the repository are indexed through the {@link JcrChangeQueue}.
+ * <br>
+ * The subtrees observed are those published when the plugin is initialized. The subtrees
+ * published later are indexed by the full indexations.
+ */
+public final class JcrObservationService
+{
+    private static final String PROPERTY_ENABLED = "jsr170-solr.changeQueue.observation.enable";
+    private static final String PROPERTY_REPOSITORY_BEAN = "jsr170-solr.changeQueue.observation.repositoryBean.";
+    private static final String PROPERTY_USER = "jsr170-solr.changeQueue.observation.user";
+    private static final String PROPERTY_PASSWORD = "jsr170-solr.changeQueue.observation.password";
+    private static final String BEAN_SOLR_JCR_INDEXER = "jsr170-solr.solrDocIndexer";
+    private static final JcrObservationService _singleton = new JcrObservationService(  );
+    private final List<JcrChangeListener> _listListeners = new ArrayList<JcrChangeListener>(  );
+
+    /**
+     * Private constructor
+     */
+    private JcrObservationService(  )
+    {
+    }
+
+    /**
+     * Returns the instance of the singleton
+     * @return The instance of the singleton
+     */
+    public static JcrObservationService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Starts listening to the published workspaces, if enabled
+     */
+    public synchronized void start(  )
+    {
+        if ( !"true".equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_ENABLED ) ) ||
+                !_listListeners.isEmpty(  ) )
+        {
+            return;
+        }
+
+        SolrJcrIndexer indexer = (SolrJcrIndexer) SpringContextService.getBean( BEAN_SOLR_JCR_INDEXER );
+        Map<String, AdminWorkspace> mapWorkspaces = new LinkedHashMap<String, AdminWorkspace>(  );
+        Map<String, List<String>> mapPaths = new LinkedHashMap<String, List<String>>(  );
+
+        for ( CrawlUnit unit : indexer.getPublishedUnits(  ) )
+        {
+            String strWorkspaceName = unit.getAdminWorkspace(  ).getName(  );
+            List<String> listPaths = mapPaths.get( strWorkspaceName );
+
+            if ( listPaths == null )
+            {
+                listPaths = new ArrayList<String>(  );
+                mapPaths.put( strWorkspaceName, listPaths );
+                mapWorkspaces.put( strWorkspaceName, unit.getAdminWorkspace(  ) );
+            }
+
+            listPaths.add( unit.getPath(  ) );
+        }
+
+        for ( AdminWorkspace adminWorkspace : mapWorkspaces.values(  ) )
+        {
+            listen( adminWorkspace, mapPaths.get( adminWorkspace.getName(  ) ) );
+        }
+    }
+
+    /**
+     * Stops listening to the workspaces and stops the queue of the changes
+     */
+    public synchronized void stop(  )
+    {
+        for ( JcrChangeListener listener : _listListeners )
+        {
+            listener.close(  );
+        }
+
+        _listListeners.clear(  );
+        JcrChangeQueue.shutdownInstance(  );
+    }
+
+    /**
+     * Registers a listener in a workspace
+     * @param adminWorkspace the workspace
+     * @param listPaths the paths of the published subtrees of the workspace
+     */
+    private void listen( AdminWorkspace adminWorkspace, List<String> listPaths )
+    {
+        String strBeanName = AppPropertiesService.getProperty( PROPERTY_REPOSITORY_BEAN +
+                adminWorkspace.getJcrType(  ) );
+
+        if ( ( strBeanName == null ) || ( strBeanName.trim(  ).length(  ) == 0 ) )
+        {
+            AppLogService.error( "[SolrJcrIndexer] No repository configured for the JCR type " +
+                adminWorkspace.getJcrType(  ) + ", the changes of the workspace " + adminWorkspace.getName(  ) +
+                " are not observed" );
+
+            return;
+        }
+
+        try
+        {
+            Repository repository = (Repository) SpringContextService.getBean( strBeanName.trim(  ) );
+            String strPassword = AppPropertiesService.getProperty( PROPERTY_PASSWORD, "" );
+            Session session = repository.login( new SimpleCredentials( AppPropertiesService.getProperty( 
+                            PROPERTY_USER, "" ), strPassword.toCharArray(  ) ), adminWorkspace.getName(  ) );
+            JcrChangeListener listener = new JcrChangeListener( JcrChangeQueue.getInstance(  ), session,
+                    adminWorkspace.getName(  ), listPaths );
+
+            try
+            {
+                listener.register(  );
+            }
+            catch ( RepositoryException e )
+            {
+                session.logout(  );
+
+                throw e;
+            }
+
+            _listListeners.add( listener );
+            AppLogService.info( "[SolrJcrIndexer] The changes of the workspace " + adminWorkspace.getName(  ) +
+                " are observed" );
+        }
+        catch ( RepositoryException e )
+        {
+            AppLogService.error( "[SolrJcrIndexer] Unable to observe the workspace " + adminWorkspace.getName(  ), e );
+        }
+        catch ( RuntimeException e )
+        {
+            AppLogService.error( "[SolrJcrIndexer] Unable to observe the workspace " + adminWorkspace.getName(  ), e );
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.service;
+
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.CrawlUnit;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.IndexationHandle;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrJcrIndexer;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Runs the indexation of a subtree requested by an administrator in the background,
+ * one at a time. The indexation waits for the end of a running full indexation.
+ */
+public final class ScopedReindexService
+{
+    private static final String BEAN_SOLR_JCR_INDEXER = "jsr170-solr.solrDocIndexer";
+    private static final String THREAD_NAME = "jsr170-solr-reindex";
+    private static final ScopedReindexService _singleton = new ScopedReindexService(  );
+    private IndexationHandle _handle;
+
+    /**
+     * Private constructor
+     */
+    private ScopedReindexService(  )
+    {
+    }
+
+    /**
+     * Returns the instance of the singleton
+     * @return The instance of the singleton
+     */
+    public static ScopedReindexService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Returns the subtrees published by the Jsr170 portlets, which can be indexed
+     * @return the units crawled by a full indexation
+     */
+    public List<CrawlUnit> getPublishedUnits(  )
+    {
+        return getIndexer(  ).getPublishedUnits(  );
+    }
+
+    /**
+     * Starts the indexation of a subtree
+     * @param strWorkspaceName the name of the workspace
+     * @param strPath the path of the subtree root
+     * @return the handle of the indexation, or null if another one is running
+     */
+    public synchronized IndexationHandle start( String strWorkspaceName, String strPath )
+    {
+        if ( ( _handle != null ) && !_handle.isDone(  ) )
+        {
+            return null;
+        }
+
+        final IndexationHandle handle = new IndexationHandle( strWorkspaceName, strPath );
+        final SolrJcrIndexer indexer = getIndexer(  );
+        Thread thread = new Thread( new Runnable(  )
+                {
+                    public void run(  )
+                    {
+                        List<String> listErrors = new ArrayList<String>(  );
+
+                        try
+                        {
+                            listErrors.addAll( indexer.indexSubtrees( Collections.singletonMap( 
+                                        handle.getWorkspaceName(  ),
+                                        Collections.singletonList( handle.getPath(  ) ) ), handle ) );
+                        }
+                        catch ( RuntimeException e )
+                        {
+                            listErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+                            AppLogService.error( e.getMessage(  ), e );
+                        }
+                        finally
+                        {
+                            handle.finish( listErrors );
+                        }
+                    }
+                }, THREAD_NAME );
+        thread.setDaemon( true );
+        thread.start(  );
+
+        AppLogService.info( "[SolrJcrIndexer] Indexation of " + strPath + " in the workspace " + strWorkspaceName +
+            " started" );
+        _handle = handle;
+
+        return handle;
+    }
+
+    /**
+     * Returns the handle of the running or last indexation
+     * @return the handle, or null if no indexation was started
+     */
+    public synchronized IndexationHandle getHandle(  )
+    {
+        return _handle;
+    }
+
+    /**
+     * Cancels the running indexation
+     * @return true if an indexation was running
+     */
+    public synchronized boolean cancel(  )
+    {
+        if ( ( _handle == null ) || _handle.isDone(  ) )
+        {
+            return false;
+        }
+
+        _handle.cancel(  );
+        AppLogService.info( "[SolrJcrIndexer] Indexation of " + _handle.getPath(  ) + " in the workspace " +
+            _handle.getWorkspaceName(  ) + " cancelled" );
+
+        return true;
+    }
+
+    /**
+     * Returns the indexer
+     * @return the indexer
+     */
+    private static SolrJcrIndexer getIndexer(  )
+    {
+        return (SolrJcrIndexer) SpringContextService.getBean( BEAN_SOLR_JCR_INDEXER );
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.service;
+
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.DocumentCache;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.IndexerMetrics;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * Exposes the metrics of the indexations through JMX
+ */
+public final class SolrJcrIndexerMonitor implements SolrJcrIndexerMonitorMBean
+{
+    private static final String OBJECT_NAME = "fr.paris.lutece.plugins.jsr170.modules.solr:type=SolrJcrIndexerMonitor";
+    private static final SolrJcrIndexerMonitor _singleton = new SolrJcrIndexerMonitor(  );
+    private volatile IndexerMetrics _metrics = new IndexerMetrics(  );
+    private volatile DocumentCache _documentCache = new DocumentCache( 0, 0L );
+
+    /**
+     * Private constructor
+     */
+    private SolrJcrIndexerMonitor(  )
+    {
+        _metrics.finish(  );
+    }
+
+    /**
+     * Returns the instance of the singleton
+     * @return The instance of the singleton
+     */
+    public static SolrJcrIndexerMonitor getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Registers the monitor in the platform MBean server. A monitor left registered by
+     * a previous deployment of the webapp is replaced.
+     */
+    public void register(  )
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer(  );
+            ObjectName name = new ObjectName( OBJECT_NAME );
+
+            if ( server.isRegistered( name ) )
+            {
+                server.unregisterMBean( name );
+            }
+
+            server.registerMBean( this, name );
+        }
+        catch ( JMException e )
+        {
+            AppLogService.error( "[SolrJcrIndexer] Unable to register the JMX monitor", e );
+        }
+    }
+
+    /**
+     * Unregisters the monitor from the platform MBean server, so the server no longer
+     * references the classes of the webapp
+     */
+    public void unregister(  )
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer(  );
+            ObjectName name = new ObjectName( OBJECT_NAME );
+
+            if ( server.isRegistered( name ) )
+            {
+                server.unregisterMBean( name );
+            }
+        }
+        catch ( JMException e )
+        {
+            AppLogService.error( "[SolrJcrIndexer] Unable to unregister the JMX monitor", e );
+        }
+    }
+
+    /**
+     * Sets the metrics of the running indexation
+     * @param metrics the metrics
+     */
+    public void setMetrics( IndexerMetrics metrics )
+    {
+        _metrics = metrics;
+    }
+
+    /**
+     * Returns the metrics of the running or last indexation
+     * @return the metrics
+     */
+    public IndexerMetrics getMetrics(  )
+    {
+        return _metrics;
+    }
+
+    /**
+     * Sets the cache of the incremental indexation
+     * @param documentCache the cache
+     */
+    public void setDocumentCache( DocumentCache documentCache )
+    {
+        _documentCache = documentCache;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRunning(  )
+    {
+        return _metrics.isRunning(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDuration(  )
+    {
+        return _metrics.getDuration(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getNodesVisited(  )
+    {
+        return _metrics.getNodesVisited(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDocumentsConverted(  )
+    {
+        return _metrics.getDocumentsConverted(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDocumentsSkipped(  )
+    {
+        return _metrics.getDocumentsSkipped(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDocumentsSent(  )
+    {
+        return _metrics.getDocumentsSent(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getContentSize(  )
+    {
+        return _metrics.getContentSize(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFailureCount(  )
+    {
+        return _metrics.getFailureCount(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getFailuresByType(  )
+    {
+        return _metrics.getFailuresByType(  ).toString(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getSolrWriteRate(  )
+    {
+        return _metrics.getWriteRate(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getSolrWriteDocumentsLimit(  )
+    {
+        return _metrics.getWriteDocumentsLimit(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getSolrWriteCharactersLimit(  )
+    {
+        return _metrics.getWriteCharactersLimit(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getJcrReadLatency(  )
+    {
+        return _metrics.getJcrReadLatency(  ).toString(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getConversionLatency(  )
+    {
+        return _metrics.getConversionLatency(  ).toString(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getSolrWriteLatency(  )
+    {
+        return _metrics.getSolrWriteLatency(  ).toString(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getWorkspaceDurations(  )
+    {
+        return _metrics.getWorkspaceDurations(  ).toString(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getSummary(  )
+    {
+        return _metrics.getSummary(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDocumentCacheHits(  )
+    {
+        return _documentCache.getHits(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDocumentCacheMisses(  )
+    {
+        return _documentCache.getMisses(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDocumentCacheCoalesced(  )
+    {
+        return _documentCache.getCoalesced(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getDocumentCacheSize(  )
+    {
+        return _documentCache.size(  );
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.service;
+
+
+/**
+ * JMX interface of the indexer metrics. The values are those of the running
+ * indexation, or of the last one if none is running, except the statistics of
+ * the document cache which cover the incremental indexation since the startup.
+ */
+public interface SolrJcrIndexerMonitorMBean
+{
+    /**
+     * Tells whether an indexation is running
+     * @return true if an indexation is running
+     */
+    boolean isRunning(  );
+
+    /**
+     * Returns the duration of the indexation
+     * @return the duration in milliseconds
+     */
+    long getDuration(  );
+
+    /**
+     * Returns the number of crawled nodes
+     * @return the number of nodes
+     */
+    long getNodesVisited(  );
+
+    /**
+     * Returns the number of converted documents
+     * @return the number of documents
+     */
+    long getDocumentsConverted(  );
+
+    /**
+     * Returns the number of unchanged documents which were not sent
+     * @return the number of documents
+     */
+    long getDocumentsSkipped(  );
+
+    /**
+     * Returns the number of documents sent to Solr
+     * @return the number of documents
+     */
+    long getDocumentsSent(  );
+
+    /**
+     * Returns the size of the converted contents
+     * @return the number of characters
+     */
+    long getContentSize(  );
+
+    /**
+     * Returns the number of failures
+     * @return the number of failures
+     */
+    long getFailureCount(  );
+
+    /**
+     * Returns the failures by exception class
+     * @return the failures
+     */
+    String getFailuresByType(  );
+
+    /**
+     * Returns the average number of documents sent per second
+     * @return the rate of the Solr updates
+     */
+    double getSolrWriteRate(  );
+
+    /**
+     * Returns the current limit of the documents sent per second, lowered when Solr slows down
+     * @return the limit, 0 if there is none
+     */
+    double getSolrWriteDocumentsLimit(  );
+
+    /**
+     * Returns the current limit of the content characters sent per second, lowered when Solr slows down
+     * @return the limit, 0 if there is none
+     */
+    double getSolrWriteCharactersLimit(  );
+
+    /**
+     * Returns the durations of the JCR reads
+     * @return the histogram of the durations
+     */
+    String getJcrReadLatency(  );
+
+    /**
+     * Returns the durations of the conversions
+     * @return the histogram of the durations
+     */
+    String getConversionLatency(  );
+
+    /**
+     * Returns the durations of the Solr updates
+     * @return the histogram of the durations
+     */
+    String getSolrWriteLatency(  );
+
+    /**
+     * Returns the time spent by the crawl tasks in each workspace
+     * @return the durations in milliseconds
+     */
+    String getWorkspaceDurations(  );
+
+    /**
+     * Returns a summary of the metrics
+     * @return the summary
+     */
+    String getSummary(  );
+
+    /**
+     * Returns the number of incremental calls answered by the document cache
+     * @return the number of hits
+     */
+    long getDocumentCacheHits(  );
+
+    /**
+     * Returns the number of incremental calls which read the JCR
+     * @return the number of misses
+     */
+    long getDocumentCacheMisses(  );
+
+    /**
+     * Returns the number of incremental calls which waited for the read of a concurrent call
+     * @return the number of coalesced calls
+     */
+    long getDocumentCacheCoalesced(  );
+
+    /**
+     * Returns the number of documents in the cache
+     * @return the number of entries
+     */
+    int getDocumentCacheSize(  );
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.util;
+
+import fr.paris.lutece.portal.service.util.AppPathService;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+
+
+/**
+ * Utility methods of the jsr170-solr module
+ */
+public final class SolrJcrIndexerUtils
+{
+    private static final String PROPERTY_WORK_DIRECTORY = "jsr170-solr.indexer.workDirectory";
+    private static final String FILE_NAME_FORBIDDEN_CHARS = "[^A-Za-z0-9._-]";
+    private static final String FILE_NAME_REPLACEMENT = "_";
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Reads the content of a reader, up to a maximum number of characters. The
+     * reader is closed.
+     * @param reader the reader
+     * @param nMaxLength the maximum number of characters to read, 0 or less for no limit
+     * @return the content
+     * @throws IOException if the reader can't be read
+     */
+    public static String readContent( Reader reader, int nMaxLength )
+        throws IOException
+    {
+        int nLimit = ( nMaxLength > 0 ) ? nMaxLength : Integer.MAX_VALUE;
+        StringBuilder sbContent = new StringBuilder( Math.min( nLimit, BUFFER_SIZE ) );
+        char[] buffer = new char[Math.min( nLimit, BUFFER_SIZE )];
+
+        try
+        {
+            int nRead;
+
+            while ( ( sbContent.length(  ) < nLimit ) &&
+                    ( ( nRead = reader.read( buffer, 0, Math.min( buffer.length, nLimit - sbContent.length(  ) ) ) ) != -1 ) )
+            {
+                sbContent.append( buffer, 0, nRead );
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+
+        return sbContent.toString(  );
+    }
+
+    /**
+     * Reads the content of a reader chunk by chunk, up to a maximum number of characters,
+     * unless the content is longer than a skip length. The reader is closed.
+     * @param reader the reader
+     * @param nMaxLength the maximum number of characters kept, 0 or less for no limit
+     * @param nSkipLength the length above which the content is dropped, 0 or less for no limit
+     * @return the content, or null if it is longer than the skip length
+     * @throws IOException if the reader can't be read
+     */
+    public static String readContent( Reader reader, int nMaxLength, int nSkipLength )
+        throws IOException
+    {
+        if ( nSkipLength <= 0 )
+        {
+            return readContent( reader, nMaxLength );
+        }
+
+        int nLimit = ( ( nMaxLength > 0 ) && ( nMaxLength < nSkipLength ) ) ? nMaxLength : nSkipLength;
+        StringBuilder sbContent = new StringBuilder( Math.min( nLimit, BUFFER_SIZE ) );
+        char[] buffer = new char[BUFFER_SIZE];
+        long lLength = 0;
+
+        try
+        {
+            int nRead;
+
+            // the characters beyond the kept ones are only counted, up to the skip length
+            while ( ( lLength <= nSkipLength ) && ( ( nRead = reader.read( buffer, 0, buffer.length ) ) != -1 ) )
+            {
+                if ( sbContent.length(  ) < nLimit )
+                {
+                    sbContent.append( buffer, 0, Math.min( nRead, nLimit - sbContent.length(  ) ) );
+                }
+
+                lLength += nRead;
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+
+        return ( lLength > nSkipLength ) ? null : sbContent.toString(  );
+    }
+
+    /**
+     * Private constructor
+     */
+    private SolrJcrIndexerUtils(  )
+    {
+    }
+
+    /**
+     * Returns a file of the work directory of the indexer, which is created if needed.
+     * The work directory is configured by the jsr170-solr.indexer.workDirectory property,
+     * relative to the webapp.
+     * @param strFileName the name of the file, forbidden characters are replaced
+     * @return the file
+     */
+    public static File getWorkFile( String strFileName )
+    {
+        return new File( getWorkDirectory(  ),
+            strFileName.replaceAll( FILE_NAME_FORBIDDEN_CHARS, FILE_NAME_REPLACEMENT ) );
+    }
+
+    /**
+     * Returns the work directory of the indexer, which is created if needed
+     * @return the directory
+     */
+    public static File getWorkDirectory(  )
+    {
+        File directory = new File( AppPathService.getPath( PROPERTY_WORK_DIRECTORY ) );
+
+        if ( !directory.exists(  ) )
+        {
+            directory.mkdirs(  );
+        }
+
+        return directory;
+    }
+}
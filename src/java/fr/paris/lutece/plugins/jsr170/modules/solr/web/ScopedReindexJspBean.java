@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.web;
+
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.CrawlPlanner;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.CrawlUnit;
+import fr.paris.lutece.plugins.jsr170.modules.solr.service.ScopedReindexService;
+import fr.paris.lutece.portal.service.message.AdminMessage;
+import fr.paris.lutece.portal.service.message.AdminMessageService;
+import fr.paris.lutece.portal.service.template.AppTemplateService;
+import fr.paris.lutece.portal.web.admin.PluginAdminPageJspBean;
+import fr.paris.lutece.util.html.HtmlTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+
+/**
+ * Administration of the indexation of a workspace, a view or a subtree, run in the background
+ */
+public class ScopedReindexJspBean extends PluginAdminPageJspBean
+{
+    /** The right of the feature */
+    public static final String RIGHT_MANAGE_REINDEX = "JSR170_SOLR_REINDEX";
+    private static final String TEMPLATE_MANAGE_REINDEX = "admin/plugins/jsr170/modules/solr/manage_reindex.html";
+    private static final String PROPERTY_PAGE_TITLE_MANAGE_REINDEX = "jsr170-solr.manage_reindex.pageTitle";
+    private static final String JSP_MANAGE_REINDEX = "jsp/admin/plugins/jsr170/modules/solr/ManageReindex.jsp";
+    private static final String PARAMETER_WORKSPACE = "workspace";
+    private static final String PARAMETER_VIEW = "view";
+    private static final String PARAMETER_PATH = "path";
+    private static final String MARK_WORKSPACES_LIST = "workspaces_list";
+    private static final String MARK_VIEWS_LIST = "views_list";
+    private static final String MARK_HANDLE = "handle";
+    private static final String MESSAGE_MANDATORY_SCOPE = "module.jsr170.solr.message.mandatoryScope";
+    private static final String MESSAGE_SCOPE_NOT_PUBLISHED = "module.jsr170.solr.message.scopeNotPublished";
+    private static final String MESSAGE_REINDEX_RUNNING = "module.jsr170.solr.message.reindexRunning";
+    private static final String PATH_ROOT = "/";
+
+    /**
+     * Returns the page showing the progress of the current indexation and the form starting a new one
+     * @param request the HTTP request
+     * @return the HTML code of the page
+     */
+    public String getManageReindex( HttpServletRequest request )
+    {
+        setPageTitleProperty( PROPERTY_PAGE_TITLE_MANAGE_REINDEX );
+
+        List<String> listWorkspaces = new ArrayList<String>(  );
+        Map<Integer, CrawlUnit> mapViews = new LinkedHashMap<Integer, CrawlUnit>(  );
+
+        for ( CrawlUnit unit : ScopedReindexService.getInstance(  ).getPublishedUnits(  ) )
+        {
+            if ( !listWorkspaces.contains( unit.getAdminWorkspace(  ).getName(  ) ) )
+            {
+                listWorkspaces.add( unit.getAdminWorkspace(  ).getName(  ) );
+            }
+
+            if ( !mapViews.containsKey( unit.getView(  ).getId(  ) ) )
+            {
+                mapViews.put( unit.getView(  ).getId(  ), unit );
+            }
+        }
+
+        Map<String, Object> model = new HashMap<String, Object>(  );
+        model.put( MARK_WORKSPACES_LIST, listWorkspaces );
+        model.put( MARK_VIEWS_LIST, new ArrayList<CrawlUnit>( mapViews.values(  ) ) );
+        model.put( MARK_HANDLE, ScopedReindexService.getInstance(  ).getHandle(  ) );
+
+        HtmlTemplate template = AppTemplateService.getTemplate( TEMPLATE_MANAGE_REINDEX, getLocale(  ), model );
+
+        return getAdminPage( template.getHtml(  ) );
+    }
+
+    /**
+     * Starts the indexation of a view, or of a subtree of a workspace
+     * @param request the HTTP request
+     * @return the URL of the management page, or of the error message
+     */
+    public String doStartReindex( HttpServletRequest request )
+    {
+        String strView = request.getParameter( PARAMETER_VIEW );
+        String strWorkspaceName = request.getParameter( PARAMETER_WORKSPACE );
+        String strPath = request.getParameter( PARAMETER_PATH );
+        List<CrawlUnit> listUnits = ScopedReindexService.getInstance(  ).getPublishedUnits(  );
+
+        if ( ( strView != null ) && ( strView.trim(  ).length(  ) > 0 ) )
+        {
+            CrawlUnit viewUnit = findView( listUnits, strView.trim(  ) );
+
+            if ( viewUnit == null )
+            {
+                return AdminMessageService.getMessageUrl( request, MESSAGE_SCOPE_NOT_PUBLISHED, AdminMessage.TYPE_STOP );
+            }
+
+            strWorkspaceName = viewUnit.getAdminWorkspace(  ).getName(  );
+            strPath = viewUnit.getView(  ).getPath(  );
+        }
+
+        if ( ( strWorkspaceName == null ) || ( strWorkspaceName.trim(  ).length(  ) == 0 ) )
+        {
+            return AdminMessageService.getMessageUrl( request, MESSAGE_MANDATORY_SCOPE, AdminMessage.TYPE_STOP );
+        }
+
+        strWorkspaceName = strWorkspaceName.trim(  );
+        strPath = ( ( strPath == null ) || ( strPath.trim(  ).length(  ) == 0 ) ) ? PATH_ROOT : strPath.trim(  );
+
+        if ( !strPath.startsWith( PATH_ROOT ) )
+        {
+            strPath = PATH_ROOT + strPath;
+        }
+
+        // only the published documents are indexed
+        if ( CrawlPlanner.restrict( listUnits,
+                    Collections.singletonMap( strWorkspaceName, Collections.singletonList( strPath ) ) ).isEmpty(  ) )
+        {
+            return AdminMessageService.getMessageUrl( request, MESSAGE_SCOPE_NOT_PUBLISHED, AdminMessage.TYPE_STOP );
+        }
+
+        if ( ScopedReindexService.getInstance(  ).start( strWorkspaceName, strPath ) == null )
+        {
+            return AdminMessageService.getMessageUrl( request, MESSAGE_REINDEX_RUNNING, AdminMessage.TYPE_STOP );
+        }
+
+        return JSP_MANAGE_REINDEX;
+    }
+
+    /**
+     * Cancels the running indexation
+     * @param request the HTTP request
+     * @return the URL of the management page
+     */
+    public String doCancelReindex( HttpServletRequest request )
+    {
+        ScopedReindexService.getInstance(  ).cancel(  );
+
+        return JSP_MANAGE_REINDEX;
+    }
+
+    /**
+     * Returns the unit of a published view
+     * @param listUnits the published units
+     * @param strIdView the id of the view
+     * @return the first unit of the view, or null if the view isn't published
+     */
+    private static CrawlUnit findView( List<CrawlUnit> listUnits, String strIdView )
+    {
+        for ( CrawlUnit unit : listUnits )
+        {
+            if ( String.valueOf( unit.getView(  ).getId(  ) ).equals( strIdView ) )
+            {
+                return unit;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,11 @@
+--
+-- Structure for table jsr170_solr_shard_lease
+--
+DROP TABLE IF EXISTS jsr170_solr_shard_lease;
+CREATE TABLE jsr170_solr_shard_lease (
+	id_shard int default 0 NOT NULL,
+	node_name varchar(255) default NULL,
+	lease_expiration timestamp NULL,
+	date_end timestamp NULL,
+	PRIMARY KEY (id_shard)
+);
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.business;
+
+import fr.paris.lutece.portal.service.database.PluginConnectionService;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginDefaultImplementation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+
+/**
+ * Tests of {@link ShardLeaseDAO} on an embedded H2 database created by the script of the module
+ */
+public class ShardLeaseDAOTest
+{
+    private static final String URL_DATABASE = "jdbc:h2:mem:jsr170_solr;MODE=MySQL;DB_CLOSE_DELAY=-1";
+    private static final String FILE_CREATE_SCRIPT = "src/sql/plugins/jsr170-solr/plugin/create_db_jsr170-solr.sql";
+    private static final String NODE_A = "node-a";
+    private static final String NODE_B = "node-b";
+    private static final int ID_SHARD = 3;
+    private static final long LEASE_DURATION = 60000L;
+    private final ShardLeaseDAO _dao = new ShardLeaseDAO(  );
+    private Plugin _plugin;
+    private long _lNow;
+
+    /**
+     * Creates the table and a free shard
+     * @throws Exception if the database can't be created
+     */
+    @Before
+    public void setUp(  ) throws Exception
+    {
+        Class.forName( "org.h2.Driver" );
+        execute( readScript(  ) );
+
+        _plugin = new PluginDefaultImplementation(  );
+        _plugin.setConnectionService( new PluginConnectionService(  )
+            {
+                @Override
+                public Connection getConnection(  )
+                {
+                    try
+                    {
+                        return DriverManager.getConnection( URL_DATABASE );
+                    }
+                    catch ( SQLException e )
+                    {
+                        throw new IllegalStateException( e );
+                    }
+                }
+
+                @Override
+                public void freeConnection( Connection connection )
+                {
+                    try
+                    {
+                        connection.close(  );
+                    }
+                    catch ( SQLException e )
+                    {
+                        throw new IllegalStateException( e );
+                    }
+                }
+            } );
+
+        // the leases are stored in whole seconds
+        _lNow = ( System.currentTimeMillis(  ) / 1000 ) * 1000;
+
+        ShardLease shardLease = new ShardLease(  );
+        shardLease.setIdShard( ID_SHARD );
+        _dao.insert( shardLease, _plugin );
+    }
+
+    /**
+     * Drops the table
+     * @throws SQLException if the table can't be dropped
+     */
+    @After
+    public void tearDown(  ) throws SQLException
+    {
+        execute( "DROP TABLE jsr170_solr_shard_lease" );
+    }
+
+    /**
+     * A free shard is acquired by the first node, the other nodes can't acquire it while the lease is valid
+     */
+    @Test
+    public void testAcquire(  )
+    {
+        acquire( NODE_A, _lNow + LEASE_DURATION, _lNow );
+        assertHeldBy( NODE_A, _lNow + LEASE_DURATION );
+
+        acquire( NODE_B, _lNow + LEASE_DURATION + 1000, _lNow );
+        assertHeldBy( NODE_A, _lNow + LEASE_DURATION );
+    }
+
+    /**
+     * The lease is only renewed by the node holding it
+     */
+    @Test
+    public void testRenew(  )
+    {
+        acquire( NODE_A, _lNow + LEASE_DURATION, _lNow );
+
+        _dao.renew( ID_SHARD, NODE_A, new Timestamp( _lNow + ( 2 * LEASE_DURATION ) ), _plugin );
+        assertHeldBy( NODE_A, _lNow + ( 2 * LEASE_DURATION ) );
+
+        _dao.renew( ID_SHARD, NODE_B, new Timestamp( _lNow + ( 3 * LEASE_DURATION ) ), _plugin );
+        assertHeldBy( NODE_A, _lNow + ( 2 * LEASE_DURATION ) );
+    }
+
+    /**
+     * An expired lease is acquired by another node, and the former holder can't renew it anymore
+     */
+    @Test
+    public void testExpire(  )
+    {
+        acquire( NODE_A, _lNow - 1000, _lNow - LEASE_DURATION );
+
+        acquire( NODE_B, _lNow + LEASE_DURATION, _lNow );
+        assertHeldBy( NODE_B, _lNow + LEASE_DURATION );
+
+        _dao.renew( ID_SHARD, NODE_A, new Timestamp( _lNow + ( 2 * LEASE_DURATION ) ), _plugin );
+        assertHeldBy( NODE_B, _lNow + LEASE_DURATION );
+    }
+
+    /**
+     * A shard released as indexed is not acquired again before the minimum interval
+     */
+    @Test
+    public void testReleaseIndexed(  )
+    {
+        acquire( NODE_A, _lNow + LEASE_DURATION, _lNow );
+        _dao.release( ID_SHARD, NODE_A, new Timestamp( _lNow ), _plugin );
+
+        ShardLease shardLease = _dao.load( ID_SHARD, _plugin );
+        assertNull( shardLease.getNodeName(  ) );
+        assertEquals( _lNow, shardLease.getDateEnd(  ).getTime(  ) );
+
+        // indexed after the last indexation allowed by the minimum interval
+        _dao.acquire( ID_SHARD, NODE_B, new Timestamp( _lNow + LEASE_DURATION ), new Timestamp( _lNow ),
+            new Timestamp( _lNow - 1000 ), _plugin );
+        assertNull( _dao.load( ID_SHARD, _plugin ).getNodeName(  ) );
+
+        _dao.acquire( ID_SHARD, NODE_B, new Timestamp( _lNow + LEASE_DURATION ), new Timestamp( _lNow ),
+            new Timestamp( _lNow + 1000 ), _plugin );
+        assertHeldBy( NODE_B, _lNow + LEASE_DURATION );
+    }
+
+    /**
+     * Tries to acquire the shard, without minimum interval
+     * @param strNodeName the node
+     * @param lLeaseExpiration the expiration of the lease
+     * @param lNow the current time
+     */
+    private void acquire( String strNodeName, long lLeaseExpiration, long lNow )
+    {
+        _dao.acquire( ID_SHARD, strNodeName, new Timestamp( lLeaseExpiration ), new Timestamp( lNow ),
+            new Timestamp( lNow ), _plugin );
+    }
+
+    /**
+     * Checks the holder of the shard
+     * @param strNodeName the expected node
+     * @param lLeaseExpiration the expected expiration of the lease
+     */
+    private void assertHeldBy( String strNodeName, long lLeaseExpiration )
+    {
+        ShardLease shardLease = _dao.load( ID_SHARD, _plugin );
+        assertEquals( strNodeName, shardLease.getNodeName(  ) );
+        assertEquals( lLeaseExpiration, shardLease.getLeaseExpiration(  ).getTime(  ) );
+    }
+
+    /**
+     * Reads the creation script of the module
+     * @return the script
+     * @throws IOException if the script can't be read
+     */
+    private static String readScript(  ) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile( new File( FILE_CREATE_SCRIPT ), "r" );
+
+        try
+        {
+            byte[] script = new byte[(int) file.length(  )];
+            file.readFully( script );
+
+            return new String( script, "UTF-8" );
+        }
+        finally
+        {
+            file.close(  );
+        }
+    }
+
+    /**
+     * Executes SQL statements
+     * @param strSql the statements
+     * @throws SQLException if a statement fails
+     */
+    private static void execute( String strSql ) throws SQLException
+    {
+        Connection connection = DriverManager.getConnection( URL_DATABASE );
+
+        try
+        {
+            Statement statement = connection.createStatement(  );
+            statement.execute( strSql );
+            statement.close(  );
+        }
+        finally
+        {
+            connection.close(  );
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+
+/**
+ * Tests of {@link ContentDigestStore} and of the deduplication of {@link PayloadOptimizer}
+ */
+public class ContentDigestStoreTest
+{
+    private static final String UID_CARRIER = "1_jsr";
+    private static final String UID_REFERENCE = "2_jsr";
+    private static final String UID_OTHER_REFERENCE = "3_jsr";
+    private static final String ROLE = "agents";
+    private static final String CONTENT = "the shared content";
+    private static final String OTHER_CONTENT = "another content";
+    private static final long CONTENT_KEY = ContentDigestStore.getContentKey( null, CONTENT );
+    private static final long OTHER_CONTENT_KEY = ContentDigestStore.getContentKey( null, OTHER_CONTENT );
+    private File _file;
+
+    /**
+     * Creates the store file name
+     * @throws IOException if the file can't be created
+     */
+    @Before
+    public void setUp(  ) throws IOException
+    {
+        _file = File.createTempFile( "content_digests", ".dat" );
+        _file.delete(  );
+    }
+
+    /**
+     * Deletes the store file
+     */
+    @After
+    public void tearDown(  )
+    {
+        _file.delete(  );
+        new File( _file.getPath(  ) + ".tmp" ).delete(  );
+    }
+
+    /**
+     * The first document found carries the content, and keeps carrying it in the next indexations
+     * @throws IOException if the store can't be saved
+     */
+    @Test
+    public void testFirstDocumentCarries(  ) throws IOException
+    {
+        ContentDigestStore store = ContentDigestStore.empty( _file );
+        assertTrue( store.isCarrier( UID_CARRIER, CONTENT_KEY ) );
+        assertFalse( store.isCarrier( UID_REFERENCE, CONTENT_KEY ) );
+        assertTrue( store.isReference( UID_REFERENCE ) );
+        store.save( true );
+
+        store = ContentDigestStore.load( _file );
+        assertFalse( store.isCarrier( UID_REFERENCE, CONTENT_KEY ) );
+        assertTrue( store.isCarrier( UID_CARRIER, CONTENT_KEY ) );
+    }
+
+    /**
+     * The documents of different roles don't share a carrier, so a public document keeps
+     * its content when a restricted document has the same one
+     */
+    @Test
+    public void testRolesDontShareCarrier(  )
+    {
+        PayloadOptimizer optimizer = new PayloadOptimizer( Collections.<String>emptyList(  ), false, 0,
+                ContentDigestStore.empty( _file ), 0 );
+        IndexerMetrics metrics = new IndexerMetrics(  );
+        SolrItem restricted = createItem( UID_CARRIER, ROLE );
+        SolrItem anonymous = createItem( UID_REFERENCE, null );
+        SolrItem otherAnonymous = createItem( UID_OTHER_REFERENCE, null );
+
+        optimizer.optimize( restricted, metrics );
+        optimizer.optimize( anonymous, metrics );
+        optimizer.optimize( otherAnonymous, metrics );
+
+        assertEquals( CONTENT, restricted.getContent(  ) );
+        assertEquals( CONTENT, anonymous.getContent(  ) );
+        assertEquals( "", otherAnonymous.getContent(  ) );
+        assertEquals( anonymous.getDynamicFields(  ).get( PayloadOptimizer.FIELD_CONTENT_KEY ),
+            otherAnonymous.getDynamicFields(  ).get( PayloadOptimizer.FIELD_CONTENT_KEY ) );
+        assertFalse( restricted.getDynamicFields(  ).get( PayloadOptimizer.FIELD_CONTENT_KEY )
+                               .equals( anonymous.getDynamicFields(  ).get( PayloadOptimizer.FIELD_CONTENT_KEY ) ) );
+    }
+
+    /**
+     * A carrier whose content changed lets a reference crawled after it carry the content
+     * in the same indexation, even a partial one
+     * @throws IOException if the store can't be saved
+     */
+    @Test
+    public void testModifiedCarrierBeforeReference(  ) throws IOException
+    {
+        saveCarrierAndReference(  );
+
+        ContentDigestStore store = ContentDigestStore.load( _file );
+        assertTrue( store.isCarrier( UID_CARRIER, OTHER_CONTENT_KEY ) );
+        assertTrue( store.isReference( UID_REFERENCE ) );
+        assertTrue( store.isCarrier( UID_REFERENCE, CONTENT_KEY ) );
+        assertFalse( store.isReference( UID_REFERENCE ) );
+        store.save( false );
+
+        store = ContentDigestStore.load( _file );
+        assertTrue( store.isCarrier( UID_REFERENCE, CONTENT_KEY ) );
+        assertTrue( store.isCarrier( UID_CARRIER, OTHER_CONTENT_KEY ) );
+    }
+
+    /**
+     * A carrier whose content changed after a reference was crawled lets the reference
+     * carry the content in the next indexation, even a partial one
+     * @throws IOException if the store can't be saved
+     */
+    @Test
+    public void testModifiedCarrierAfterReference(  ) throws IOException
+    {
+        saveCarrierAndReference(  );
+
+        ContentDigestStore store = ContentDigestStore.load( _file );
+        assertFalse( store.isCarrier( UID_REFERENCE, CONTENT_KEY ) );
+        assertTrue( store.isCarrier( UID_CARRIER, OTHER_CONTENT_KEY ) );
+        assertTrue( store.isCarrier( UID_OTHER_REFERENCE, CONTENT_KEY ) );
+        store.save( false );
+
+        store = ContentDigestStore.load( _file );
+        assertFalse( store.isCarrier( UID_REFERENCE, CONTENT_KEY ) );
+        assertTrue( store.isCarrier( UID_OTHER_REFERENCE, CONTENT_KEY ) );
+    }
+
+    /**
+     * A removed carrier lets the next reference crawled carry the content
+     * @throws IOException if the store can't be saved
+     */
+    @Test
+    public void testRemovedCarrier(  ) throws IOException
+    {
+        saveCarrierAndReference(  );
+
+        ContentDigestStore store = ContentDigestStore.load( _file );
+        store.removed( Arrays.asList( UID_CARRIER ) );
+        assertTrue( store.isCarrier( UID_REFERENCE, CONTENT_KEY ) );
+        assertFalse( store.isCarrier( UID_OTHER_REFERENCE, CONTENT_KEY ) );
+
+        store = ContentDigestStore.load( _file );
+        store.removed( Arrays.asList( UID_CARRIER ) );
+        store.save( false );
+
+        store = ContentDigestStore.load( _file );
+        assertTrue( store.isReference( UID_REFERENCE ) );
+        assertTrue( store.isCarrier( UID_REFERENCE, CONTENT_KEY ) );
+    }
+
+    /**
+     * A partial indexation keeps the carriers it didn't crawl, a complete one evicts them
+     * and a reference carries the content in the next indexation
+     * @throws IOException if the store can't be saved
+     */
+    @Test
+    public void testEviction(  ) throws IOException
+    {
+        saveCarrierAndReference(  );
+
+        ContentDigestStore store = ContentDigestStore.load( _file );
+        assertTrue( store.isCarrier( UID_OTHER_REFERENCE, OTHER_CONTENT_KEY ) );
+        store.save( false );
+
+        store = ContentDigestStore.load( _file );
+        assertFalse( store.isCarrier( UID_REFERENCE, CONTENT_KEY ) );
+        store.save( true );
+
+        store = ContentDigestStore.load( _file );
+        assertTrue( store.isCarrier( UID_REFERENCE, CONTENT_KEY ) );
+        assertFalse( store.isCarrier( UID_OTHER_REFERENCE, CONTENT_KEY ) );
+    }
+
+    /**
+     * Saves a store where a document carries a content and another one references it
+     * @throws IOException if the store can't be saved
+     */
+    private void saveCarrierAndReference(  ) throws IOException
+    {
+        ContentDigestStore store = ContentDigestStore.empty( _file );
+        store.isCarrier( UID_CARRIER, CONTENT_KEY );
+        store.isCarrier( UID_REFERENCE, CONTENT_KEY );
+        store.save( true );
+    }
+
+    /**
+     * Creates an item with the shared content
+     * @param strUid the UID
+     * @param strRole the role, or null
+     * @return the item
+     */
+    private static SolrItem createItem( String strUid, String strRole )
+    {
+        SolrItem item = new SolrItem(  );
+        item.setUid( strUid );
+        item.setRole( strRole );
+        item.setContent( CONTENT );
+
+        return item;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.jcr.business.admin.AdminView;
+import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.business.page.Page;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Tests of the merge of the nested subtrees by {@link CrawlPlanner} and of the roles of the {@link CrawlUnit}
+ */
+public class CrawlPlannerTest
+{
+    private static final int ID_WORKSPACE = 1;
+    private static final String ROLE_MEMBERS = "members";
+    private static final String ROLE_STAFF = "staff";
+    private static final String PATH_OUTER = "/documents";
+    private static final String PATH_NESTED = "/documents/news";
+
+    /**
+     * A public subtree nested in a restricted subtree is crawled publicly by its own unit
+     * and skipped by the restricted one
+     */
+    @Test
+    public void testPublicInRestricted(  )
+    {
+        CrawlUnit outer = createUnit( PATH_OUTER, ROLE_STAFF, 1 );
+        CrawlUnit nested = createUnit( PATH_NESTED, Page.ROLE_NONE, 2 );
+
+        List<CrawlUnit> listMerged = merge( nested, outer );
+
+        assertEquals( 2, listMerged.size(  ) );
+        assertSame( outer, listMerged.get( 0 ) );
+        assertSame( nested, listMerged.get( 1 ) );
+        assertEquals( ROLE_STAFF, outer.getIndexedRole(  ) );
+        assertTrue( nested.isPublic(  ) );
+        assertTrue( outer.isExcluded( PATH_NESTED ) );
+        assertTrue( outer.isExcluded( PATH_NESTED + "/2014/article" ) );
+        assertFalse( outer.isExcluded( PATH_OUTER + "/newsletter" ) );
+        assertFalse( nested.isExcluded( PATH_NESTED + "/2014" ) );
+    }
+
+    /**
+     * A restricted subtree nested in a public subtree is dropped
+     */
+    @Test
+    public void testRestrictedInPublic(  )
+    {
+        CrawlUnit outer = createUnit( PATH_OUTER, Page.ROLE_NONE, 1 );
+        CrawlUnit nested = createUnit( PATH_NESTED, ROLE_STAFF, 2 );
+
+        List<CrawlUnit> listMerged = merge( outer, nested );
+
+        assertEquals( 1, listMerged.size(  ) );
+        assertSame( outer, listMerged.get( 0 ) );
+        assertTrue( outer.getExcludedPaths(  ).isEmpty(  ) );
+        assertTrue( outer.getPortletIds(  ).contains( 2 ) );
+    }
+
+    /**
+     * A restricted subtree nested in a restricted subtree with another role is indexed
+     * with both roles by its own unit, and skipped by the containing subtree
+     */
+    @Test
+    public void testRestrictedInRestricted(  )
+    {
+        CrawlUnit outer = createUnit( PATH_OUTER, ROLE_STAFF, 1 );
+        CrawlUnit nested = createUnit( PATH_NESTED, ROLE_MEMBERS, 2 );
+
+        List<CrawlUnit> listMerged = merge( outer, nested );
+
+        assertEquals( 2, listMerged.size(  ) );
+        assertEquals( Arrays.asList( ROLE_STAFF ), outer.getIndexedRoles(  ) );
+        assertEquals( Arrays.asList( ROLE_MEMBERS, ROLE_STAFF ), nested.getIndexedRoles(  ) );
+        assertTrue( outer.isExcluded( PATH_NESTED ) );
+
+        // the role of the nested subtree coming after the role of the containing one doesn't matter
+        outer = createUnit( PATH_OUTER, ROLE_MEMBERS, 1 );
+        nested = createUnit( PATH_NESTED, ROLE_STAFF, 2 );
+
+        listMerged = merge( nested, outer );
+
+        assertEquals( 2, listMerged.size(  ) );
+        assertEquals( Arrays.asList( ROLE_MEMBERS, ROLE_STAFF ), nested.getIndexedRoles(  ) );
+        assertTrue( outer.isExcluded( PATH_NESTED ) );
+    }
+
+    /**
+     * A restricted subtree nested in a subtree with the same roles is dropped
+     */
+    @Test
+    public void testSameRolesNested(  )
+    {
+        CrawlUnit outer = createUnit( PATH_OUTER, ROLE_STAFF, 1 );
+        outer.getRoles(  ).add( ROLE_MEMBERS );
+
+        CrawlUnit nested = createUnit( PATH_NESTED, ROLE_MEMBERS, 2 );
+
+        List<CrawlUnit> listMerged = merge( nested, outer );
+
+        assertEquals( 1, listMerged.size(  ) );
+        assertSame( outer, listMerged.get( 0 ) );
+        assertTrue( outer.getExcludedPaths(  ).isEmpty(  ) );
+        assertTrue( outer.getPortletIds(  ).contains( 2 ) );
+    }
+
+    /**
+     * A subtree published with several roles gives a document for each role, the first
+     * one keeping the UID of the document
+     */
+    @Test
+    public void testRoleItems(  )
+    {
+        CrawlUnit unit = createUnit( PATH_OUTER, ROLE_STAFF, 1 );
+        unit.getRoles(  ).add( ROLE_MEMBERS );
+
+        SolrItem item = new SolrItem(  );
+        item.setUid( "12_jsr" );
+        item.setRole( ROLE_MEMBERS );
+        item.setTitle( "title" );
+        item.setContent( "content" );
+
+        List<SolrItem> listItems = unit.getRoleItems( item );
+
+        assertEquals( 2, listItems.size(  ) );
+        assertSame( item, listItems.get( 0 ) );
+        assertEquals( "12@staff_jsr", listItems.get( 1 ).getUid(  ) );
+        assertEquals( ROLE_STAFF, listItems.get( 1 ).getRole(  ) );
+        assertEquals( "content", listItems.get( 1 ).getContent(  ) );
+        assertEquals( Arrays.asList( "12_jsr", "12@staff_jsr" ), unit.getRoleUids( "12_jsr" ) );
+
+        // a public subtree is indexed once
+        unit.getRoles(  ).add( Page.ROLE_NONE );
+        assertEquals( 1, unit.getRoleItems( item ).size(  ) );
+    }
+
+    /**
+     * A subtree nested in a nested subtree is compared with the closest one
+     */
+    @Test
+    public void testNestedTwice(  )
+    {
+        CrawlUnit outer = createUnit( PATH_OUTER, ROLE_STAFF, 1 );
+        CrawlUnit nested = createUnit( PATH_NESTED, Page.ROLE_NONE, 2 );
+        CrawlUnit innermost = createUnit( PATH_NESTED + "/2014", ROLE_MEMBERS, 3 );
+
+        List<CrawlUnit> listMerged = merge( innermost, outer, nested );
+
+        assertEquals( 2, listMerged.size(  ) );
+        assertTrue( nested.getPortletIds(  ).contains( 3 ) );
+        assertFalse( outer.getPortletIds(  ).contains( 3 ) );
+    }
+
+    /**
+     * Sibling subtrees are crawled each with its own role
+     */
+    @Test
+    public void testSiblings(  )
+    {
+        CrawlUnit first = createUnit( PATH_OUTER, ROLE_STAFF, 1 );
+        CrawlUnit second = createUnit( PATH_OUTER + "s", Page.ROLE_NONE, 2 );
+
+        List<CrawlUnit> listMerged = merge( first, second );
+
+        assertEquals( 2, listMerged.size(  ) );
+        assertEquals( ROLE_STAFF, first.getIndexedRole(  ) );
+        assertTrue( second.isPublic(  ) );
+        assertTrue( first.getExcludedPaths(  ).isEmpty(  ) );
+        assertTrue( second.getExcludedPaths(  ).isEmpty(  ) );
+    }
+
+    /**
+     * Merges units
+     * @param units the units
+     * @return the merged units
+     */
+    private static List<CrawlUnit> merge( CrawlUnit... units )
+    {
+        List<CrawlUnit> listUnits = new ArrayList<CrawlUnit>(  );
+
+        for ( CrawlUnit unit : units )
+        {
+            listUnits.add( unit );
+        }
+
+        return CrawlPlanner.merge( listUnits );
+    }
+
+    /**
+     * Creates a unit published by a single portlet
+     * @param strPath the path of the subtree
+     * @param strRole the role of the page of the portlet
+     * @param nIdPortlet the id of the portlet
+     * @return the unit
+     */
+    private static CrawlUnit createUnit( String strPath, String strRole, int nIdPortlet )
+    {
+        AdminWorkspace adminWorkspace = new AdminWorkspace(  );
+        adminWorkspace.setId( ID_WORKSPACE );
+        adminWorkspace.setName( "documents" );
+
+        AdminView view = new AdminView(  );
+        view.setWorkspaceId( ID_WORKSPACE );
+        view.setPath( strPath );
+
+        CrawlUnit unit = new CrawlUnit( adminWorkspace, view, strPath );
+        unit.getRoles(  ).add( strRole );
+        unit.getPortletIds(  ).add( nIdPortlet );
+
+        return unit;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.jcr.business.admin.AdminView;
+import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Tests of the resumption of an interrupted indexation by {@link CrawlProgress}
+ */
+public class CrawlProgressTest
+{
+    private static final String WORKSPACE_NAME = "documents";
+    private static final String ROLE = "none";
+    private static final String PATH_LISTED = "/documents/listed";
+    private static final String PATH_PENDING = "/documents/pending";
+    private static final long NO_AUTOMATIC_SAVE = Long.MAX_VALUE;
+    private File _file;
+    private List<CrawlUnit> _listUnits;
+
+    /**
+     * Creates the progress file and the crawled units
+     * @throws IOException if the file can't be created
+     */
+    @Before
+    public void setUp(  ) throws IOException
+    {
+        _file = File.createTempFile( "crawl_progress", ".dat" );
+        _file.delete(  );
+        _listUnits = Arrays.asList( createUnit( "/documents", "staff" ), createUnit( "/news", ROLE ) );
+    }
+
+    /**
+     * Deletes the progress file
+     */
+    @After
+    public void tearDown(  )
+    {
+        _file.delete(  );
+    }
+
+    /**
+     * A resumed indexation skips the directories whose documents were all sent, and only them
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testResumeSkipsCompletedDirectories(  ) throws Exception
+    {
+        CrawlProgress progress = CrawlProgress.empty( _file, _listUnits, NO_AUTOMATIC_SAVE );
+        CrawlProgress.Directory listed = progress.begin( WORKSPACE_NAME, ROLE, PATH_LISTED );
+        listed.acquire(  );
+        listed.release(  );
+        listed.run(  );
+
+        // the document of the second directory is not confirmed before the interruption
+        CrawlProgress.Directory pending = progress.begin( WORKSPACE_NAME, ROLE, PATH_PENDING );
+        pending.acquire(  );
+        pending.release(  );
+        progress.save(  );
+
+        CrawlProgress resumed = CrawlProgress.load( _file, _listUnits, NO_AUTOMATIC_SAVE );
+
+        assertTrue( resumed.isResumed(  ) );
+        assertEquals( 1, resumed.getResumedCount(  ) );
+        assertTrue( resumed.isCompleted( WORKSPACE_NAME, ROLE, PATH_LISTED ) );
+        assertFalse( resumed.isCompleted( WORKSPACE_NAME, ROLE, PATH_PENDING ) );
+        assertFalse( resumed.isCompleted( WORKSPACE_NAME, "staff", PATH_LISTED ) );
+    }
+
+    /**
+     * The directories completed by the interrupted indexation stay completed when it is resumed again
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testResumedDirectoriesAreKept(  ) throws Exception
+    {
+        CrawlProgress progress = CrawlProgress.empty( _file, _listUnits, NO_AUTOMATIC_SAVE );
+        progress.begin( WORKSPACE_NAME, ROLE, PATH_LISTED ).release(  );
+        progress.save(  );
+
+        CrawlProgress resumed = CrawlProgress.load( _file, _listUnits, NO_AUTOMATIC_SAVE );
+        resumed.begin( WORKSPACE_NAME, ROLE, PATH_PENDING ).release(  );
+        resumed.save(  );
+
+        CrawlProgress resumedAgain = CrawlProgress.load( _file, _listUnits, NO_AUTOMATIC_SAVE );
+
+        assertEquals( 2, resumedAgain.getResumedCount(  ) );
+        assertTrue( resumedAgain.isCompleted( WORKSPACE_NAME, ROLE, PATH_LISTED ) );
+        assertTrue( resumedAgain.isCompleted( WORKSPACE_NAME, ROLE, PATH_PENDING ) );
+    }
+
+    /**
+     * The progress is ignored if the crawled subtrees have changed, but not if they are only reordered
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testPlanSignature(  ) throws Exception
+    {
+        CrawlProgress progress = CrawlProgress.empty( _file, _listUnits, NO_AUTOMATIC_SAVE );
+        progress.begin( WORKSPACE_NAME, ROLE, PATH_LISTED ).release(  );
+        progress.save(  );
+
+        List<CrawlUnit> listReordered = new ArrayList<CrawlUnit>( _listUnits );
+        listReordered.add( listReordered.remove( 0 ) );
+        assertTrue( CrawlProgress.load( _file, listReordered, NO_AUTOMATIC_SAVE ).isResumed(  ) );
+
+        List<CrawlUnit> listChanged = Arrays.asList( createUnit( "/documents", ROLE ), createUnit( "/news", ROLE ) );
+        CrawlProgress ignored = CrawlProgress.load( _file, listChanged, NO_AUTOMATIC_SAVE );
+        assertFalse( ignored.isResumed(  ) );
+        assertFalse( ignored.isCompleted( WORKSPACE_NAME, ROLE, PATH_LISTED ) );
+    }
+
+    /**
+     * A completed indexation removes its progress
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testDelete(  ) throws Exception
+    {
+        CrawlProgress progress = CrawlProgress.empty( _file, _listUnits, NO_AUTOMATIC_SAVE );
+        progress.begin( WORKSPACE_NAME, ROLE, PATH_LISTED ).release(  );
+        progress.save(  );
+        progress.delete(  );
+
+        assertFalse( _file.exists(  ) );
+        assertFalse( CrawlProgress.load( _file, _listUnits, NO_AUTOMATIC_SAVE ).isResumed(  ) );
+    }
+
+    /**
+     * Creates a unit
+     * @param strPath the path of the subtree
+     * @param strRole the role of the subtree
+     * @return the unit
+     */
+    private static CrawlUnit createUnit( String strPath, String strRole )
+    {
+        AdminWorkspace adminWorkspace = new AdminWorkspace(  );
+        adminWorkspace.setId( 1 );
+        adminWorkspace.setName( WORKSPACE_NAME );
+
+        AdminView view = new AdminView(  );
+        view.setWorkspaceId( 1 );
+        view.setPath( strPath );
+
+        CrawlUnit unit = new CrawlUnit( adminWorkspace, view, strPath );
+        unit.getRoles(  ).add( strRole );
+
+        return unit;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.jcr.business.admin.AdminView;
+import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Tests of the order of the subtrees by {@link CrawlSchedule}
+ */
+public class CrawlScheduleTest
+{
+    private static final long HALF_LIFE = 24L * 3600L * 1000L;
+    private static final long UNKNOWN_DATE = 0L;
+    private File _file;
+    private CrawlUnit _unitA;
+    private CrawlUnit _unitB;
+    private CrawlUnit _unitC;
+
+    /**
+     * Creates the statistics file and the units
+     * @throws IOException if the file can't be created
+     */
+    @Before
+    public void setUp(  ) throws IOException
+    {
+        _file = File.createTempFile( "crawl_schedule", ".dat" );
+        _file.delete(  );
+        _unitA = createUnit( "/a" );
+        _unitB = createUnit( "/b" );
+        _unitC = createUnit( "/c" );
+    }
+
+    /**
+     * Deletes the statistics file
+     */
+    @After
+    public void tearDown(  )
+    {
+        _file.delete(  );
+    }
+
+    /**
+     * Without statistics, the units are ordered by weight, the units of same weight keeping the order of the plan
+     */
+    @Test
+    public void testWeight(  )
+    {
+        _unitC.raiseWeight( 3 );
+
+        List<CrawlUnit> listOrdered = CrawlSchedule.empty( _file, HALF_LIFE ).order( Arrays.asList( _unitA, _unitB,
+                    _unitC ) );
+
+        assertEquals( Arrays.asList( _unitC, _unitA, _unitB ), listOrdered );
+    }
+
+    /**
+     * A unit never indexed comes first, then the units by recency and change density
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testPriority(  ) throws Exception
+    {
+        long lNow = System.currentTimeMillis(  );
+        CrawlSchedule schedule = CrawlSchedule.empty( _file, HALF_LIFE );
+
+        // A is stale and unchanged, B is recent and half changed, C is not crawled
+        CrawlSchedule.Activity activityA = schedule.getActivity( _unitA );
+        activityA.documentFound( lNow - ( 10 * HALF_LIFE ) );
+        activityA.documentFound( UNKNOWN_DATE );
+
+        CrawlSchedule.Activity activityB = schedule.getActivity( _unitB );
+        activityB.documentFound( lNow );
+        activityB.documentFound( lNow - HALF_LIFE );
+        activityB.documentChanged(  );
+        schedule.save(  );
+
+        List<CrawlUnit> listOrdered = CrawlSchedule.load( _file, HALF_LIFE ).order( Arrays.asList( _unitA, _unitB,
+                    _unitC ) );
+
+        assertEquals( Arrays.asList( _unitC, _unitB, _unitA ), listOrdered );
+    }
+
+    /**
+     * A unit not crawled, or stopped before its first document, keeps its statistics, and
+     * a crawl finding no modification date keeps the previous one
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testStatisticsCarryOver(  ) throws Exception
+    {
+        long lNow = System.currentTimeMillis(  );
+        CrawlSchedule schedule = CrawlSchedule.empty( _file, HALF_LIFE );
+
+        CrawlSchedule.Activity activityA = schedule.getActivity( _unitA );
+        activityA.documentFound( lNow );
+        activityA.documentChanged(  );
+
+        schedule.getActivity( _unitB ).documentFound( UNKNOWN_DATE );
+        schedule.getActivity( _unitC ).documentFound( lNow );
+        schedule.save(  );
+
+        // A is stopped before its first document, C finds no date this time
+        CrawlSchedule next = CrawlSchedule.load( _file, HALF_LIFE );
+        next.getActivity( _unitA );
+        next.getActivity( _unitB ).documentFound( UNKNOWN_DATE );
+        next.getActivity( _unitC ).documentFound( UNKNOWN_DATE );
+        next.save(  );
+
+        List<CrawlUnit> listOrdered = CrawlSchedule.load( _file, HALF_LIFE ).order( Arrays.asList( _unitB, _unitC,
+                    _unitA ) );
+
+        assertEquals( Arrays.asList( _unitA, _unitC, _unitB ), listOrdered );
+    }
+
+    /**
+     * Creates a unit of weight 1
+     * @param strPath the path of the subtree
+     * @return the unit
+     */
+    private static CrawlUnit createUnit( String strPath )
+    {
+        AdminWorkspace adminWorkspace = new AdminWorkspace(  );
+        adminWorkspace.setId( 1 );
+        adminWorkspace.setName( "documents" );
+
+        AdminView view = new AdminView(  );
+        view.setWorkspaceId( 1 );
+        view.setPath( strPath );
+
+        CrawlUnit unit = new CrawlUnit( adminWorkspace, view, strPath );
+        unit.raiseWeight( 1 );
+
+        return unit;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Tests of the replay of the {@link DeadLetterSpool}
+ */
+public class DeadLetterSpoolTest
+{
+    private File _fileSpool;
+    private DeadLetterSpool _deadLetterSpool;
+
+    /**
+     * Creates the spool
+     * @throws IOException if the spool file can't be created
+     */
+    @Before
+    public void setUp(  ) throws IOException
+    {
+        _fileSpool = File.createTempFile( "dead_letter", ".spool" );
+        _fileSpool.delete(  );
+        _deadLetterSpool = new DeadLetterSpool( _fileSpool );
+    }
+
+    /**
+     * Deletes the spool
+     */
+    @After
+    public void tearDown(  )
+    {
+        _fileSpool.delete(  );
+        new File( _fileSpool.getPath(  ) + ".replay" ).delete(  );
+        new File( _fileSpool.getPath(  ) + ".replay.tmp" ).delete(  );
+    }
+
+    /**
+     * The items sent again are not returned by the next replay
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testReplayedItemsAreRemoved(  ) throws Exception
+    {
+        _deadLetterSpool.append( createItem( "1_jsr" ) );
+        _deadLetterSpool.append( createItem( "2_jsr" ) );
+
+        assertEquals( 2, _deadLetterSpool.takeAll(  ).size(  ) );
+
+        _deadLetterSpool.replayed( Collections.<SolrItem>emptyList(  ) );
+
+        assertTrue( _deadLetterSpool.takeAll(  ).isEmpty(  ) );
+    }
+
+    /**
+     * An item rejected again is returned once by the next replay, with the pending items
+     * and the items spooled meanwhile
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testReplayWithoutDuplicates(  ) throws Exception
+    {
+        _deadLetterSpool.append( createItem( "1_jsr" ) );
+        _deadLetterSpool.append( createItem( "2_jsr" ) );
+        _deadLetterSpool.append( createItem( "3_jsr" ) );
+
+        List<SolrItem> listItems = _deadLetterSpool.takeAll(  );
+
+        // 1 is sent, 2 is rejected again, 3 is in a batch which couldn't reach the server
+        _deadLetterSpool.append( listItems.get( 1 ) );
+        _deadLetterSpool.append( createItem( "4_jsr" ) );
+        _deadLetterSpool.replayed( Collections.singletonList( listItems.get( 2 ) ) );
+
+        assertEquals( "[3_jsr, 2_jsr, 4_jsr]", getUids( _deadLetterSpool.takeAll(  ) ).toString(  ) );
+    }
+
+    /**
+     * The items of a replay interrupted before its end are returned again
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testInterruptedReplay(  ) throws Exception
+    {
+        _deadLetterSpool.append( createItem( "1_jsr" ) );
+        _deadLetterSpool.takeAll(  );
+        _deadLetterSpool.append( createItem( "2_jsr" ) );
+
+        assertEquals( "[1_jsr, 2_jsr]", getUids( _deadLetterSpool.takeAll(  ) ).toString(  ) );
+    }
+
+    /**
+     * Creates an item
+     * @param strUid the UID of the item
+     * @return the item
+     */
+    private static SolrItem createItem( String strUid )
+    {
+        SolrItem item = new SolrItem(  );
+        item.setUid( strUid );
+        item.setContent( "content of " + strUid );
+
+        return item;
+    }
+
+    /**
+     * Returns the UIDs of items
+     * @param listItems the items
+     * @return the UIDs
+     */
+    private static List<String> getUids( List<SolrItem> listItems )
+    {
+        List<String> listUids = new ArrayList<String>(  );
+
+        for ( SolrItem item : listItems )
+        {
+            listUids.add( item.getUid(  ) );
+        }
+
+        return listUids;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Tests of {@link DocumentCache}
+ */
+public class DocumentCacheTest
+{
+    private static final String ID_DOCUMENT = "42";
+    private static final long TIMEOUT = 10000L;
+
+    /**
+     * A document modified right after a call is read again by the next call
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testEditWithinTimeToLive(  ) throws Exception
+    {
+        DocumentCache cache = new DocumentCache( 100, 0L );
+        VersionedLoader loader = new VersionedLoader( null );
+
+        assertEquals( "v1", getVersion( cache, loader ) );
+        loader._nVersion.incrementAndGet(  );
+        assertEquals( "v2", getVersion( cache, loader ) );
+        assertEquals( 2, loader._nLoads.get(  ) );
+        assertEquals( 0, cache.size(  ) );
+    }
+
+    /**
+     * With a time to live the items are cached until the document id is invalidated
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testInvalidateCachedItems(  ) throws Exception
+    {
+        DocumentCache cache = new DocumentCache( 100, TIMEOUT );
+        VersionedLoader loader = new VersionedLoader( null );
+
+        assertEquals( "v1", getVersion( cache, loader ) );
+        loader._nVersion.incrementAndGet(  );
+        assertEquals( "v1", getVersion( cache, loader ) );
+        assertEquals( 1, cache.getHits(  ) );
+
+        cache.invalidate( ID_DOCUMENT );
+        assertEquals( "v2", getVersion( cache, loader ) );
+    }
+
+    /**
+     * The calls arriving during a load, after a modification, share a new load
+     * started once the running one is over
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testEditDuringLoad(  ) throws Exception
+    {
+        final DocumentCache cache = new DocumentCache( 100, 0L );
+        CountDownLatch latchFirstLoad = new CountDownLatch( 1 );
+        final VersionedLoader loader = new VersionedLoader( latchFirstLoad );
+        ExecutorService executor = Executors.newFixedThreadPool( 3 );
+
+        try
+        {
+            Callable<String> call = new Callable<String>(  )
+                {
+                    public String call(  ) throws Exception
+                    {
+                        return getVersion( cache, loader );
+                    }
+                };
+
+            Future<String> first = executor.submit( call );
+            waitFor( loader._nLoads, 1 );
+
+            // the first load has read the document, which is modified before the other calls
+            loader._nVersion.incrementAndGet(  );
+
+            Future<String> second = executor.submit( call );
+            Future<String> third = executor.submit( call );
+            waitFor( cache, 2, 1 );
+            latchFirstLoad.countDown(  );
+
+            assertEquals( "v1", first.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+            assertEquals( "v2", second.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+            assertEquals( "v2", third.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+            assertEquals( 2, loader._nLoads.get(  ) );
+        }
+        finally
+        {
+            executor.shutdownNow(  );
+        }
+    }
+
+    /**
+     * Returns the version of the document
+     * @param cache the cache
+     * @param loader the loader
+     * @return the content of the loaded item
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private static String getVersion( DocumentCache cache, Callable<List<SolrItem>> loader )
+        throws InterruptedException
+    {
+        return cache.get( ID_DOCUMENT, loader ).get( 0 ).getContent(  );
+    }
+
+    /**
+     * Waits until a counter reaches a value
+     * @param nCounter the counter
+     * @param nValue the value
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private static void waitFor( AtomicInteger nCounter, int nValue )
+        throws InterruptedException
+    {
+        long lDeadline = System.currentTimeMillis(  ) + TIMEOUT;
+
+        while ( ( nCounter.get(  ) < nValue ) && ( System.currentTimeMillis(  ) < lDeadline ) )
+        {
+            Thread.sleep( 1 );
+        }
+    }
+
+    /**
+     * Waits until the calls are registered by the cache
+     * @param cache the cache
+     * @param nMisses the number of calls starting a load
+     * @param nCoalesced the number of calls waiting for the load of another one
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private static void waitFor( DocumentCache cache, long nMisses, long nCoalesced )
+        throws InterruptedException
+    {
+        long lDeadline = System.currentTimeMillis(  ) + TIMEOUT;
+
+        while ( ( ( cache.getMisses(  ) < nMisses ) || ( cache.getCoalesced(  ) < nCoalesced ) ) &&
+                ( System.currentTimeMillis(  ) < lDeadline ) )
+        {
+            Thread.sleep( 1 );
+        }
+    }
+
+    /**
+     * Loader returning an item whose content is the current version of the document
+     */
+    private static class VersionedLoader implements Callable<List<SolrItem>>
+    {
+        private final AtomicInteger _nVersion = new AtomicInteger( 1 );
+        private final AtomicInteger _nLoads = new AtomicInteger(  );
+        private final CountDownLatch _latchFirstLoad;
+
+        /**
+         * Constructor
+         * @param latchFirstLoad the latch the first load waits for after reading the document, or null
+         */
+        VersionedLoader( CountDownLatch latchFirstLoad )
+        {
+            _latchFirstLoad = latchFirstLoad;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public List<SolrItem> call(  ) throws Exception
+        {
+            SolrItem item = new SolrItem(  );
+            item.setUid( ID_DOCUMENT );
+            item.setContent( "v" + _nVersion.get(  ) );
+
+            if ( ( _nLoads.incrementAndGet(  ) == 1 ) && ( _latchFirstLoad != null ) )
+            {
+                _latchFirstLoad.await(  );
+            }
+
+            List<SolrItem> listItems = new ArrayList<SolrItem>(  );
+            listItems.add( item );
+
+            return listItems;
+        }
+    }
+}
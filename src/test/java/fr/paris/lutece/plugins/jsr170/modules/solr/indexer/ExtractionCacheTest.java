@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * Tests of {@link ExtractionCache}
+ */
+public class ExtractionCacheTest
+{
+    private static final String DATE = "20140312101500";
+    private static final String CONTENT = "The quick brown fox jumps over the lazy dog";
+    private File _directory;
+
+    /**
+     * Creates the directory of the cache
+     * @throws IOException if the directory can't be created
+     */
+    @Before
+    public void setUp(  ) throws IOException
+    {
+        _directory = File.createTempFile( "extraction", "" );
+        _directory.delete(  );
+        _directory.mkdirs(  );
+    }
+
+    /**
+     * Deletes the directory of the cache
+     */
+    @After
+    public void tearDown(  )
+    {
+        delete( _directory );
+    }
+
+    /**
+     * UIDs with the same 32 bits hash code have their own entries
+     * @throws IOException if the cache can't be written
+     */
+    @Test
+    public void testCollidingUids(  ) throws IOException
+    {
+        String strUid1 = "Aa_jsr";
+        String strUid2 = "BB_jsr";
+        assertEquals( strUid1.hashCode(  ), strUid2.hashCode(  ) );
+
+        ExtractionCache cache = new ExtractionCache( _directory, 0, 0 );
+        cache.put( strUid1, DATE, "first" );
+        cache.put( strUid2, DATE, "second" );
+
+        assertEquals( "first", cache.get( strUid1, DATE ).getContent(  ) );
+        assertEquals( "second", cache.get( strUid2, DATE ).getContent(  ) );
+    }
+
+    /**
+     * A text extracted without limit is truncated to the current maximum length, a text
+     * truncated to a shorter length or extracted with another skip length is extracted again
+     * @throws IOException if the cache can't be written
+     */
+    @Test
+    public void testLimitsAppliedOnRead(  ) throws IOException
+    {
+        new ExtractionCache( _directory, 0, 0 ).put( "1_jsr", DATE, CONTENT );
+        new ExtractionCache( _directory, 9, 0 ).put( "2_jsr", DATE, CONTENT.substring( 0, 9 ) );
+
+        ExtractionCache cache = new ExtractionCache( _directory, 19, 0 );
+        assertEquals( "The quick brown fox", cache.get( "1_jsr", DATE ).getContent(  ) );
+        assertNull( cache.get( "2_jsr", DATE ) );
+
+        assertNull( new ExtractionCache( _directory, 0, 1000 ).get( "1_jsr", DATE ) );
+        assertNull( cache.get( "1_jsr", "20150101000000" ) );
+    }
+
+    /**
+     * The entries not used since the start of an indexation are pruned
+     * @throws IOException if the cache can't be written
+     */
+    @Test
+    public void testPrune(  ) throws IOException
+    {
+        ExtractionCache cache = new ExtractionCache( _directory, 0, 0 );
+        cache.put( "used_jsr", DATE, CONTENT );
+        cache.put( "removed_jsr", DATE, CONTENT );
+
+        // the entries were written by a previous indexation
+        long lRunStart = System.currentTimeMillis(  );
+        setLastModified( _directory, lRunStart - 3600000L );
+
+        assertNotNull( cache.get( "used_jsr", DATE ) );
+        assertEquals( 1, cache.prune( lRunStart ) );
+
+        assertNotNull( cache.get( "used_jsr", DATE ) );
+        assertNull( cache.get( "removed_jsr", DATE ) );
+    }
+
+    /**
+     * Sets the modification date of the files of a directory tree
+     * @param file the root of the tree
+     * @param lLastModified the modification date
+     */
+    private static void setLastModified( File file, long lLastModified )
+    {
+        File[] files = file.listFiles(  );
+
+        if ( files != null )
+        {
+            for ( File child : files )
+            {
+                setLastModified( child, lLastModified );
+            }
+        }
+        else
+        {
+            file.setLastModified( lLastModified );
+        }
+    }
+
+    /**
+     * Deletes a directory tree
+     * @param file the root of the tree
+     */
+    private static void delete( File file )
+    {
+        File[] files = file.listFiles(  );
+
+        if ( files != null )
+        {
+            for ( File child : files )
+            {
+                delete( child );
+            }
+        }
+
+        file.delete(  );
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * Tests of {@link FingerprintStore}
+ */
+public class FingerprintStoreTest
+{
+    private static final int TABLE_MASK = 1023;
+    private static final int DOCUMENTS_COUNT = 5000;
+    private File _file;
+
+    /**
+     * Creates the store file name
+     * @throws IOException if the file can't be created
+     */
+    @Before
+    public void setUp(  ) throws IOException
+    {
+        _file = File.createTempFile( "fingerprints", ".dat" );
+        _file.delete(  );
+    }
+
+    /**
+     * Deletes the store file
+     */
+    @After
+    public void tearDown(  )
+    {
+        _file.delete(  );
+        new File( _file.getPath(  ) + ".tmp" ).delete(  );
+    }
+
+    /**
+     * Two UIDs falling in the same slot of the table are told apart
+     */
+    @Test
+    public void testCollidingSlots(  )
+    {
+        String[] colliding = findCollidingUids(  );
+        assertNotNull( colliding );
+
+        FingerprintStore store = FingerprintStore.empty( _file );
+        assertTrue( store.update( colliding[0], 1L ) );
+        assertTrue( store.update( colliding[1], 2L ) );
+
+        assertFalse( store.update( colliding[0], 1L ) );
+        assertFalse( store.update( colliding[1], 2L ) );
+        assertTrue( store.update( colliding[1], 3L ) );
+        assertEquals( 2, store.size(  ) );
+    }
+
+    /**
+     * The documents are kept when the table grows
+     */
+    @Test
+    public void testGrow(  )
+    {
+        FingerprintStore store = FingerprintStore.empty( _file );
+
+        for ( int i = 0; i < DOCUMENTS_COUNT; i++ )
+        {
+            assertTrue( store.update( i + "_jsr", i ) );
+        }
+
+        assertEquals( DOCUMENTS_COUNT, store.size(  ) );
+
+        for ( int i = 0; i < DOCUMENTS_COUNT; i++ )
+        {
+            assertFalse( store.update( i + "_jsr", i ) );
+        }
+
+        assertEquals( DOCUMENTS_COUNT, store.size(  ) );
+    }
+
+    /**
+     * The fingerprints saved are found by the next indexation
+     * @throws IOException if the store can't be saved
+     */
+    @Test
+    public void testSaveAndLoad(  ) throws IOException
+    {
+        FingerprintStore store = FingerprintStore.empty( _file );
+
+        for ( int i = 0; i < DOCUMENTS_COUNT; i++ )
+        {
+            store.update( i + "_jsr", i );
+        }
+
+        store.save( false );
+
+        store = FingerprintStore.load( _file );
+        assertEquals( DOCUMENTS_COUNT, store.size(  ) );
+
+        for ( int i = 0; i < DOCUMENTS_COUNT; i++ )
+        {
+            assertFalse( store.update( i + "_jsr", i ) );
+        }
+
+        assertTrue( store.update( "0_jsr", -1L ) );
+        assertTrue( store.update( "new_jsr", 0L ) );
+    }
+
+    /**
+     * The documents not seen by a complete indexation are evicted, and sent again if they reappear
+     * @throws IOException if the store can't be saved
+     */
+    @Test
+    public void testEvictThenReload(  ) throws IOException
+    {
+        FingerprintStore store = FingerprintStore.empty( _file );
+        store.update( "1_jsr", 1L );
+        store.update( "2_jsr", 2L );
+        store.save( true );
+
+        // a partial indexation doesn't evict the documents it didn't see
+        store = FingerprintStore.load( _file );
+        store.update( "1_jsr", 1L );
+        store.save( false );
+        assertEquals( 2, FingerprintStore.load( _file ).size(  ) );
+
+        // a document touched without being fingerprinted is kept
+        store = FingerprintStore.load( _file );
+        store.touch( "1_jsr" );
+        store.save( true );
+
+        store = FingerprintStore.load( _file );
+        assertEquals( 1, store.size(  ) );
+        assertFalse( store.update( "1_jsr", 1L ) );
+        assertTrue( store.update( "2_jsr", 2L ) );
+    }
+
+    /**
+     * Finds two UIDs whose keys fall in the same slot of the smallest table
+     * @return the UIDs, or null if none were found
+     */
+    private static String[] findCollidingUids(  )
+    {
+        String[] slots = new String[TABLE_MASK + 1];
+
+        for ( int i = 0; i < ( 100 * slots.length ); i++ )
+        {
+            String strUid = i + "_jsr";
+            int nSlot = (int) FingerprintStore.key( strUid ) & TABLE_MASK;
+
+            if ( slots[nSlot] != null )
+            {
+                return new String[] { slots[nSlot], strUid };
+            }
+
+            slots[nSlot] = strUid;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.portal.service.search.SearchItem;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+
+/**
+ * Tests of the deletion of the orphan documents by {@link OrphanSweeper}, reading the UIDs
+ * of a fake server through {@link SolrServerItemWriter#listUids(String, String, int)}
+ */
+public class OrphanSweeperTest
+{
+    private static final String QUERY = "type:jsr170";
+    private static final String FILTER_PREFIX = SearchItem.FIELD_UID + ":{";
+    private static final String FILTER_SUFFIX = " TO *}";
+    private static final int PAGE_SIZE = 4;
+    private static final int BATCH_SIZE = 3;
+    private IndexServer _server;
+    private OrphanSweeper _sweeper;
+    private IndexerMetrics _metrics;
+
+    /**
+     * Creates the index and the sweeper
+     */
+    @Before
+    public void setUp(  )
+    {
+        _server = new IndexServer(  );
+        _sweeper = new OrphanSweeper( new SolrServerItemWriter( _server ), QUERY, PAGE_SIZE, BATCH_SIZE );
+        _metrics = new IndexerMetrics(  );
+    }
+
+    /**
+     * The orphans are deleted across the page boundaries, the deletions made between two pages
+     * moving no UID before the cursor
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testSweepAcrossPages(  ) throws Exception
+    {
+        UidSet liveUids = new UidSet(  );
+        List<String> listLive = new ArrayList<String>(  );
+
+        for ( int i = 0; i < 22; i++ )
+        {
+            String strUid = i + "_jsr";
+            _server._setUids.add( strUid );
+
+            if ( ( i % 3 ) != 0 )
+            {
+                liveUids.add( strUid );
+                listLive.add( strUid );
+            }
+        }
+
+        assertEquals( 8, _sweeper.sweep( liveUids, _metrics ) );
+        assertEquals( new TreeSet<String>( listLive ), _server._setUids );
+        assertEquals( 8, _metrics.getDocumentsDeleted(  ) );
+
+        // 22 UIDs are read in 6 pages of 4, the first one without cursor
+        assertEquals( 6, _server._listCursors.size(  ) );
+        assertNull( _server._listCursors.get( 0 ) );
+        assertEquals( "12_jsr", _server._listCursors.get( 1 ) );
+        assertEquals( 3, _server._nDeletions );
+    }
+
+    /**
+     * A last page as large as the page size is followed by an empty page
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testFullLastPage(  ) throws Exception
+    {
+        UidSet liveUids = new UidSet(  );
+
+        for ( int i = 0; i < ( 2 * PAGE_SIZE ); i++ )
+        {
+            _server._setUids.add( "a" + i + "_jsr" );
+        }
+
+        liveUids.add( "a0_jsr" );
+
+        assertEquals( ( 2 * PAGE_SIZE ) - 1, _sweeper.sweep( liveUids, _metrics ) );
+        assertEquals( Arrays.asList( null, "a3_jsr", "a7_jsr" ), _server._listCursors );
+        assertEquals( 1, _server._setUids.size(  ) );
+    }
+
+    /**
+     * The cursor is escaped in the filter of the next page
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testEscapedCursor(  ) throws Exception
+    {
+        UidSet liveUids = new UidSet(  );
+
+        for ( String strUid : new String[] { "a b_jsr", "a:c_jsr", "a{d_jsr", "a}e_jsr", "a~f_jsr" } )
+        {
+            _server._setUids.add( strUid );
+            liveUids.add( strUid );
+        }
+
+        assertEquals( 0, _sweeper.sweep( liveUids, _metrics ) );
+        assertEquals( Arrays.asList( null, "a}e_jsr" ), _server._listCursors );
+        assertEquals( 5, _server._setUids.size(  ) );
+    }
+
+    /**
+     * Server holding the UIDs of an index, sorted as the string field of the UIDs
+     */
+    private static class IndexServer extends SolrServer
+    {
+        private static final long serialVersionUID = 1L;
+        private final TreeSet<String> _setUids = new TreeSet<String>(  );
+        private final List<String> _listCursors = new ArrayList<String>(  );
+        private int _nDeletions;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public NamedList<Object> request( SolrRequest request )
+            throws SolrServerException, IOException
+        {
+            NamedList<Object> response = new NamedList<Object>(  );
+
+            if ( request instanceof UpdateRequest )
+            {
+                List<String> listDeleted = ( (UpdateRequest) request ).getDeleteById(  );
+
+                if ( listDeleted != null )
+                {
+                    _setUids.removeAll( listDeleted );
+                    _nDeletions++;
+                }
+
+                return response;
+            }
+
+            SolrParams params = request.getParams(  );
+            String strCursor = getCursor( params.get( "fq" ) );
+            _listCursors.add( strCursor );
+
+            SolrDocumentList listDocuments = new SolrDocumentList(  );
+
+            for ( String strUid : ( strCursor != null ) ? _setUids.tailSet( strCursor, false ) : _setUids )
+            {
+                if ( listDocuments.size(  ) >= params.getInt( "rows" ) )
+                {
+                    break;
+                }
+
+                SolrDocument document = new SolrDocument(  );
+                document.setField( SearchItem.FIELD_UID, strUid );
+                listDocuments.add( document );
+            }
+
+            listDocuments.setNumFound( listDocuments.size(  ) );
+            response.add( "response", listDocuments );
+
+            return response;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void shutdown(  )
+        {
+        }
+
+        /**
+         * Returns the UID after which the page starts
+         * @param strFilter the filter query of the page
+         * @return the unescaped UID, or null for the first page
+         */
+        private static String getCursor( String strFilter )
+        {
+            if ( strFilter == null )
+            {
+                return null;
+            }
+
+            if ( !strFilter.startsWith( FILTER_PREFIX ) || !strFilter.endsWith( FILTER_SUFFIX ) )
+            {
+                throw new IllegalArgumentException( "Unexpected filter " + strFilter );
+            }
+
+            return strFilter.substring( FILTER_PREFIX.length(  ), strFilter.length(  ) - FILTER_SUFFIX.length(  ) )
+                            .replaceAll( "\\\\(.)", "$1" );
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import org.apache.solr.common.SolrException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Tests of the handling of the failed batches by {@link SolrItemBatchWriter}
+ */
+public class SolrItemBatchWriterTest
+{
+    private static final String UID_REJECTED = "7_jsr";
+    private static final int DOCUMENTS_COUNT = 10;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long MAX_DELAY = 100L;
+    private File _fileSpool;
+    private DeadLetterSpool _deadLetterSpool;
+    private IndexerMetrics _metrics;
+
+    /**
+     * Creates the spool
+     * @throws IOException if the spool file can't be created
+     */
+    @Before
+    public void setUp(  ) throws IOException
+    {
+        _fileSpool = File.createTempFile( "dead_letter", ".spool" );
+        _fileSpool.delete(  );
+        _deadLetterSpool = new DeadLetterSpool( _fileSpool );
+        _metrics = new IndexerMetrics(  );
+    }
+
+    /**
+     * Deletes the spool
+     */
+    @After
+    public void tearDown(  )
+    {
+        _fileSpool.delete(  );
+        new File( _fileSpool.getPath(  ) + ".replay" ).delete(  );
+    }
+
+    /**
+     * A document rejected by Solr is isolated and spooled, the other documents are sent
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testRejectedDocumentIsSpooled(  ) throws Exception
+    {
+        RejectingWriter writer = new RejectingWriter(  );
+        AtomicInteger nCallbacks = new AtomicInteger(  );
+        SolrItemBatchWriter batchWriter = createBatchWriter( writer );
+
+        sendDocuments( batchWriter, nCallbacks );
+
+        assertTrue( batchWriter.getErrors(  ).isEmpty(  ) );
+        assertEquals( DOCUMENTS_COUNT - 1, batchWriter.getItemCount(  ) );
+        assertEquals( DOCUMENTS_COUNT - 1, writer._listSentUids.size(  ) );
+        assertFalse( writer._listSentUids.contains( UID_REJECTED ) );
+        assertEquals( 1, nCallbacks.get(  ) );
+        assertEquals( 1, _metrics.getDocumentsSpooled(  ) );
+
+        List<SolrItem> listSpooled = _deadLetterSpool.takeAll(  );
+        assertEquals( 1, listSpooled.size(  ) );
+        assertEquals( UID_REJECTED, listSpooled.get( 0 ).getUid(  ) );
+    }
+
+    /**
+     * The halves of a rejected batch are sent through the throttle, and the rejection is counted once
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testRejectedHalvesAreThrottled(  ) throws Exception
+    {
+        CountingThrottle throttle = new CountingThrottle( _metrics );
+        SolrItemBatchWriter batchWriter = createBatchWriter( new RejectingWriter(  ) );
+        batchWriter.setThrottle( throttle );
+
+        sendDocuments( batchWriter, new AtomicInteger(  ) );
+
+        // the batch, then the halves 0-4 and 5-9, 5-6 and 7-9, 7 and 8-9
+        assertEquals( 7, throttle._nAcquired );
+        assertEquals( 3, throttle._nSucceeded );
+        assertEquals( 0, throttle._nFailed );
+        assertEquals( 1, _metrics.getFailureCount(  ) );
+        assertEquals( 1, _metrics.getDocumentsSpooled(  ) );
+    }
+
+    /**
+     * A batch which can't reach Solr is retried, then fails the indexation without being split nor spooled
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testUnreachableServerFailsTheBatch(  ) throws Exception
+    {
+        UnreachableWriter writer = new UnreachableWriter(  );
+        AtomicInteger nCallbacks = new AtomicInteger(  );
+        SolrItemBatchWriter batchWriter = createBatchWriter( writer );
+
+        sendDocuments( batchWriter, nCallbacks );
+
+        assertEquals( 1, batchWriter.getErrors(  ).size(  ) );
+        assertEquals( 0, batchWriter.getItemCount(  ) );
+        assertEquals( MAX_ATTEMPTS, writer._nAttempts.get(  ) );
+        assertEquals( 0, nCallbacks.get(  ) );
+        assertEquals( 0, _metrics.getDocumentsSpooled(  ) );
+        assertTrue( _deadLetterSpool.takeAll(  ).isEmpty(  ) );
+    }
+
+    /**
+     * A batch which can't reach Solr the first time is sent by a retry
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testTransientFailureIsRetried(  ) throws Exception
+    {
+        UnreachableWriter writer = new UnreachableWriter(  );
+        writer._nFailures = MAX_ATTEMPTS - 1;
+
+        AtomicInteger nCallbacks = new AtomicInteger(  );
+        SolrItemBatchWriter batchWriter = createBatchWriter( writer );
+
+        sendDocuments( batchWriter, nCallbacks );
+
+        assertTrue( batchWriter.getErrors(  ).isEmpty(  ) );
+        assertEquals( DOCUMENTS_COUNT, batchWriter.getItemCount(  ) );
+        assertEquals( MAX_ATTEMPTS, writer._nAttempts.get(  ) );
+        assertEquals( 1, nCallbacks.get(  ) );
+    }
+
+    /**
+     * A batch waiting for items is sent once it reaches the maximum delay, without another item being added
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testStaleBatchIsFlushed(  ) throws Exception
+    {
+        RejectingWriter writer = new RejectingWriter(  );
+        PipelineStage stage = new PipelineStage( "test-submission", 1, 1, _metrics );
+        SolrItemBatchWriter batchWriter = new SolrItemBatchWriter( writer, stage, DOCUMENTS_COUNT, 0, MAX_DELAY,
+                _metrics );
+        final CountDownLatch sent = new CountDownLatch( 1 );
+
+        SolrItem item = new SolrItem(  );
+        item.setUid( "1_jsr" );
+        batchWriter.add( item,
+            new Runnable(  )
+            {
+                public void run(  )
+                {
+                    sent.countDown(  );
+                }
+            } );
+
+        assertTrue( sent.await( 10 * MAX_DELAY, TimeUnit.MILLISECONDS ) );
+        assertEquals( 1, batchWriter.getItemCount(  ) );
+
+        batchWriter.close(  );
+        assertEquals( 1, writer._listSentUids.size(  ) );
+    }
+
+    /**
+     * Creates a batch writer sending all the documents in a single batch
+     * @param writer the writer
+     * @return the batch writer
+     */
+    private SolrItemBatchWriter createBatchWriter( ISolrItemWriter writer )
+    {
+        PipelineStage stage = new PipelineStage( "test-submission", 1, 1, _metrics );
+        SolrItemBatchWriter batchWriter = new SolrItemBatchWriter( writer, stage, DOCUMENTS_COUNT, 0, 0, _metrics );
+        batchWriter.setRetries( MAX_ATTEMPTS, 1, 1 );
+        batchWriter.setDeadLetterSpool( _deadLetterSpool );
+
+        return batchWriter;
+    }
+
+    /**
+     * Sends the documents, the callback being attached to the last one
+     * @param batchWriter the batch writer
+     * @param nCallbacks the counter of the callbacks run
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private static void sendDocuments( SolrItemBatchWriter batchWriter, final AtomicInteger nCallbacks )
+        throws InterruptedException
+    {
+        for ( int i = 0; i < DOCUMENTS_COUNT; i++ )
+        {
+            SolrItem item = new SolrItem(  );
+            item.setUid( i + "_jsr" );
+            item.setContent( "content " + i );
+
+            Runnable onSent = null;
+
+            if ( i == ( DOCUMENTS_COUNT - 1 ) )
+            {
+                onSent = new Runnable(  )
+                        {
+                            public void run(  )
+                            {
+                                nCallbacks.incrementAndGet(  );
+                            }
+                        };
+            }
+
+            batchWriter.add( item, onSent );
+        }
+
+        batchWriter.close(  );
+    }
+
+    /**
+     * Throttle counting the writes, without waiting
+     */
+    private static class CountingThrottle extends SolrWriteThrottle
+    {
+        private int _nAcquired;
+        private int _nSucceeded;
+        private int _nFailed;
+
+        /**
+         * Constructor
+         * @param metrics the metrics
+         */
+        CountingThrottle( IndexerMetrics metrics )
+        {
+            super( 0, 0, 0, metrics );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void acquire( int nDocuments, long lCharacters )
+        {
+            _nAcquired++;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void succeeded( long lNanos )
+        {
+            _nSucceeded++;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void failed(  )
+        {
+            _nFailed++;
+        }
+    }
+
+    /**
+     * Writer rejecting the updates containing a given document, as Solr does when a document doesn't match the schema
+     */
+    private static class RejectingWriter extends UnreachableWriter
+    {
+        private final List<String> _listSentUids = new ArrayList<String>(  );
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write( Collection<SolrItem> items ) throws IOException
+        {
+            for ( SolrItem item : items )
+            {
+                if ( UID_REJECTED.equals( item.getUid(  ) ) )
+                {
+                    throw new SolrRejectionException( "Document rejected",
+                        new SolrException( SolrException.ErrorCode.BAD_REQUEST, "unknown field" ) );
+                }
+            }
+
+            for ( SolrItem item : items )
+            {
+                _listSentUids.add( item.getUid(  ) );
+            }
+        }
+    }
+
+    /**
+     * Writer which can't reach the server for a number of attempts
+     */
+    private static class UnreachableWriter implements ISolrItemWriter
+    {
+        private final AtomicInteger _nAttempts = new AtomicInteger(  );
+        private int _nFailures = Integer.MAX_VALUE;
+
+        /**
+         * {@inheritDoc}
+         */
+        public void write( Collection<SolrItem> items ) throws IOException
+        {
+            if ( _nAttempts.incrementAndGet(  ) <= _nFailures )
+            {
+                throw new IOException( "Connection refused" );
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void delete( List<String> listUids ) throws IOException
+        {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long count( String strQuery ) throws IOException
+        {
+            return 0;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public List<String> listUids( String strQuery, String strAfterUid, int nRows )
+            throws IOException
+        {
+            return new ArrayList<String>(  );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void commit(  ) throws IOException
+        {
+        }
+    }
+}
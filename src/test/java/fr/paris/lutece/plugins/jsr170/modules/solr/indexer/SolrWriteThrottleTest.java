@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Tests of the limits of the update rate by {@link SolrWriteThrottle}
+ */
+public class SolrWriteThrottleTest
+{
+    private static final int MAX_DOCUMENTS = 100;
+    private static final int LATENCY_THRESHOLD = 10;
+    private static final long FAST_UPDATE = TimeUnit.MILLISECONDS.toNanos( 1 );
+    private static final long SLOW_UPDATE = TimeUnit.MILLISECONDS.toNanos( 100 );
+    private static final double DELTA = 1e-9;
+
+    /**
+     * The limit is halved by a failure or a slow update, and raised by a step after a fast update
+     */
+    @Test
+    public void testFactorMoves(  )
+    {
+        IndexerMetrics metrics = new IndexerMetrics(  );
+        SolrWriteThrottle throttle = new SolrWriteThrottle( MAX_DOCUMENTS, 0, LATENCY_THRESHOLD, metrics );
+        assertEquals( 100, metrics.getWriteDocumentsLimit(  ), DELTA );
+
+        throttle.failed(  );
+        assertEquals( 50, metrics.getWriteDocumentsLimit(  ), DELTA );
+
+        throttle.succeeded( SLOW_UPDATE );
+        assertEquals( 25, metrics.getWriteDocumentsLimit(  ), DELTA );
+
+        throttle.succeeded( FAST_UPDATE );
+        assertEquals( 30, metrics.getWriteDocumentsLimit(  ), DELTA );
+        assertEquals( 0, metrics.getWriteCharactersLimit(  ), DELTA );
+    }
+
+    /**
+     * The limit is kept between a hundredth of the configured limit and the configured limit
+     */
+    @Test
+    public void testFactorBounds(  )
+    {
+        IndexerMetrics metrics = new IndexerMetrics(  );
+        SolrWriteThrottle throttle = new SolrWriteThrottle( MAX_DOCUMENTS, 0, LATENCY_THRESHOLD, metrics );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            throttle.failed(  );
+        }
+
+        assertEquals( 1, metrics.getWriteDocumentsLimit(  ), DELTA );
+
+        for ( int i = 0; i < 40; i++ )
+        {
+            throttle.succeeded( FAST_UPDATE );
+        }
+
+        assertEquals( 100, metrics.getWriteDocumentsLimit(  ), DELTA );
+    }
+
+    /**
+     * The updates are spaced out by the time they take at the current rate, in documents
+     * or in characters
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testSlotSpacing(  ) throws Exception
+    {
+        SolrWriteThrottle throttle = new SolrWriteThrottle( MAX_DOCUMENTS, 1000, 0, new IndexerMetrics(  ) );
+
+        // the first update reserves 10 documents at 100 documents per second
+        long lStart = System.nanoTime(  );
+        throttle.acquire( 10, 0 );
+        assertTrue( ( System.nanoTime(  ) - lStart ) < TimeUnit.MILLISECONDS.toNanos( 50 ) );
+
+        // the second one waits for the first slot, and reserves 100 characters at 1000 characters per second
+        throttle.acquire( 1, 100 );
+
+        long lSecondSlot = System.nanoTime(  ) - lStart;
+        assertTrue( lSecondSlot >= TimeUnit.MILLISECONDS.toNanos( 90 ) );
+
+        throttle.acquire( 1, 0 );
+        assertTrue( ( System.nanoTime(  ) - lStart ) >= TimeUnit.MILLISECONDS.toNanos( 190 ) );
+    }
+
+    /**
+     * Without limit, the updates are not throttled and the failures don't set a limit
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testDisabled(  ) throws Exception
+    {
+        IndexerMetrics metrics = new IndexerMetrics(  );
+        SolrWriteThrottle throttle = new SolrWriteThrottle( 0, 0, LATENCY_THRESHOLD, metrics );
+        assertFalse( throttle.isEnabled(  ) );
+
+        long lStart = System.nanoTime(  );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            throttle.acquire( 1000, 1000000 );
+            throttle.failed(  );
+        }
+
+        assertTrue( ( System.nanoTime(  ) - lStart ) < TimeUnit.MILLISECONDS.toNanos( 100 ) );
+        assertEquals( 0, metrics.getWriteDocumentsLimit(  ), DELTA );
+    }
+}
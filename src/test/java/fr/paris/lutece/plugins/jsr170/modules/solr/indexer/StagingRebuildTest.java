@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Tests of {@link StagingRebuild}, with fake servers recording the requests
+ */
+public class StagingRebuildTest
+{
+    private static final String LIVE_CORE = "live";
+    private static final String STAGING_CORE = "staging";
+    private static final String INDEXER_QUERY = "type:jsr170";
+    private final List<String> _listRequests = new ArrayList<String>(  );
+    private RecordingServer _adminServer;
+    private RecordingServer _stagingServer;
+    private StagingRebuild _rebuild;
+
+    /**
+     * Creates the rebuild
+     */
+    @Before
+    public void setUp(  )
+    {
+        _adminServer = new RecordingServer( "admin" );
+        _stagingServer = new RecordingServer( STAGING_CORE );
+        _rebuild = new StagingRebuild( _adminServer, _stagingServer, LIVE_CORE, STAGING_CORE );
+    }
+
+    /**
+     * The staging core is filled with the live index without the documents of the indexer,
+     * then committed and swapped with the live core
+     * @throws IOException if the rebuild fails
+     */
+    @Test
+    public void testRebuild(  ) throws IOException
+    {
+        List<String> listErrors = new ArrayList<String>(  );
+        _rebuild.prepare( INDEXER_QUERY );
+        _rebuild.getStagingWriter(  ).delete( Arrays.asList( "1_jsr" ) );
+        _rebuild.complete( listErrors, false );
+
+        assertTrue( listErrors.isEmpty(  ) );
+        assertEquals( Arrays.asList( "staging delete *:*", "staging commit",
+                "admin MERGEINDEXES core=staging srcCore=live", "staging delete " + INDEXER_QUERY,
+                "staging delete 1_jsr", "staging commit", "admin SWAP core=staging other=live" ), _listRequests );
+    }
+
+    /**
+     * A staging core which can't be filled is left as is, the live core is unchanged
+     */
+    @Test
+    public void testFailedPrepare(  )
+    {
+        _adminServer._strFailingRequest = "admin MERGEINDEXES";
+
+        try
+        {
+            _rebuild.prepare( INDEXER_QUERY );
+            fail( "The merge failure must be reported" );
+        }
+        catch ( IOException e )
+        {
+            assertEquals( Arrays.asList( "staging delete *:*", "staging commit",
+                    "admin MERGEINDEXES core=staging srcCore=live" ), _listRequests );
+        }
+    }
+
+    /**
+     * A rebuild whose indexation failed or was truncated is not swapped, the live core is unchanged
+     * @throws IOException if the staging core can't be prepared
+     */
+    @Test
+    public void testFailedIndexation(  ) throws IOException
+    {
+        _rebuild.prepare( INDEXER_QUERY );
+        _listRequests.clear(  );
+
+        List<String> listErrors = new ArrayList<String>( Arrays.asList( "Connection refused" ) );
+        _rebuild.complete( listErrors, false );
+        assertEquals( 1, listErrors.size(  ) );
+
+        listErrors.clear(  );
+        _rebuild.complete( listErrors, true );
+        assertEquals( 1, listErrors.size(  ) );
+
+        assertTrue( _listRequests.isEmpty(  ) );
+    }
+
+    /**
+     * A staging core which can't be committed is not swapped, the live core is unchanged
+     * @throws IOException if the staging core can't be prepared
+     */
+    @Test
+    public void testFailedSwitchOver(  ) throws IOException
+    {
+        _rebuild.prepare( INDEXER_QUERY );
+        _listRequests.clear(  );
+        _stagingServer._strFailingRequest = "staging commit";
+
+        List<String> listErrors = new ArrayList<String>(  );
+        _rebuild.complete( listErrors, false );
+
+        assertEquals( 1, listErrors.size(  ) );
+        assertEquals( Arrays.asList( "staging commit" ), _listRequests );
+    }
+
+    /**
+     * Server recording the requests it receives
+     */
+    private class RecordingServer extends SolrServer
+    {
+        private static final long serialVersionUID = 1L;
+        private final String _strName;
+        private String _strFailingRequest;
+
+        /**
+         * Constructor
+         * @param strName the name of the server in the recorded requests
+         */
+        RecordingServer( String strName )
+        {
+            _strName = strName;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public NamedList<Object> request( SolrRequest request )
+            throws SolrServerException, IOException
+        {
+            String strRequest = describe( request );
+            _listRequests.add( strRequest );
+
+            if ( ( _strFailingRequest != null ) && strRequest.startsWith( _strFailingRequest ) )
+            {
+                throw new SolrServerException( "Request failed : " + strRequest );
+            }
+
+            return new NamedList<Object>(  );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void shutdown(  )
+        {
+        }
+
+        /**
+         * Describes a request
+         * @param request the request
+         * @return the description
+         */
+        private String describe( SolrRequest request )
+        {
+            StringBuilder sbRequest = new StringBuilder( _strName );
+            SolrParams params = request.getParams(  );
+
+            if ( request instanceof UpdateRequest )
+            {
+                UpdateRequest update = (UpdateRequest) request;
+
+                if ( update.getDeleteQuery(  ) != null )
+                {
+                    sbRequest.append( " delete " ).append( update.getDeleteQuery(  ).get( 0 ) );
+                }
+                else if ( update.getDeleteById(  ) != null )
+                {
+                    sbRequest.append( " delete " ).append( update.getDeleteById(  ).get( 0 ) );
+                }
+                else if ( ( params != null ) && "true".equals( params.get( "commit" ) ) )
+                {
+                    sbRequest.append( " commit" );
+                }
+            }
+            else
+            {
+                sbRequest.append( ' ' ).append( params.get( "action" ) );
+
+                for ( String strParam : new String[] { "core", "other", "srcCore" } )
+                {
+                    if ( params.get( strParam ) != null )
+                    {
+                        sbRequest.append( ' ' ).append( strParam ).append( '=' ).append( params.get( strParam ) );
+                    }
+                }
+            }
+
+            return sbRequest.toString(  );
+        }
+    }
+}
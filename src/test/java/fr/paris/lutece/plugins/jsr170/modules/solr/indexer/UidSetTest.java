@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests of {@link UidSet}
+ */
+public class UidSetTest
+{
+    private static final int UIDS_COUNT = 3000;
+
+    /**
+     * The UIDs added are found once the set is sealed, the duplicates are counted once
+     */
+    @Test
+    public void testSealedSetContains(  )
+    {
+        UidSet uids = new UidSet(  );
+
+        for ( int i = UIDS_COUNT - 1; i >= 0; i-- )
+        {
+            uids.add( i + "_jsr" );
+            uids.add( i + "_jsr" );
+        }
+
+        uids.seal(  );
+        assertEquals( UIDS_COUNT, uids.size(  ) );
+
+        for ( int i = 0; i < UIDS_COUNT; i++ )
+        {
+            assertTrue( uids.contains( i + "_jsr" ) );
+        }
+
+        assertFalse( uids.contains( UIDS_COUNT + "_jsr" ) );
+        assertFalse( uids.contains( "0_doc" ) );
+    }
+
+    /**
+     * A query seals the set, which can't be filled anymore
+     */
+    @Test( expected = IllegalStateException.class )
+    public void testAddAfterQuery(  )
+    {
+        UidSet uids = new UidSet(  );
+        uids.add( "1_jsr" );
+        assertTrue( uids.contains( "1_jsr" ) );
+
+        uids.add( "2_jsr" );
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.indexer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+
+/**
+ * Tests of {@link WorkspaceCheckpoint}
+ */
+public class WorkspaceCheckpointTest
+{
+    private File _file;
+
+    /**
+     * Creates the checkpoint file name
+     * @throws IOException if the file can't be created
+     */
+    @Before
+    public void setUp(  ) throws IOException
+    {
+        _file = File.createTempFile( "checkpoint_", ".dat" );
+        _file.delete(  );
+    }
+
+    /**
+     * Deletes the checkpoint file
+     */
+    @After
+    public void tearDown(  )
+    {
+        _file.delete(  );
+    }
+
+    /**
+     * The documents not crawled again are removed, the modified ones are sent again
+     * @throws IOException if the checkpoint can't be stored
+     */
+    @Test
+    public void testRemovedAndModifiedDocuments(  ) throws IOException
+    {
+        WorkspaceCheckpoint checkpoint = WorkspaceCheckpoint.load( _file );
+        assertTrue( checkpoint.update( "1_jsr", 100L ) );
+        assertTrue( checkpoint.update( "2_jsr", 200L ) );
+        checkpoint.save(  );
+
+        checkpoint = WorkspaceCheckpoint.load( _file );
+        assertEquals( 200L, checkpoint.getPreviousHighWaterMark(  ) );
+        assertFalse( checkpoint.update( "1_jsr", 100L ) );
+        assertTrue( checkpoint.update( "3_jsr", 300L ) );
+        assertEquals( Arrays.asList( "2_jsr" ), checkpoint.getRemovedUids(  ) );
+    }
+
+    /**
+     * The checkpoint of a workspace no longer crawled removes all its documents, then its file
+     * @throws IOException if the checkpoint can't be stored
+     */
+    @Test
+    public void testWorkspaceNoLongerCrawled(  ) throws IOException
+    {
+        WorkspaceCheckpoint checkpoint = WorkspaceCheckpoint.load( _file );
+        checkpoint.update( "1_jsr", 100L );
+        checkpoint.save(  );
+
+        checkpoint = WorkspaceCheckpoint.load( _file );
+        assertEquals( Arrays.asList( "1_jsr" ), checkpoint.getRemovedUids(  ) );
+
+        checkpoint.save(  );
+        assertFalse( _file.exists(  ) );
+    }
+}
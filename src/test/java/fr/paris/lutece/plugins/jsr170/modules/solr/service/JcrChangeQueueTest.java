@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.jsr170.modules.solr.service;
+
+import fr.paris.lutece.plugins.jcr.business.admin.AdminView;
+import fr.paris.lutece.plugins.jcr.business.admin.AdminWorkspace;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.CrawlUnit;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.DocumentCache;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.ISolrItemWriter;
+import fr.paris.lutece.plugins.jsr170.modules.solr.indexer.SolrJcrIndexer;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Tests of {@link JcrChangeQueue}, run without the background thread
+ */
+public class JcrChangeQueueTest
+{
+    private static final String WORKSPACE = "documents";
+    private static final long DEBOUNCE_DELAY = 2000L;
+    private static final long MAX_DELAY = 5000L;
+    private FakeClock _clock;
+    private FakeIndexer _indexer;
+    private RecordingWriter _writer;
+
+    /**
+     * Creates the fakes
+     */
+    @Before
+    public void setUp(  )
+    {
+        _clock = new FakeClock(  );
+        _indexer = new FakeIndexer(  );
+        _writer = new RecordingWriter(  );
+    }
+
+    /**
+     * A document is indexed once, when no event was received for it during the debounce delay
+     */
+    @Test
+    public void testDebounce(  )
+    {
+        JcrChangeQueue queue = createQueue( 100 );
+
+        queue.nodeChanged( WORKSPACE, "/docs/a.pdf", "a" );
+        _clock.advance( 1500L );
+        queue.nodeChanged( WORKSPACE, "/docs/a.pdf", "a" );
+        _clock.advance( 1500L );
+        queue.flush(  );
+
+        assertEquals( 1, queue.size(  ) );
+        assertTrue( _writer._listWrittenUids.isEmpty(  ) );
+
+        _clock.advance( 500L );
+        queue.flush(  );
+
+        assertEquals( 0, queue.size(  ) );
+        assertEquals( Arrays.asList( "a_jsr" ), _writer._listWrittenUids );
+        assertEquals( 1, _indexer._nLoads );
+        assertEquals( 1, _writer._nCommits );
+    }
+
+    /**
+     * A document modified continuously is indexed after the maximum delay
+     */
+    @Test
+    public void testMaxDelay(  )
+    {
+        JcrChangeQueue queue = createQueue( 100 );
+
+        for ( long lTime = 0L; lTime < MAX_DELAY; lTime += 1000L )
+        {
+            queue.nodeChanged( WORKSPACE, "/docs/a.pdf", "a" );
+            queue.flush(  );
+            assertTrue( _writer._listWrittenUids.isEmpty(  ) );
+            _clock.advance( 1000L );
+        }
+
+        queue.nodeChanged( WORKSPACE, "/docs/a.pdf", "a" );
+        queue.flush(  );
+
+        assertEquals( Arrays.asList( "a_jsr" ), _writer._listWrittenUids );
+    }
+
+    /**
+     * The last event of a document wins : a document modified then removed is deleted
+     */
+    @Test
+    public void testRemoval(  )
+    {
+        JcrChangeQueue queue = createQueue( 100 );
+
+        queue.nodeChanged( WORKSPACE, "/docs/a.pdf", "a" );
+        queue.nodeRemoved( WORKSPACE, "/docs/a.pdf", "a" );
+        _clock.advance( DEBOUNCE_DELAY );
+        queue.flush(  );
+
+        assertTrue( _writer._listWrittenUids.isEmpty(  ) );
+        assertEquals( Arrays.asList( "a_jsr" ), _writer._listDeletedUids );
+        assertEquals( 0, _indexer._nLoads );
+    }
+
+    /**
+     * The documents of a subtree published with several roles are sent and deleted for each role
+     */
+    @Test
+    public void testRoles(  )
+    {
+        AdminWorkspace adminWorkspace = new AdminWorkspace(  );
+        adminWorkspace.setId( 1 );
+        adminWorkspace.setName( WORKSPACE );
+
+        AdminView view = new AdminView(  );
+        view.setWorkspaceId( 1 );
+        view.setPath( "/docs" );
+
+        CrawlUnit unit = new CrawlUnit( adminWorkspace, view, "/docs" );
+        unit.getRoles(  ).add( "staff" );
+        unit.getRoles(  ).add( "members" );
+        _indexer._listUnits.add( unit );
+
+        JcrChangeQueue queue = createQueue( 100 );
+        queue.nodeChanged( WORKSPACE, "/docs/a.pdf", "a" );
+        queue.nodeRemoved( WORKSPACE, "/docs/b.pdf", "b" );
+        queue.nodeChanged( WORKSPACE, "/archives/c.pdf", "c" );
+        _clock.advance( DEBOUNCE_DELAY );
+        queue.flush(  );
+
+        assertEquals( Arrays.asList( "a_jsr", "a@staff_jsr", "c_jsr" ), _writer._listWrittenUids );
+        assertEquals( Arrays.asList( "b_jsr", "b@staff_jsr" ), _writer._listDeletedUids );
+    }
+
+    /**
+     * Beyond the maximum size, the directory of the node is crawled again once the queued documents are indexed
+     */
+    @Test
+    public void testOverflowIsRecrawled(  )
+    {
+        JcrChangeQueue queue = createQueue( 2 );
+
+        queue.nodeChanged( WORKSPACE, "/docs/a.pdf", "a" );
+        queue.nodeChanged( WORKSPACE, "/docs/b.pdf", "b" );
+        queue.nodeChanged( WORKSPACE, "/archives/2014/c.pdf", "c" );
+        queue.nodeChanged( WORKSPACE, "/archives/d.pdf", "d" );
+
+        assertEquals( 2, queue.size(  ) );
+
+        queue.flush(  );
+        assertTrue( _indexer._listRecrawls.isEmpty(  ) );
+
+        _clock.advance( DEBOUNCE_DELAY );
+        queue.flush(  );
+
+        assertEquals( Arrays.asList( "a_jsr", "b_jsr" ), _writer._listWrittenUids );
+        assertEquals( 1, _indexer._listRecrawls.size(  ) );
+        assertEquals( Collections.singletonMap( WORKSPACE, Arrays.asList( "/archives" ) ),
+            _indexer._listRecrawls.get( 0 ) );
+
+        queue.flush(  );
+        assertEquals( 1, _indexer._listRecrawls.size(  ) );
+    }
+
+    /**
+     * The directories of the documents of a batch which can't be sent are crawled again
+     */
+    @Test
+    public void testFailedBatchIsRecrawled(  )
+    {
+        JcrChangeQueue queue = createQueue( 100 );
+        _writer._bFailing = true;
+
+        queue.nodeChanged( WORKSPACE, "/docs/a.pdf", "a" );
+        queue.nodeChanged( WORKSPACE, "/docs/b.pdf", "b" );
+        _clock.advance( DEBOUNCE_DELAY );
+        queue.flush(  );
+
+        assertEquals( 0, _writer._nCommits );
+        assertEquals( 1, _indexer._listRecrawls.size(  ) );
+        assertEquals( Collections.singletonMap( WORKSPACE, Arrays.asList( "/docs" ) ),
+            _indexer._listRecrawls.get( 0 ) );
+    }
+
+    /**
+     * Creates a queue
+     * @param nMaxSize the maximum number of documents in the queue
+     * @return the queue
+     */
+    private JcrChangeQueue createQueue( int nMaxSize )
+    {
+        return new JcrChangeQueue( _indexer, _writer, _clock, DEBOUNCE_DELAY, MAX_DELAY, nMaxSize, 100 );
+    }
+
+    /**
+     * Clock moved by the tests
+     */
+    private static class FakeClock implements JcrChangeQueue.IClock
+    {
+        private long _lNow;
+
+        /**
+         * {@inheritDoc}
+         */
+        public long nanoTime(  )
+        {
+            return _lNow;
+        }
+
+        /**
+         * Moves the clock
+         * @param lDelay the delay, in milliseconds
+         */
+        void advance( long lDelay )
+        {
+            _lNow += TimeUnit.MILLISECONDS.toNanos( lDelay );
+        }
+    }
+
+    /**
+     * Indexer returning a document by id and recording the subtrees crawled
+     */
+    private static class FakeIndexer extends SolrJcrIndexer
+    {
+        private final List<Map<String, List<String>>> _listRecrawls = new ArrayList<Map<String, List<String>>>(  );
+        private final List<CrawlUnit> _listUnits = new ArrayList<CrawlUnit>(  );
+        private int _nLoads;
+
+        /**
+         * Constructor
+         */
+        FakeIndexer(  )
+        {
+            super( null, null, new DocumentCache( 10, 0L ) );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<SolrItem> getDocuments( String strIdDocument )
+        {
+            _nLoads++;
+
+            SolrItem item = new SolrItem(  );
+            item.setUid( getResourceUid( strIdDocument, null ) );
+
+            return Collections.singletonList( item );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<CrawlUnit> getPublishedUnits(  )
+        {
+            return _listUnits;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<String> indexSubtrees( Map<String, ? extends Collection<String>> mapSubtrees )
+        {
+            Map<String, List<String>> mapRecrawl = new HashMap<String, List<String>>(  );
+
+            for ( Map.Entry<String, ? extends Collection<String>> entry : mapSubtrees.entrySet(  ) )
+            {
+                mapRecrawl.put( entry.getKey(  ), new ArrayList<String>( new TreeSet<String>( entry.getValue(  ) ) ) );
+            }
+
+            _listRecrawls.add( mapRecrawl );
+
+            return new ArrayList<String>(  );
+        }
+    }
+
+    /**
+     * Writer recording the items sent
+     */
+    private static class RecordingWriter implements ISolrItemWriter
+    {
+        private final List<String> _listWrittenUids = new ArrayList<String>(  );
+        private final List<String> _listDeletedUids = new ArrayList<String>(  );
+        private int _nCommits;
+        private boolean _bFailing;
+
+        /**
+         * {@inheritDoc}
+         */
+        public void write( Collection<SolrItem> items ) throws IOException
+        {
+            if ( _bFailing )
+            {
+                throw new IOException( "Connection refused" );
+            }
+
+            for ( SolrItem item : items )
+            {
+                _listWrittenUids.add( item.getUid(  ) );
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void delete( List<String> listUids ) throws IOException
+        {
+            _listDeletedUids.addAll( listUids );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long count( String strQuery ) throws IOException
+        {
+            return 0;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public List<String> listUids( String strQuery, String strAfterUid, int nRows )
+            throws IOException
+        {
+            return new ArrayList<String>(  );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void commit(  ) throws IOException
+        {
+            _nCommits++;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+<%@ page errorPage="../../../../ErrorPage.jsp" %>
+
+<jsp:useBean id="scopedReindex" scope="session" class="fr.paris.lutece.plugins.jsr170.modules.solr.web.ScopedReindexJspBean" />
+
+<%
+    scopedReindex.init( request, fr.paris.lutece.plugins.jsr170.modules.solr.web.ScopedReindexJspBean.RIGHT_MANAGE_REINDEX );
+    response.sendRedirect( scopedReindex.doStartReindex( request ) );
+%>
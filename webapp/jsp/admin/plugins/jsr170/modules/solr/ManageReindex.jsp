@@ -0,0 +1,9 @@
+<%@ page errorPage="../../../../ErrorPage.jsp" %>
+<jsp:include page="../../../../AdminHeader.jsp" />
+
+<jsp:useBean id="scopedReindex" scope="session" class="fr.paris.lutece.plugins.jsr170.modules.solr.web.ScopedReindexJspBean" />
+
+<% scopedReindex.init( request, fr.paris.lutece.plugins.jsr170.modules.solr.web.ScopedReindexJspBean.RIGHT_MANAGE_REINDEX ); %>
+<%= scopedReindex.getManageReindex( request ) %>
+
+<%@ include file="../../../../AdminFooter.jsp" %>